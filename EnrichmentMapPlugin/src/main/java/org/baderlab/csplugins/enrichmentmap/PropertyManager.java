@@ -8,6 +8,7 @@ import java.util.Properties;
 import java.util.function.Function;
 
 import org.baderlab.csplugins.enrichmentmap.actions.OpenPathwayCommonsTask;
+import org.baderlab.csplugins.enrichmentmap.model.ExpressionTransformCache;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
 import org.cytoscape.property.CyProperty;
 
@@ -38,6 +39,7 @@ public class PropertyManager {
 	public static final Property<Boolean> CREATE_WARN = new Property<>("create.warn", true, Boolean::valueOf);
 	public static final Property<Distance> DISTANCE_METRIC = new Property<>("default.distanceMetric", Distance.PEARSON, Distance::valueOf);
 	public static final Property<String> PATHWAY_COMMONS_URL = new Property<>("pathway.commons.url", OpenPathwayCommonsTask.DEFAULT_BASE_URL, String::valueOf);
+	public static final Property<Integer> EXPRESSION_CACHE_MB = new Property<>("expressionCache.memoryMB", ExpressionTransformCache.DEFAULT_MEMORY_BUDGET_MB, Integer::valueOf);
 	
 	@Inject private CyProperty<Properties> cyProps;
 	
@@ -46,6 +48,9 @@ public class PropertyManager {
 		getAllProperties().stream()
 		.filter(prop -> !cyProps.getProperties().containsKey(prop.key))
 		.forEach(this::setDefault);
+		
+		int cacheMB = Math.max(0, getValue(EXPRESSION_CACHE_MB));
+		ExpressionTransformCache.getInstance().setMemoryBudget(cacheMB * 1024L * 1024L);
 	}
 	
 	
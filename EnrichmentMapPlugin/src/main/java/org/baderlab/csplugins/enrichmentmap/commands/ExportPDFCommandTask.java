@@ -104,9 +104,9 @@ public class ExportPDFCommandTask extends AbstractTask {
 		
 		List<String> genes;
 		if("union".equals(operator.getSelectedValue())) {
-			genes = new ArrayList<>(HeatMapMediator.unionGenesets(network, nodes, edges, prefix));
+			genes = new ArrayList<>(HeatMapMediator.unionGenesets(map, network, nodes, edges, prefix));
 		} else {
-			genes = new ArrayList<>(HeatMapMediator.intersectionGenesets(network, nodes, edges, prefix));
+			genes = new ArrayList<>(HeatMapMediator.intersectionGenesets(map, network, nodes, edges, prefix));
 		}
 		genes.sort(Comparator.naturalOrder());
 		
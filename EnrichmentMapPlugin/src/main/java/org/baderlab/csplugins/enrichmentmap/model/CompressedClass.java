@@ -43,45 +43,13 @@ public class CompressedClass implements ExpressionData {
 	
 	@Override
 	public double getValue(int geneID, int idx, Compress compress) {
+		if (compress == null || !compress.isClass())
+			return Double.NaN;
+		
 		EMDataSet dataset = getDataSet(idx);
 		String pheno = getName(idx);
-
-		String[] phenotypes = dataset.getEnrichments().getPhenotypes();
-
-		if (phenotypes == null || phenotypes.length == 0)
-			return Double.NaN;
-
-		Optional<float[]> optExpr = expressionCache.getExpressions(dataset, geneID);
-
-		if (!optExpr.isPresent())
-			return Double.NaN;
-
-		float[] expressions = optExpr.get();
-
-		if (expressions.length == 0 || expressions.length != phenotypes.length)
-			return Double.NaN;
-
-		int size = 0;
-
-		for (int i = 0; i < expressions.length; i++) {
-			if (pheno.equals(phenotypes[i]))
-				size++;
-		}
-
-		float[] vals = new float[size];
-		int vi = 0;
-
-		for (int i = 0; i < expressions.length; i++) {
-			if (pheno.equals(phenotypes[i]))
-				vals[vi++] = expressions[i];
-		}
 		
-		switch (compress) {
-			case CLASS_MEDIAN: return GeneExpression.median(vals);
-			case CLASS_MAX:    return GeneExpression.max(vals);
-			case CLASS_MIN:    return GeneExpression.min(vals);
-			default:	           return Double.NaN;
-		}
+		return expressionCache.getClassExpression(dataset, geneID, pheno, compress);
 	}
 
 	@Override
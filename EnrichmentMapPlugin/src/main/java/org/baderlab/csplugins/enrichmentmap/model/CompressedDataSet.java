@@ -1,7 +1,6 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
 import java.util.List;
-import java.util.Optional;
 
 public class CompressedDataSet implements ExpressionData {
 	
@@ -22,18 +21,11 @@ public class CompressedDataSet implements ExpressionData {
 	
 	@Override
 	public double getValue(int geneID, int idx, Compress compress) {
-		EMDataSet dataset = getDataSet(idx);
-		Optional<float[]> expression = expressionCache.getExpressions(dataset, geneID);
-		
-		if (compress == null || !expression.isPresent())
+		if (compress == null || !compress.isDataSet())
 			return Float.NaN;
 		
-		switch (compress) {
-			case DATASET_MEDIAN:	return GeneExpression.median(expression.get());
-			case DATASET_MAX:	return GeneExpression.max(expression.get());
-			case DATASET_MIN:	return GeneExpression.min(expression.get());
-			default:				return Float.NaN;
-		}
+		EMDataSet dataset = getDataSet(idx);
+		return expressionCache.getDataSetExpression(dataset, geneID, compress);
 	}
 
 	@Override
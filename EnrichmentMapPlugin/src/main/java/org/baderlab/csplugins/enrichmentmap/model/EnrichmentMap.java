@@ -18,14 +18,12 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
 import org.baderlab.csplugins.enrichmentmap.util.NetworkUtil;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.service.util.CyServiceRegistrar;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
 /***
  * An Enrichment Map object contains the minimal information needed to build an enrichment map.
  */
@@ -51,19 +49,26 @@ public class EnrichmentMap {
 	private final Map<String, GeneExpressionMatrix> expressions = new HashMap<>();
 	private final Map<String, SetOfGeneSets> geneSets = new HashMap<>();
 	
-	/** The set of genes defined in the Enrichment map. */
-	private final BiMap<Integer, String> genes = HashBiMap.create();
+	/** The set of genes defined in the Enrichment map. Data sets are loaded concurrently, the dictionary is thread safe. */
+	private final GeneDictionary genes = new GeneDictionary();
+	/** Only set by the JSON deserializer for sessions that stored the number of genes, see restoreNumberOfGenes(). */
+	private Integer NumberOfGenes = null;
 
 	/** Post analysis signature genesets associated with this map.*/
 	private final Map<String, EMSignatureDataSet> signatureDataSets = new HashMap<>();
 	
-	private int NumberOfGenes = 0;
 	private boolean isLegacy = false;
 	private boolean isDistinctExpressionSets = false;
 	private boolean isCommonExpressionValues = false;
 
 	private final Object lock = new Object();
 	
+	/** Inverted indexes over the gene sets of interest, built on demand and not saved in the session. */
+	private transient Map<String, GeneSetIndex> geneSetIndexes;
+	private transient GeneSetIndex unionedGeneSetIndex;
+	/** Gene IDs of the nodes of the network, built on demand and not saved in the session. */
+	private transient NodeGeneIndex nodeGeneIndex;
+	
 	/**
 	 * Used by the JSON deserializer only. Don't remove this constructor!
 	 */
@@ -93,35 +98,57 @@ public class EnrichmentMap {
 	}
 	
 	public void putExpressionMatrix(String key, GeneExpressionMatrix matrix) {
-		expressions.put(key, matrix);
+		synchronized (lock) {
+			expressions.put(key, matrix);
+		}
 	}
 	
 	public GeneExpressionMatrix getExpressionMatrix(String key) {
-		return expressions.get(key);
+		synchronized (lock) {
+			return expressions.get(key);
+		}
 	}
 	
 	public GeneExpressionMatrix removeExpressionMatrix(String key) {
-		return expressions.remove(key);
+		synchronized (lock) {
+			return expressions.remove(key);
+		}
 	}
 	
+	/**
+	 * Returns a copy of the keys, the expression files are loaded concurrently.
+	 */
 	public Collection<String> getExpressionMatrixKeys() {
-		return Collections.unmodifiableCollection(expressions.keySet());
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<>(expressions.keySet()));
+		}
 	}
 	
 	public void putGeneSets(String key, SetOfGeneSets matrix) {
-		geneSets.put(key, matrix);
+		synchronized (lock) {
+			geneSets.put(key, matrix);
+		}
 	}
 	
 	public SetOfGeneSets getGeneSets(String key) {
-		return geneSets.get(key);
+		synchronized (lock) {
+			return geneSets.get(key);
+		}
 	}
 	
 	public SetOfGeneSets removeGeneSets(String key) {
-		return geneSets.remove(key);
+		synchronized (lock) {
+			return geneSets.remove(key);
+		}
 	}
 	
+	/**
+	 * Returns a copy of the keys, the gene set files are loaded concurrently.
+	 */
 	public Collection<String> getGeneSetsKeys() {
-		return Collections.unmodifiableCollection(geneSets.keySet());
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<>(geneSets.keySet()));
+		}
 	}
 	
 	public boolean hasClassData() {
@@ -160,17 +187,25 @@ public class EnrichmentMap {
 		this.serviceRegistrar = registrar;
 	}
 
+	/**
+	 * Returns the gene dictionary, the parsers use it to look up genes without boxing the IDs.
+	 */
+	public GeneDictionary getGeneDictionary() {
+		return genes;
+	}
+
 	public boolean containsGene(String gene) {
-		return genes.containsValue(gene);
+		return genes.contains(gene);
 	}
 
 	public String getGeneFromHashKey(Integer hash) {
-		return genes.get(hash);
+		return hash == null ? null : genes.getName(hash);
 	}
 	
 	public Integer getHashFromGene(String gene) {
 		// MKTODO should I toUpperCase?
-		return genes.inverse().get(gene);
+		int id = genes.getId(gene);
+		return id == GeneDictionary.NO_ID ? null : id;
 	}
 	
 	/**
@@ -178,39 +213,39 @@ public class EnrichmentMap {
 	 * want because you probably want a set of genes that has been filtered somehow.
 	 */
 	public Set<String> getAllGenes() {
-		return Collections.unmodifiableSet(genes.values());
+		return genes.getAllNames();
 	}
 	
 	public Integer addGene(String gene) {
 		if(gene == null || gene.isEmpty())
 			return null;
 		
-		gene = gene.toUpperCase();
-		
-		Map<String,Integer> geneToHash = genes.inverse();
-		
-		Integer hash = geneToHash.get(gene);
-		if(hash != null)
-			return hash;
-
-		Integer newHash = ++NumberOfGenes;
-		genes.put(newHash, gene);
-		return newHash;
+		return genes.add(gene.toUpperCase());
 	}
 	
 	@Deprecated // this is here to support legacy session loading
 	public void addGene(String gene, int id) {
-		genes.put(id, gene);
-		if(id > NumberOfGenes)
-			NumberOfGenes = id;
+		genes.put(gene, id);
 	}
 	
 	public int getNumberOfGenes() {
-		return NumberOfGenes;
+		return genes.getLastId();
 	}
 
 	public void setNumberOfGenes(int numberOfGenes) {
-		NumberOfGenes = numberOfGenes;
+		genes.setLastId(numberOfGenes);
+	}
+
+	/**
+	 * Older sessions stored the number of genes, it is the universe of the post analysis and can be
+	 * larger than the largest gene ID. Called by the JSON deserializer, the field is not saved again.
+	 */
+	public void restoreNumberOfGenes() {
+		if(NumberOfGenes != null) {
+			if(NumberOfGenes > genes.getLastId())
+				genes.setLastId(NumberOfGenes);
+			NumberOfGenes = null;
+		}
 	}
 
 	/**
@@ -322,6 +357,62 @@ public class EnrichmentMap {
 		return names;
 	}
 	
+	/**
+	 * Returns an inverted index over the gene sets of interest of the given data set.
+	 * The index is built the first time it is requested and then reused, call
+	 * clearGeneSetIndexes() after changing the gene sets of interest.
+	 */
+	public GeneSetIndex getGeneSetIndex(EMDataSet dataset) {
+		synchronized (lock) {
+			if (geneSetIndexes == null)
+				geneSetIndexes = new HashMap<>();
+			
+			return geneSetIndexes.computeIfAbsent(dataset.getName(), k -> {
+				Map<String, int[]> sortedGeneSets = new HashMap<>();
+				dataset.getGeneSetsOfInterest().getGeneSets().forEach((name, gs) -> {
+					sortedGeneSets.put(name, gs.getSortedGeneIds());
+				});
+				return GeneSetIndex.create(sortedGeneSets);
+			});
+		}
+	}
+	
+	/**
+	 * Returns an inverted index over the gene sets of interest of all the data sets, 
+	 * gene sets with the same name are unioned, see unionAllGeneSetsOfInterest().
+	 */
+	public GeneSetIndex getUnionedGeneSetIndex() {
+		synchronized (lock) {
+			if (unionedGeneSetIndex == null) {
+				Map<String, int[]> sortedGeneSets = new HashMap<>();
+				unionAllGeneSetsOfInterest().forEach((name, genes) -> {
+					sortedGeneSets.put(name, IntSetUtil.toSortedArray(genes));
+				});
+				unionedGeneSetIndex = GeneSetIndex.create(sortedGeneSets);
+			}
+			return unionedGeneSetIndex;
+		}
+	}
+	
+	public void clearGeneSetIndexes() {
+		synchronized (lock) {
+			geneSetIndexes = null;
+			unionedGeneSetIndex = null;
+		}
+	}
+	
+	/**
+	 * Returns an index over the genes of the nodes of the network, used to union and intersect
+	 * the genes of the selected nodes. Call NodeGeneIndex.invalidate() when the genes column changes.
+	 */
+	public NodeGeneIndex getNodeGeneIndex() {
+		synchronized (lock) {
+			if (nodeGeneIndex == null)
+				nodeGeneIndex = new NodeGeneIndex(this);
+			return nodeGeneIndex;
+		}
+	}
+	
 	public String findGeneSetDescription(String genesetName) {
 		for(EMDataSet ds : dataSets.values()) {
 			GeneSet gs = ds.getGeneSetsOfInterest().getGeneSets().get(genesetName);
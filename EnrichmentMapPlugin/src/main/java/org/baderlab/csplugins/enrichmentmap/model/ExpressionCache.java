@@ -1,61 +1,78 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
 
-import javax.annotation.Nullable;
-
-import org.apache.commons.lang3.tuple.Pair;
-
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.baderlab.csplugins.enrichmentmap.model.ExpressionTransformCache.CompressedExpressions;
+import org.baderlab.csplugins.enrichmentmap.model.ExpressionTransformCache.TransformedExpressions;
 
+/**
+ * Reads the expression values of genes with a Transform applied. The transformed and compressed values come from
+ * the shared ExpressionTransformCache, so they are only computed once per expression matrix.
+ */
 public class ExpressionCache {
-	
-	private final Cache<Pair<Integer, EMDataSet>, Optional<float[]>> cache;
+
+	private final ExpressionTransformCache transformCache;
 	private final Transform transform;
 
 	public ExpressionCache(Transform transform) {
+		this(transform, ExpressionTransformCache.getInstance());
+	}
+
+	public ExpressionCache(Transform transform, ExpressionTransformCache transformCache) {
 		this.transform = transform;
-		this.cache = CacheBuilder.newBuilder().maximumSize(20).build();
+		this.transformCache = transformCache;
 	}
 
 	public Optional<float[]> getExpressions(EMDataSet dataset, int geneID) {
-		try {
-			return cache.get(Pair.of(geneID, dataset), 
-				() -> Optional.ofNullable(getExpression(dataset, geneID, transform))
-			);
-		} catch (ExecutionException e) {
+		GeneExpressionMatrix matrix = dataset.getExpressionSets();
+		int row = matrix.getRowIndex(geneID);
+		if(row < 0)
 			return Optional.empty();
-		}
+
+		return Optional.of(transformCache.get(matrix, transform).getExpression(row));
 	}
-	
+
 	public float getExpression(EMDataSet dataset, int geneID, int expressionIndex) {
-		Optional<float[]> vals = getExpressions(dataset, geneID);
-		
-		return vals.isPresent() ? vals.get()[expressionIndex] : Float.NaN;
+		GeneExpressionMatrix matrix = dataset.getExpressionSets();
+		int row = matrix.getRowIndex(geneID);
+		if(row < 0)
+			return Float.NaN;
+
+		TransformedExpressions values = transformCache.get(matrix, transform);
+		return expressionIndex < values.getRowLength(row) ? values.getValue(row, expressionIndex) : Float.NaN;
+	}
+
+	/**
+	 * Returns the median, min or max of all the expression values of the gene.
+	 */
+	public float getDataSetExpression(EMDataSet dataset, int geneID, Compress compress) {
+		GeneExpressionMatrix matrix = dataset.getExpressionSets();
+		int row = matrix.getRowIndex(geneID);
+		if(row < 0)
+			return Float.NaN;
+
+		return transformCache.getCompressed(matrix, transform, null).getValue(row, 0, compress);
 	}
 
-	public static GeneExpression getGeneExpression(EMDataSet dataset, int geneID) {
+	/**
+	 * Returns the median, min or max of the expression values of the gene for the columns of the given phenotype
+	 * in the data set's class file.
+	 */
+	public float getClassExpression(EMDataSet dataset, int geneID, String phenotype, Compress compress) {
+		String[] phenotypes = dataset.getEnrichments().getPhenotypes();
+		if(phenotypes == null || phenotypes.length == 0)
+			return Float.NaN;
+
 		GeneExpressionMatrix matrix = dataset.getExpressionSets();
-		Map<Integer, GeneExpression> expressions = matrix.getExpressionMatrix();
-		GeneExpression row = expressions.get(geneID);
-		
-		return row;
+		int row = matrix.getRowIndex(geneID);
+		if(row < 0)
+			return Float.NaN;
+
+		CompressedExpressions values = transformCache.getCompressed(matrix, transform, phenotypes);
+		return values.getValue(row, values.getGroup(phenotype), compress);
 	}
-	
-	private static @Nullable float[] getExpression(EMDataSet dataset, int geneID, Transform transform) {
-		GeneExpression expression = getGeneExpression(dataset, geneID);
-		
-		if (expression != null) {
-			switch (transform) {
-				case ROW_NORMALIZE: return expression.rowNormalize();
-				case LOG_TRANSFORM: return expression.rowLogTransform();
-				case AS_IS:         return expression.getExpression();
-			}
-		}
-		
-		return null;
+
+	public Transform getTransform() {
+		return transform;
 	}
 }
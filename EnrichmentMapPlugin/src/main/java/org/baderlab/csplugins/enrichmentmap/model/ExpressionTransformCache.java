@@ -0,0 +1,413 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps the LOG_TRANSFORM and ROW_NORMALIZE values of whole expression matrices, and the values used by
+ * the Compress modes, so they are only computed once instead of every time a heat map cell or chart is rendered.
+ *
+ * The transformed values of a matrix are computed the first time they are asked for, in parallel for large
+ * matrices. A matrix that changes after that is transformed again the next time it is used.
+ * The cache is bounded by the number of bytes used by the transformed values, the least recently used
+ * matrices are dropped first. Matrices are weakly referenced, a matrix that is no longer used by any
+ * EnrichmentMap is dropped when it is garbage collected.
+ */
+public class ExpressionTransformCache {
+
+	public static final int DEFAULT_MEMORY_BUDGET_MB = 256;
+
+	/** Matrices with fewer values than this are transformed on the calling thread */
+	private static final int PARALLEL_THRESHOLD = 50_000;
+
+	private static final ExpressionTransformCache instance = new ExpressionTransformCache(DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024L);
+
+	private volatile Cache<GeneExpressionMatrix,Entry> cache;
+	private long memoryBudget;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	/**
+	 * The cache shared by the heat map and the charts.
+	 */
+	public static ExpressionTransformCache getInstance() {
+		return instance;
+	}
+
+	public ExpressionTransformCache(long memoryBudget) {
+		setMemoryBudget(memoryBudget);
+	}
+
+	/**
+	 * Sets the maximum number of bytes used by the transformed values, the cache is cleared.
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget must not be negative: " + memoryBudget);
+		this.memoryBudget = memoryBudget;
+		this.cache = CacheBuilder.newBuilder()
+			.weakKeys()
+			// Guava splits the budget between segments, one segment so that a large matrix gets all of it
+			.concurrencyLevel(1)
+			.maximumWeight(memoryBudget)
+			.weigher((GeneExpressionMatrix matrix, Entry entry) -> entry.getWeight())
+			.build();
+	}
+
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+
+	/**
+	 * Returns the transformed values of the matrix. AS_IS values are not cached, they are read from the matrix.
+	 */
+	public TransformedExpressions get(GeneExpressionMatrix matrix, Transform transform) {
+		if(transform == Transform.AS_IS)
+			return new TransformedExpressions(matrix);
+		return get(matrix, transform, () -> TransformedExpressions.create(matrix, transform));
+	}
+
+	/**
+	 * Returns the median, min and max of the transformed values of each row. If phenotypes is null each row is
+	 * compressed to one group, otherwise there is a group for each distinct phenotype, phenotypes[i] is the 
+	 * phenotype of column i. The values are kept for the phenotypes array instance, loading a class file
+	 * creates a new array.
+	 */
+	public CompressedExpressions getCompressed(GeneExpressionMatrix matrix, Transform transform, @Nullable String[] phenotypes) {
+		// arrays use identity for equals() and hashCode()
+		return get(matrix, Pair.of(transform, phenotypes), 
+				() -> CompressedExpressions.create(get(matrix, transform), matrix.getNumGenes(), phenotypes));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Weighted> T get(GeneExpressionMatrix matrix, Object key, Supplier<T> factory) {
+		Cache<GeneExpressionMatrix,Entry> cache = this.cache;
+		T value = (T) get(cache, matrix, key);
+		if(value != null) {
+			hitCount.incrementAndGet();
+			return value;
+		}
+
+		// synchronize on the matrix so that it can't change while the values are computed
+		synchronized(matrix) {
+			value = (T) get(cache, matrix, key);
+			if(value != null) {
+				hitCount.incrementAndGet();
+				return value;
+			}
+			missCount.incrementAndGet();
+			value = factory.get();
+
+			Entry entry = cache.getIfPresent(matrix);
+			Map<Object,Weighted> values = new HashMap<>();
+			if(entry != null && entry.version == matrix.getVersion())
+				values.putAll(entry.values);
+			values.put(key, value);
+			// replacing the entry makes the cache weigh it again
+			cache.put(matrix, new Entry(matrix.getVersion(), values));
+			return value;
+		}
+	}
+
+	private static Weighted get(Cache<GeneExpressionMatrix,Entry> cache, GeneExpressionMatrix matrix, Object key) {
+		Entry entry = cache.getIfPresent(matrix);
+		if(entry == null || entry.version != matrix.getVersion())
+			return null;
+		return entry.values.get(key);
+	}
+
+
+	/**
+	 * The number of times transformed or compressed values were found in the cache.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * The number of times transformed or compressed values had to be computed.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The approximate number of bytes used by the cached values.
+	 */
+	public long getWeight() {
+		return cache.asMap().values().stream().mapToLong(Entry::getWeight).sum();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ExpressionTransformCache[hits=%d, misses=%d, bytes=%d, budget=%d]",
+				getHitCount(), getMissCount(), getWeight(), getMemoryBudget());
+	}
+
+
+	private interface Weighted {
+		/** Approximate size in bytes */
+		long getWeight();
+	}
+
+	private static class Entry {
+		final int version;
+		final Map<Object,Weighted> values;
+
+		Entry(int version, Map<Object,Weighted> values) {
+			this.version = version;
+			this.values = values;
+		}
+
+		int getWeight() {
+			long weight = 0;
+			for(Weighted value : values.values()) {
+				weight += value.getWeight();
+			}
+			return (int) Math.min(weight, Integer.MAX_VALUE);
+		}
+	}
+
+
+	/**
+	 * The values of every row of a GeneExpressionMatrix with a Transform applied, rows have the same
+	 * indexes as in the matrix. For LOG_TRANSFORM and ROW_NORMALIZE the values are stored in one array,
+	 * these objects do not reference the matrix so they can be cached with weak keys.
+	 */
+	public static class TransformedExpressions implements Weighted {
+
+		private final GeneExpressionMatrix matrix; // only for AS_IS
+		private final int[] rowOffsets; // rowCount + 1 elements
+		private final float[] values;
+
+		private TransformedExpressions(GeneExpressionMatrix matrix) {
+			this.matrix = matrix;
+			this.rowOffsets = null;
+			this.values = null;
+		}
+
+		private TransformedExpressions(int[] rowOffsets, float[] values) {
+			this.matrix = null;
+			this.rowOffsets = rowOffsets;
+			this.values = values;
+		}
+
+		static TransformedExpressions create(GeneExpressionMatrix matrix, Transform transform) {
+			int rowCount = matrix.getNumGenes();
+			int[] rowOffsets = new int[rowCount + 1];
+			for(int row = 0; row < rowCount; row++) {
+				rowOffsets[row + 1] = rowOffsets[row] + matrix.getRowLength(row);
+			}
+
+			float[] values = new float[rowOffsets[rowCount]];
+			if(transform == Transform.ROW_NORMALIZE) {
+				// the worker threads would block trying to compute the row stats while the caller holds the lock on the matrix
+				matrix.computeRowStats();
+			}
+			IntStream rows = IntStream.range(0, rowCount);
+			if(values.length >= PARALLEL_THRESHOLD)
+				rows = rows.parallel();
+			rows.forEach(row -> {
+				int offset = rowOffsets[row];
+				int length = rowOffsets[row + 1] - offset;
+				for(int col = 0; col < length; col++) {
+					values[offset + col] = matrix.getValue(row, col, transform);
+				}
+			});
+			return new TransformedExpressions(rowOffsets, values);
+		}
+
+		public int getRowLength(int row) {
+			return matrix != null ? matrix.getRowLength(row) : rowOffsets[row + 1] - rowOffsets[row];
+		}
+
+		public float getValue(int row, int col) {
+			return matrix != null ? matrix.getValue(row, col) : values[rowOffsets[row] + col];
+		}
+
+		/**
+		 * Returns a new array with the values of the row.
+		 */
+		public float[] getExpression(int row) {
+			if(matrix != null)
+				return matrix.getExpression(row, Transform.AS_IS);
+			return Arrays.copyOfRange(values, rowOffsets[row], rowOffsets[row + 1]);
+		}
+
+		@Override
+		public long getWeight() {
+			return values == null ? 0 : 16L + 4L * values.length + 16L + 4L * rowOffsets.length;
+		}
+	}
+
+
+	/**
+	 * The median, min and max of groups of columns of each row, either all the columns of the row 
+	 * (Compress.DATASET_*) or the columns of each phenotype (Compress.CLASS_*). Each statistic is 
+	 * stored in one array with a value for each row and group.
+	 */
+	public static class CompressedExpressions implements Weighted {
+
+		private static final int BLOCK_SIZE = 1024;
+
+		private final Map<String,Integer> groups; // null when all the columns are one group
+		private final int groupCount;
+		private final float[] medians;
+		private final float[] mins;
+		private final float[] maxs;
+		/** Rows that don't have a value for each phenotype */
+		private final BitSet invalidRows;
+
+		private CompressedExpressions(Map<String,Integer> groups, int groupCount, float[] medians, float[] mins, float[] maxs, BitSet invalidRows) {
+			this.groups = groups;
+			this.groupCount = groupCount;
+			this.medians = medians;
+			this.mins = mins;
+			this.maxs = maxs;
+			this.invalidRows = invalidRows;
+		}
+
+		static CompressedExpressions create(TransformedExpressions values, int rowCount, @Nullable String[] phenotypes) {
+			Map<String,Integer> groups = null;
+			int[] columnGroups = null;
+			int[] groupStarts;
+			if(phenotypes == null) {
+				groupStarts = null;
+			} else {
+				groups = new LinkedHashMap<>();
+				columnGroups = new int[phenotypes.length];
+				for(int col = 0; col < columnGroups.length; col++) {
+					Integer group = groups.get(phenotypes[col]);
+					if(group == null) {
+						group = groups.size();
+						groups.put(phenotypes[col], group);
+					}
+					columnGroups[col] = group;
+				}
+				// the columns of each group are copied next to each other
+				groupStarts = new int[groups.size() + 1];
+				for(int group : columnGroups) {
+					groupStarts[group + 1]++;
+				}
+				for(int g = 0; g < groups.size(); g++) {
+					groupStarts[g + 1] += groupStarts[g];
+				}
+			}
+
+			int groupCount = groups == null ? 1 : groups.size();
+			float[] medians = new float[rowCount * groupCount];
+			float[] mins = new float[rowCount * groupCount];
+			float[] maxs = new float[rowCount * groupCount];
+			BitSet invalidRows = new BitSet();
+
+			int[] finalColumnGroups = columnGroups;
+			IntStream blocks = IntStream.range(0, (rowCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			if(rowCount * (long) groupCount >= PARALLEL_THRESHOLD / 8)
+				blocks = blocks.parallel();
+			blocks.forEach(block -> {
+				int[] starts = groupStarts == null ? new int[2] : groupStarts;
+				int[] cursors = new int[starts.length];
+				float[] buffer = new float[0];
+				float[] scratch = new float[0];
+
+				for(int row = block * BLOCK_SIZE; row < Math.min(rowCount, (block + 1) * BLOCK_SIZE); row++) {
+					int length = values.getRowLength(row);
+					int index = row * groupCount;
+					if(finalColumnGroups != null && (length == 0 || length != finalColumnGroups.length)) {
+						// the expression values don't match the class file
+						synchronized(invalidRows) {
+							invalidRows.set(row);
+						}
+						continue;
+					}
+
+					if(buffer.length < length) {
+						buffer = new float[length];
+						scratch = new float[length];
+					}
+					if(finalColumnGroups == null) {
+						starts[1] = length;
+						for(int col = 0; col < length; col++) {
+							buffer[col] = values.getValue(row, col);
+						}
+					} else {
+						System.arraycopy(starts, 0, cursors, 0, starts.length);
+						for(int col = 0; col < length; col++) {
+							buffer[cursors[finalColumnGroups[col]]++] = values.getValue(row, col);
+						}
+					}
+
+					for(int g = 0; g < groupCount; g++) {
+						int from = starts[g];
+						int to = starts[g + 1];
+						medians[index + g] = GeneExpression.median(buffer, from, to, scratch);
+						mins[index + g] = GeneExpression.min(buffer, from, to);
+						maxs[index + g] = GeneExpression.max(buffer, from, to);
+					}
+				}
+			});
+			return new CompressedExpressions(groups, groupCount, medians, mins, maxs, invalidRows);
+		}
+
+		/**
+		 * Returns the index of the group for the phenotype, or -1 if there are no columns for the phenotype.
+		 * When all the columns are one group returns 0.
+		 */
+		public int getGroup(String phenotype) {
+			if(groups == null)
+				return 0;
+			Integer group = groups.get(phenotype);
+			return group == null ? -1 : group;
+		}
+
+		/**
+		 * Returns the median, min or max of the group. If the group is -1 returns 0 like 
+		 * GeneExpression.median() does for an empty array, unless the row does not match the phenotypes.
+		 */
+		public float getValue(int row, int group, Compress compress) {
+			if(invalidRows.get(row))
+				return Float.NaN;
+			if(group < 0)
+				return 0;
+			int index = row * groupCount + group;
+			switch(compress) {
+				case DATASET_MEDIAN:
+				case CLASS_MEDIAN:
+					return medians[index];
+				case DATASET_MIN:
+				case CLASS_MIN:
+					return mins[index];
+				case DATASET_MAX:
+				case CLASS_MAX:
+					return maxs[index];
+				default:
+					return Float.NaN;
+			}
+		}
+
+		@Override
+		public long getWeight() {
+			return 3 * (16L + 4L * medians.length) + invalidRows.size() / 8 + (groups == null ? 0 : 64L * groups.size());
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The gene names of an EnrichmentMap and their IDs. New names get the next ID, so the
+ * IDs are small dense integers that can be used to index arrays.
+ * <p>
+ * The names are stored in an array indexed by ID, and the IDs in an open addressing hash table
+ * of ints. Lookups don't lock, so the data sets can be parsed by several threads. Inserts are
+ * serialized by a lock. A lookup that runs at the same time as the insert of the same name may
+ * not find it, add() looks again while holding the lock so a name never gets two IDs.
+ * <p>
+ * A frozen copy is read-only and can't change while it is being read, see {@link #freeze()}.
+ */
+public class GeneDictionary {
+
+	/** Returned by getId() for names that are not in the dictionary */
+	public static final int NO_ID = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final Object lock = new Object();
+	private final boolean frozen;
+
+	// The arrays are replaced when they grow, the new array is published before it is used.
+	private volatile String[] names; // ID -> name, null if the ID is not used
+	private volatile int[] slots;    // hash table, ID + 1, or 0 if the slot is empty
+	private volatile int size;
+	private volatile int lastId = 0; // the last ID that was handed out
+	private int maxId = NO_ID;       // the largest ID in the dictionary, guarded by lock
+
+
+	public GeneDictionary() {
+		this(MIN_CAPACITY);
+	}
+
+	public GeneDictionary(int expectedSize) {
+		this.frozen = false;
+		this.names = new String[Math.max(MIN_CAPACITY, expectedSize + 1)];
+		this.slots = new int[tableCapacity(expectedSize)];
+	}
+
+	private GeneDictionary(GeneDictionary source) {
+		this.frozen = true;
+		this.lastId = source.lastId;
+		this.maxId = source.maxId;
+		this.size = source.size;
+		this.names = Arrays.copyOf(source.names, Math.max(source.lastId, source.maxId) + 1);
+		this.slots = source.slots.clone();
+	}
+
+	private static int tableCapacity(int size) {
+		// keep the table at most half full so that the probe sequences are short
+		int capacity = MIN_CAPACITY;
+		while(capacity < size * 2)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static int hash(String name, int mask) {
+		int h = name.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+
+	/**
+	 * Returns the ID of the name, or NO_ID if the dictionary doesn't contain the name.
+	 */
+	public int getId(String name) {
+		if(name == null)
+			return NO_ID;
+		// slots before names, a new names array is published before the slots that refer to it
+		int[] slots = this.slots;
+		String[] names = this.names;
+		int mask = slots.length - 1;
+		for(int i = hash(name, mask); ; i = (i + 1) & mask) {
+			int slot = slots[i];
+			if(slot == 0)
+				return NO_ID;
+			int id = slot - 1;
+			if(id < names.length && name.equals(names[id]))
+				return id;
+		}
+	}
+
+	/**
+	 * Looks up all the names, the IDs are NO_ID for the names that are not in the dictionary.
+	 */
+	public int[] getIds(String[] names) {
+		int[] ids = new int[names.length];
+		for(int i = 0; i < names.length; i++) {
+			ids[i] = getId(names[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the name with the given ID, or null if the ID is not used.
+	 */
+	public String getName(int id) {
+		String[] names = this.names;
+		return id >= 0 && id < names.length ? names[id] : null;
+	}
+
+	/**
+	 * Returns an array of all the names indexed by ID, the length is getLastId() + 1
+	 * or more if IDs were added with put().
+	 */
+	public String[] getNames() {
+		synchronized(lock) {
+			return Arrays.copyOf(names, Math.max(lastId, maxId) + 1);
+		}
+	}
+
+	/**
+	 * Returns all the names, the set is not updated when names are added.
+	 */
+	public Set<String> getAllNames() {
+		Set<String> all = new HashSet<>(size * 2);
+		for(String name : getNames()) {
+			if(name != null)
+				all.add(name);
+		}
+		return Collections.unmodifiableSet(all);
+	}
+
+	public boolean contains(String name) {
+		return getId(name) != NO_ID;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The last ID that was handed out by add(), the next name gets getLastId() + 1.
+	 */
+	public int getLastId() {
+		return lastId;
+	}
+
+	/**
+	 * Sets the last ID, used to restore old sessions.
+	 * @throws IllegalArgumentException if the dictionary already contains a larger ID
+	 */
+	public void setLastId(int lastId) {
+		synchronized(lock) {
+			checkNotFrozen();
+			if(lastId < maxId)
+				throw new IllegalArgumentException("ID " + maxId + " is already used, lastId can't be " + lastId);
+			this.lastId = lastId;
+		}
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+
+	/**
+	 * Returns the ID of the name, a name that is not in the dictionary gets the next ID.
+	 * @throws IllegalStateException if the dictionary is frozen and the name is new
+	 */
+	public int add(String name) {
+		int id = getId(name);
+		if(id != NO_ID)
+			return id;
+		if(name == null)
+			throw new NullPointerException();
+
+		synchronized(lock) {
+			checkNotFrozen();
+			id = getId(name);
+			if(id != NO_ID)
+				return id;
+
+			id = lastId + 1;
+			insert(name, id);
+			lastId = id;
+			return id;
+		}
+	}
+
+	/**
+	 * Adds the name with the given ID, used to restore sessions.
+	 * @throws IllegalArgumentException if the name or the ID is already used by another entry
+	 */
+	public void put(String name, int id) {
+		if(name == null)
+			throw new NullPointerException();
+		if(id < 0)
+			throw new IllegalArgumentException("negative ID: " + id);
+
+		synchronized(lock) {
+			checkNotFrozen();
+			int existingId = getId(name);
+			if(existingId == id)
+				return;
+			if(existingId != NO_ID)
+				throw new IllegalArgumentException(name + " already has ID " + existingId);
+			if(getName(id) != null)
+				throw new IllegalArgumentException("ID " + id + " is already used by " + getName(id));
+
+			insert(name, id);
+			if(id > lastId)
+				lastId = id;
+		}
+	}
+
+	private void checkNotFrozen() {
+		if(frozen)
+			throw new IllegalStateException("the gene dictionary is frozen");
+	}
+
+	/**
+	 * Called while holding the lock.
+	 */
+	private void insert(String name, int id) {
+		if(id >= names.length) {
+			names = Arrays.copyOf(names, Math.max(id + 1, names.length * 2));
+		}
+		if((size + 1) * 2 > slots.length) {
+			slots = rehash(slots, slots.length * 2);
+		}
+
+		// the name before the slot, a lookup that sees the slot can compare the name
+		names[id] = name;
+		int[] slots = this.slots;
+		int mask = slots.length - 1;
+		int i = hash(name, mask);
+		while(slots[i] != 0)
+			i = (i + 1) & mask;
+		slots[i] = id + 1;
+
+		maxId = Math.max(maxId, id);
+		size = size + 1;
+	}
+
+	private int[] rehash(int[] oldSlots, int capacity) {
+		String[] names = this.names;
+		int[] newSlots = new int[capacity];
+		int mask = capacity - 1;
+		for(int slot : oldSlots) {
+			if(slot != 0) {
+				int i = hash(names[slot - 1], mask);
+				while(newSlots[i] != 0)
+					i = (i + 1) & mask;
+				newSlots[i] = slot;
+			}
+		}
+		return newSlots;
+	}
+
+
+	/**
+	 * Returns a read-only copy of the dictionary, for example to save a consistent
+	 * snapshot while other threads may add names. add() and put() of the copy throw
+	 * IllegalStateException.
+	 */
+	public GeneDictionary freeze() {
+		if(frozen)
+			return this;
+		synchronized(lock) {
+			return new GeneDictionary(this);
+		}
+	}
+}
@@ -43,8 +43,6 @@
 
 package org.baderlab.csplugins.enrichmentmap.model;
 
-import java.util.Arrays;
-
 import org.apache.commons.math3.util.Precision;
 
 
@@ -97,8 +95,14 @@ public class GeneExpression {
 	
 	private float parseAndRound(String exp) {
 		float f = Float.parseFloat(exp);
-		float r = Precision.round(f, 4);
-		return r;
+		return round(f);
+	}
+	
+	/**
+	 * Expression values are rounded to 4 decimal places when they are parsed.
+	 */
+	public static float round(float value) {
+		return Precision.round(value, 4);
 	}
 
 
@@ -112,20 +116,23 @@ public class GeneExpression {
 	public float[] rowNormalize() {
 		float[] normalize = new float[expression.length];
 
-		float mean = mean();
-		float std  = std(mean);
+		float mean = mean(expression, 0, expression.length);
+		float std  = std(expression, 0, expression.length, mean);
 
-		if(std == 0.0) {
-			for (int i = 0; i < expression.length; i++)
-				normalize[i] = 0.0f;
-		} else {
-			for (int i = 0; i < expression.length; i++)
-				normalize[i] = (expression[i] - mean) / std;
-		}
+		for (int i = 0; i < expression.length; i++)
+			normalize[i] = normalize(expression[i], mean, std);
 
 		return normalize;
 	}
 	
+	static float normalize(float value, float mean, float std) {
+		return std == 0.0 ? 0.0f : (value - mean) / std;
+	}
+	
+	static float logTransform(float value) {
+		return (float) Math.log1p(value);
+	}
+	
 	
 	public static float max(float[] expression) {
 		return reduceExpression(expression, Math::max);
@@ -136,26 +143,96 @@ public class GeneExpression {
 	}
 	
 	public static float median(float[] expression) {
-		if(expression == null || expression.length == 0)
+		if(expression == null)
+			return 0;
+		return median(expression, 0, expression.length, new float[expression.length]);
+	}
+	
+	static float max(float[] values, int from, int to) {
+		return reduceExpression(values, from, to, Math::max);
+	}
+	
+	static float min(float[] values, int from, int to) {
+		return reduceExpression(values, from, to, Math::min);
+	}
+	
+	/**
+	 * The median of the finite values in the range [from, to), the finite values are copied into 
+	 * the scratch array which must be at least to - from long.
+	 */
+	static float median(float[] values, int from, int to, float[] scratch) {
+		if(from == to)
 			return 0;
 		
-		int ci = 0;
-		float[] copy = new float[expression.length];
-		for(float e : expression) {
+		int n = 0;
+		for(int i = from; i < to; i++) {
+			float e = values[i];
 			if(Float.isFinite(e)) {
-				copy[ci++] = e;
+				scratch[n++] = e;
 			}
 		}
-		if(ci == 0)
+		if(n == 0)
 			return Float.NaN;
-		if(ci != expression.length)
-			copy = Arrays.copyOf(copy, ci);
 		
-		Arrays.sort(copy);
-		if(copy.length % 2 == 0)
-		    return (copy[copy.length/2] + copy[copy.length/2 - 1]) / 2;
-		else
-		    return copy[copy.length/2];
+		// same result as sorting the values and taking the middle one(s), but in linear time
+		int k = n / 2;
+		select(scratch, 0, n - 1, k);
+		float upper = scratch[k];
+		if(n % 2 != 0)
+			return upper;
+		
+		// after select() the values before k are all <= scratch[k]
+		float lower = scratch[0];
+		for(int i = 1; i < k; i++) {
+			if(scratch[i] > lower)
+				lower = scratch[i];
+		}
+		return (upper + lower) / 2;
+	}
+	
+	/**
+	 * Quickselect, reorders the values in [lo, hi] so that values[k] is the value that would be
+	 * there if the range was sorted, with smaller or equal values before it and larger or equal values after it.
+	 */
+	private static void select(float[] values, int lo, int hi, int k) {
+		while(hi > lo) {
+			// median of three pivot, avoids quadratic time for rows that are already sorted
+			int mid = (lo + hi) >>> 1;
+			if(values[mid] < values[lo])
+				swap(values, mid, lo);
+			if(values[hi] < values[lo])
+				swap(values, hi, lo);
+			if(values[hi] < values[mid])
+				swap(values, hi, mid);
+			float pivot = values[mid];
+			
+			int i = lo;
+			int j = hi;
+			while(i <= j) {
+				while(values[i] < pivot)
+					i++;
+				while(values[j] > pivot)
+					j--;
+				if(i <= j) {
+					swap(values, i, j);
+					i++;
+					j--;
+				}
+			}
+			
+			if(k <= j)
+				hi = j;
+			else if(k >= i)
+				lo = i;
+			else
+				return; // values between j and i are equal to the pivot
+		}
+	}
+	
+	private static void swap(float[] values, int i, int j) {
+		float tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
 	}
 	
 	public static float closestToZero(float[] expression) {
@@ -171,24 +248,28 @@ public class GeneExpression {
 	}
 	
 	
-	private float mean() {
-		return reduceExpression(expression, (x,y) -> x + y) / expression.length;
+	/**
+	 * The mean of the values in the range [from, to), also used by GeneExpressionMatrix.
+	 */
+	static float mean(float[] values, int from, int to) {
+		return reduceExpression(values, from, to, (x,y) -> x + y) / (to - from);
 	}
 
-	private float std(final float mean) {
+	static float std(float[] values, int from, int to, final float mean) {
 		float sum = 0;
-		for(float exp : expression) {
+		for(int i = from; i < to; i++) {
+			float exp = values[i];
 			if(Float.isFinite(exp)) {
 				sum += (float)Math.pow(Math.abs(exp - mean), 2);
 			}
 		}
-		return (float) Math.sqrt(sum) / expression.length;
+		return (float) Math.sqrt(sum) / (to - from);
 	}
 
 	public float[] rowLogTransform() {
 		float[] logtransformed = new float[expression.length];
 		for (int i = 0; i < expression.length; i++)
-			logtransformed[i] = (float) Math.log1p(expression[i]);
+			logtransformed[i] = logTransform(expression[i]);
 		return logtransformed;
 	}
 
@@ -200,10 +281,16 @@ public class GeneExpression {
 	}
 
 	private static float reduceExpression(float[] expression, FloatFloatFunc op) {
-		if(expression == null || expression.length == 0)
+		if(expression == null)
+			return 0;
+		return reduceExpression(expression, 0, expression.length, op);
+	}
+	
+	private static float reduceExpression(float[] expression, int from, int to, FloatFloatFunc op) {
+		if(from == to)
 			return 0;
-		float x = expression[0];
-		for(int i = 1; i < expression.length; i++) {
+		float x = expression[from];
+		for(int i = from + 1; i < to; i++) {
 			float e = expression[i];
 			if(!Float.isFinite(x))
 				x = e;
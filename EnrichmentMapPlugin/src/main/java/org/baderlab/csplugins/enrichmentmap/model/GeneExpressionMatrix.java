@@ -1,184 +1,465 @@
-/**
- **                       EnrichmentMap Cytoscape Plugin
- **
- ** Copyright (c) 2008-2009 Bader Lab, Donnelly Centre for Cellular and Biomolecular 
- ** Research, University of Toronto
- **
- ** Contact: http://www.baderlab.org
- **
- ** Code written by: Ruth Isserlin
- ** Authors: Daniele Merico, Ruth Isserlin, Oliver Stueker, Gary D. Bader
- **
- ** This library is free software; you can redistribute it and/or modify it
- ** under the terms of the GNU Lesser General Public License as published
- ** by the Free Software Foundation; either version 2.1 of the License, or
- ** (at your option) any later version.
- **
- ** This library is distributed in the hope that it will be useful, but
- ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
- ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
- ** documentation provided hereunder is on an "as is" basis, and
- ** University of Toronto
- ** has no obligations to provide maintenance, support, updates, 
- ** enhancements or modifications.  In no event shall the
- ** University of Toronto
- ** be liable to any party for direct, indirect, special,
- ** incidental or consequential damages, including lost profits, arising
- ** out of the use of this software and its documentation, even if
- ** University of Toronto
- ** has been advised of the possibility of such damage.  
- ** See the GNU Lesser General Public License for more details.
- **
- ** You should have received a copy of the GNU Lesser General Public License
- ** along with this library; if not, write to the Free Software Foundation,
- ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
- **
- **/
-
-// $Id$
-// $LastChangedDate$
-// $LastChangedRevision$
-// $LastChangedBy$
-// $HeadURL$
-
-package org.baderlab.csplugins.enrichmentmap.model;
-
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-
-/**
- * Class representing a set of genes/proteins expresion profile
- */
-public class GeneExpressionMatrix {
-	
-	//name of columns - specified by first or second row in the expression matrix
-	private String[] columnNames;
-	//number of conditions - number of columns
-	private int numConditions;
-	private int expressionUniverse;
-
-	//Store two instances of the expression matrix, one with the raw expression values
-	//and one with the row normalized values.  The row normalizes values are stored as opposed
-	//to being computing on the fly to decrease the time needed to update a heatmap.
-	private Map<Integer, GeneExpression> expressionMatrix = new HashMap<>();
-
-
-	public float getClosestToZero() {
-		float closest = getMinMax(Transform.AS_IS)[1];
-		if(closest <= 0)
-			return 0;
-		for(GeneExpression expression : expressionMatrix.values()) {
-			for(float value : expression.getExpression()) {
-				if(value > 0 && value < closest) {
-					closest = value;
-				}
-			}
-		}
-		return closest;
-	}
-	
-	
-	public float[] getMinMax(Transform transform) {
-		Iterator<GeneExpression> iter = expressionMatrix.values().iterator();
-		if(!iter.hasNext())
-			return null;
-		
-		float[] normValues = getExpressions(iter.next(), transform);
-		float min = GeneExpression.min(normValues);
-		float max = GeneExpression.max(normValues);
-		
-		while(iter.hasNext()) {
-			normValues = getExpressions(iter.next(), transform);
-			float newMin = GeneExpression.min(normValues);
-			float newMax = GeneExpression.max(normValues);
-			
-			if(!Float.isFinite(min))
-				min = newMin;
-			else if(Float.isFinite(newMin)) 
-				min = Math.min(min, newMin);
-			
-			if(!Float.isFinite(max))
-				max = newMax;
-			else if(Float.isFinite(newMax)) 
-				max = Math.max(max, newMax);
-		}
-		
-		return new float[] { min, max };
-	}
-	
-	
-	private static float[] getExpressions(GeneExpression expression, Transform transform) {
-		switch(transform) {
-			default:
-			case AS_IS: return expression.getExpression();
-			case LOG_TRANSFORM: return expression.rowLogTransform();
-			case ROW_NORMALIZE: return expression.rowNormalize();
-		}
-	}
-
-	//Getters and Setters
-
-	public String[] getColumnNames() {
-		return columnNames;
-	}
-
-	public void setColumnNames(String[] columnNames) {
-		if(columnNames.length == 2) {
-			String[] new_names = new String[3];
-			new_names[0] = columnNames[0];
-			new_names[1] = "Description";
-			new_names[2] = columnNames[1];
-			this.columnNames = new_names;
-		} else
-			this.columnNames = columnNames;
-	}
-
-	public void setExpressionUniverse(int size) {
-		this.expressionUniverse = size;
-	}
-
-	public int getExpressionUniverse() {
-		return expressionUniverse;
-	}
-
-	public int getNumConditions() {
-		return numConditions;
-	}
-
-	public void setNumConditions(int numConditions) {
-		this.numConditions = numConditions;
-	}
-
-	public int getNumGenes() {
-		return expressionMatrix.size();
-	}
-
-	public Map<Integer, GeneExpression> getExpressionMatrix() {
-		return expressionMatrix;
-	}
-
-	public void setExpressionMatrix(Map<Integer, GeneExpression> expressionMatrix) {
-		this.expressionMatrix = expressionMatrix;
-	}
-
-	/**
-	 * Restores parameters saved in the session file. Note, most of this object
-	 * is restored by the ExpressionFileReaderTask.
-	 */
-	public void restoreProps(String ds, Map<String, String> props) {
-		String simpleName = this.getClass().getSimpleName();
-		String val = props.get(ds + "%" + simpleName + "%expressionUniverse");
-		if(val != null) {
-			try {
-				expressionUniverse = Integer.parseInt(val);
-			} catch(NumberFormatException e) {
-			}
-		}
-	}
-
-	public Set<Integer> getGeneIds() {
-		return expressionMatrix.keySet();
-	}
-}
+/**
+ **                       EnrichmentMap Cytoscape Plugin
+ **
+ ** Copyright (c) 2008-2009 Bader Lab, Donnelly Centre for Cellular and Biomolecular 
+ ** Research, University of Toronto
+ **
+ ** Contact: http://www.baderlab.org
+ **
+ ** Code written by: Ruth Isserlin
+ ** Authors: Daniele Merico, Ruth Isserlin, Oliver Stueker, Gary D. Bader
+ **
+ ** This library is free software; you can redistribute it and/or modify it
+ ** under the terms of the GNU Lesser General Public License as published
+ ** by the Free Software Foundation; either version 2.1 of the License, or
+ ** (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful, but
+ ** WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ ** MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ ** documentation provided hereunder is on an "as is" basis, and
+ ** University of Toronto
+ ** has no obligations to provide maintenance, support, updates, 
+ ** enhancements or modifications.  In no event shall the
+ ** University of Toronto
+ ** be liable to any party for direct, indirect, special,
+ ** incidental or consequential damages, including lost profits, arising
+ ** out of the use of this software and its documentation, even if
+ ** University of Toronto
+ ** has been advised of the possibility of such damage.  
+ ** See the GNU Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public License
+ ** along with this library; if not, write to the Free Software Foundation,
+ ** Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ **
+ **/
+
+// $Id$
+// $LastChangedDate$
+// $LastChangedRevision$
+// $LastChangedBy$
+// $HeadURL$
+
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class representing a set of genes/proteins expresion profile
+ * 
+ * The expression values of all the genes are stored in one float array, row r has the values
+ * values[rowOffsets[r]] to values[rowOffsets[r] + rowLengths[r] - 1]. Rows are found by gene ID
+ * using a hash table of row indexes. The row methods (getRowIndex(), getValue() etc.) read the values
+ * without creating objects, getGeneExpression() and copyExpressionMatrix() create GeneExpression objects
+ * with a copy of the values.
+ * 
+ * The mean and standard deviation of each row, and the min/max for each Transform, are computed
+ * the first time they are needed and kept until the matrix changes.
+ * 
+ * GSON saves this class in the same format as the old Map of GeneExpression objects, see ModelSerializer.
+ */
+public class GeneExpressionMatrix {
+	
+	private static final int INITIAL_CAPACITY = 16;
+	private static final AtomicInteger VERSIONS = new AtomicInteger();
+	
+	//name of columns - specified by first or second row in the expression matrix
+	private String[] columnNames;
+	//number of conditions - number of columns
+	private int numConditions;
+	private int expressionUniverse;
+
+	private int rowCount = 0;
+	private int[] geneIds = new int[INITIAL_CAPACITY];
+	private String[] names = new String[INITIAL_CAPACITY];
+	private String[] descriptions = new String[INITIAL_CAPACITY];
+	private int[] rowOffsets = new int[INITIAL_CAPACITY];
+	private int[] rowLengths = new int[INITIAL_CAPACITY];
+	private float[] values = new float[INITIAL_CAPACITY];
+	private int valueCount = 0;
+	
+	/** Open addressing hash table of row indexes + 1, keyed by gene ID */
+	private int[] rowIndex = new int[INITIAL_CAPACITY * 2];
+	
+	private transient volatile RowStats rowStats;
+	/** Changes every time the values change, see ExpressionTransformCache */
+	private transient volatile int version = VERSIONS.incrementAndGet();
+	private transient final float[][] minMax = new float[Transform.values().length][];
+	
+	
+	private static class RowStats {
+		final float[] means;
+		final float[] stds;
+		
+		RowStats(float[] means, float[] stds) {
+			this.means = means;
+			this.stds = stds;
+		}
+	}
+	
+	
+	/**
+	 * Adds the expression values for a gene, replacing the existing row if there already is one for the gene.
+	 * The values are copied.
+	 */
+	public synchronized void setRow(int geneId, String name, String description, float[] expression, int offset, int length) {
+		int row = getRowIndex(geneId);
+		if(row < 0) {
+			row = rowCount++;
+			ensureRowCapacity(rowCount);
+			geneIds[row] = geneId;
+			addToIndex(row);
+		}
+		names[row] = name;
+		descriptions[row] = description;
+		
+		if(rowLengths[row] != length || length == 0) {
+			// rows that change length are moved to the end, the old values are left unused
+			ensureValueCapacity(valueCount + length);
+			rowOffsets[row] = valueCount;
+			rowLengths[row] = length;
+			valueCount += length;
+		}
+		System.arraycopy(expression, offset, values, rowOffsets[row], length);
+		changed();
+	}
+	
+	private void changed() {
+		version = VERSIONS.incrementAndGet();
+		rowStats = null;
+		Arrays.fill(minMax, null);
+	}
+	
+	private void ensureRowCapacity(int rows) {
+		if(rows > geneIds.length) {
+			int capacity = Math.max(rows, geneIds.length * 2);
+			geneIds = Arrays.copyOf(geneIds, capacity);
+			names = Arrays.copyOf(names, capacity);
+			descriptions = Arrays.copyOf(descriptions, capacity);
+			rowOffsets = Arrays.copyOf(rowOffsets, capacity);
+			rowLengths = Arrays.copyOf(rowLengths, capacity);
+		}
+	}
+	
+	private void ensureValueCapacity(int size) {
+		if(size > values.length) {
+			values = Arrays.copyOf(values, Math.max(size, values.length * 2));
+		}
+	}
+	
+	/**
+	 * Releases the unused capacity, call when all the rows have been added.
+	 */
+	public synchronized void trimToSize() {
+		if(values.length > valueCount) {
+			values = Arrays.copyOf(values, valueCount);
+		}
+	}
+	
+	private static int hash(int geneId) {
+		int h = geneId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private void addToIndex(int row) {
+		if(rowCount * 2 > rowIndex.length) {
+			rowIndex = new int[rowIndex.length * 2];
+			for(int r = 0; r < rowCount; r++) {
+				insert(r);
+			}
+		} else {
+			insert(row);
+		}
+	}
+	
+	private void insert(int row) {
+		int mask = rowIndex.length - 1;
+		int slot = hash(geneIds[row]) & mask;
+		while(rowIndex[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		rowIndex[slot] = row + 1;
+	}
+	
+	
+	/**
+	 * Returns a number that changes every time the values change. Versions are not shared
+	 * between matrices, so they can be used to tell if cached results are still valid.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the row that contains the expression values for the given gene, or -1 if there isn't one.
+	 */
+	public int getRowIndex(int geneId) {
+		int[] table = rowIndex;
+		int mask = table.length - 1;
+		for(int slot = hash(geneId) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int row = table[slot] - 1;
+			if(geneIds[row] == geneId)
+				return row;
+		}
+		return -1;
+	}
+	
+	public int getGeneId(int row) {
+		return geneIds[row];
+	}
+	
+	public String getName(int row) {
+		return names[row];
+	}
+	
+	public String getDescription(int row) {
+		return descriptions[row];
+	}
+	
+	/**
+	 * The number of expression values in the row, normally getNumConditions() - 2.
+	 */
+	public int getRowLength(int row) {
+		return rowLengths[row];
+	}
+	
+	public float getValue(int row, int column) {
+		return values[rowOffsets[row] + column];
+	}
+	
+	public float getValue(int row, int column, Transform transform) {
+		float value = values[rowOffsets[row] + column];
+		switch(transform) {
+			default:
+			case AS_IS: 
+				return value;
+			case LOG_TRANSFORM: 
+				return GeneExpression.logTransform(value);
+			case ROW_NORMALIZE: 
+				RowStats stats = getRowStats();
+				return GeneExpression.normalize(value, stats.means[row], stats.stds[row]);
+		}
+	}
+	
+	/**
+	 * Returns a new array with the transformed values of the row, 
+	 * the same values as GeneExpression.getExpression(), rowNormalize() or rowLogTransform().
+	 */
+	public float[] getExpression(int row, Transform transform) {
+		float[] expression = new float[rowLengths[row]];
+		for(int i = 0; i < expression.length; i++) {
+			expression[i] = getValue(row, i, transform);
+		}
+		return expression;
+	}
+	
+	/**
+	 * Copies the (untransformed) values of the row into the given array.
+	 */
+	public void copyExpression(int row, float[] dest, int destPos) {
+		System.arraycopy(values, rowOffsets[row], dest, destPos, rowLengths[row]);
+	}
+	
+	/**
+	 * Computes the mean and standard deviation of every row now, if they haven't been computed yet.
+	 */
+	void computeRowStats() {
+		getRowStats();
+	}
+	
+	private RowStats getRowStats() {
+		RowStats stats = rowStats;
+		if(stats == null) {
+			synchronized(this) {
+				stats = rowStats;
+				if(stats == null) {
+					float[] means = new float[rowCount];
+					float[] stds = new float[rowCount];
+					for(int r = 0; r < rowCount; r++) {
+						int from = rowOffsets[r];
+						int to = from + rowLengths[r];
+						means[r] = GeneExpression.mean(values, from, to);
+						stds[r] = GeneExpression.std(values, from, to, means[r]);
+					}
+					stats = new RowStats(means, stds);
+					rowStats = stats;
+				}
+			}
+		}
+		return stats;
+	}
+	
+
+	public float getClosestToZero() {
+		float closest = getMinMax(Transform.AS_IS)[1];
+		if(closest <= 0)
+			return 0;
+		for(int i = 0; i < rowCount; i++) {
+			int end = rowOffsets[i] + rowLengths[i];
+			for(int v = rowOffsets[i]; v < end; v++) {
+				float value = values[v];
+				if(value > 0 && value < closest) {
+					closest = value;
+				}
+			}
+		}
+		return closest;
+	}
+	
+	
+	/**
+	 * Returns the min and max of the finite transformed values, an empty row counts as 0. 
+	 * If there are no finite values both are NaN, if there are no rows returns null.
+	 */
+	public synchronized float[] getMinMax(Transform transform) {
+		if(rowCount == 0)
+			return null;
+		
+		float[] result = minMax[transform.ordinal()];
+		if(result == null) {
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			boolean found = false;
+			
+			for(int r = 0; r < rowCount; r++) {
+				if(rowLengths[r] == 0) {
+					min = Math.min(min, 0);
+					max = Math.max(max, 0);
+					found = true;
+				}
+				for(int c = 0; c < rowLengths[r]; c++) {
+					float value = getValue(r, c, transform);
+					if(Float.isFinite(value)) {
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+						found = true;
+					}
+				}
+			}
+			
+			result = found ? new float[] { min, max } : new float[] { Float.NaN, Float.NaN };
+			minMax[transform.ordinal()] = result;
+		}
+		return result.clone();
+	}
+	
+
+	//Getters and Setters
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public void setColumnNames(String[] columnNames) {
+		if(columnNames.length == 2) {
+			String[] new_names = new String[3];
+			new_names[0] = columnNames[0];
+			new_names[1] = "Description";
+			new_names[2] = columnNames[1];
+			this.columnNames = new_names;
+		} else
+			this.columnNames = columnNames;
+	}
+
+	public void setExpressionUniverse(int size) {
+		this.expressionUniverse = size;
+	}
+
+	public int getExpressionUniverse() {
+		return expressionUniverse;
+	}
+
+	public int getNumConditions() {
+		return numConditions;
+	}
+
+	public void setNumConditions(int numConditions) {
+		this.numConditions = numConditions;
+	}
+
+	public int getNumGenes() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns a new GeneExpression with a copy of the values of the gene, or null if the gene 
+	 * is not in the matrix. Changing it doesn't change the matrix, use setRow() or putGeneExpression().
+	 */
+	public synchronized GeneExpression getGeneExpression(int geneId) {
+		int row = getRowIndex(geneId);
+		return row < 0 ? null : getRowExpression(row);
+	}
+
+	/**
+	 * Copies the values of the expression into the matrix, replacing the row of the gene if there is one.
+	 */
+	public synchronized void putGeneExpression(int geneId, GeneExpression expression) {
+		float[] values = expression.getExpression();
+		if(values == null)
+			values = new float[0];
+		setRow(geneId, expression.getName(), expression.getDescription(), values, 0, values.length);
+	}
+
+	/**
+	 * Returns a copy of the rows as a map from gene ID to GeneExpression, in row order.
+	 * Changes to the map don't change the matrix. The row methods are faster.
+	 */
+	public synchronized Map<Integer, GeneExpression> copyExpressionMatrix() {
+		Map<Integer, GeneExpression> copy = new LinkedHashMap<>(rowCount * 2);
+		for(int row = 0; row < rowCount; row++) {
+			copy.put(geneIds[row], getRowExpression(row));
+		}
+		return copy;
+	}
+
+	/**
+	 * Replaces all the rows with the given expressions.
+	 */
+	public synchronized void setExpressionMatrix(Map<Integer, GeneExpression> expressionMatrix) {
+		rowCount = 0;
+		valueCount = 0;
+		Arrays.fill(rowIndex, 0);
+		Arrays.fill(rowLengths, 0);
+		changed();
+		for(Map.Entry<Integer, GeneExpression> entry : expressionMatrix.entrySet()) {
+			putGeneExpression(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Restores parameters saved in the session file. Note, most of this object
+	 * is restored by the ExpressionFileReaderTask.
+	 */
+	public void restoreProps(String ds, Map<String, String> props) {
+		String simpleName = this.getClass().getSimpleName();
+		String val = props.get(ds + "%" + simpleName + "%expressionUniverse");
+		if(val != null) {
+			try {
+				expressionUniverse = Integer.parseInt(val);
+			} catch(NumberFormatException e) {
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the gene IDs of the rows, in row order.
+	 */
+	public synchronized Set<Integer> getGeneIds() {
+		Set<Integer> ids = new LinkedHashSet<>(rowCount * 2);
+		for(int row = 0; row < rowCount; row++) {
+			ids.add(geneIds[row]);
+		}
+		return ids;
+	}
+	
+	
+	private GeneExpression getRowExpression(int row) {
+		return new GeneExpression(names[row], descriptions[row], getExpression(row, Transform.AS_IS));
+	}
+}
@@ -46,6 +46,8 @@ package org.baderlab.csplugins.enrichmentmap.model;
 import java.util.Optional;
 import java.util.Set;
 
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
+
 import com.google.common.collect.ImmutableSet;
 
 
@@ -56,6 +58,8 @@ public class GeneSet {
 	// ImmutableSet uses less memory than a HashSet, also this forces GSON to deserialize using ImmutableSet.
 	private final ImmutableSet<Integer> genes;
 	private final Optional<String> source;
+	// Sorted copy of the genes used by the similarity calculations, created lazily and not saved in the session.
+	private transient volatile int[] sortedGeneIds;
 	
 	public GeneSet(String name, String description, Set<Integer> genes) {
 		this.name = name;
@@ -81,6 +85,18 @@ public class GeneSet {
 		return genes;
 	}
 
+	/**
+	 * Returns the genes as a sorted int array. The returned array must not be modified.
+	 */
+	public int[] getSortedGeneIds() {
+		int[] ids = sortedGeneIds;
+		if(ids == null) {
+			ids = IntSetUtil.toSortedArray(genes);
+			sortedGeneIds = ids;
+		}
+		return ids;
+	}
+
 	public Optional<String> getSource() {
 		return source;
 	}
@@ -0,0 +1,165 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Inverted index from gene IDs to the gene sets that contain them.
+ *
+ * The gene sets are numbered 0..size()-1 in ascending order of their size (then name), so
+ * the gene sets with an index greater than i are never smaller than gene set i. For each gene the
+ * indexes of the gene sets that contain it are stored in ascending order, this makes it
+ * possible to find all the gene sets that overlap a given gene set (and the size of each overlap)
+ * without visiting the gene sets that have no genes in common with it.
+ *
+ * Instances are immutable and safe to share between threads, see EnrichmentMap.getGeneSetIndex().
+ */
+public class GeneSetIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final String[] names;
+	private final int[][] genes;
+
+	private final int minGeneId;
+	/** The postings for gene g are postings[offsets[g-minGeneId]] to postings[offsets[g-minGeneId+1]-1] */
+	private final int[] offsets;
+	private final int[] postings;
+
+
+	private GeneSetIndex(String[] names, int[][] genes) {
+		this.names = names;
+		this.genes = genes;
+
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		int total = 0;
+		for(int[] geneIds : genes) {
+			if(geneIds.length > 0) {
+				min = Math.min(min, geneIds[0]);
+				max = Math.max(max, geneIds[geneIds.length-1]);
+				total += geneIds.length;
+			}
+		}
+
+		if(total == 0) {
+			minGeneId = 0;
+			offsets = new int[1];
+			postings = EMPTY;
+			return;
+		}
+
+		minGeneId = min;
+		offsets = new int[max - min + 2];
+		for(int[] geneIds : genes) {
+			for(int gene : geneIds) {
+				offsets[gene - min + 1]++;
+			}
+		}
+		for(int g = 1; g < offsets.length; g++) {
+			offsets[g] += offsets[g-1];
+		}
+
+		// gene sets are added in index order so each list of postings comes out sorted
+		postings = new int[total];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for(int i = 0; i < genes.length; i++) {
+			for(int gene : genes[i]) {
+				postings[next[gene - min]++] = i;
+			}
+		}
+	}
+
+
+	/**
+	 * @param geneSets gene set names mapped to sorted gene IDs, see GeneSet.getSortedGeneIds()
+	 */
+	public static GeneSetIndex create(Map<String,int[]> geneSets) {
+		String[] names = geneSets.keySet().toArray(new String[0]);
+		Arrays.sort(names, Comparator.<String>comparingInt(name -> geneSets.get(name).length).thenComparing(Comparator.naturalOrder()));
+		int[][] genes = new int[names.length][];
+		for(int i = 0; i < names.length; i++) {
+			genes[i] = geneSets.get(names[i]);
+		}
+		return new GeneSetIndex(names, genes);
+	}
+
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Returns the sorted gene IDs of the gene set at the given index, the array must not be modified.
+	 */
+	public int[] getGenes(int index) {
+		return genes[index];
+	}
+
+	/**
+	 * Returns the index of the first gene set that has more than the given number of genes, or size() if there isn't one.
+	 */
+	public int indexAfterSize(int geneCount) {
+		int low = 0, high = genes.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(genes[mid].length <= geneCount)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+	/**
+	 * Counts how many of the given genes are contained in each of the gene sets with an index in the range [from, to).
+	 *
+	 * The count for gene set j is added to counts[j - from]. The indexes of the gene sets whose count
+	 * went from zero to non-zero are written to touched, the return value is how many were written.
+	 * The caller is expected to reset the counts it used back to zero, so that the arrays can be reused.
+	 * Gene sets that don't share any genes with the given genes are never visited.
+	 *
+	 * @param geneIds sorted or unsorted gene IDs without duplicates, genes that are not in the index are ignored
+	 * @param counts must have room for at least to - from elements
+	 * @param touched must have room for at least to - from elements
+	 */
+	public int countOverlaps(int[] geneIds, int from, int to, int[] counts, int[] touched) {
+		return countOverlaps(geneIds, geneIds.length, from, to, counts, touched);
+	}
+
+	/**
+	 * Same as countOverlaps(int[], int, int, int[], int[]) but only the first geneCount genes are counted.
+	 */
+	public int countOverlaps(int[] geneIds, int geneCount, int from, int to, int[] counts, int[] touched) {
+		int n = 0;
+		for(int i = 0; i < geneCount; i++) {
+			int g = geneIds[i] - minGeneId;
+			if(g < 0 || g >= offsets.length - 1)
+				continue;
+
+			int start = offsets[g];
+			int end = offsets[g+1];
+			if(start == end || postings[end-1] < from)
+				continue;
+
+			int k = from <= postings[start] ? start : Arrays.binarySearch(postings, start, end, from);
+			if(k < 0)
+				k = -k - 1;
+
+			for(; k < end; k++) {
+				int j = postings[k];
+				if(j >= to)
+					break;
+				if(counts[j - from]++ == 0)
+					touched[n++] = j;
+			}
+		}
+		return n;
+	}
+
+}
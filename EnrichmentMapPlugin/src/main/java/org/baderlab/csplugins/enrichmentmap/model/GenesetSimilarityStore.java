@@ -0,0 +1,320 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
+
+/**
+ * Columnar storage for the edges created by ComputeSimilarityTaskParallel.
+ *
+ * Each edge is stored as two int indexes into a shared table of gene set names, the coefficient,
+ * a byte index into a table of data sets, and a range of a shared pool of overlapping gene ids.
+ * This avoids having a SimilarityKey, a GenesetSimilarity and a Set of genes on the heap for every edge.
+ * The edges can be read directly using the edge index (0 to size()-1), or through the Map interface
+ * in which case the SimilarityKey and GenesetSimilarity objects are created on demand.
+ * The Map is read only, use add() and addAll() to add edges.
+ */
+public class GenesetSimilarityStore extends AbstractMap<SimilarityKey,GenesetSimilarity> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String interactionType;
+	private final String[] geneSetNames;
+	private final String[] keyNames;     // SimilarityKey.getName(), null for compound edges
+	private final String[] dataSetNames; // GenesetSimilarity.getDataSetName()
+
+	private int size = 0;
+	private int[] geneSets1 = new int[INITIAL_CAPACITY];
+	private int[] geneSets2 = new int[INITIAL_CAPACITY];
+	private double[] coefficients = new double[INITIAL_CAPACITY];
+	private byte[] dataSets = new byte[INITIAL_CAPACITY];
+
+	/** The overlapping genes of edge e are overlapPool[overlapEnds[e-1]] to overlapPool[overlapEnds[e]-1] */
+	private int[] overlapEnds = new int[INITIAL_CAPACITY];
+	private int[] overlapPool = new int[INITIAL_CAPACITY];
+
+	/** Open addressing hash table of edge indexes + 1, built the first time get() is called. */
+	private int[] lookup;
+
+
+	/**
+	 * @param geneSetNames sorted gene set names, edges refer to gene sets by their index in this array
+	 * @param keyNames the SimilarityKey name of each data set, null for compound edges
+	 * @param dataSetNames the data set name of each data set
+	 */
+	public GenesetSimilarityStore(String interactionType, String[] geneSetNames, String[] keyNames, String[] dataSetNames) {
+		Objects.requireNonNull(interactionType);
+		if(keyNames.length != dataSetNames.length)
+			throw new IllegalArgumentException("keyNames and dataSetNames must have the same length");
+		if(keyNames.length > 256)
+			throw new IllegalArgumentException("too many data sets: " + keyNames.length);
+
+		this.interactionType = interactionType;
+		this.geneSetNames = geneSetNames;
+		this.keyNames = keyNames;
+		this.dataSetNames = dataSetNames;
+	}
+
+	/**
+	 * Returns a new empty store that shares the gene set and data set tables with this one.
+	 * Can be used to collect edges on another thread before calling addAll().
+	 */
+	public GenesetSimilarityStore emptyCopy() {
+		return new GenesetSimilarityStore(interactionType, geneSetNames, keyNames, dataSetNames);
+	}
+
+
+	/**
+	 * Adds an edge, this method is not thread safe.
+	 * @param overlappingGenes sorted gene ids
+	 */
+	public void add(int geneSet1, int geneSet2, double coefficient, int dataSet, int[] overlappingGenes) {
+		ensureCapacity(size + 1, poolSize() + overlappingGenes.length);
+		geneSets1[size] = geneSet1;
+		geneSets2[size] = geneSet2;
+		coefficients[size] = coefficient;
+		dataSets[size] = (byte) dataSet;
+		int start = poolSize();
+		System.arraycopy(overlappingGenes, 0, overlapPool, start, overlappingGenes.length);
+		overlapEnds[size] = start + overlappingGenes.length;
+		size++;
+		lookup = null;
+	}
+
+	/**
+	 * Adds all the edges from a store created by emptyCopy().
+	 */
+	public synchronized void addAll(GenesetSimilarityStore other) {
+		if(other.geneSetNames != geneSetNames || other.dataSetNames != dataSetNames)
+			throw new IllegalArgumentException("stores must share the same tables, see emptyCopy()");
+
+		int start = poolSize();
+		ensureCapacity(size + other.size, start + other.poolSize());
+		System.arraycopy(other.geneSets1, 0, geneSets1, size, other.size);
+		System.arraycopy(other.geneSets2, 0, geneSets2, size, other.size);
+		System.arraycopy(other.coefficients, 0, coefficients, size, other.size);
+		System.arraycopy(other.dataSets, 0, dataSets, size, other.size);
+		System.arraycopy(other.overlapPool, 0, overlapPool, start, other.poolSize());
+		for(int e = 0; e < other.size; e++) {
+			overlapEnds[size + e] = start + other.overlapEnds[e];
+		}
+		size += other.size;
+		lookup = null;
+	}
+
+	private int poolSize() {
+		return size == 0 ? 0 : overlapEnds[size - 1];
+	}
+
+	private void ensureCapacity(int edges, int genes) {
+		if(edges > geneSets1.length) {
+			int capacity = Math.max(edges, geneSets1.length * 2);
+			geneSets1 = Arrays.copyOf(geneSets1, capacity);
+			geneSets2 = Arrays.copyOf(geneSets2, capacity);
+			coefficients = Arrays.copyOf(coefficients, capacity);
+			dataSets = Arrays.copyOf(dataSets, capacity);
+			overlapEnds = Arrays.copyOf(overlapEnds, capacity);
+		}
+		if(genes > overlapPool.length) {
+			overlapPool = Arrays.copyOf(overlapPool, Math.max(genes, overlapPool.length * 2));
+		}
+	}
+
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public String getInteractionType() {
+		return interactionType;
+	}
+
+	public String getGeneset1Name(int edge) {
+		return geneSetNames[geneSets1[edge]];
+	}
+
+	public String getGeneset2Name(int edge) {
+		return geneSetNames[geneSets2[edge]];
+	}
+
+	public double getSimilarityCoeffecient(int edge) {
+		return coefficients[edge];
+	}
+
+	/**
+	 * Returns the data set name used in the SimilarityKey, null for compound edges.
+	 */
+	public String getKeyName(int edge) {
+		return keyNames[dataSets[edge] & 0xFF];
+	}
+
+	public String getDataSetName(int edge) {
+		return dataSetNames[dataSets[edge] & 0xFF];
+	}
+
+	public int getSizeOfOverlap(int edge) {
+		return overlapEnds[edge] - overlapStart(edge);
+	}
+
+	/**
+	 * Returns a new sorted array with the overlapping genes of the edge.
+	 */
+	public int[] getOverlappingGenes(int edge) {
+		return Arrays.copyOfRange(overlapPool, overlapStart(edge), overlapEnds[edge]);
+	}
+
+	private int overlapStart(int edge) {
+		return edge == 0 ? 0 : overlapEnds[edge - 1];
+	}
+
+	public SimilarityKey getKey(int edge) {
+		return new SimilarityKey(getGeneset1Name(edge), getGeneset2Name(edge), interactionType, getKeyName(edge));
+	}
+
+	/**
+	 * Returns a new GenesetSimilarity with a copy of the values of the edge, changes to it are not written back.
+	 */
+	public GenesetSimilarity getSimilarity(int edge) {
+		Set<Integer> overlappingGenes = IntSetUtil.asSet(getOverlappingGenes(edge));
+		return new GenesetSimilarity(getGeneset1Name(edge), getGeneset2Name(edge), coefficients[edge], interactionType, overlappingGenes, getDataSetName(edge));
+	}
+
+
+	@Override
+	public GenesetSimilarity get(Object key) {
+		int edge = indexOf(key);
+		return edge < 0 ? null : getSimilarity(edge);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the index of the edge with the given SimilarityKey, or -1 if there isn't one.
+	 */
+	public int indexOf(Object key) {
+		if(!(key instanceof SimilarityKey))
+			return -1;
+		SimilarityKey similarityKey = (SimilarityKey) key;
+		if(!interactionType.equals(similarityKey.getInteraction()))
+			return -1;
+
+		int geneSet1 = Arrays.binarySearch(geneSetNames, similarityKey.getGeneSet1());
+		int geneSet2 = Arrays.binarySearch(geneSetNames, similarityKey.getGeneSet2());
+		int dataSet = Arrays.asList(keyNames).indexOf(similarityKey.getName());
+		if(geneSet1 < 0 || geneSet2 < 0 || dataSet < 0)
+			return -1;
+
+		int[] table = getLookup();
+		int mask = table.length - 1;
+		for(int slot = hash(geneSet1, geneSet2, dataSet) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int edge = table[slot] - 1;
+			if((dataSets[edge] & 0xFF) == dataSet
+				&& ((geneSets1[edge] == geneSet1 && geneSets2[edge] == geneSet2) || (geneSets1[edge] == geneSet2 && geneSets2[edge] == geneSet1)))
+				return edge;
+		}
+		return -1;
+	}
+
+	private synchronized int[] getLookup() {
+		if(lookup == null) {
+			int[] table = new int[Integer.highestOneBit(Math.max(size, 1) * 2) * 2];
+			int mask = table.length - 1;
+			for(int edge = 0; edge < size; edge++) {
+				int slot = hash(geneSets1[edge], geneSets2[edge], dataSets[edge] & 0xFF) & mask;
+				while(table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = edge + 1;
+			}
+			lookup = table;
+		}
+		return lookup;
+	}
+
+	/**
+	 * Order insensitive, the same as SimilarityKey.
+	 */
+	private static int hash(int geneSet1, int geneSet2, int dataSet) {
+		int h = (Math.min(geneSet1, geneSet2) * 31 + Math.max(geneSet1, geneSet2)) * 31 + dataSet;
+		return h ^ (h >>> 16);
+	}
+
+
+	@Override
+	public Set<Entry<SimilarityKey,GenesetSimilarity>> entrySet() {
+		return new AbstractSet<Entry<SimilarityKey,GenesetSimilarity>>() {
+			@Override
+			public Iterator<Entry<SimilarityKey,GenesetSimilarity>> iterator() {
+				return new Iterator<Entry<SimilarityKey,GenesetSimilarity>>() {
+					int edge = 0;
+
+					@Override
+					public boolean hasNext() {
+						return edge < size;
+					}
+
+					@Override
+					public Entry<SimilarityKey,GenesetSimilarity> next() {
+						if(edge >= size)
+							throw new NoSuchElementException();
+						Entry<SimilarityKey,GenesetSimilarity> entry = new SimpleImmutableEntry<>(getKey(edge), getSimilarity(edge));
+						edge++;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Overridden so that iterating over the keys doesn't create GenesetSimilarity objects.
+	 */
+	@Override
+	public Set<SimilarityKey> keySet() {
+		return new AbstractSet<SimilarityKey>() {
+			@Override
+			public Iterator<SimilarityKey> iterator() {
+				return new Iterator<SimilarityKey>() {
+					int edge = 0;
+
+					@Override
+					public boolean hasNext() {
+						return edge < size;
+					}
+
+					@Override
+					public SimilarityKey next() {
+						if(edge >= size)
+							throw new NoSuchElementException();
+						return getKey(edge++);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,139 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+/**
+ * Caches the genes of each node of an enrichment map network as a BitSet of gene IDs, so the genes of
+ * a selection of nodes can be unioned and intersected a word at a time and the gene names only have to be
+ * looked up once for the result.
+ *
+ * The genes of a node are read from the NODE_GENES column the first time the node is used, call
+ * invalidate() when the column changes. See EnrichmentMap.getNodeGeneIndex().
+ */
+public class NodeGeneIndex {
+
+	private final EnrichmentMap map;
+	private final Map<Long,NodeGenes> nodeGenes = new ConcurrentHashMap<>();
+
+	/**
+	 * Genes that are not known to the map don't have an ID, they are kept by name.
+	 */
+	private static class NodeGenes {
+		final BitSet ids;
+		final Set<String> otherNames;
+
+		NodeGenes(BitSet ids, Set<String> otherNames) {
+			this.ids = ids;
+			this.otherNames = otherNames;
+		}
+	}
+
+
+	NodeGeneIndex(EnrichmentMap map) {
+		this.map = map;
+	}
+
+
+	public void invalidate() {
+		nodeGenes.clear();
+	}
+
+	private NodeGenes getNodeGenes(CyNetwork network, CyNode node, String prefix) {
+		return nodeGenes.computeIfAbsent(node.getSUID(), suid -> {
+			// This is already the union of all the genes across data sets
+			List<String> genes = Columns.NODE_GENES.get(network.getRow(node), prefix, null);
+			BitSet ids = new BitSet();
+			Set<String> otherNames = Collections.emptySet();
+			if(genes != null) {
+				for(String gene : genes) {
+					Integer id = map.getHashFromGene(gene);
+					if(id != null && id >= 0) {
+						ids.set(id);
+					} else if(gene != null) {
+						if(otherNames.isEmpty())
+							otherNames = new HashSet<>();
+						otherNames.add(gene);
+					}
+				}
+			}
+			return new NodeGenes(ids, otherNames);
+		});
+	}
+
+
+	/**
+	 * Returns the genes of the nodes and of the source and target nodes of the edges.
+	 */
+	public Set<String> union(CyNetwork network, Collection<CyNode> nodes, Collection<CyEdge> edges, String prefix) {
+		BitSet ids = new BitSet();
+		Set<String> otherNames = new HashSet<>();
+		for(CyNode node : nodes) {
+			or(getNodeGenes(network, node, prefix), ids, otherNames);
+		}
+		for(CyEdge edge : edges) {
+			or(getNodeGenes(network, edge.getSource(), prefix), ids, otherNames);
+			or(getNodeGenes(network, edge.getTarget(), prefix), ids, otherNames);
+		}
+		return toGeneNames(ids, otherNames);
+	}
+
+	/**
+	 * Returns the genes that are in all of the nodes and in all of the source and target nodes of the edges.
+	 */
+	public Set<String> intersection(CyNetwork network, Collection<CyNode> nodes, Collection<CyEdge> edges, String prefix) {
+		BitSet ids = null;
+		Set<String> otherNames = null;
+		for(CyNode node : nodes) {
+			NodeGenes genes = getNodeGenes(network, node, prefix);
+			if(ids == null) {
+				ids = (BitSet) genes.ids.clone();
+				otherNames = new HashSet<>(genes.otherNames);
+			} else {
+				and(genes, ids, otherNames);
+			}
+		}
+		for(CyEdge edge : edges) {
+			NodeGenes genes = getNodeGenes(network, edge.getSource(), prefix);
+			if(ids == null) {
+				ids = (BitSet) genes.ids.clone();
+				otherNames = new HashSet<>(genes.otherNames);
+			} else {
+				and(genes, ids, otherNames);
+			}
+			and(getNodeGenes(network, edge.getTarget(), prefix), ids, otherNames);
+		}
+		return ids == null ? Collections.emptySet() : toGeneNames(ids, otherNames);
+	}
+
+	private static void or(NodeGenes genes, BitSet ids, Set<String> otherNames) {
+		ids.or(genes.ids);
+		otherNames.addAll(genes.otherNames);
+	}
+
+	private static void and(NodeGenes genes, BitSet ids, Set<String> otherNames) {
+		ids.and(genes.ids);
+		if(!otherNames.isEmpty())
+			otherNames.retainAll(genes.otherNames);
+	}
+
+	private Set<String> toGeneNames(BitSet ids, Set<String> otherNames) {
+		Set<String> names = new HashSet<>(ids.cardinality() + otherNames.size());
+		for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+			names.add(map.getGeneFromHashKey(id));
+		}
+		names.addAll(otherNames);
+		return names;
+	}
+}
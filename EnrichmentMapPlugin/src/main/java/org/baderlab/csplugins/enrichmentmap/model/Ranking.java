@@ -1,115 +1,297 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
 
+/**
+ * The ranks of the genes of a ranks file, keyed by gene ID.
+ * <p>
+ * The names, scores and ranks are stored in parallel arrays in the order they were added,
+ * and the gene IDs are mapped to their position with a dense table, see EnrichmentMap.addGene().
+ * The readers use an immutable snapshot of the arrays without locking, addRank() changes a copy
+ * under the lock and the next read publishes it as a new snapshot. The rankings are built before
+ * they are read, so the arrays are usually copied once.
+ * Sessions store the rankings as a map of {@link Rank} objects, see ModelSerializer.
+ */
 public class Ranking {
 
 	//constants for names of Ranking set
 	public final static String GSEARanking = "GSEARanking";
 	public final static String RankingLOADED = "RankingLOADED";
 
-	//Set of Ranks
-	//key - gene hash key
-	//value - Rank
-	private Map<Integer, Rank> ranking = new HashMap<>(); 
+	private static final int NO_RANK = Integer.MIN_VALUE;
+	private static final int NO_POSITION = -1;
+
+	/** Null while ranks are being added, snapshot() publishes the arrays below. */
+	private volatile Snapshot snapshot = new Snapshot(0, new int[0], new String[0], new double[0], new int[0], new int[0]);
+
+	// Copy of the snapshot that addRank() changes, guarded by this and null when the snapshot is current
+	private int size;
+	private int[] genes;
+	private String[] names;
+	private double[] scores;
+	private int[] ranks;
+	private int[] genePositions;
 
-	// Lazily computed views
-	//hash for easy conversion between geneid and score
-	private transient Map<Integer, Integer> rank2gene = null;
-	private transient Map<Integer, Double> gene2score = null;
-	//array for storing scores of all genes in map
-	private double[] scores = null;
 
-	
 	public boolean isEmpty() {
-		return ranking.isEmpty();
+		return snapshot().size == 0;
+	}
+
+	public int size() {
+		return snapshot().size;
 	}
-	
+
 	public boolean contains(int gene) {
-		return ranking.containsKey(gene);
+		return snapshot().position(gene) != NO_POSITION;
 	}
 
+	/**
+	 * Returns a new Rank object for the gene, or null if the gene is not ranked.
+	 */
 	public Rank getRank(int gene) {
-		return ranking.get(gene);
+		Snapshot s = snapshot();
+		int i = s.position(gene);
+		return i == NO_POSITION ? null : s.toRank(i);
+	}
+
+	/**
+	 * Returns the rank of the gene without boxing, or the default value if the gene doesn't have a rank.
+	 */
+	public int getRank(int gene, int defaultValue) {
+		Snapshot s = snapshot();
+		int i = s.position(gene);
+		if(i == NO_POSITION || s.ranks[i] == NO_RANK)
+			return defaultValue;
+		return s.ranks[i];
 	}
-	
-	public void addRank(Integer gene, Rank rank) {
-		ranking.put(gene, rank);
-		invalidateLazyValues();
+
+	public synchronized void addRank(Integer gene, Rank rank) {
+		if(genes == null)
+			copySnapshot();
+
+		int i = position(gene);
+		if(i == NO_POSITION) {
+			if(size == genes.length) {
+				int capacity = Math.max(16, size * 2);
+				genes = Arrays.copyOf(genes, capacity);
+				names = Arrays.copyOf(names, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+				ranks = Arrays.copyOf(ranks, capacity);
+			}
+			i = size++;
+			genes[i] = gene;
+			setPosition(gene, i);
+		}
+		Double score = rank.getScore();
+		Integer r = rank.getRank();
+		names[i] = rank.getName();
+		scores[i] = score == null ? Double.NaN : score;
+		ranks[i] = r == null ? NO_RANK : r;
+		snapshot = null;
 	}
 
+	/**
+	 * @throws NoSuchElementException if none of the genes have a rank
+	 */
 	public int getMaxRank() {
-		return Collections.max(getAllRanks());
+		Snapshot s = snapshot();
+		if(s.rankGenes.length == 0)
+			throw new NoSuchElementException();
+		return s.maxRank;
 	}
 
 	public Set<Integer> getAllRanks() {
-		return ranking.values().stream().map(Rank::getRank).collect(Collectors.toSet());
-	}
-	
-	public Map<Integer,Rank> getRanking() {
-		return ranking;
+		Snapshot s = snapshot();
+		Set<Integer> all = new HashSet<>();
+		for(int i = 0; i < s.size; i++) {
+			if(s.ranks[i] != NO_RANK)
+				all.add(s.ranks[i]);
+		}
+		return all;
 	}
-	
-	
+
 	/**
-	 * Get gene2score hash
-	 * 
-	 * @return HashMap gene2score
+	 * Returns a copy of the ranking as a map from gene ID to Rank, in the order the ranks were added.
+	 * Changes to the map or to the Rank objects don't change the ranking, use addRank().
+	 * Creates a Rank object for every gene, the lookup methods are faster.
 	 */
-	private synchronized Map<Integer, Double> getGene2Score() {
-		if(gene2score == null) {
-			gene2score = new HashMap<>();
-			ranking.forEach((gene,rank) -> gene2score.put(gene, rank.getScore()));
+	public Map<Integer,Rank> getRanking() {
+		Snapshot s = snapshot();
+		Map<Integer,Rank> ranking = new LinkedHashMap<>(s.size * 2);
+		for(int i = 0; i < s.size; i++) {
+			ranking.put(s.genes[i], s.toRank(i));
 		}
-		return gene2score;
+		return Collections.unmodifiableMap(ranking);
 	}
-	
+
+
 	public Double getScore(int gene) {
-		return getGene2Score().get(gene);
+		Snapshot s = snapshot();
+		int i = s.position(gene);
+		if(i == NO_POSITION || Double.isNaN(s.scores[i]))
+			return null;
+		return s.scores[i];
 	}
 
-	
-	private synchronized Map<Integer,Integer> getRank2Gene() {
-		if(rank2gene == null) {
-			rank2gene = new HashMap<>();
-			ranking.forEach((gene,rank) -> rank2gene.put(rank.getRank(), gene));
-		}
-		return rank2gene;
+	/**
+	 * Returns the score of the gene without boxing, or the default value if the gene doesn't have a score.
+	 */
+	public double getScore(int gene, double defaultValue) {
+		Snapshot s = snapshot();
+		int i = s.position(gene);
+		if(i == NO_POSITION || Double.isNaN(s.scores[i]))
+			return defaultValue;
+		return s.scores[i];
 	}
-	
+
+	/**
+	 * If several genes have the same rank one of them is returned.
+	 * @throws NullPointerException if no gene has the rank
+	 */
 	public int getGene(int rank) {
-		return getRank2Gene().get(rank);
+		int gene = snapshot().rankGene(rank);
+		if(gene == -1)
+			throw new NullPointerException("No gene with rank " + rank);
+		return gene;
 	}
-	
+
 	public boolean containsRank(int rank) {
-		return getRank2Gene().containsKey(rank);
+		return snapshot().rankGene(rank) != -1;
 	}
-	
+
 	/**
 	 * Get scores array (elements are in no particualr order)
-	 * 
-	 * @return double[] scores
+	 *
+	 * @return the scores, NaN for the ranks without a score. The array is shared and must not be changed,
+	 * a new array is returned after the ranking changes.
 	 */
-	public synchronized double[] getScores() {
-		if(scores == null) {
-			Map<Integer, Double> gene2score = getGene2Score();
-			scores = new double[gene2score.size()];
-			int i = 0;
-			for(Double score : gene2score.values()) {
-				scores[i++] = score;
+	public double[] getScores() {
+		return snapshot().scores;
+	}
+
+
+	private Snapshot snapshot() {
+		Snapshot s = snapshot;
+		if(s != null)
+			return s;
+		synchronized(this) {
+			if(snapshot == null) {
+				snapshot = new Snapshot(size, Arrays.copyOf(genes, size), Arrays.copyOf(names, size),
+						Arrays.copyOf(scores, size), Arrays.copyOf(ranks, size), genePositions);
+				genes = null;
+				names = null;
+				scores = null;
+				ranks = null;
+				genePositions = null;
 			}
+			return snapshot;
 		}
-		return scores;
 	}
 
-	private synchronized void invalidateLazyValues() {
-		rank2gene = null;
-		gene2score = null;
-		scores = null;
+	private void copySnapshot() {
+		Snapshot s = snapshot;
+		int capacity = Math.max(16, s.size + s.size / 2);
+		size = s.size;
+		genes = Arrays.copyOf(s.genes, capacity);
+		names = Arrays.copyOf(s.names, capacity);
+		scores = Arrays.copyOf(s.scores, capacity);
+		ranks = Arrays.copyOf(s.ranks, capacity);
+		genePositions = s.genePositions.clone();
+	}
+
+	private int position(int gene) {
+		return position(gene, genes, size, genePositions);
+	}
+
+	private static int position(int gene, int[] genes, int size, int[] genePositions) {
+		if(gene >= 0)
+			return gene < genePositions.length ? genePositions[gene] : NO_POSITION;
+		// negative IDs are not expected
+		for(int i = 0; i < size; i++) {
+			if(genes[i] == gene)
+				return i;
+		}
+		return NO_POSITION;
+	}
+
+	private void setPosition(int gene, int i) {
+		if(gene < 0)
+			return;
+		if(gene >= genePositions.length) {
+			int length = genePositions.length;
+			genePositions = Arrays.copyOf(genePositions, Math.max(gene + 1, length * 2));
+			Arrays.fill(genePositions, length, genePositions.length, NO_POSITION);
+		}
+		genePositions[gene] = i;
+	}
+
+
+	/**
+	 * The arrays of the ranking and the rank -> gene table, never changed once created.
+	 */
+	private static class Snapshot {
+		final int size;
+		final int[] genes;
+		final String[] names;
+		final double[] scores; // NaN if the Rank doesn't have a score
+		final int[] ranks;     // NO_RANK if the Rank doesn't have a rank
+		final int[] genePositions; // gene ID -> position, NO_POSITION if the gene is not ranked
+
+		final int[] rankGenes; // rank - minRank -> gene ID, -1 if no gene has the rank, empty if there are no ranks
+		final int minRank;
+		final int maxRank;
+
+		Snapshot(int size, int[] genes, String[] names, double[] scores, int[] ranks, int[] genePositions) {
+			this.size = size;
+			this.genes = genes;
+			this.names = names;
+			this.scores = scores;
+			this.ranks = ranks;
+			this.genePositions = genePositions;
+
+			int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+			for(int i = 0; i < size; i++) {
+				if(ranks[i] != NO_RANK) {
+					min = Math.min(min, ranks[i]);
+					max = Math.max(max, ranks[i]);
+				}
+			}
+			if(min > max) {
+				rankGenes = new int[0];
+				minRank = maxRank = 0;
+				return;
+			}
+			minRank = min;
+			maxRank = max;
+			rankGenes = new int[max - min + 1];
+			Arrays.fill(rankGenes, -1);
+			for(int i = 0; i < size; i++) {
+				if(ranks[i] != NO_RANK)
+					rankGenes[ranks[i] - min] = genes[i];
+			}
+		}
+
+		int position(int gene) {
+			return Ranking.position(gene, genes, size, genePositions);
+		}
+
+		int rankGene(int rank) {
+			if(rankGenes.length == 0 || rank < minRank || rank > maxRank)
+				return -1;
+			return rankGenes[rank - minRank];
+		}
+
+		Rank toRank(int i) {
+			Double score = Double.isNaN(scores[i]) ? null : scores[i];
+			Integer rank = ranks[i] == NO_RANK ? null : ranks[i];
+			return new Rank(names[i], score, rank);
+		}
 	}
 
 }
@@ -21,7 +21,7 @@ public enum UniverseType {
 			case EXPRESSION_SET:
 				return dataset.getExpressionSets().getExpressionUniverse();
 			case INTERSECTION:
-				return dataset.getExpressionSets().getExpressionMatrix().size();
+				return dataset.getExpressionSets().getNumGenes();
 			case USER_DEFINED:
 				return userDefinedUniverseSize;
 		}
@@ -1,8 +1,12 @@
 package org.baderlab.csplugins.enrichmentmap.model.io;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -10,12 +14,14 @@ import org.baderlab.csplugins.enrichmentmap.model.EMSignatureDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
+import org.baderlab.csplugins.enrichmentmap.model.Rank;
+import org.baderlab.csplugins.enrichmentmap.model.Ranking;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -28,7 +34,11 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public class ModelSerializer {
 
@@ -44,6 +54,9 @@ public class ModelSerializer {
 		GsonBuilder builder = new GsonBuilder()
 				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
 				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
+				.registerTypeAdapter(GeneExpressionMatrix.class, new GeneExpressionMatrixAdapter())
+				.registerTypeAdapter(GeneDictionary.class, new GeneDictionaryAdapter())
+				.registerTypeAdapter(Ranking.class, new RankingAdapter())
 				.serializeSpecialFloatingPointValues(); // really important, we allow NaN in expression files
 
 		if (pretty) {
@@ -59,13 +72,16 @@ public class ModelSerializer {
 		Type immutableIntSetType = new TypeToken<ImmutableSet<Integer>>() {}.getType();
 
 		Gson gson = new GsonBuilder()
-				.registerTypeAdapter(BiMap.class, new BiMapAdapter())
 				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
 				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
+				.registerTypeAdapter(GeneExpressionMatrix.class, new GeneExpressionMatrixAdapter())
+				.registerTypeAdapter(GeneDictionary.class, new GeneDictionaryAdapter())
+				.registerTypeAdapter(Ranking.class, new RankingAdapter())
 				.registerTypeAdapter(immutableIntSetType, new ImmutableIntSetAdapter()).create();
 
 		try {
 			EnrichmentMap map = gson.fromJson(json, EnrichmentMap.class);
+			map.restoreNumberOfGenes();
 			for (EMDataSet dataset : map.getDataSetList()) {
 				dataset.setParent(map);
 			}
@@ -79,17 +95,57 @@ public class ModelSerializer {
 		}
 	}
 
-	private static class BiMapAdapter implements JsonDeserializer<BiMap<Integer, String>> {
+	/**
+	 * Writes the genes as an array of names indexed by gene ID, with null for the IDs that are not used.
+	 * Older sessions stored them in an object keyed by the gene ID, both formats can be read.
+	 */
+	private static class GeneDictionaryAdapter extends TypeAdapter<GeneDictionary> {
+		
 		@Override
-		public BiMap<Integer, String> deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
-			BiMap<Integer, String> mapping = HashBiMap.create();
-			JsonObject object = (JsonObject) json;
-			for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
-				Integer geneId = Integer.parseInt(entry.getKey());
-				String geneName = entry.getValue().getAsString();
-				mapping.put(geneId, geneName);
+		public void write(JsonWriter out, GeneDictionary genes) throws IOException {
+			if (genes == null) {
+				out.nullValue();
+				return;
 			}
-			return mapping;
+			out.beginArray();
+			for (String name : genes.freeze().getNames()) {
+				if (name == null)
+					out.nullValue();
+				else
+					out.value(name);
+			}
+			out.endArray();
+		}
+		
+		@Override
+		public GeneDictionary read(JsonReader in) throws IOException {
+			GeneDictionary genes = new GeneDictionary();
+			switch (in.peek()) {
+			case NULL:
+				in.nextNull();
+				return null;
+			case BEGIN_ARRAY:
+				in.beginArray();
+				int id = 0;
+				while (in.hasNext()) {
+					if (in.peek() == JsonToken.NULL)
+						in.nextNull();
+					else
+						genes.put(in.nextString(), id);
+					id++;
+				}
+				in.endArray();
+				genes.setLastId(Math.max(0, id - 1));
+				break;
+			default:
+				in.beginObject();
+				while (in.hasNext()) {
+					int geneId = Integer.parseInt(in.nextName());
+					genes.put(in.nextString(), geneId);
+				}
+				in.endObject();
+			}
+			return genes;
 		}
 	}
 
@@ -118,6 +174,176 @@ public class ModelSerializer {
 		}
 	}
 
+	/**
+	 * Reads and writes the GeneExpressionMatrix in the format GSON used when it contained a 
+	 * Map of GeneExpression objects, so old sessions can still be loaded. The values are streamed
+	 * without creating a GeneExpression or a JsonElement for every gene.
+	 */
+	private static class GeneExpressionMatrixAdapter extends TypeAdapter<GeneExpressionMatrix> {
+		
+		@Override
+		public void write(JsonWriter out, GeneExpressionMatrix matrix) throws IOException {
+			if (matrix == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			if (matrix.getColumnNames() != null) {
+				out.name("columnNames").beginArray();
+				for (String columnName : matrix.getColumnNames()) {
+					out.value(columnName);
+				}
+				out.endArray();
+			}
+			out.name("numConditions").value(matrix.getNumConditions());
+			out.name("expressionUniverse").value(matrix.getExpressionUniverse());
+			
+			out.name("expressionMatrix").beginObject();
+			for (int row = 0; row < matrix.getNumGenes(); row++) {
+				out.name(String.valueOf(matrix.getGeneId(row))).beginObject();
+				if (matrix.getName(row) != null)
+					out.name("name").value(matrix.getName(row));
+				if (matrix.getDescription(row) != null)
+					out.name("description").value(matrix.getDescription(row));
+				out.name("expression").beginArray();
+				for (int col = 0; col < matrix.getRowLength(row); col++) {
+					// Float.toString(), the same text GSON writes for a float
+					out.value(Float.valueOf(matrix.getValue(row, col)));
+				}
+				out.endArray();
+				out.endObject();
+			}
+			out.endObject();
+			out.endObject();
+		}
+		
+		@Override
+		public GeneExpressionMatrix read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch (name) {
+				case "columnNames":
+					List<String> columnNames = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						columnNames.add(in.peek() == JsonToken.NULL ? nextNull(in) : in.nextString());
+					}
+					in.endArray();
+					matrix.setColumnNames(columnNames.toArray(new String[columnNames.size()]));
+					break;
+				case "numConditions":
+					matrix.setNumConditions(in.nextInt());
+					break;
+				case "expressionUniverse":
+					matrix.setExpressionUniverse(in.nextInt());
+					break;
+				case "expressionMatrix":
+					readRows(in, matrix);
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			matrix.trimToSize();
+			return matrix;
+		}
+		
+		private static void readRows(JsonReader in, GeneExpressionMatrix matrix) throws IOException {
+			float[] buffer = new float[16];
+			in.beginObject();
+			while (in.hasNext()) {
+				int geneId = Integer.parseInt(in.nextName());
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				String name = null;
+				String description = null;
+				int length = 0;
+				in.beginObject();
+				while (in.hasNext()) {
+					String field = in.nextName();
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+						continue;
+					}
+					switch (field) {
+					case "name":
+						name = in.nextString();
+						break;
+					case "description":
+						description = in.nextString();
+						break;
+					case "expression":
+						length = 0;
+						in.beginArray();
+						while (in.hasNext()) {
+							if (length == buffer.length)
+								buffer = Arrays.copyOf(buffer, length * 2);
+							buffer[length++] = (float) in.nextDouble();
+						}
+						in.endArray();
+						break;
+					default:
+						in.skipValue();
+					}
+				}
+				in.endObject();
+				matrix.setRow(geneId, name, description, buffer, 0, length);
+			}
+			in.endObject();
+		}
+		
+		private static String nextNull(JsonReader in) throws IOException {
+			in.nextNull();
+			return null;
+		}
+	}
+
+	/**
+	 * Ranking keeps its ranks in primitive arrays, sessions store them as a map of Rank
+	 * objects keyed by gene ID like older versions did.
+	 */
+	private static class RankingAdapter implements JsonDeserializer<Ranking>, JsonSerializer<Ranking> {
+		private static final String RANKING = "ranking";
+
+		@Override
+		public JsonElement serialize(Ranking src, Type typeOfSrc, JsonSerializationContext context) {
+			JsonObject ranks = new JsonObject();
+			for (Map.Entry<Integer, Rank> entry : src.getRanking().entrySet()) {
+				ranks.add(String.valueOf(entry.getKey()), context.serialize(entry.getValue()));
+			}
+			JsonObject jsonObject = new JsonObject();
+			jsonObject.add(RANKING, ranks);
+			return jsonObject;
+		}
+
+		@Override
+		public Ranking deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) {
+			Ranking ranking = new Ranking();
+			// older sessions also contain a scores array, it is computed from the ranks
+			JsonObject ranks = json.getAsJsonObject().getAsJsonObject(RANKING);
+			if (ranks != null) {
+				for (Map.Entry<String, JsonElement> entry : ranks.entrySet()) {
+					Rank rank = context.deserialize(entry.getValue(), Rank.class);
+					ranking.addRank(Integer.parseInt(entry.getKey()), rank);
+				}
+			}
+			return ranking;
+		}
+	}
+
 	// Note: This can be solved with RuntimeTypeAdapterFactory, but its not part of
 	// the default GSON distribution
 	private static class EnrichmentResultAdapter implements JsonDeserializer<EnrichmentResult>, JsonSerializer<EnrichmentResult> {
@@ -0,0 +1,242 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
+
+/**
+ * Parses the data rows of an expression file from a block of bytes that contains
+ * only complete lines, used by ExpressionFileReaderTask to parse blocks in parallel.
+ *
+ * Tabs and line breaks are found directly in the bytes so no String[] is created for each row,
+ * only the gene name is decoded for every row. The rows are tokenized the same way as
+ * line.split("\t"), trailing empty tokens are ignored. The expression values of all the rows
+ * are kept in one array until they are copied into the GeneExpressionMatrix.
+ * Instances are not thread safe, use one per block.
+ */
+class ExpressionChunkParser {
+
+	/** Integers up to 2^24 are exact as floats. */
+	private static final long MAX_EXACT_FLOAT = 1 << 24;
+	/** Powers of ten that are exact as floats. */
+	private static final float[] POW10 = { 1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f };
+
+	private final EnrichmentMap map;
+	private final Charset charset;
+	private final boolean twoColumns;
+
+	private int[] tokenStarts = new int[16];
+	private int[] tokenEnds = new int[16];
+
+	private int[] geneKeys = new int[16];
+	private final List<String> names = new ArrayList<>();
+	private final List<String> descriptions = new ArrayList<>();
+	/** The values of row i are values[valueEnds[i-1]] to values[valueEnds[i]-1] */
+	private int[] valueEnds = new int[16];
+	private float[] values = new float[256];
+	private int rowCount = 0;
+
+
+	/**
+	 * @param twoColumns true if the file is a rank file with a name column and a value column
+	 */
+	ExpressionChunkParser(EnrichmentMap map, Charset charset, boolean twoColumns) {
+		this.map = map;
+		this.charset = charset;
+		this.twoColumns = twoColumns;
+	}
+
+
+	/**
+	 * Parses the lines in the range [start, end), the range must begin at the start of a line and end
+	 * after a line break or at the end of the file.
+	 * Only the rows for genes that are already known to the map are kept.
+	 */
+	ExpressionChunkParser parse(byte[] bytes, int start, int end) {
+		int pos = start;
+		while(pos < end) {
+			int lineEnd = lineEnd(bytes, pos, end);
+			parseRow(bytes, pos, lineEnd);
+			rowCount++;
+			pos = nextLineStart(bytes, lineEnd, end);
+		}
+		return this;
+	}
+
+	/**
+	 * The number of data rows parsed, including the rows for unknown genes.
+	 */
+	int getRowCount() {
+		return rowCount;
+	}
+
+	int getGeneCount() {
+		return names.size();
+	}
+
+	/**
+	 * Copies the rows for the known genes into the matrix, in the order they appear in the file.
+	 */
+	void addRowsTo(GeneExpressionMatrix matrix) {
+		for(int i = 0; i < names.size(); i++) {
+			int start = i == 0 ? 0 : valueEnds[i - 1];
+			matrix.setRow(geneKeys[i], names.get(i), descriptions.get(i), values, start, valueEnds[i] - start);
+		}
+	}
+
+
+	private void parseRow(byte[] bytes, int start, int end) {
+		int tokenCount = tokenize(bytes, start, end);
+		if(tokenCount == 0)
+			return;
+
+		String name = decode(bytes, tokenStarts[0], tokenEnds[0]).toUpperCase().trim();
+		int geneKey = map.getGeneDictionary().getId(name);
+		if(geneKey == GeneDictionary.NO_ID)
+			return;
+
+		// a row with only the gene name has no description or values
+		if(tokenCount < 2)
+			throw new IllegalThreadStateException("Expression file row for " + name + " is missing data.");
+
+		String description = decode(bytes, tokenStarts[1], tokenEnds[1]);
+		// check to see if the second column is parseable
+		if(twoColumns) {
+			try {
+				Double.parseDouble(description);
+				description = "";
+			} catch(NumberFormatException e) { }
+		}
+
+		int valueStart = names.size() == 0 ? 0 : valueEnds[names.size() - 1];
+		int valueEnd;
+		if(tokenCount > 2) {
+			valueEnd = valueStart + tokenCount - 2;
+			ensureValueCapacity(valueEnd);
+			for(int i = 2; i < tokenCount; i++) {
+				values[valueStart + i - 2] = GeneExpression.round(parseFloat(bytes, tokenStarts[i], tokenEnds[i]));
+			}
+		} else {
+			valueEnd = valueStart + 1;
+			ensureValueCapacity(valueEnd);
+			try {
+				values[valueStart] = GeneExpression.round(parseFloat(bytes, tokenStarts[1], tokenEnds[1]));
+			} catch(NumberFormatException e) {
+				// if the column doesn't contain doubles then just assume that the expression file is empty
+				values[valueStart] = 0.0f;
+			}
+		}
+
+		int i = names.size();
+		if(i == geneKeys.length) {
+			geneKeys = Arrays.copyOf(geneKeys, i * 2);
+			valueEnds = Arrays.copyOf(valueEnds, i * 2);
+		}
+		geneKeys[i] = geneKey;
+		valueEnds[i] = valueEnd;
+		names.add(name);
+		descriptions.add(description);
+	}
+
+	private void ensureValueCapacity(int size) {
+		if(size > values.length) {
+			values = Arrays.copyOf(values, Math.max(size, values.length * 2));
+		}
+	}
+
+
+	/**
+	 * Finds the tokens of the line, returns the number of tokens not counting trailing empty tokens.
+	 */
+	private int tokenize(byte[] bytes, int start, int end) {
+		if(start == end) {
+			// same as "".split("\t")
+			tokenStarts[0] = tokenEnds[0] = start;
+			return 1;
+		}
+		int count = 0;
+		int nonEmptyCount = 0;
+		int tokenStart = start;
+		for(int i = start; i <= end; i++) {
+			if(i == end || bytes[i] == '\t') {
+				if(count == tokenStarts.length) {
+					tokenStarts = Arrays.copyOf(tokenStarts, count * 2);
+					tokenEnds = Arrays.copyOf(tokenEnds, count * 2);
+				}
+				tokenStarts[count] = tokenStart;
+				tokenEnds[count] = i;
+				count++;
+				if(i > tokenStart)
+					nonEmptyCount = count;
+				tokenStart = i + 1;
+			}
+		}
+		return nonEmptyCount;
+	}
+
+	private String decode(byte[] bytes, int start, int end) {
+		return new String(bytes, start, end - start, charset);
+	}
+
+	/**
+	 * Returns the same value as Float.parseFloat(). Plain decimal numbers that can be computed exactly by
+	 * dividing two exact floats are handled directly, anything else is given to Float.parseFloat().
+	 */
+	float parseFloat(byte[] bytes, int start, int end) {
+		int i = start;
+		boolean negative = i < end && bytes[i] == '-';
+		if(negative)
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		for(; i < end; i++) {
+			byte b = bytes[i];
+			if(b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if(scale >= 0)
+					scale++;
+				if(mantissa > MAX_EXACT_FLOAT)
+					break;
+			} else if(b == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				break;
+			}
+		}
+
+		if(i < end || digits == 0 || scale >= POW10.length)
+			return Float.parseFloat(decode(bytes, start, end));
+
+		// IEEE division of two exact values is correctly rounded, the same as parsing the decimal
+		float value = scale > 0 ? mantissa / POW10[scale] : mantissa;
+		return negative ? -value : value;
+	}
+
+
+	static int lineEnd(byte[] bytes, int pos, int end) {
+		while(pos < end && bytes[pos] != '\n' && bytes[pos] != '\r')
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Returns the start of the line after the line break at lineEnd, \r\n counts as one line break.
+	 */
+	static int nextLineStart(byte[] bytes, int lineEnd, int end) {
+		if(lineEnd >= end)
+			return end;
+		if(bytes[lineEnd] == '\r' && lineEnd + 1 < end && bytes[lineEnd + 1] == '\n')
+			return lineEnd + 2;
+		return lineEnd + 1;
+	}
+
+}
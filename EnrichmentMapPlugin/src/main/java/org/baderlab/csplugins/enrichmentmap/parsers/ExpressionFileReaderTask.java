@@ -43,13 +43,21 @@
 
 package org.baderlab.csplugins.enrichmentmap.parsers;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
-import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
 import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
 import org.cytoscape.work.AbstractTask;
@@ -58,16 +66,34 @@ import org.cytoscape.work.TaskMonitor;
 /**
  * Parse expression file. The user can also use a rank file instead of an
  * expression file so this class also handles reading of rank files.
+ * 
+ * The file is read in large blocks that end at a line break, the blocks are parsed
+ * in parallel by ExpressionChunkParser while the next blocks are being read.
+ * The matrix is added to the map once the whole file has been parsed.
  */
 public class ExpressionFileReaderTask extends AbstractTask {
 
+	private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+	
 	private final EMDataSet dataset;
+	private final ExecutorService executor;
 
 	/**
 	 * @param dataset - dataset expression file is associated with
 	 */
 	public ExpressionFileReaderTask(EMDataSet dataset) {
+		this(dataset, null);
+	}
+	
+	/**
+	 * @param dataset - dataset expression file is associated with
+	 * @param executor - parses the blocks of large files, share it between the readers that run at
+	 *                   the same time so that they don't each start a thread per CPU. If null
+	 *                   the reader creates its own pool when the file doesn't fit in one block.
+	 */
+	public ExpressionFileReaderTask(EMDataSet dataset, ExecutorService executor) {
 		this.dataset = dataset;
+		this.executor = executor;
 	}
 
 	/**
@@ -105,112 +131,246 @@ public class ExpressionFileReaderTask extends AbstractTask {
 		}
 		
 		GeneExpressionMatrix expressionMatrix = new GeneExpressionMatrix();
-		map.putExpressionMatrix(expressionFileName, expressionMatrix);
 		
-		Map<Integer, GeneExpression> expression = expressionMatrix.getExpressionMatrix();
-		
-		List<String> lines = LineReader.readLines(expressionFileName);
-		int currentProgress = 0;
-		int maxValue = lines.size();
+		// same charset as FileReader
+		Charset charset = Charset.defaultCharset();
+		long fileSize = new File(expressionFileName).length();
 		int expressionUniverse = 0;
-		boolean twoColumns = false;
 
-		taskMonitor.setStatusMessage("Parsing GCT file - " + maxValue + " rows");
+		taskMonitor.setStatusMessage("Parsing GCT file");
 		
-		for(int i = 0; i < lines.size(); i++) {
-			String line = lines.get(i);
-			String[] tokens = line.split("\t");
-
-			//The first column of the file is the name of the geneset
-			String Name = tokens[0].toUpperCase().trim();
-
-			//if this is the first line and the expression matrix if still empty and the column names are empty
-			//Added column names empty for GSEA rank files that have no heading but after going through the loop
-			//the first time we have given them default headings
-			if(i == 0 && (expressionMatrix == null || expressionMatrix.getExpressionMatrix().isEmpty()) && expressionMatrix.getColumnNames() == null) {
-				//otherwise the first line is the header
-				if(Name.equalsIgnoreCase("#1.2")) {
-					line = lines.get(2);
-					i = 2;
-				} else {
-					line = lines.get(0);
-					//ignore all comment lines
-					int k = 0;
-					while(line.startsWith("#")) {
-						k++;
-						line = lines.get(k);
-					}
-					i = k;
-				}
-				tokens = line.split("\t");
-
-				//check to see how many columns there are
-				//if there are only 2 columns then we could be dealing with a ranked file
-				//check to see if the second column contains expression values.
-				if(tokens.length == 2) {
-					twoColumns = true;
-					//the assumption is the first line is the column names but
-					//if we are loading a GSEA edb rnk file then their might not be column names
-					try {
-						int temp = Integer.parseInt(tokens[1]);
-						i = -1;
-						tokens[0] = "Name";
-						tokens[1] = "Rank/Score";
-					} catch(NumberFormatException v) {
-						try {
-							double temp2 = Double.parseDouble(tokens[1]);
-							i = -1;
-							tokens[0] = "Name";
-							tokens[1] = "Rank/Score";
-
-						} catch(NumberFormatException v2) {
-							//if it isn't a double or int then we have a title line.
-						}
-					}
-				}
-
-				//expressionMatrix = new GeneExpressionMatrix(tokens);
-				expressionMatrix.setColumnNames(tokens);
+		ExecutorService ownExecutor = null;
+		Deque<Future<ExpressionChunkParser>> pending = new ArrayDeque<>();
+		try(InputStream in = new FileInputStream(expressionFileName)) {
+			BlockReader reader = new BlockReader(in);
+			reader.fill();
+			
+			Header header;
+			while((header = readHeader(reader, charset)) == null) {
+				reader.next(0);
+			}
+			if(header.columnNames != null) {
+				expressionMatrix.setColumnNames(header.columnNames);
 				expressionMatrix.setNumConditions(expressionMatrix.getColumnNames().length);
-				expressionMatrix.setExpressionMatrix(expression);
-
-				continue;
 			}
-
-			//Check to see if this gene is in the genes list
+			
 			//Currently we only load gene expression data for genes that are already in the gene list (i.e. are listed in at least one geneset)
 			//TODO:is there the possibility that we need all the expression genes?  Currently this great decreases space when saving sessions
-			Integer genekey = map.getHashFromGene(Name);
-			if(genekey != null) {
-				String description = "";
-				//check to see if the second column is parseable
-				if(twoColumns) {
-					try {
-						Double.parseDouble(tokens[1]);
-					} catch(NumberFormatException e) {
-						description = tokens[1];
+			boolean twoColumns = header.twoColumns;
+			int cpus = Runtime.getRuntime().availableProcessors();
+			ExecutorService executor = this.executor;
+			
+			int start = header.dataStart;
+			while(!cancelled) {
+				byte[] bytes = reader.bytes;
+				int blockStart = start;
+				int blockEnd = reader.lastLineBreak(start);
+				
+				if(blockEnd > blockStart) {
+					if(reader.eof && pending.isEmpty()) {
+						// the whole file fits in one block, no need for other threads
+						expressionUniverse += merge(new ExpressionChunkParser(map, charset, twoColumns).parse(bytes, blockStart, blockEnd), expressionMatrix);
+					} else {
+						if(executor == null)
+							executor = ownExecutor = new ForkJoinPool(cpus);
+						// limit the number of blocks in memory, the results are merged in file order
+						if(pending.size() >= cpus * 2)
+							expressionUniverse += merge(getResult(pending.removeFirst()), expressionMatrix);
+						pending.addLast(executor.submit(() -> new ExpressionChunkParser(map, charset, twoColumns).parse(bytes, blockStart, blockEnd)));
 					}
-				} else {
-					description = tokens[1];
 				}
-
-				GeneExpression expres = new GeneExpression(Name, description);
-				expres.setExpression(tokens);
-				expression.put(genekey, expres);
+				
+				if(fileSize > 0)
+					taskMonitor.setProgress((double) reader.bytesRead / fileSize);
+				
+				if(reader.eof)
+					break;
+				// keep the partial line at the end of the block
+				reader.next(blockEnd);
+				start = 0;
 			}
-			expressionUniverse++;
-
-			// Calculate Percentage.  This must be a value between 0..100.
-			int percentComplete = (int) (((double) currentProgress / maxValue) * 100);
-			taskMonitor.setProgress(percentComplete);
 			
-			currentProgress++;
+			while(!pending.isEmpty() && !cancelled) {
+				expressionUniverse += merge(getResult(pending.removeFirst()), expressionMatrix);
+			}
+			// don't leave a partially loaded matrix in the map
+			if(cancelled)
+				throw new InterruptedIOException("Loading " + expressionFileName + " was cancelled");
+		} finally {
+			// the executor may be shared, only stop the blocks of this file
+			for(Future<ExpressionChunkParser> future : pending)
+				future.cancel(true);
+			if(ownExecutor != null)
+				ownExecutor.shutdownNow();
 		}
 
 		//set the number of genes
 		expressionMatrix.setExpressionUniverse(expressionUniverse);
+		expressionMatrix.trimToSize();
+		map.putExpressionMatrix(expressionFileName, expressionMatrix);
 		return expressionMatrix;
 	}
+	
+	
+	/**
+	 * Adds the rows of the chunk to the expression matrix, rows that come later in the file replace earlier rows
+	 * for the same gene. Returns the number of rows that were parsed.
+	 */
+	private static int merge(ExpressionChunkParser chunk, GeneExpressionMatrix expressionMatrix) {
+		chunk.addRowsTo(expressionMatrix);
+		return chunk.getRowCount();
+	}
+	
+	private static ExpressionChunkParser getResult(Future<ExpressionChunkParser> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	
+	private static class Header {
+		String[] columnNames;
+		boolean twoColumns = false;
+		int dataStart;
+	}
+	
+	/**
+	 * Finds the column names and the first data row, returns null if more of the file needs to be read.
+	 */
+	private static Header readHeader(BlockReader reader, Charset charset) {
+		Header header = new Header();
+		
+		int lineStart = 0;
+		int lineEnd = reader.completeLineEnd(lineStart);
+		if(lineEnd < 0)
+			return null;
+		if(reader.eof && lineStart == reader.length) {
+			header.dataStart = reader.length;
+			return header;
+		}
+		String line = new String(reader.bytes, lineStart, lineEnd - lineStart, charset);
+		
+		//The first column of the file is the name of the geneset
+		int tab = line.indexOf('\t');
+		String name = (tab < 0 ? line : line.substring(0, tab)).toUpperCase().trim();
+		
+		//otherwise the first line is the header
+		boolean gct = name.equalsIgnoreCase("#1.2");
+		int skip = gct ? 2 : 0;
+		//ignore all comment lines
+		while(skip > 0 || (!gct && line.startsWith("#"))) {
+			lineStart = ExpressionChunkParser.nextLineStart(reader.bytes, lineEnd, reader.length);
+			lineEnd = reader.completeLineEnd(lineStart);
+			if(lineEnd < 0)
+				return null;
+			if(reader.eof && lineStart == reader.length) {
+				header.dataStart = reader.length;
+				return header;
+			}
+			line = new String(reader.bytes, lineStart, lineEnd - lineStart, charset);
+			skip--;
+		}
+		
+		String[] tokens = line.split("\t");
+		header.dataStart = ExpressionChunkParser.nextLineStart(reader.bytes, lineEnd, reader.length);
+
+		//check to see how many columns there are
+		//if there are only 2 columns then we could be dealing with a ranked file
+		//check to see if the second column contains expression values.
+		if(tokens.length == 2) {
+			header.twoColumns = true;
+			//the assumption is the first line is the column names but
+			//if we are loading a GSEA edb rnk file then their might not be column names
+			try {
+				Double.parseDouble(tokens[1]);
+				header.dataStart = 0;
+				tokens[0] = "Name";
+				tokens[1] = "Rank/Score";
+			} catch(NumberFormatException v) {
+				//if it isn't a double or int then we have a title line.
+			}
+		}
+		header.columnNames = tokens;
+		return header;
+	}
+	
+	
+	/**
+	 * Reads the file in large blocks. Every block that is handed out ends at a line break
+	 * and is never modified afterwards, so it can be parsed on another thread.
+	 */
+	private static class BlockReader {
+		private final InputStream in;
+		byte[] bytes = new byte[BLOCK_SIZE];
+		int length = 0;
+		long bytesRead = 0;
+		boolean eof = false;
+		
+		BlockReader(InputStream in) {
+			this.in = in;
+		}
+		
+		void fill() throws IOException {
+			while(length < bytes.length && !eof) {
+				int n = in.read(bytes, length, bytes.length - length);
+				if(n < 0) {
+					eof = true;
+				} else {
+					length += n;
+					bytesRead += n;
+				}
+			}
+		}
+		
+		/**
+		 * Moves the bytes from start onward into a new block and reads more of the file after them.
+		 */
+		void next(int start) throws IOException {
+			int tail = length - start;
+			byte[] next = new byte[Math.max(BLOCK_SIZE, tail * 2)];
+			System.arraycopy(bytes, start, next, 0, tail);
+			bytes = next;
+			length = tail;
+			fill();
+		}
+		
+		/**
+		 * Returns the end of the last complete line in the block, or start if there isn't one.
+		 */
+		int lastLineBreak(int start) {
+			if(eof)
+				return length;
+			int i = length - 1;
+			// a \r at the end of the block might be followed by a \n in the next block
+			if(i >= start && bytes[i] == '\r')
+				i--;
+			for(; i >= start; i--) {
+				if(bytes[i] == '\n' || bytes[i] == '\r')
+					return i + 1;
+			}
+			return start;
+		}
+		
+		/**
+		 * Returns the end of the line that starts at lineStart, or -1 if more of the file needs to be read.
+		 */
+		int completeLineEnd(int lineStart) {
+			int lineEnd = ExpressionChunkParser.lineEnd(bytes, lineStart, length);
+			if(!eof && lineEnd >= length - 1)
+				return -1;
+			return lineEnd;
+		}
+	}
 
 
 	@Override
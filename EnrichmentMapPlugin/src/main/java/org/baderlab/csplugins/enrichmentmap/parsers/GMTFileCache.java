@@ -0,0 +1,137 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Remembers the gene sets parsed from GMT files while an EnrichmentMap is being built, so that
+ * when several data sets use the same GMT file it is only parsed once.
+ *
+ * Files are identified by their canonical path and last modified time. The cached maps are
+ * unmodifiable, the GeneSet objects they contain are shared by all the data sets that use the file.
+ *
+ * The files are parsed concurrently with their own gene IDs. The genes are then added to the
+ * EnrichmentMap one reader at a time, in the order the readers were registered with addReader(),
+ * so the gene IDs are the same as when the files are read one after the other. The readers must be
+ * started in the order they were registered, like the tasks of a LoadDataSetFilesTask stage.
+ * A cache must not be shared between maps.
+ */
+public class GMTFileCache {
+
+	@FunctionalInterface
+	public interface GMTParser {
+		Map<String,GeneSet> parse(String fileName, GeneDictionary genes) throws IOException, InterruptedException;
+	}
+
+	private final ConcurrentMap<String,CacheEntry> geneSetsByFile = new ConcurrentHashMap<>();
+
+	private final Object readersLock = new Object();
+	private int readerCount = 0;
+	private final BitSet finishedReaders = new BitSet();
+
+	private static class CacheEntry {
+		// the gene sets with the IDs of the file, until the genes are added to the map
+		GeneDictionary fileGenes;
+		Map<String,GeneSet> parsedGeneSets;
+		// the gene sets with the IDs of the map
+		Map<String,GeneSet> geneSets;
+	}
+
+
+	/**
+	 * Registers a reader, the genes of the readers are added to the map in the order they were registered.
+	 */
+	public int addReader() {
+		synchronized(readersLock) {
+			return readerCount++;
+		}
+	}
+
+	/**
+	 * Returns the gene sets contained in the given file, the parser is only called
+	 * if the file has not been parsed before or if it has changed since.
+	 * Different files can be parsed at the same time, a thread that asks for a file
+	 * that is being parsed waits for the result. Then waits for the readers that were
+	 * registered before this one, and adds the genes of the file to the map.
+	 */
+	public Map<String,GeneSet> getGeneSets(String fileName, int reader, EnrichmentMap map, GMTParser parser) throws IOException, InterruptedException {
+		try {
+			File file = new File(fileName);
+			String key = file.getCanonicalPath() + '\n' + file.lastModified();
+
+			CacheEntry entry = geneSetsByFile.computeIfAbsent(key, k -> new CacheEntry());
+			synchronized(entry) {
+				if(entry.geneSets == null && entry.parsedGeneSets == null) {
+					GeneDictionary fileGenes = new GeneDictionary();
+					entry.parsedGeneSets = parser.parse(fileName, fileGenes);
+					entry.fileGenes = fileGenes;
+				}
+			}
+
+			awaitPreviousReaders(reader);
+			synchronized(entry) {
+				if(entry.geneSets == null) {
+					entry.geneSets = addGenes(map, entry.fileGenes, entry.parsedGeneSets);
+					entry.fileGenes = null;
+					entry.parsedGeneSets = null;
+				}
+				return entry.geneSets;
+			}
+		} finally {
+			// a reader that fails doesn't block the others
+			readerFinished(reader);
+		}
+	}
+
+
+	private void awaitPreviousReaders(int reader) throws InterruptedException {
+		synchronized(readersLock) {
+			while(finishedReaders.nextClearBit(0) < reader) {
+				readersLock.wait();
+			}
+		}
+	}
+
+	private void readerFinished(int reader) {
+		synchronized(readersLock) {
+			finishedReaders.set(reader);
+			readersLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Adds the genes to the map in the order of their IDs in the file, which is the order they
+	 * first appear in the file, and returns the gene sets with the IDs of the map.
+	 */
+	private static Map<String,GeneSet> addGenes(EnrichmentMap map, GeneDictionary fileGenes, Map<String,GeneSet> parsedGeneSets) {
+		String[] names = fileGenes.getNames();
+		int[] mapIds = new int[names.length];
+		for(int id = 0; id < names.length; id++) {
+			if(names[id] != null)
+				mapIds[id] = map.addGene(names[id]);
+		}
+
+		Map<String,GeneSet> geneSets = new HashMap<>(parsedGeneSets.size() * 2);
+		for(GeneSet geneSet : parsedGeneSets.values()) {
+			ImmutableSet.Builder<Integer> genes = ImmutableSet.builder();
+			for(Integer id : geneSet.getGenes()) {
+				genes.add(mapIds[id]);
+			}
+			geneSets.put(geneSet.getName(), new GeneSet(geneSet.getName(), geneSet.getDescription(), genes.build()));
+		}
+		return Collections.unmodifiableMap(geneSets);
+	}
+
+}
@@ -47,6 +47,8 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.Normalizer;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -54,6 +56,7 @@ import java.util.regex.Pattern;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
@@ -72,13 +75,25 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 	private final SetOfGeneSets setOfGeneSets;
 	private final Supplier<String> fileNameSupplier;
 	private final Consumer<SetOfGeneSets> geneSetConsumer;
+	private final GMTFileCache cache;
+	private final int reader;
 
 
 	public GMTFileReaderTask(EMDataSet dataset) {
+		this(dataset, null);
+	}
+	
+	/**
+	 * @param cache shared by the tasks that load the data sets of the same map, so that each GMT file is only parsed once, may be null.
+	 * The genes are added to the map in the order the tasks were created, see GMTFileCache.
+	 */
+	public GMTFileReaderTask(EMDataSet dataset, GMTFileCache cache) {
 		this.map = dataset.getMap();
 		this.fileNameSupplier = () -> dataset.getDataSetFiles().getGMTFileName();
 		this.setOfGeneSets = dataset.getSetOfGeneSets();
 		this.geneSetConsumer = null;
+		this.cache = cache;
+		this.reader = cache == null ? -1 : cache.addReader();
 	}
 	
 	public GMTFileReaderTask(EnrichmentMap map, String fileName, SetOfGeneSets geneSets) {
@@ -86,13 +101,17 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 		this.fileNameSupplier = () -> fileName;
 		this.setOfGeneSets = geneSets;
 		this.geneSetConsumer = null;
-		
+		this.cache = null;
+		this.reader = -1;
 	}
+	
 	public GMTFileReaderTask(EnrichmentMap map, Supplier<String> fileNameSupplier, Consumer<SetOfGeneSets> geneSetConsumer) {
 		this.map = map;
 		this.fileNameSupplier = fileNameSupplier;
 		this.setOfGeneSets = new SetOfGeneSets();
 		this.geneSetConsumer = geneSetConsumer;
+		this.cache = null;
+		this.reader = -1;
 	}
 	
 	
@@ -106,41 +125,68 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 	
 	public void parse() throws IOException, InterruptedException {
 		String fileName = fileNameSupplier.get();
+		Map<String,GeneSet> geneSets;
+		if(cache == null)
+			geneSets = readGeneSets(fileName, map.getGeneDictionary());
+		else
+			geneSets = cache.getGeneSets(fileName, reader, map, this::readGeneSets);
+		if(setOfGeneSets != null) {
+			setOfGeneSets.getGeneSets().putAll(geneSets);
+		}
+		if(geneSetConsumer != null) {
+			geneSetConsumer.accept(setOfGeneSets);
+		}
+	}
+	
+	private Map<String,GeneSet> readGeneSets(String fileName, GeneDictionary genes) throws IOException, InterruptedException {
+		Map<String,GeneSet> geneSets = new HashMap<>();
 		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
 			for (String line; (line = reader.readLine()) != null;) {
 				if (cancelled) {
 					throw new InterruptedException();
 				}
-				GeneSet gs = readGeneSet(map, line);
-				if (gs != null && setOfGeneSets != null) {
-					Map<String, GeneSet> genesets = setOfGeneSets.getGeneSets();
-					genesets.put(gs.getName(), gs);
-				}
-				if(geneSetConsumer != null) {
-					geneSetConsumer.accept(setOfGeneSets);
+				GeneSet gs = readGeneSet(genes, line);
+				if (gs != null) {
+					geneSets.put(gs.getName(), gs);
 				}
 			}
 		}
+		return Collections.unmodifiableMap(geneSets);
 	}
 
-	private static GeneSet readGeneSet(EnrichmentMap map, String line) {
-		String[] tokens = line.split("\t");
+	/**
+	 * Splits the line on tabs without using a regex, gives the same result as line.split("\t").
+	 * The genes are added to the dictionary like EnrichmentMap.addGene() does.
+	 */
+	static GeneSet readGeneSet(GeneDictionary genes, String line) {
+		// like String.split() trailing empty tokens are ignored
+		int end = line.length();
+		while(end > 0 && line.charAt(end - 1) == '\t')
+			end--;
+		
 		//only go through the lines that have at least a gene set name and description.
-		if(tokens.length >= 2) {
-			// set of genes keys
-			ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
-			
-			String name = tokens[0].toUpperCase().trim();
-			String description = tokens[1].trim();
-			
-			for(int i = 2; i < tokens.length; i++) {
-				Integer hash = map.addGene(tokens[i]);
-				if(hash != null)
-					builder.add(hash);
-			}
-			return new GeneSet(name, description, builder.build());
+		int nameEnd = line.indexOf('\t');
+		if(nameEnd < 0 || nameEnd >= end)
+			return null;
+		
+		int descriptionEnd = line.indexOf('\t', nameEnd + 1);
+		if(descriptionEnd < 0 || descriptionEnd > end)
+			descriptionEnd = end;
+		
+		String name = line.substring(0, nameEnd).toUpperCase().trim();
+		String description = line.substring(nameEnd + 1, descriptionEnd).trim();
+		
+		// set of genes keys
+		ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
+		for(int start = descriptionEnd + 1; start < end;) {
+			int tab = line.indexOf('\t', start);
+			if(tab < 0 || tab > end)
+				tab = end;
+			if(tab > start)
+				builder.add(genes.add(line.substring(start, tab).toUpperCase()));
+			start = tab + 1;
 		}
-		return null;
+		return new GeneSet(name, description, builder.build());
 	}
 	
 	
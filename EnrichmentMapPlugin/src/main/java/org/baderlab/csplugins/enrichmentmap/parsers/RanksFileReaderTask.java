@@ -43,18 +43,17 @@
 
 package org.baderlab.csplugins.enrichmentmap.parsers;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
-import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
 import org.baderlab.csplugins.enrichmentmap.model.Rank;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
@@ -70,10 +69,15 @@ import org.cytoscape.work.TaskMonitor;
  * represented as a double, commented lines have a # at the line start. GSEA
  * output rank files (xls file) - a five column file with genes and specified
  * rank but also have three bland columns.
+ * <p>
+ * The file is read one line at a time and the scores are kept in a primitive array,
+ * the ranks are computed by sorting the scores once.
  *
  */
 public class RanksFileReaderTask extends AbstractTask {
 
+	private static final Pattern RANKS_NAME_COMMENT = Pattern.compile("^# *Ranks[ _-]?Name *:.+");
+
 	private String RankFileName;
 	private EMDataSet dataset;
 	private String ranks_name;
@@ -121,28 +125,36 @@ public class RanksFileReaderTask extends AbstractTask {
 		this.loadFromHeatmap = loadFromHeatmap;
 	}
 
-	
 	/**
 	 * parse the rank file
 	 */
 	public void parse(TaskMonitor taskMonitor) throws IOException {
 		if(taskMonitor == null)
 			taskMonitor = new NullTaskMonitor();
-		
-		List<String> lines = LineReader.readLines(RankFileName);
-		
-		int lineNumber = 0;
-		int currentProgress = 0;
-		int maxValue = lines.size();
-		taskMonitor.setStatusMessage("Parsing Rank file - " + maxValue + " rows");
-
-		EnrichmentMap map = dataset.getMap();
-		// we don't know the number of scores in the rank file yet, but it can't be more than the number of lines.
-		Double[] score_collector = new Double[lines.size()];
 
+		long fileSize = new File(RankFileName).length();
+		taskMonitor.setStatusMessage("Parsing Rank file");
+
+		GeneDictionary genes = dataset.getMap().getGeneDictionary();
+		boolean gseaDataSet = dataset.getMethod() == Method.GSEA && !loadFromHeatmap;
 		boolean gseaDefinedRanks = false;
+		boolean headerSkipped = false;
+
+		// scores of all the rows, in file order
+		double[] scores = new double[1024];
+		int nScores = 0; //number of found scores
+
+		// rows of the genes that are in the gene list, a gene that is listed twice uses its last row
+		int[] geneKeys = new int[1024];
+		String[] geneNames = new String[1024];
+		int[] geneScores = new int[1024]; // index into scores
+		int[] geneRanks = new int[1024];  // rank defined by the order of the file, -1 if none
+		int nGenes = 0;
 
-		Map<Integer, Rank> ranks = new HashMap<>();
+		int[] tabs = new int[4];
+		int lineCount = 0;
+		int invalidLines = 0;
+		long charsRead = 0;
 
 		/*
 		 * there are two possible Rank files: If loaded through the rpt file the
@@ -152,71 +164,63 @@ public class RanksFileReaderTask extends AbstractTask {
 		 * (name,score). The score in either case should be a double and the
 		 * name a string so check for either option.
 		 */
-
-		int nScores = 0; //number of found scores
-		for(int i = 0; i < lines.size(); i++) {
-			String line = lines.get(i);
-
-			//check to see if the line is commented out and should be ignored.
-			if(line.startsWith("#")) {
-				// look for ranks_name in comment line e.g.: "# Ranks Name : My Ranks"
-				if(Pattern.matches("^# *Ranks[ _-]?Name *:.+", line)) {
-					this.ranks_name = line.split(":", 2)[1];
-					while(this.ranks_name.startsWith(" "))
-						this.ranks_name = this.ranks_name.substring(1);
+		try(BufferedReader reader = new BufferedReader(new FileReader(RankFileName))) {
+			for(String line; (line = reader.readLine()) != null;) {
+				if(cancelled)
+					throw new InterruptedIOException("Loading " + RankFileName + " was cancelled");
+
+				charsRead += line.length() + 1;
+				if(fileSize > 0 && (++lineCount & 0x3FF) == 0)
+					taskMonitor.setProgress(Math.min(1.0, (double) charsRead / fileSize));
+
+				//check to see if the line is commented out and should be ignored.
+				if(line.startsWith("#")) {
+					// look for ranks_name in comment line e.g.: "# Ranks Name : My Ranks"
+					if(RANKS_NAME_COMMENT.matcher(line).matches()) {
+						this.ranks_name = line.split(":", 2)[1];
+						while(this.ranks_name.startsWith(" "))
+							this.ranks_name = this.ranks_name.substring(1);
+					}
+					//ignore comment line
+					continue;
 				}
-				//ignore comment line
-				continue;
-			}
 
-			String[] tokens = line.split("\t");
+				int nTokens = tokenize(line, tabs);
+
+				//if there are 5 columns in the data then the rank is the last column
+				//if there are 2 columns in the data then the rank is the 2 column
+				int scoreColumn;
+				if(nTokens == 5) {
+					scoreColumn = 4;
+				} else if(nTokens == 2) {
+					scoreColumn = 1;
+				} else {
+					//skip invalid line, they are reported once the file is read
+					invalidLines++;
+					continue;
+				}
 
-			String name = tokens[0].toUpperCase();
-			double score = 0;
+				String name = line.substring(0, tabs[0]);
+				int scoreStart = tabs[scoreColumn - 1] + 1;
+				int scoreEnd = endOfToken(line, scoreStart);
 
-			//if there are 5 columns in the data then the rank is the last column
-			if(tokens.length == 5) {
 				//ignore rows where the expected rank value is not a valid double
+				double score;
 				try {
-					//gseaDefinedRanks = true;
-					score = Double.parseDouble(tokens[4]);
-				} catch(NumberFormatException nfe) {
-					if(lineNumber == 0) {
-						lineNumber++;
-						continue;
-					} else
-						throw new IllegalThreadStateException("rank value for" + tokens[0] + "is not a valid number");
-				}
-				nScores++;
-			}
-			//if there are 2 columns in the data then the rank is the 2 column
-			else if(tokens.length == 2) {
-				try {
-					score = Double.parseDouble(tokens[1]);
+					score = Double.parseDouble(line.substring(scoreStart, scoreEnd));
 				} catch(NumberFormatException nfe) {
-					if(lineNumber == 0) {
-						lineNumber++;
+					if(!headerSkipped) {
+						headerSkipped = true;
 						continue;
 					} else
-						throw new IllegalThreadStateException("rank value for" + tokens[0] + "is not a valid number");
+						throw new IllegalThreadStateException("rank value for" + name + "is not a valid number");
 				}
-				nScores++;
-			} else {
-				System.out.println("Invalid number of tokens line of Rank File (should be 5 or 2)");
-				//skip invalid line
-				continue;
-			}
 
-			if((tokens.length == 5) || (dataset.getMethod() == Method.GSEA && !loadFromHeatmap))
-				gseaDefinedRanks = true;
+				if(nScores == scores.length)
+					scores = Arrays.copyOf(scores, nScores * 2);
+				//add score to array of scores
+				scores[nScores++] = score;
 
-			//add score to array of scores
-			score_collector[nScores - 1] = score;
-
-			//check to see if the gene is in the genelist
-			Integer genekey = map.getHashFromGene(name);
-			if(genekey != null) {
-				Rank current_ranking;
 				//if their were 5 tokens in the rank file then the assumption
 				//is that this is a GSEA rank file and the order of the scores
 				//is indicative of the rank
@@ -227,86 +231,154 @@ public class RanksFileReaderTask extends AbstractTask {
 				// based on the order of the scores.
 				// Making the assumption that all rank files loaded for GSEA results from EM input panel are leading
 				// edge compatible files.
-				if((tokens.length == 5) || (dataset.getMethod() == Method.GSEA && !loadFromHeatmap)) {
-					current_ranking = new Rank(name, score, nScores);
-				} else {
-					current_ranking = new Rank(name, score);
+				boolean rankFromOrder = nTokens == 5 || gseaDataSet;
+				if(rankFromOrder)
+					gseaDefinedRanks = true;
+
+				//check to see if the gene is in the genelist
+				name = name.toUpperCase();
+				int genekey = genes.getId(name);
+				if(genekey != GeneDictionary.NO_ID) {
+					if(nGenes == geneKeys.length) {
+						int capacity = nGenes * 2;
+						geneKeys = Arrays.copyOf(geneKeys, capacity);
+						geneNames = Arrays.copyOf(geneNames, capacity);
+						geneScores = Arrays.copyOf(geneScores, capacity);
+						geneRanks = Arrays.copyOf(geneRanks, capacity);
+					}
+					geneKeys[nGenes] = genekey;
+					geneNames[nGenes] = name;
+					geneScores[nGenes] = nScores - 1;
+					geneRanks[nGenes] = rankFromOrder ? nScores : -1;
+					nGenes++;
 				}
-				ranks.put(genekey, current_ranking);
 			}
+		}
 
-			// Calculate Percentage.  This must be a value between 0..100.
-			int percentComplete = (int) (((double) currentProgress / maxValue) * 100);
-			taskMonitor.setProgress(percentComplete);
-			currentProgress++;
-
+		if(invalidLines > 0) {
+			taskMonitor.showMessage(TaskMonitor.Level.WARN,
+					"Skipped " + invalidLines + " lines of " + RankFileName + " with an invalid number of tokens (should be 5 or 2)");
 		}
 
 		//the none of the genes are in the gene list
-		if(ranks.isEmpty()) {
+		if(nGenes == 0) {
 			throw new IllegalThreadStateException("None of the genes in the rank file are found in the expression file.  Make sure the identifiers of the two files match.");
 		}
 
-		//remove Null values from collector
-		Double[] sort_scores = new Double[nScores];
-		double[] scores = new double[nScores];
-		for(int i = 0; i < nScores; i++) {
-			sort_scores[i] = score_collector[i];
-			scores[i] = (double) score_collector[i];
+		//only compute the ranks if we haven't already defined them using order of scores in file
+		if(!gseaDefinedRanks) {
+			int[] ranks = computeRanks(Arrays.copyOf(scores, nScores), geneScores, nGenes);
+			System.arraycopy(ranks, 0, geneRanks, 0, nGenes);
+		}
+
+		//create a new Ranking
+		Ranking new_ranking = new Ranking();
+		for(int i = 0; i < nGenes; i++) {
+			double score = scores[geneScores[i]];
+			Rank rank = geneRanks[i] < 0 ? new Rank(geneNames[i], score) : new Rank(geneNames[i], score, geneRanks[i]);
+			new_ranking.addRank(geneKeys[i], rank);
+		}
+
+		taskMonitor.setProgress(1.0);
+
+		//add the Ranks to the expression file ranking
+		dataset.addRanks(ranks_name, new_ranking);
+	}
+
+
+	/**
+	 * Returns the number of tokens that line.split("\t") would return, and stores the positions of the first tabs.
+	 * Like split() trailing empty tokens are not counted.
+	 */
+	static int tokenize(String line, int[] tabs) {
+		int nTabs = 0;
+		int nTokens = 0;
+		int start = 0;
+		while(true) {
+			int tab = line.indexOf('\t', start);
+			int end = tab < 0 ? line.length() : tab;
+			if(end > start)
+				nTokens = nTabs + 1;
+			if(tab < 0)
+				break;
+			if(nTabs < tabs.length)
+				tabs[nTabs] = tab;
+			nTabs++;
+			start = tab + 1;
+		}
+		// split() returns the whole line if there isn't a tab
+		return nTabs == 0 ? 1 : nTokens;
+	}
+
+	private static int endOfToken(String line, int start) {
+		int tab = line.indexOf('\t', start);
+		return tab < 0 ? line.length() : tab;
+	}
+
+	/**
+	 * Computes the rank of the score of every gene. The scores are sorted in descending order, or in ascending
+	 * order if they are all between -1 and 1 (p-values), and the rank of a score is the position of its first
+	 * occurrence in the sorted scores.
+	 *
+	 * @param scores all the scores in the rank file, this array is sorted in place
+	 * @param geneScores the index into scores of each gene
+	 */
+	static int[] computeRanks(double[] scores, int[] geneScores, int nGenes) {
+		// the scores of the genes have to be read before the array is sorted
+		double[] values = new double[nGenes];
+		for(int i = 0; i < nGenes; i++) {
+			values[i] = scores[geneScores[i]];
 		}
 
-		//after we have loaded in all the scores, sort the score to compute ranks
-		//create hash of scores to ranks.
-		HashMap<Double, Integer> score2ranks = new HashMap<Double, Integer>();
-		//sorts the array in descending order
-		Arrays.sort(sort_scores, Collections.reverseOrder());
+		// same order as Double.compareTo(), NaN's last
+		Arrays.sort(scores);
+		int n = scores.length;
 
 		//check to see if they are p-values (if the values are between -1 and 1 , for a signed pvalue)
 		//this will actually give a weird sorting behaviour if the scores are actually not p-values and
 		//just signed statistics for instance as it will sort them in the opposite direction.
-		if(sort_scores[0] <= 1 && sort_scores[sort_scores.length - 1] >= -1)
-			Arrays.sort(sort_scores);
-
-		for(int j = 0; j < sort_scores.length; j++) {
-			//check to see if this score is already enter
-			if(!score2ranks.containsKey(sort_scores[j]))
-				score2ranks.put(sort_scores[j], j);
-		}
+		boolean ascending = scores[n - 1] <= 1 && scores[0] >= -1;
 
-		//update scores Hash to contain the ranks as well.
-		//only update the ranks if we haven't already defined them using order of scores in file
-		if(!gseaDefinedRanks) {
-			for(Iterator<Integer> k = ranks.keySet().iterator(); k.hasNext();) {
-				Integer gene_key = k.next();
-				Rank current_ranking = ranks.get(gene_key);
-				Integer rank = score2ranks.get(current_ranking.getScore());
-				current_ranking.setRank(rank);
-				// update rank2gene and gene2score as well
+		int[] ranks = new int[nGenes];
+		for(int i = 0; i < nGenes; i++) {
+			if(ascending) {
+				ranks[i] = lowerBound(scores, values[i]);
+			} else {
+				// the first occurrence in descending order is the last occurrence in ascending order
+				ranks[i] = n - upperBound(scores, values[i]);
 			}
 		}
-		
-		//check to see if some of the dataset genes are not in this rank file
-//		Set<Integer> current_genes = dataset.getDataSetGenes();
-//
-//		Set<Integer> current_ranks = ranks.keySet();
-//
-//		//intersect the genes with the ranks.  only retain the genes that have ranks.
-//		Set<Integer> intersection = new HashSet<>(current_genes);
-//		intersection.retainAll(current_ranks);
-//
-//		//see if there more genes than there are ranks
-//		if(!(intersection.size() == current_genes.size())) {
-//			//JOptionPane.showMessageDialog(Cytoscape.getDesktop(),"Ranks for some of the genes/proteins listed in the expression file are missing. \n These genes/proteins will be excluded from ranked listing in the heat map.");
-//
-//		}
-
-		//create a new Ranking
-		Ranking new_ranking = new Ranking();
-		ranks.forEach(new_ranking::addRank);
+		return ranks;
+	}
 
-		//add the Ranks to the expression file ranking
-		dataset.addRanks(ranks_name, new_ranking);
+	/**
+	 * Returns the index of the first value in the sorted array that is not smaller than the given value.
+	 */
+	private static int lowerBound(double[] sorted, double value) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sorted[mid], value) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
 
+	/**
+	 * Returns the index of the first value in the sorted array that is larger than the given value.
+	 */
+	private static int upperBound(double[] sorted, double value) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sorted[mid], value) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
 	}
 
 	@Override
@@ -9,6 +9,7 @@ import java.util.function.Predicate;
 
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
+import org.baderlab.csplugins.enrichmentmap.model.Transform;
 
 public class DataSetExpressionResponse {
 
@@ -30,13 +31,13 @@ public class DataSetExpressionResponse {
 		
 		expressions = new ArrayList<>();
 		
-		matrix.getExpressionMatrix().forEach((hash, geneExpression) -> {
-			String geneName = map.getGeneFromHashKey(hash);
+		for(int row = 0; row < matrix.getNumGenes(); row++) {
+			String geneName = map.getGeneFromHashKey(matrix.getGeneId(row));
 			if(geneFilter.test(geneName)) {
-				float[] values = geneExpression.getExpression();
+				float[] values = matrix.getExpression(row, Transform.AS_IS);
 				expressions.add(new GeneExpressionResponse(geneName, values));
 			}
-		});
+		}
 	}
 
 	public List<String> getDataSets() {
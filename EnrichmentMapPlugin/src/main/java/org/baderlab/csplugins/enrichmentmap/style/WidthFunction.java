@@ -11,7 +11,10 @@ import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.
 import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.EDGE_WIDTH_FORMULA_COLUMN;
 import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.NETWORK_EDGE_WIDTH_PARAMETERS_COLUMN;
 
-import org.baderlab.csplugins.enrichmentmap.CytoscapeServiceModule.Continuous;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMapManager;
 import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisFilterType;
@@ -20,10 +23,6 @@ import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
-import org.cytoscape.view.presentation.property.BasicVisualLexicon;
-import org.cytoscape.view.vizmap.VisualMappingFunctionFactory;
-import org.cytoscape.view.vizmap.mappings.BoundaryRangeValues;
-import org.cytoscape.view.vizmap.mappings.ContinuousMapping;
 import org.cytoscape.work.TaskMonitor;
 
 import com.google.inject.Inject;
@@ -36,12 +35,10 @@ public class WidthFunction {
 	public static final double DEFAULT_WIDTH_PA_LESS_THAN_10 = 4.5;
 	public static final double DEFAULT_WIDTH_PA_GREATER = 1.0;
 	
-	private final VisualMappingFunctionFactory vmfFactoryContinuous;
 	private final EnrichmentMapManager emManager;
 	
 	@Inject
-	public WidthFunction(@Continuous VisualMappingFunctionFactory vmfFactoryContinuous, EnrichmentMapManager emManager) {
-		this.vmfFactoryContinuous = vmfFactoryContinuous;
+	public WidthFunction(EnrichmentMapManager emManager) {
 		this.emManager = emManager;
 	}
 
@@ -71,76 +68,136 @@ public class WidthFunction {
 	private void calculateAndSetEdgeWidths(CyNetwork network, String prefix, TaskMonitor taskMonitor) {
 		EdgeWidthParams edgeWidthParams = EdgeWidthParams.restore(network);
 		EnrichmentMap map = emManager.getEnrichmentMap(network.getSUID());
-//		String widthAttribute = prefix + EDGE_WIDTH_FORMULA_COLUMN;
+		SimilarityWidthMapping mapping = new SimilarityWidthMapping(map.getParams().getSimilarityCutoff(), edgeWidthParams);
 		
-		int n = network.getDefaultEdgeTable().getRowCount();
-		int i = 0;
+		// Read the inputs in one pass, NaN stands for a missing value
+		List<CyRow> rows = new ArrayList<>(network.getDefaultEdgeTable().getAllRows());
+		int n = rows.size();
+		double[] similarities = new double[n];
+		double[] widths = new double[n];
+		boolean[] signature = new boolean[n];
 		
-		for (CyRow row : network.getDefaultEdgeTable().getAllRows()) {
-			if (taskMonitor != null)
-				taskMonitor.setProgress((double) i / (double) n);
-			
-			i++;
-			String interaction = row.get(CyEdge.INTERACTION, String.class);
-			
-			if (isSignature(interaction)) {
-				String cutoffType = EDGE_CUTOFF_TYPE.get(row, prefix, null);
-				PostAnalysisFilterType filterType = PostAnalysisFilterType.fromDisplayString(cutoffType);
-				
-				if (filterType == null) {
-					EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, null, null);
-					continue;
-				}
-				
-				Double pvalue, cutoff;
-				switch(filterType) {
-				case MANN_WHIT_TWO_SIDED:
-					pvalue = EDGE_MANN_WHIT_TWOSIDED_PVALUE.get(row, prefix);
-					cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
-					break;
-				case MANN_WHIT_GREATER:
-					pvalue = EDGE_MANN_WHIT_GREATER_PVALUE.get(row, prefix);
-					cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
-					break;
-				case MANN_WHIT_LESS:
-					pvalue = EDGE_MANN_WHIT_LESS_PVALUE.get(row, prefix);
-					cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
-					break;
-				default:
-					pvalue = EDGE_HYPERGEOM_PVALUE.get(row, prefix);
-					cutoff = EDGE_HYPERGEOM_CUTOFF.get(row, prefix); 
-					break;
-				}
-				
-				if (pvalue == null || cutoff == null) {
-					EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, null);
-				} else if (pvalue <= cutoff / 100) {
-					EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, edgeWidthParams.pa_lessThan100);
-				} else if (pvalue <= cutoff / 10) {
-					EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, edgeWidthParams.pa_lessThan10);
-				} else {
-					EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, edgeWidthParams.pa_greater);
-				}
+		for (int i = 0; i < n; i++) {
+			CyRow row = rows.get(i);
+			signature[i] = isSignature(row.get(CyEdge.INTERACTION, String.class));
+			if (signature[i]) {
+				widths[i] = getSignatureWidth(row, prefix, edgeWidthParams);
 			} else {
-				// Can use a continuous mapping object to perform calculation
-				// even though it won't be added to the visual style.
-				ContinuousMapping<Double, Double> conmapping_edgewidth = (ContinuousMapping<Double, Double>) vmfFactoryContinuous
-						.createVisualMappingFunction(prefix + EDGE_SIMILARITY_COEFF, Double.class,
-								BasicVisualLexicon.EDGE_WIDTH);
+				Double similarity = EDGE_SIMILARITY_COEFF.get(row, prefix);
+				similarities[i] = similarity == null ? Double.NaN : similarity;
+			}
+		}
+		if (taskMonitor != null)
+			taskMonitor.setProgress(0.3);
+		
+		mapping.getWidths(similarities, signature, widths);
+		if (taskMonitor != null)
+			taskMonitor.setProgress(0.5);
+		
+		// Only write the widths that changed, every write fires an event that updates the network view
+		String widthColumn = EDGE_WIDTH_FORMULA_COLUMN.with(prefix, null);
+		for (int i = 0; i < n; i++) {
+			CyRow row = rows.get(i);
+			Double width = Double.isNaN(widths[i]) ? null : widths[i];
+			if (!Objects.equals(width, row.get(widthColumn, Double.class)))
+				row.set(widthColumn, width);
+			
+			if (taskMonitor != null && i % 1000 == 0)
+				taskMonitor.setProgress(0.5 + 0.5 * i / n);
+		}
+	}
 	
-				Double under_width = 0.5;
-				Double min_width = edgeWidthParams.em_lower;
-				Double max_width = edgeWidthParams.em_upper;
-				Double over_width = 6.0;
+	/**
+	 * Returns NaN if the edge doesn't have a width.
+	 */
+	private static double getSignatureWidth(CyRow row, String prefix, EdgeWidthParams edgeWidthParams) {
+		String cutoffType = EDGE_CUTOFF_TYPE.get(row, prefix, null);
+		PostAnalysisFilterType filterType = PostAnalysisFilterType.fromDisplayString(cutoffType);
+		
+		if (filterType == null)
+			return Double.NaN;
+		
+		Double pvalue, cutoff;
+		switch(filterType) {
+		case MANN_WHIT_TWO_SIDED:
+			pvalue = EDGE_MANN_WHIT_TWOSIDED_PVALUE.get(row, prefix);
+			cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
+			break;
+		case MANN_WHIT_GREATER:
+			pvalue = EDGE_MANN_WHIT_GREATER_PVALUE.get(row, prefix);
+			cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
+			break;
+		case MANN_WHIT_LESS:
+			pvalue = EDGE_MANN_WHIT_LESS_PVALUE.get(row, prefix);
+			cutoff = EDGE_MANN_WHIT_CUTOFF.get(row, prefix); 
+			break;
+		default:
+			pvalue = EDGE_HYPERGEOM_PVALUE.get(row, prefix);
+			cutoff = EDGE_HYPERGEOM_CUTOFF.get(row, prefix); 
+			break;
+		}
+		
+		if (pvalue == null || cutoff == null) {
+			return Double.NaN;
+		} else if (pvalue <= cutoff / 100) {
+			return edgeWidthParams.pa_lessThan100;
+		} else if (pvalue <= cutoff / 10) {
+			return edgeWidthParams.pa_lessThan10;
+		} else {
+			return edgeWidthParams.pa_greater;
+		}
+	}
 	
-				// Create boundary conditions                  less than,   equals,  greater than
-				BoundaryRangeValues<Double> bv4 = new BoundaryRangeValues<>(under_width, min_width, min_width);
-				BoundaryRangeValues<Double> bv5 = new BoundaryRangeValues<>(max_width, max_width, over_width);
-				conmapping_edgewidth.addPoint(map.getParams().getSimilarityCutoff(), bv4);
-				conmapping_edgewidth.addPoint(1.0, bv5);
-				
-				Double value = conmapping_edgewidth.getMappedValue(row);
-				EDGE_WIDTH_FORMULA_COLUMN.set(row, prefix, value);
+	/**
+	 * Maps the similarity coefficient to the edge width the same way a ContinuousMapping with a point 
+	 * at the similarity cutoff and a point at 1.0 would, but without creating a mapping for every edge.
+	 */
+	static class SimilarityWidthMapping {
+		
+		private static final double UNDER_WIDTH = 0.5;
+		private static final double OVER_WIDTH = 6.0;
+		
+		// The points sorted by domain value, like the ContinuousMapping does
+		private final double lowerDomain, upperDomain;
+		private final double lowerLesser, lowerEqual, lowerGreater;
+		private final double upperLesser, upperEqual, upperGreater;
+		
+		public SimilarityWidthMapping(double similarityCutoff, EdgeWidthParams edgeWidthParams) {
+			double minWidth = edgeWidthParams.em_lower;
+			double maxWidth = edgeWidthParams.em_upper;
+			
+			// Boundary conditions       less than,   equals,   greater than
+			double[] cutoffPoint = { UNDER_WIDTH, minWidth, minWidth };
+			double[] onePoint    = { maxWidth,    maxWidth, OVER_WIDTH };
+			
+			double[] lower = cutoffPoint, upper = onePoint;
+			if (similarityCutoff > 1.0) {
+				lower = onePoint;
+				upper = cutoffPoint;
+			}
+			lowerDomain = Math.min(similarityCutoff, 1.0);
+			upperDomain = Math.max(similarityCutoff, 1.0);
+			lowerLesser = lower[0]; lowerEqual = lower[1]; lowerGreater = lower[2];
+			upperLesser = upper[0]; upperEqual = upper[1]; upperGreater = upper[2];
+		}
+		
+		public double getWidth(double similarity) {
+			if (similarity <= lowerDomain)
+				return similarity == lowerDomain ? lowerEqual : lowerLesser;
+			if (similarity >= upperDomain)
+				return similarity == upperDomain ? upperEqual : upperGreater;
+			// NaN ends up here and stays NaN
+			double frac = (similarity - lowerDomain) / (upperDomain - lowerDomain);
+			return lowerGreater + frac * (upperLesser - lowerGreater);
+		}
+		
+		/**
+		 * Sets the widths of the edges that are not skipped.
+		 */
+		public void getWidths(double[] similarities, boolean[] skip, double[] widths) {
+			for (int i = 0; i < similarities.length; i++) {
+				if (!skip[i])
+					widths[i] = getWidth(similarities[i]);
 			}
 		}
 	}
@@ -3,7 +3,7 @@ package org.baderlab.csplugins.enrichmentmap.task;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
@@ -18,8 +18,9 @@ public abstract class CancellableParallelTask<T> extends AbstractTask {
 		if(tm == null)
 			tm = new NullTaskMonitor();
 			
+		// Work stealing keeps all the threads busy when the tasks have uneven sizes
 		int cpus = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(cpus);
+		ExecutorService executor = new ForkJoinPool(cpus);
 
 		T t = compute(tm, executor);
 
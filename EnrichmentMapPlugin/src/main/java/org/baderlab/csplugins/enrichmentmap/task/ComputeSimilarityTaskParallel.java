@@ -1,9 +1,9 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
@@ -11,88 +11,78 @@ import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
-import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
-import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
-import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSetIndex;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityStore;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
 import org.cytoscape.work.TaskMonitor;
 
-import com.google.common.collect.Sets;
+public class ComputeSimilarityTaskParallel extends CancellableParallelTask<GenesetSimilarityStore> {
 
-public class ComputeSimilarityTaskParallel extends CancellableParallelTask<Map<SimilarityKey,GenesetSimilarity>> {
+	/** Number of rows (and columns for square tiles) of the blocks of gene set pairs that are computed by one task. */
+	private static final int TILE_SIZE = 128;
+	
+	/** Used to make the size bounds slightly looser so that floating point rounding never prunes a pair that passes. */
+	private static final double EPSILON = 1e-9;
+	
 
 	private final EnrichmentMap map;
-	private final Consumer<Map<SimilarityKey,GenesetSimilarity>> consumer;
+	private final Consumer<? super GenesetSimilarityStore> consumer;
 	
-	public ComputeSimilarityTaskParallel(EnrichmentMap map, Consumer<Map<SimilarityKey,GenesetSimilarity>> consumer) {
+	private boolean pruning = true;
+	
+	/**
+	 * @param consumer receives the edges, GenesetSimilarityStore is a Map&lt;SimilarityKey,GenesetSimilarity&gt;
+	 */
+	public ComputeSimilarityTaskParallel(EnrichmentMap map, Consumer<? super GenesetSimilarityStore> consumer) {
 		this.map = map;
 		this.consumer = consumer;
 	}
 	
+	/**
+	 * When pruning is turned off every pair of gene sets is compared, used by tests to verify that pruning doesn't change the results.
+	 */
+	void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+	
 	@Override
-	public void done(Map<SimilarityKey,GenesetSimilarity> similarities) {
+	public void done(GenesetSimilarityStore similarities) {
 		consumer.accept(similarities);
 	}
 	
 	@Override
-	public Map<SimilarityKey,GenesetSimilarity> compute(TaskMonitor tm, ExecutorService executor) {
+	public GenesetSimilarityStore compute(TaskMonitor tm, ExecutorService executor) {
 		boolean distinct = useDistinctEdges();
 		map.getParams().setCreateDistinctEdges(distinct); // set this value for access by UI components 
 		
-		Set<String> names = map.getAllGeneSetOfInterestNames();
-		Map<String,Set<Integer>> unionedGenesets = distinct ? null : map.unionAllGeneSetsOfInterest();
+		String[] names = map.getAllGeneSetOfInterestNames().toArray(new String[0]);
+		Arrays.sort(names);
+		List<GeneSetColumn> columns = distinct ? dataSetColumns(names) : compoundColumns(names);
+		
+		// When the cutoff is positive a pair of gene sets must have at least one gene in common to pass, so only the 
+		// pairs found through the inverted index need to be visited. Otherwise every pair has to be visited.
+		boolean sparse = pruning && map.getParams().getSimilarityCutoff() > 0;
 		
-		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, names.size());
-		String edgeType = map.getParams().getEnrichmentEdgeType();
-		Map<SimilarityKey,GenesetSimilarity> similarities = new ConcurrentHashMap<>();
+		String[] keyNames = columns.stream().map(column -> column.keyName).toArray(String[]::new);
+		String[] dataSetNames = columns.stream().map(column -> column.dataSetName).toArray(String[]::new);
+		GenesetSimilarityStore similarities = new GenesetSimilarityStore(map.getParams().getEnrichmentEdgeType(), names, keyNames, dataSetNames);
 		
-		Collection<EMDataSet> dataSets = map.getDataSetList();
+		List<Runnable> tasks = new ArrayList<>();
+		
+		for(GeneSetColumn column : columns) {
+			int n = column.index.size();
+			List<int[]> tiles = sparse ? rowStrips(n, TILE_SIZE) : triangularTiles(n, TILE_SIZE);
+			for(int[] tile : tiles) {
+				// Compute similarities in tiles, creating a Runnable for every similarity pair would create too many objects
+				tasks.add(() -> computeTile(column, tile, sparse, similarities));
+			}
+		}
 		
-		for(final String geneset1Name : names) {
-			// Compute similarities in batches, creating a Runnable for every similarity pair would create too many objects
+		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, tasks.size());
+		for(Runnable task : tasks) {
 			executor.execute(() -> {
-				loop:
-				for(final String geneset2Name : names) {
-					if(Thread.interrupted())
-						break loop;
-					if (geneset1Name.equalsIgnoreCase(geneset2Name))
-						continue; //don't compare two identical gene sets
-					
-					if(distinct) {
-						for(EMDataSet dataset : dataSets) {
-							SimilarityKey key = new SimilarityKey(geneset1Name, geneset2Name, edgeType, dataset.getName());
-							
-							if(!similarities.containsKey(key)) {
-								Map<String,GeneSet> genesets = dataset.getGeneSetsOfInterest().getGeneSets();
-								GeneSet geneset1 = genesets.get(geneset1Name);
-								GeneSet geneset2 = genesets.get(geneset2Name);
-								
-								if(geneset1 != null && geneset2 != null) {
-									// returns null if the similarity coefficient doesn't pass the cutoff
-									GenesetSimilarity similarity = computeGenesetSimilarity(map.getParams(), geneset1Name, geneset2Name, geneset1.getGenes(), geneset2.getGenes(), dataset.getName());
-									if(similarity != null) {
-										similarities.put(key, similarity);
-									}
-								}
-							}
-						}
-					}
-					else {
-						SimilarityKey key = new SimilarityKey(geneset1Name, geneset2Name, edgeType, null);
-						
-						if(!similarities.containsKey(key)) {
-							Set<Integer> geneset1 = unionedGenesets.get(geneset1Name);
-							Set<Integer> geneset2 = unionedGenesets.get(geneset2Name);
-							
-							// returns null if the similarity coefficient doesn't pass the cutoff
-							GenesetSimilarity similarity = computeGenesetSimilarity(map.getParams(), geneset1Name, geneset2Name, geneset1, geneset2, "compound");
-							if(similarity != null) {
-								similarities.put(key, similarity);
-							}
-						}
-					}
-				}
-				
+				task.run();
 				taskMonitor.inc();
 			});
 		}
@@ -101,6 +91,190 @@ public class ComputeSimilarityTaskParallel extends CancellableParallelTask<Map<S
 	}
 	
 	
+	/**
+	 * Computes the similarities for all the pairs (i,j) with i &lt; j in the tile.
+	 * 
+	 * When sparse is true the pairs are pruned in the style of all-pairs similarity search. The gene sets in the 
+	 * index are sorted by size, so for row i every column j &gt; i is at least as large. From the sizes alone
+	 * this gives an upper bound on the size of the columns that can pass the cutoff, and a lower bound on the size 
+	 * of the overlap. If a pair needs at least minOverlap genes in common then one of them has to be in the first 
+	 * (size - minOverlap + 1) genes of the row (prefix filtering), so only those genes are looked up in the index.
+	 * 
+	 * @param tile {first row, last row + 1, first column, last column + 1}
+	 * @param sparse if true only the pairs that can pass the cutoff are visited
+	 */
+	private void computeTile(GeneSetColumn column, int[] tile, boolean sparse, GenesetSimilarityStore similarities) {
+		EMCreationParameters params = map.getParams();
+		GeneSetIndex index = column.index;
+		GenesetSimilarityStore tileSimilarities = similarities.emptyCopy();
+		int j0 = tile[2], jEnd = tile[3];
+		int[] counts  = sparse ? new int[jEnd - j0] : null;
+		int[] touched = sparse ? new int[jEnd - j0] : null;
+		
+		for(int i = tile[0]; i < tile[1]; i++) {
+			if(Thread.currentThread().isInterrupted())
+				return;
+			
+			int from = Math.max(j0, i + 1);
+			int[] geneset1 = index.getGenes(i);
+			
+			// Empty gene sets don't have any genes in common with anything, but their coefficient is 0/0 which doesn't fail the cutoff
+			if(!sparse || geneset1.length == 0) {
+				for(int j = from; j < jEnd; j++) {
+					int intersectionSize = IntSetUtil.intersectionSize(geneset1, index.getGenes(j));
+					addSimilarity(column, i, j, intersectionSize, tileSimilarities);
+				}
+			} else {
+				int to = Math.min(jEnd, index.indexAfterSize(maxPartnerSize(params, geneset1.length)));
+				int prefixLength = geneset1.length - minOverlap(params, geneset1.length) + 1;
+				if(from >= to || prefixLength <= 0)
+					continue;
+				
+				int touchedCount = index.countOverlaps(geneset1, prefixLength, from, to, counts, touched);
+				for(int k = 0; k < touchedCount; k++) {
+					int j = touched[k];
+					// the counts are only complete when every gene was looked up
+					int intersectionSize = prefixLength == geneset1.length ? counts[j - from] : IntSetUtil.intersectionSize(geneset1, index.getGenes(j));
+					addSimilarity(column, i, j, intersectionSize, tileSimilarities);
+					counts[j - from] = 0;
+				}
+			}
+		}
+		
+		similarities.addAll(tileSimilarities);
+	}
+	
+	
+	private static boolean isCombinedConstantInRange(EMCreationParameters params) {
+		double k = params.getCombinedConstant();
+		return k >= 0 && k <= 1;
+	}
+	
+	/**
+	 * Returns the largest gene set that can pass the cutoff when compared to a smaller (or equal) gene set with the given number of genes.
+	 */
+	static int maxPartnerSize(EMCreationParameters params, int size) {
+		double cutoff = params.getSimilarityCutoff();
+		double maxRatio;
+		switch(params.getSimilarityMetric()) {
+			case JACCARD:
+				// jaccard <= |A|/|B|
+				maxRatio = cutoff;
+				break;
+			case COMBINED:
+				// combined <= k + (1-k) * |A|/|B|
+				double k = params.getCombinedConstant();
+				if(!isCombinedConstantInRange(params) || k == 1 || cutoff <= k)
+					return Integer.MAX_VALUE;
+				maxRatio = (cutoff - k) / (1 - k);
+				break;
+			default:
+			case OVERLAP:
+				return Integer.MAX_VALUE;
+		}
+		double maxSize = size / maxRatio * (1 + EPSILON);
+		return maxSize >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.floor(maxSize);
+	}
+	
+	/**
+	 * Returns the number of genes that a gene set with the given number of genes must have in common with
+	 * a larger (or equal) gene set for the pair to pass the cutoff. All three metrics are bounded by the
+	 * overlap coefficient |A &#8745; B|/|A|, so the overlap must be at least cutoff * |A|.
+	 */
+	static int minOverlap(EMCreationParameters params, int size) {
+		if(params.getSimilarityMetric() == SimilarityMetric.COMBINED && !isCombinedConstantInRange(params))
+			return 1;
+		double minOverlap = params.getSimilarityCutoff() * size * (1 - EPSILON);
+		return Math.max(1, (int) Math.ceil(Math.min(minOverlap, size + 1)));
+	}
+	
+	
+	private void addSimilarity(GeneSetColumn column, int i, int j, int intersectionSize, GenesetSimilarityStore similarities) {
+		GeneSetIndex index = column.index;
+		if(index.getName(i).compareTo(index.getName(j)) > 0) {
+			// the index is sorted by size, keep the names of each pair in alphabetical order
+			int t = i; i = j; j = t;
+		}
+		if(index.getName(i).equalsIgnoreCase(index.getName(j)))
+			return; //don't compare two identical gene sets
+		
+		EMCreationParameters params = map.getParams();
+		int[] geneset1 = index.getGenes(i);
+		int[] geneset2 = index.getGenes(j);
+		double coeffecient = computeSimilarityCoeffecient(params, intersectionSize, geneset1.length, geneset2.length);
+		
+		// the overlapping genes are only materialized for pairs that pass the cutoff
+		if(coeffecient >= params.getSimilarityCutoff() || Double.isNaN(coeffecient)) {
+			int[] intersection = IntSetUtil.intersection(geneset1, geneset2);
+			similarities.add(column.nameIndexes[i], column.nameIndexes[j], coeffecient, column.ordinal, intersection);
+		}
+	}
+	
+	
+	/**
+	 * Splits the upper triangle of an n by n matrix into square tiles, returns the bounds of each tile as
+	 * {first row, last row + 1, first column, last column + 1}. The tiles on the diagonal are only half full.
+	 */
+	static List<int[]> triangularTiles(int n, int tileSize) {
+		List<int[]> tiles = new ArrayList<>();
+		for(int i = 0; i < n; i += tileSize) {
+			for(int j = i; j < n; j += tileSize) {
+				tiles.add(new int[] { i, Math.min(i + tileSize, n), j, Math.min(j + tileSize, n) });
+			}
+		}
+		return tiles;
+	}
+	
+	/**
+	 * Splits the upper triangle of an n by n matrix into strips of rows that extend to the last column,
+	 * returns the bounds in the same format as triangularTiles().
+	 */
+	static List<int[]> rowStrips(int n, int stripSize) {
+		List<int[]> strips = new ArrayList<>();
+		for(int i = 0; i < n; i += stripSize) {
+			strips.add(new int[] { i, Math.min(i + stripSize, n), i, n });
+		}
+		return strips;
+	}
+	
+	
+	private List<GeneSetColumn> dataSetColumns(String[] names) {
+		List<GeneSetColumn> columns = new ArrayList<>();
+		for(EMDataSet dataset : map.getDataSetList()) {
+			columns.add(new GeneSetColumn(dataset.getName(), dataset.getName(), columns.size(), map.getGeneSetIndex(dataset), names));
+		}
+		return columns;
+	}
+	
+	private List<GeneSetColumn> compoundColumns(String[] names) {
+		return Collections.singletonList(new GeneSetColumn(null, "compound", 0, map.getUnionedGeneSetIndex(), names));
+	}
+	
+	
+	/**
+	 * The gene sets of interest for one data set (or the union of all data sets for compound edges).
+	 */
+	private static class GeneSetColumn {
+		final String keyName; // null for compound edges
+		final String dataSetName;
+		final int ordinal;
+		final GeneSetIndex index;
+		/** Maps the indexes of the gene sets in the index to their index in the sorted array of all gene set names. */
+		final int[] nameIndexes;
+		
+		GeneSetColumn(String keyName, String dataSetName, int ordinal, GeneSetIndex index, String[] names) {
+			this.keyName = keyName;
+			this.dataSetName = dataSetName;
+			this.ordinal = ordinal;
+			this.index = index;
+			this.nameIndexes = new int[index.size()];
+			for(int i = 0; i < index.size(); i++) {
+				nameIndexes[i] = Arrays.binarySearch(names, index.getName(i));
+			}
+		}
+	}
+	
+	
 	private boolean useDistinctEdges() {
 		switch(map.getParams().getEdgeStrategy()) {
 			case DISTINCT: 
@@ -119,42 +293,29 @@ public class ComputeSimilarityTaskParallel extends CancellableParallelTask<Map<S
 	}
 
 	
-	public static double computeSimilarityCoeffecient(EMCreationParameters params, Set<?> intersection, Set<?> union, Set<?> genes1, Set<?> genes2) {
-		// Note: Do not call intersection.size() or union.size() more than once on a Guava SetView! 
-		// It is a potentially slow operation that needs to be recalcuated each time it is called.
+	/**
+	 * Computes the similarity coefficient from the size of the overlap and the sizes of the two gene sets,
+	 * the size of the union is |A| + |B| - |A &#8745; B|.
+	 */
+	public static double computeSimilarityCoeffecient(EMCreationParameters params, int intersectionSize, int size1, int size2) {
+		double intersection = (double) intersectionSize;
+		double union = (double) size1 + (double) size2 - intersection;
 		
 		if (params.getSimilarityMetric() == SimilarityMetric.JACCARD) {
-			return (double) intersection.size() / (double) union.size();
+			return intersection / union;
 		} 
 		else if (params.getSimilarityMetric() == SimilarityMetric.OVERLAP) {
-			return (double) intersection.size() / Math.min((double) genes1.size(), (double) genes2.size());
+			return intersection / Math.min((double) size1, (double) size2);
 		} 
 		else { 
 			// It must be combined. Compute a combination of the overlap and jaccard coefecient. We need both the Jaccard and the Overlap.
-			double intersectionSize = (double) intersection.size(); // do not call size() more than once on the same SetView
-			
-			double jaccard = intersectionSize / (double) union.size();
-			double overlap = intersectionSize / Math.min((double) genes1.size(), (double) genes2.size());
+			double jaccard = intersection / union;
+			double overlap = intersection / Math.min((double) size1, (double) size2);
 
 			double k = params.getCombinedConstant();
 
 			return (k * overlap) + ((1 - k) * jaccard);
 		}
 	}
-
-	
-	static GenesetSimilarity computeGenesetSimilarity(EMCreationParameters params, String geneset1Name, String geneset2Name, Set<Integer> geneset1, Set<Integer> geneset2, String dataset) {
-		Set<Integer> intersection = Sets.intersection(geneset1, geneset2);
-		Set<Integer> union = Sets.union(geneset1, geneset2);
-
-		double coeffecient = computeSimilarityCoeffecient(params, intersection, union, geneset1, geneset2);
-		
-		if(coeffecient < params.getSimilarityCutoff())
-			return null;
-			
-		String edgeType = params.getEnrichmentEdgeType();
-		GenesetSimilarity similarity = new GenesetSimilarity(geneset1Name, geneset2Name, coeffecient, edgeType, intersection, dataset);
-		return similarity;
-	}
 	
 }
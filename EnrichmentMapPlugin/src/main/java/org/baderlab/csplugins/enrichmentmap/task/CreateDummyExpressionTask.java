@@ -1,7 +1,6 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
 import java.io.IOException;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -9,7 +8,6 @@ import java.util.stream.Collectors;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
-import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
 import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.parsers.ParseGenericEnrichmentsForDummy;
 import org.cytoscape.work.AbstractTask;
@@ -43,14 +41,14 @@ public class CreateDummyExpressionTask extends AbstractTask {
 		map.putExpressionMatrix(expressionKey, expressionMatrix);
 		dataset.setExpressionKey(expressionKey);
 		
-		Map<Integer,GeneExpression> expression = expressionMatrix.getExpressionMatrix();
+		float[] expression = { DEFAULT_VAL };
 		
 		Set<Integer> genes = getGenes();
 		for(int geneKey : genes) {
 			String geneName = map.getGeneFromHashKey(geneKey);
-			GeneExpression expres = new GeneExpression(geneName, geneName, DEFAULT_VAL);
-			expression.put(geneKey, expres);
+			expressionMatrix.setRow(geneKey, geneName, geneName, expression, 0, 1);
 		}
+		expressionMatrix.trimToSize();
 		
 	}
 	
@@ -1,11 +1,13 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -14,7 +16,7 @@ import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMapManager;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
-import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityStore;
 import org.baderlab.csplugins.enrichmentmap.model.LegacySupport;
 import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
@@ -45,16 +47,16 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	private final EnrichmentMap map;
 	private final String prefix;
 	
-	private final Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier;
+	private final Supplier<GenesetSimilarityStore> supplier;
 	
 	private long networkSuidResult;
 	
 	public interface Factory {
-		CreateEMNetworkTask create(EnrichmentMap map, Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier);
+		CreateEMNetworkTask create(EnrichmentMap map, Supplier<GenesetSimilarityStore> supplier);
 	}
 	
 	@Inject
-	public CreateEMNetworkTask(@Assisted EnrichmentMap map, @Assisted Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier) {
+	public CreateEMNetworkTask(@Assisted EnrichmentMap map, @Assisted Supplier<GenesetSimilarityStore> supplier) {
 		this.map = map;
 		this.prefix = map.getParams().getAttributePrefix();
 		this.supplier = supplier;
@@ -95,49 +97,83 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 		createNodeColumns(network);
 		createEdgeColumns(network);
 		
-		Map<String,CyNode> nodes = createNodes(network);
-		createEdges(network, nodes);
+		String[] geneNames = getGeneNames();
+		Map<String,CyNode> nodes = createNodes(network, geneNames);
+		createEdges(network, nodes, geneNames);
 		
 		networkManager.addNetwork(network);
 		emManager.registerEnrichmentMap(map);
 		return network.getSUID();
 	}
 	
-	private Map<String, CyNode> createNodes(CyNetwork network) {
+	/**
+	 * Returns the names of the genes indexed by gene ID, so the gene lists of the nodes and edges
+	 * don't have to look up every gene in the map.
+	 */
+	private String[] getGeneNames() {
+		return map.getGeneDictionary().getNames();
+	}
+	
+	private static List<String> getGeneNames(int[] geneIds, String[] geneNames) {
+		String[] names = new String[geneIds.length];
+		for(int i = 0; i < geneIds.length; i++) {
+			names[i] = geneNames[geneIds[i]];
+		}
+		return Arrays.asList(names);
+	}
+	
+	/**
+	 * Sets the column of all the rows, one column at a time. Null values are not set.
+	 */
+	private static void setColumn(List<CyRow> rows, String column, IntFunction<?> value) {
+		for(int i = 0; i < rows.size(); i++) {
+			Object v = value.apply(i);
+			if(v != null)
+				rows.get(i).set(column, v);
+		}
+	}
+	
+	private Map<String, CyNode> createNodes(CyNetwork network, String[] geneNames) {
 		Map<String,CyNode> nodes = new HashMap<>();
 		
 		Map<String,Set<Integer>> geneSets = map.unionAllGeneSetsOfInterest();
+		List<String> genesetNames = new ArrayList<>(geneSets.keySet());
+		List<CyRow> rows = new ArrayList<>(genesetNames.size());
+		List<int[]> geneIds = new ArrayList<>(genesetNames.size());
 		
-		for(String genesetName : geneSets.keySet()) {
+		for(String genesetName : genesetNames) {
 			CyNode node = network.addNode();
 			nodes.put(genesetName, node);
+			rows.add(network.getRow(node));
+			geneIds.add(geneSets.get(genesetName).stream().mapToInt(Integer::intValue).toArray());
+		}
+		
+		// Set common attributes
+		setColumn(rows, CyNetwork.NAME, genesetNames::get);
+		setColumn(rows, Columns.NODE_FORMATTED_NAME.with(prefix, null), i -> formatLabel(genesetNames.get(i)));
+		setColumn(rows, Columns.NODE_NAME.with(prefix, null), genesetNames::get); // MKTODO why is this column needed?
+		setColumn(rows, Columns.NODE_GS_DESCR.with(prefix, null), i -> map.findGeneSetDescription(genesetNames.get(i)));
+		setColumn(rows, Columns.NODE_GS_TYPE.with(prefix, null), i -> Columns.NODE_GS_TYPE_ENRICHMENT);
+		setColumn(rows, Columns.NODE_GENES.with(prefix, null), i -> getGeneNames(geneIds.get(i), geneNames));
+		setColumn(rows, Columns.NODE_GS_SIZE.with(prefix, null), i -> geneIds.get(i).length);
+		
+		// Set attributes specific to each dataset
+		for(EMDataSet ds : map.getDataSetList()) {
+			Set<String> genesetsOfInterest = ds.getGeneSetsOfInterest().getGeneSets().keySet();
+			Map<String, EnrichmentResult> enrichmentResults = ds.getEnrichments().getEnrichments();
+			EnrichmentResult[] results = new EnrichmentResult[genesetNames.size()];
 			
-			// Set common attributes
-			CyRow row = network.getRow(node);
-			row.set(CyNetwork.NAME, genesetName);
-			Columns.NODE_FORMATTED_NAME.set(row, prefix, null, formatLabel(genesetName));
-			Columns.NODE_NAME.set(row, prefix, null, genesetName); // MKTODO why is this column needed?
-			Columns.NODE_GS_DESCR.set(row, prefix, null, map.findGeneSetDescription(genesetName));
-			Columns.NODE_GS_TYPE.set(row, prefix, null, Columns.NODE_GS_TYPE_ENRICHMENT);
-			Set<Integer> geneIds = geneSets.get(genesetName);
-			List<String> genes = geneIds.stream().map(map::getGeneFromHashKey).collect(Collectors.toList());
-			Columns.NODE_GENES.set(row, prefix, null, genes);
-			Columns.NODE_GS_SIZE.set(row, prefix, null, genes.size());
-			
-			// Set attributes specific to each dataset
-			for(EMDataSet ds : map.getDataSetList()) {
-				if(ds.getGeneSetsOfInterest().getGeneSets().containsKey(genesetName))
-					ds.addNodeSuid(node.getSUID());
+			for(int i = 0; i < results.length; i++) {
+				String genesetName = genesetNames.get(i);
+				if(genesetsOfInterest.contains(genesetName))
+					ds.addNodeSuid(nodes.get(genesetName).getSUID());
 				
-				Map<String, EnrichmentResult> enrichmentResults = ds.getEnrichments().getEnrichments();
+				// only GSEA and generic results are shown on the nodes
 				EnrichmentResult result = enrichmentResults.get(genesetName);
-				
-				// if result is null it will fail both instanceof checks
-				if(result instanceof GSEAResult)
-					setGSEAResultNodeAttributes(row, ds, (GSEAResult) result);
-				else if(result instanceof GenericResult)
-					setGenericResultNodeAttributes(row, ds, (GenericResult) result);
+				if(result instanceof GSEAResult || result instanceof GenericResult)
+					results[i] = result;
 			}
+			setResultNodeAttributes(rows, ds, results);
 		}
 		
 		return nodes;
@@ -145,19 +181,24 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	
 	/**
 	 * Note, we expect that GenesetSimilarity object that don't pass the cutoff have already been filtered out.
+	 * The edges are read directly from the store so that no GenesetSimilarity objects are created.
 	 * @param network
 	 * @param nodes
 	 */
-	private void createEdges(CyNetwork network, Map<String,CyNode> nodes) {
-		Map<SimilarityKey,GenesetSimilarity> similarities = supplier.get();
-		for(SimilarityKey key : similarities.keySet()) {
-			GenesetSimilarity similarity = similarities.get(key);
-			
-			CyNode node1 = nodes.get(similarity.getGeneset1Name());
-			CyNode node2 = nodes.get(similarity.getGeneset2Name());
+	private void createEdges(CyNetwork network, Map<String,CyNode> nodes, String[] geneNames) {
+		GenesetSimilarityStore similarities = supplier.get();
+		List<CyRow> rows = new ArrayList<>(similarities.size());
+		SimilarityKey[] keys = new SimilarityKey[similarities.size()];
+		
+		for(int e = 0; e < similarities.size(); e++) {
+			CyNode node1 = nodes.get(similarities.getGeneset1Name(e));
+			CyNode node2 = nodes.get(similarities.getGeneset2Name(e));
 			
 			CyEdge edge = network.addEdge(node1, node2, false);
+			rows.add(network.getRow(edge));
 			
+			SimilarityKey key = similarities.getKey(e);
+			keys[e] = key;
 			String datasetName = key.getName();
 			if(datasetName != null) {
 				EMDataSet dataset = map.getDataSet(datasetName);
@@ -165,26 +206,17 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 					dataset.addEdgeSuid(edge.getSUID());
 				}
 			}
-			
-			List<String> overlapGenes = 
-				similarity.getOverlappingGenes().stream()
-				.map(map::getGeneFromHashKey)
-				.collect(Collectors.toList());
-			
-			String edgeName = key.toString();
-			
-			CyRow row = network.getRow(edge);
-			row.set(CyNetwork.NAME, edgeName);
-			row.set(CyEdge.INTERACTION, similarity.getInteractionType());
-			Columns.EDGE_SIMILARITY_COEFF.set(row, prefix, null, similarity.getSimilarityCoeffecient());
-			Columns.EDGE_OVERLAP_SIZE.set(row, prefix, null, similarity.getSizeOfOverlap());
-			Columns.EDGE_OVERLAP_GENES.set(row, prefix, null, overlapGenes);
-			if(key.isCompound()) {
-				Columns.EDGE_DATASET.set(row, prefix, null, Columns.EDGE_DATASET_VALUE_COMPOUND);
-			} else {
-				Columns.EDGE_DATASET.set(row, prefix, null, similarity.getDataSetName());
-			}
 		}
+		
+		String interactionType = similarities.getInteractionType();
+		setColumn(rows, CyNetwork.NAME, e -> keys[e].toString());
+		setColumn(rows, CyEdge.INTERACTION, e -> interactionType);
+		setColumn(rows, Columns.EDGE_SIMILARITY_COEFF.with(prefix, null), similarities::getSimilarityCoeffecient);
+		setColumn(rows, Columns.EDGE_OVERLAP_SIZE.with(prefix, null), similarities::getSizeOfOverlap);
+		setColumn(rows, Columns.EDGE_OVERLAP_GENES.with(prefix, null), e -> getGeneNames(similarities.getOverlappingGenes(e), geneNames));
+		setColumn(rows, Columns.EDGE_DATASET.with(prefix, null), e -> 
+			keys[e].isCompound() ? Columns.EDGE_DATASET_VALUE_COMPOUND : similarities.getDataSetName(e)
+		);
 	}
 	
 	private CyTable createNodeColumns(CyNetwork network) {
@@ -226,35 +258,50 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 		return table;
 	}
 	
-	private void setGenericResultNodeAttributes(CyRow row, EMDataSet dataset, GenericResult result) {
-		Columns.NODE_PVALUE.set(row, prefix, dataset, result.getPvalue());
-		Columns.NODE_FDR_QVALUE.set(row, prefix, dataset, result.getFdrqvalue());
-		Columns.NODE_NES.set(row, prefix, dataset, result.getNES());
-		Columns.NODE_COLOURING.set(row, prefix, dataset, getColorScore(result));
+	/**
+	 * The results are null for the rows without a GSEA or generic result, those cells are not set.
+	 */
+	private void setResultNodeAttributes(List<CyRow> rows, EMDataSet dataset, EnrichmentResult[] results) {
+		setColumn(rows, Columns.NODE_PVALUE.with(prefix, dataset), i -> results[i] == null ? null : results[i].getPvalue());
+		setColumn(rows, Columns.NODE_FDR_QVALUE.with(prefix, dataset), i -> results[i] == null ? null : getFdrqvalue(results[i]));
+		setColumn(rows, Columns.NODE_FWER_QVALUE.with(prefix, dataset), i -> 
+			results[i] instanceof GSEAResult ? ((GSEAResult)results[i]).getFwerqvalue() : null
+		);
+		setColumn(rows, Columns.NODE_ES.with(prefix, dataset), i -> 
+			results[i] instanceof GSEAResult ? ((GSEAResult)results[i]).getES() : null
+		);
+		setColumn(rows, Columns.NODE_NES.with(prefix, dataset), i -> results[i] == null ? null : getNES(results[i]));
+		setColumn(rows, Columns.NODE_COLOURING.with(prefix, dataset), i -> results[i] == null ? null : getColorScore(results[i]));
+		
+		for(EnrichmentResult result : results) {
+			if(result instanceof GSEAResult) {
+				EMCreationParameters params = map.getParams();
+				params.addPValueColumnName(Columns.NODE_PVALUE.with(prefix, dataset));
+				break;
+			}
+		}
 	}
 	
-	private void setGSEAResultNodeAttributes(CyRow row, EMDataSet dataset, GSEAResult result) {
-		Columns.NODE_PVALUE.set(row, prefix, dataset, result.getPvalue());
-		Columns.NODE_FDR_QVALUE.set(row, prefix, dataset, result.getFdrqvalue());
-		Columns.NODE_FWER_QVALUE.set(row, prefix, dataset, result.getFwerqvalue());
-		Columns.NODE_ES.set(row, prefix, dataset, result.getES());
-		Columns.NODE_NES.set(row, prefix, dataset, result.getNES());
-		Columns.NODE_COLOURING.set(row, prefix, dataset, getColorScore(result));
-		
-		EMCreationParameters params = map.getParams();
-		params.addPValueColumnName(Columns.NODE_PVALUE.with(prefix, dataset));
+	private static double getFdrqvalue(EnrichmentResult result) {
+		if(result instanceof GSEAResult)
+			return ((GSEAResult)result).getFdrqvalue();
+		else
+			return ((GenericResult)result).getFdrqvalue();
+	}
+	
+	private static double getNES(EnrichmentResult result) {
+		if(result instanceof GSEAResult)
+			return ((GSEAResult)result).getNES();
+		else
+			return ((GenericResult)result).getNES();
 	}
 	
 	private static double getColorScore(EnrichmentResult result) {
 		if(result == null)
 			return 0.0;
 		
-		double nes;
-		if(result instanceof GSEAResult)
-			nes = ((GSEAResult)result).getNES();
-		else
-			nes = ((GenericResult)result).getNES();
-			
+		double nes = getNES(result);
+		
 		if(nes >= 0)
 			return 1 - result.getPvalue();
 		else
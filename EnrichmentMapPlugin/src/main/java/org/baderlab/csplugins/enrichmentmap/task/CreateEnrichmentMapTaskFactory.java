@@ -1,8 +1,8 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.baderlab.csplugins.enrichmentmap.ApplicationModule.Headless;
 import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
@@ -11,12 +11,12 @@ import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
-import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityStore;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
-import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.model.TableParameters;
 import org.baderlab.csplugins.enrichmentmap.parsers.ClassFileReaderTask;
 import org.baderlab.csplugins.enrichmentmap.parsers.ExpressionFileReaderTask;
+import org.baderlab.csplugins.enrichmentmap.parsers.GMTFileCache;
 import org.baderlab.csplugins.enrichmentmap.parsers.GMTFileReaderTask;
 import org.baderlab.csplugins.enrichmentmap.parsers.GREATWhichPvalueQuestionTask;
 import org.baderlab.csplugins.enrichmentmap.parsers.LoadEnrichmentsFromTableTask;
@@ -28,6 +28,7 @@ import org.baderlab.csplugins.enrichmentmap.parsers.ParseGSEAEnrichmentResults;
 import org.baderlab.csplugins.enrichmentmap.parsers.ParseGenericEnrichmentResults;
 import org.baderlab.csplugins.enrichmentmap.parsers.RanksFileReaderTask;
 import org.baderlab.csplugins.enrichmentmap.resolver.DataSetResolver;
+import org.baderlab.csplugins.enrichmentmap.task.LoadDataSetFilesTask.Stage;
 import org.baderlab.csplugins.enrichmentmap.util.Baton;
 import org.cytoscape.service.util.CyServiceRegistrar;
 import org.cytoscape.work.AbstractTask;
@@ -74,6 +75,12 @@ public class CreateEnrichmentMapTaskFactory extends AbstractTaskFactory {
 	
 	
 	private void createTasks(EnrichmentMap map, TaskIterator tasks) {
+		// data sets often use the same GMT file, only parse it once
+		GMTFileCache gmtCache = new GMTFileCache();
+		
+		// The files of the data sets are loaded concurrently, one stage at a time
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask();
+		
 		for(DataSetParameters dataSetParameters : dataSets) {
 			String datasetName = dataSetParameters.getName();
 			Method method = dataSetParameters.getMethod();
@@ -84,37 +91,42 @@ public class CreateEnrichmentMapTaskFactory extends AbstractTaskFactory {
 			
 			// Load GMT File
 			if(!Strings.isNullOrEmpty(dataset.getDataSetFiles().getGMTFileName())) {
-				tasks.append(new GMTFileReaderTask(dataset));
+				loadTask.addTask(Stage.GENE_SETS, dataset, new GMTFileReaderTask(dataset, gmtCache));
 			}
 			
 			// Load the enrichments 
 			if(dataSetParameters.getTableParams().isPresent()) {
 				TableParameters tableParams = dataSetParameters.getTableParams().get();
-				tasks.append(new LoadEnrichmentsFromTableTask(tableParams, dataset));
+				// adds genes to the map, see addEnrichmentParserTasks()
+				loadTask.addTask(Stage.ENRICHMENTS, map, new LoadEnrichmentsFromTableTask(tableParams, dataset));
 			} else {
-				tasks.append(getEnrichmentParserTasks(dataset));
+				addEnrichmentParserTasks(dataset, tasks, loadTask);
 			}
 
 			// Load expression file if specified in the dataset.
 			// If there is no expression file then create a dummy file to associate with this dataset so we can still use the expression viewer (heat map)
-			if(Strings.isNullOrEmpty(dataset.getDataSetFiles().getExpressionFileName())) {
-				tasks.append(new CreateDummyExpressionTask(dataset));
+			String expressionFileName = dataset.getDataSetFiles().getExpressionFileName();
+			if(Strings.isNullOrEmpty(expressionFileName)) {
+				loadTask.addTask(Stage.EXPRESSIONS, dataset, new CreateDummyExpressionTask(dataset));
 			} else {
-				tasks.append(new ExpressionFileReaderTask(dataset));
+				// data sets that share an expression file share the matrix, the first reader creates it
+				loadTask.addTask(Stage.EXPRESSIONS, expressionFileName, new ExpressionFileReaderTask(dataset, loadTask.getParserExecutor()));
 			}
 			
 			// Load ranks if present
 			String ranksName = dataset.getMethod() == Method.GSEA ? Ranking.GSEARanking : datasetName;
 			if(dataset.getRanksByName(ranksName) != null) {
 				String filename = files.getRankedFile();
-				tasks.append(new RanksFileReaderTask(filename, dataset, ranksName, false));
+				loadTask.addTask(Stage.RANKS, dataset, new RanksFileReaderTask(filename, dataset, ranksName, false));
 			}
 			
 			if(!Strings.isNullOrEmpty(dataset.getDataSetFiles().getClassFile())) {
-				tasks.append(new ClassFileReaderTask(dataset));
+				loadTask.addTask(Stage.CLASSES, dataset, new ClassFileReaderTask(dataset));
 			}
 		}
 		
+		tasks.append(loadTask);
+		
 		// Filter out genesets that don't pass the p-value and q-value thresholds
 		InitializeGenesetsOfInterestTask genesetsTask = new InitializeGenesetsOfInterestTask(map);
 //		genesetsTask.setThrowIfMissing(false); // TEMPORARY
@@ -124,7 +136,7 @@ public class CreateEnrichmentMapTaskFactory extends AbstractTaskFactory {
 		tasks.append(new FilterGenesetsByDatasetGenes(map));
 
 		// Link the ComputeSimilarityTask to the MasterMapNetworkTask by a "pipe"
-		Baton<Map<SimilarityKey,GenesetSimilarity>> pipe = new Baton<>();
+		Baton<GenesetSimilarityStore> pipe = new Baton<>();
 		
 		// Compute the geneset similarities
 		tasks.append(new ComputeSimilarityTaskParallel(map, pipe.consumer()));
@@ -143,36 +155,49 @@ public class CreateEnrichmentMapTaskFactory extends AbstractTaskFactory {
 	
 	
 	/**
-	 * Parse Enrichment results file
+	 * Parse Enrichment results file.
+	 * The GREAT question has to be answered before the files are loaded, it is added to the task iterator.
+	 * The parsers that add the genes of their gene sets to the map use the map as the key, so they run 
+	 * one after the other in data set order and the gene IDs don't depend on which file is parsed first.
 	 */
-	private static TaskIterator getEnrichmentParserTasks(EMDataSet dataset) {
+	private static void addEnrichmentParserTasks(EMDataSet dataset, TaskIterator tasks, LoadDataSetFilesTask loadTask) {
 		String enrichmentsFileName1 = dataset.getDataSetFiles().getEnrichmentFileName1();
 		String enrichmentsFileName2 = dataset.getDataSetFiles().getEnrichmentFileName2();
 		
-		TaskIterator parserTasks = new TaskIterator();
-		
 		try {
+			List<AbstractTask> parsers = new ArrayList<>(2);
 			if(!Strings.isNullOrEmpty(enrichmentsFileName1)) {
 				AbstractTask current = readFile(dataset, enrichmentsFileName1);
 				if(current instanceof ParseGREATEnrichmentResults)
-					parserTasks.append(new GREATWhichPvalueQuestionTask(dataset.getMap()));
-				parserTasks.append(current);
+					tasks.append(new GREATWhichPvalueQuestionTask(dataset.getMap()));
+				parsers.add(current);
 			}
 			
 			if(!Strings.isNullOrEmpty(enrichmentsFileName2)) {
-				parserTasks.append(readFile(dataset, enrichmentsFileName2));
+				parsers.add(readFile(dataset, enrichmentsFileName2));
 			}
 			
 			//If both of the enrichment files are null then we want to default to building a gmt file only build
 			if(Strings.isNullOrEmpty(enrichmentsFileName1) && Strings.isNullOrEmpty(enrichmentsFileName2)) {
-				parserTasks.append(new CreateGMTEnrichmentMapTask(dataset));
+				parsers.add(new CreateGMTEnrichmentMapTask(dataset));
+			}
+			
+			// the tasks of a data set use the same key, they update the same enrichments
+			boolean addsGenes = parsers.stream().anyMatch(CreateEnrichmentMapTaskFactory::addsGenes);
+			Object key = addsGenes ? dataset.getMap() : dataset;
+			for(AbstractTask parser : parsers) {
+				loadTask.addTask(Stage.ENRICHMENTS, key, parser);
 			}
 			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
-		
-		return parserTasks;
+	}
+	
+	private static boolean addsGenes(AbstractTask parser) {
+		return !(parser instanceof ParseGSEAEnrichmentResults 
+			  || parser instanceof ParseEDBEnrichmentResults 
+			  || parser instanceof CreateGMTEnrichmentMapTask);
 	}
 
 
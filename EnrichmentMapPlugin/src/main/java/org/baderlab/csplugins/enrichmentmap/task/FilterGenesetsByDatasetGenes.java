@@ -56,6 +56,8 @@ public class FilterGenesetsByDatasetGenes extends AbstractTask {
 			if(!anyGenesLeftAfterFiltering(datasets.values())) {
 				throw new IllegalThreadStateException("No genes in the expression file are found in the GMT file ");
 			}
+			
+			map.clearGeneSetIndexes();
 		}
 		
 		// if there are multiple datasets check to see if they have the same set of genes
@@ -43,11 +43,9 @@
 
 package org.baderlab.csplugins.enrichmentmap.task;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
@@ -167,14 +165,15 @@ public class InitializeGenesetsOfInterestTask extends AbstractTask {
 			throw new IllegalArgumentException("None of the gene sets have passed the filter. Try relaxing the gene set filter parameters.");
 		}
 		
+		map.clearGeneSetIndexes();
+		
 		// MKTODO clear all the genesets that are not "of interest" just to free up memory
 	}
 
 	private void updateRankAtMax(GSEAResult current_result, Ranking ranks) {
 		//update the current geneset to reflect score at max
 		if(ranks != null) {
-			Set<Integer> allranks = ranks.getAllRanks();
-			Integer largestRank = Collections.max(allranks);
+			int largestRank = ranks.getMaxRank();
 
 			//get the max at rank for this geneset
 			int currentRankAtMax = current_result.getRankAtMax();
@@ -0,0 +1,269 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.Task;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Runs the tasks that load the files of the data sets of a map.
+ * <p>
+ * The tasks are grouped in stages that run one after the other, so for example all the GMT
+ * files are loaded before the enrichment files. The tasks of a stage run concurrently on a
+ * bounded thread pool, except tasks that were added with the same key, they run one after
+ * the other in the order they were added. Use the data set as the key for tasks that update
+ * the same data set, and the file name for tasks that share a file. The tasks of a stage are
+ * started in the order their key was first added, GMTFileCache relies on this.
+ * <p>
+ * The progress is reported per stage, it is the average progress of the tasks of the stage.
+ * Cancelling this task cancels all the loading tasks.
+ * <p>
+ * Readers that parse a file in parallel should use {@link #getParserExecutor()}, so that the
+ * readers that run at the same time don't each start a thread per CPU.
+ */
+public class LoadDataSetFilesTask extends AbstractTask {
+
+	public enum Stage {
+		GENE_SETS("Loading gene sets"),
+		ENRICHMENTS("Loading enrichment results"),
+		EXPRESSIONS("Loading expressions"),
+		RANKS("Loading ranks"),
+		CLASSES("Loading phenotype classes");
+
+		private final String description;
+
+		private Stage(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private final int maxThreads;
+	private final ForkJoinPool parserPool;
+
+	// stage -> key -> tasks that run one after the other
+	private final Map<Stage, Map<Object, List<Task>>> stages = new EnumMap<>(Stage.class);
+	private final List<Task> allTasks = new CopyOnWriteArrayList<>();
+	private final List<Future<?>> running = new CopyOnWriteArrayList<>();
+
+
+	public LoadDataSetFilesTask() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public LoadDataSetFilesTask(int maxThreads) {
+		if(maxThreads < 1)
+			throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+		this.maxThreads = maxThreads;
+		// the worker threads are only started when tasks are submitted
+		this.parserPool = new ForkJoinPool(maxThreads);
+	}
+
+	/**
+	 * Adds a task to the given stage, tasks of the same stage with equal keys don't run at the same time.
+	 */
+	public void addTask(Stage stage, Object key, Task task) {
+		stages.computeIfAbsent(stage, s -> new LinkedHashMap<>()).computeIfAbsent(key, k -> new ArrayList<>()).add(task);
+		allTasks.add(task);
+	}
+
+	public boolean isEmpty() {
+		return allTasks.isEmpty();
+	}
+
+	/**
+	 * The pool shared by the loading tasks for parsing in parallel, it is shut down when this task finishes.
+	 */
+	public ExecutorService getParserExecutor() {
+		return parserPool;
+	}
+
+
+	@Override
+	public void run(TaskMonitor taskMonitor) throws Exception {
+		if(taskMonitor == null)
+			taskMonitor = new NullTaskMonitor();
+		taskMonitor.setTitle("Loading Data Sets");
+
+		try {
+			int stageIndex = 0;
+			for(Map.Entry<Stage, Map<Object, List<Task>>> entry : stages.entrySet()) {
+				if(cancelled)
+					return;
+				List<List<Task>> groups = new ArrayList<>(entry.getValue().values());
+				StageProgress progress = new StageProgress(taskMonitor, entry.getKey(), stageIndex++, stages.size(), groups);
+				runStage(groups, progress);
+			}
+			taskMonitor.setProgress(1.0);
+		} finally {
+			parserPool.shutdownNow();
+		}
+	}
+
+
+	private void runStage(List<List<Task>> groups, StageProgress progress) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxThreads, groups.size()));
+		CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<?>> futures = new ArrayList<>(groups.size());
+		try {
+			int slot = 0;
+			for(List<Task> group : groups) {
+				int firstSlot = slot;
+				slot += group.size();
+				futures.add(completionService.submit(() -> {
+					for(int i = 0; i < group.size() && !cancelled; i++) {
+						group.get(i).run(progress.getTaskMonitor(firstSlot + i));
+						progress.taskFinished(firstSlot + i);
+					}
+					return null;
+				}));
+			}
+			running.addAll(futures);
+			if(cancelled) // cancel() may have been called before the futures were added
+				cancelRunning();
+
+			// in the order they finish, so that a failure cancels the tasks that are still running
+			for(int i = 0; i < futures.size(); i++) {
+				getResult(completionService.take());
+			}
+		} finally {
+			running.clear();
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the tasks of a group, if one of them fails the other loading tasks are cancelled.
+	 */
+	private void getResult(Future<?> future) throws Exception {
+		try {
+			future.get();
+		} catch(CancellationException e) {
+			if(!cancelled)
+				throw e;
+		} catch(InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			throw e;
+		} catch(ExecutionException e) {
+			allTasks.forEach(Task::cancel);
+			cancelRunning();
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception)
+				throw (Exception) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		allTasks.forEach(Task::cancel);
+		cancelRunning();
+	}
+
+	private void cancelRunning() {
+		// interrupts the readers that are blocked
+		running.forEach(future -> future.cancel(true));
+	}
+
+
+	/**
+	 * Combines the progress of the tasks of a stage, the tasks call the TaskMonitor from several threads.
+	 */
+	private static class StageProgress {
+
+		private final TaskMonitor delegate;
+		private final Stage stage;
+		private final int stageIndex;
+		private final int stageCount;
+
+		private final double[] progress;
+		private int finished = 0;
+		private double lastReported = -1.0;
+
+		StageProgress(TaskMonitor delegate, Stage stage, int stageIndex, int stageCount, List<List<Task>> groups) {
+			this.delegate = delegate;
+			this.stage = stage;
+			this.stageIndex = stageIndex;
+			this.stageCount = stageCount;
+			int taskCount = 0;
+			for(List<Task> group : groups)
+				taskCount += group.size();
+			this.progress = new double[taskCount];
+			report(true);
+		}
+
+		synchronized void setProgress(int slot, double value) {
+			if(value >= 0.0 && value <= 1.0) {
+				progress[slot] = value;
+				report(false);
+			}
+		}
+
+		synchronized void taskFinished(int slot) {
+			progress[slot] = 1.0;
+			finished++;
+			report(true);
+		}
+
+		synchronized void showMessage(TaskMonitor.Level level, String message) {
+			delegate.showMessage(level, message);
+		}
+
+		private void report(boolean updateMessage) {
+			double sum = 0.0;
+			for(double p : progress)
+				sum += p;
+			double overall = (stageIndex + sum / progress.length) / stageCount;
+
+			// the readers report their progress for every line, only pass on visible changes
+			if(updateMessage || overall - lastReported >= 0.001) {
+				delegate.setProgress(overall);
+				lastReported = overall;
+			}
+			if(updateMessage)
+				delegate.setStatusMessage(stage.getDescription() + " (" + finished + " of " + progress.length + ")");
+		}
+
+		TaskMonitor getTaskMonitor(int slot) {
+			return new TaskMonitor() {
+				@Override
+				public void setProgress(double value) {
+					StageProgress.this.setProgress(slot, value);
+				}
+				@Override
+				public void showMessage(Level level, String message) {
+					StageProgress.this.showMessage(level, message);
+				}
+				// the status messages and titles of the tasks would overwrite each other
+				@Override
+				public void setTitle(String title) {
+				}
+				@Override
+				public void setStatusMessage(String message) {
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps the results of the most recently used HierarchicalClusterTasks, so going back to a gene selection
+ * that was clustered a moment ago doesn't start the clustering again.
+ *
+ * The results are keyed by the network, the set of genes, the distance metric and the versions of the
+ * expression matrices. A request that is still running is shared with identical requests, and is cancelled
+ * when a request for a different key comes in because the heat map only shows the latest selection.
+ */
+@Singleton
+public class ClusterResultCache {
+
+	public static final int MAXIMUM_SIZE = 20;
+
+	private final Cache<Key,CompletableFuture<Optional<Map<Integer,RankValue>>>> cache;
+
+	private Key lastKey;
+	private HierarchicalClusterTask lastTask;
+	private CompletableFuture<Optional<Map<Integer,RankValue>>> lastFuture;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+
+
+	public ClusterResultCache() {
+		this(MAXIMUM_SIZE);
+	}
+
+	@VisibleForTesting
+	ClusterResultCache(int maximumSize) {
+		// one segment so the least recently used result is the one evicted
+		cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(maximumSize).build();
+	}
+
+
+	/**
+	 * Returns the cached or running result for the genes, otherwise creates a HierarchicalClusterTask and
+	 * starts it with the given function.
+	 *
+	 * @param executor runs the task, the returned future completes with the task's results
+	 */
+	public synchronized CompletableFuture<Optional<Map<Integer,RankValue>>> getRanking(EnrichmentMap map,
+			Collection<Integer> genes, Distance distance,
+			Function<HierarchicalClusterTask,CompletableFuture<Optional<Map<Integer,RankValue>>>> executor) {
+
+		// The order of the genes affects the leaf order when distances are tied, always cluster them sorted
+		List<Integer> sortedGenes = genes.stream().filter(Objects::nonNull).distinct().sorted().collect(Collectors.toList());
+		if(sortedGenes.size() < 2) // The HierarchicalClusterTask requires at least 2 genes
+			return CompletableFuture.completedFuture(Optional.of(Collections.emptyMap()));
+		Key key = new Key(map, sortedGenes, distance);
+
+		if(!key.equals(lastKey))
+			cancelLast();
+
+		CompletableFuture<Optional<Map<Integer,RankValue>>> future = cache.getIfPresent(key);
+		if(future != null) {
+			hitCount++;
+			return future;
+		}
+		missCount++;
+
+		HierarchicalClusterTask task = new HierarchicalClusterTask(map, sortedGenes, distance.getMetric());
+		CompletableFuture<Optional<Map<Integer,RankValue>>> result = executor.apply(task);
+		cache.put(key, result);
+		lastKey = key;
+		lastTask = task;
+		lastFuture = result;
+
+		result.whenComplete((ranking, ex) -> {
+			// don't keep results that are incomplete
+			if(ex != null || task.isCancelled()) {
+				cache.asMap().remove(key, result);
+			}
+		});
+		return result;
+	}
+
+
+	private void cancelLast() {
+		if(lastFuture != null && !lastFuture.isDone()) {
+			lastTask.cancel();
+			lastFuture.cancel(false);
+			cache.asMap().remove(lastKey, lastFuture);
+		}
+		lastKey = null;
+		lastTask = null;
+		lastFuture = null;
+	}
+
+	public synchronized void invalidateAll() {
+		cancelLast();
+		cache.invalidateAll();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+
+	private static class Key {
+		private final long networkID;
+		private final int[] genes;
+		private final Distance distance;
+		private final int[] expressionVersions;
+
+		Key(EnrichmentMap map, List<Integer> sortedGenes, Distance distance) {
+			this.networkID = map.getNetworkID();
+			this.genes = sortedGenes.stream().mapToInt(Integer::intValue).toArray();
+			this.distance = distance;
+			// versions are unique across matrices, they change when the data sets or their expressions change
+			this.expressionVersions = map.getDataSetList().stream()
+					.map(EMDataSet::getExpressionSets)
+					.mapToInt(matrix -> matrix == null ? 0 : matrix.getVersion())
+					.toArray();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(networkID, Arrays.hashCode(genes), distance, Arrays.hashCode(expressionVersions));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return networkID == other.networkID
+				&& distance == other.distance
+				&& Arrays.equals(genes, other.genes)
+				&& Arrays.equals(expressionVersions, other.expressionVersions);
+		}
+	}
+}
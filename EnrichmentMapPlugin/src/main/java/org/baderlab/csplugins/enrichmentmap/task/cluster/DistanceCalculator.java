@@ -0,0 +1,122 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.baderlab.csplugins.brainlib.DistanceMatrix;
+import org.baderlab.csplugins.brainlib.DistanceMetric;
+import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Fills the lower triangle of a DistanceMatrix in parallel.
+ *
+ * The triangle is split into square tiles of TILE_SIZE rows and columns, the expression vectors of a tile
+ * stay in the CPU cache while all of its distances are calculated. Each row of tiles is a task for the
+ * ForkJoinPool, the rows only write to their own part of the matrix.
+ */
+public class DistanceCalculator {
+
+	/** Matrices with more elements store the distances as floats, the metrics only calculate floats anyway. */
+	public static final int FLOAT_PRECISION_THRESHOLD = 10_000;
+
+	static final int TILE_SIZE = 64;
+
+	private final DistanceMetric distanceMetric;
+	private final BooleanSupplier cancelled;
+
+	/**
+	 * @param cancelled polled while the distances are calculated, the calculation stops with a
+	 *                  CancellationException when it returns true
+	 */
+	public DistanceCalculator(DistanceMetric distanceMetric, BooleanSupplier cancelled) {
+		this.distanceMetric = distanceMetric;
+		this.cancelled = cancelled;
+	}
+
+
+	public DistanceMatrix calcDistances(List<float[]> objectList, TaskMonitor tm) {
+		return calcDistances(objectList, objectList.size() > FLOAT_PRECISION_THRESHOLD, tm);
+	}
+
+	/**
+	 * Calculates the same matrix as DistanceMatrix.calcDistances(), including the minimum distance.
+	 * Exceptions thrown by the distance metric are rethrown.
+	 */
+	public DistanceMatrix calcDistances(List<float[]> objectList, boolean floatPrecision, TaskMonitor tm) {
+		float[][] vectors = objectList.toArray(new float[objectList.size()][]);
+		DistanceMatrix distanceMatrix = new DistanceMatrix(vectors.length, floatPrecision);
+
+		int tileRows = (vectors.length + TILE_SIZE - 1) / TILE_SIZE;
+		// tile row t has t+1 tiles
+		DiscreteTaskMonitor taskMonitor = new DiscreteTaskMonitor(tm, tileRows * (tileRows + 1) / 2);
+		taskMonitor.setStatusMessageTemplate("Calculating Distance: {0} of {1} blocks");
+
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			// start with the longest rows so the work is spread evenly at the end
+			List<Future<?>> futures = new ArrayList<>(tileRows);
+			for(int t = tileRows - 1; t >= 0; t--) {
+				int tileRow = t;
+				futures.add(pool.submit(() -> {
+					calcTileRow(vectors, tileRow, distanceMatrix);
+					taskMonitor.addWork(tileRow + 1);
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return distanceMatrix;
+	}
+
+
+	private void calcTileRow(float[][] vectors, int tileRow, DistanceMatrix distanceMatrix) {
+		int iStart = tileRow * TILE_SIZE;
+		int iEnd = Math.min(iStart + TILE_SIZE, vectors.length);
+
+		double minimumDistance = Double.MAX_VALUE;
+		int mini = -1;
+		int minj = -1;
+
+		for(int jStart = 0; jStart < iEnd; jStart += TILE_SIZE) {
+			if(cancelled.getAsBoolean())
+				throw new CancellationException();
+
+			for(int i = iStart; i < iEnd; i++) {
+				float[] object1 = vectors[i];
+				int jEnd = Math.min(jStart + TILE_SIZE, i);
+				for(int j = jStart; j < jEnd; j++) {
+					double distance = distanceMetric.calc(object1, vectors[j]);
+					// the tiles are not visited in row order, keep the first minimum in row order
+					if(distance < minimumDistance || (distance == minimumDistance && (i < mini || (i == mini && j < minj)))) {
+						minimumDistance = distance;
+						mini = i;
+						minj = j;
+					}
+					distanceMatrix.setValue(i, j, distance);
+				}
+			}
+		}
+
+		if(mini >= 0) {
+			distanceMatrix.updateMinimum(minimumDistance, mini, minj);
+		}
+	}
+
+}
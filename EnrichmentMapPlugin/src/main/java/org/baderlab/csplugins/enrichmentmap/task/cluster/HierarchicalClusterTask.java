@@ -6,13 +6,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 
 import org.baderlab.csplugins.brainlib.AvgLinkHierarchicalClustering;
 import org.baderlab.csplugins.brainlib.DistanceMatrix;
 import org.baderlab.csplugins.brainlib.DistanceMetric;
+import org.baderlab.csplugins.brainlib.NNChainHierarchicalClustering;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
-import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
 import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
@@ -27,6 +28,7 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 	private final Collection<Integer> genes;
 	private final EnrichmentMap map;
 	private final DistanceMetric distanceMetric;
+	private boolean nearestNeighbourChain = true;
 
 	private Optional<Map<Integer, RankValue>> results;
 
@@ -36,6 +38,14 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 		this.distanceMetric = distanceMetric;
 	}
 
+	/**
+	 * If true (default) the genes are clustered with the O(n^2) nearest-neighbour chain algorithm,
+	 * otherwise with the original O(n^3) algorithm. Both give the same leaf order.
+	 */
+	public void setNearestNeighbourChain(boolean nearestNeighbourChain) {
+		this.nearestNeighbourChain = nearestNeighbourChain;
+	}
+
 	public Map<Integer, RankValue> cluster(TaskMonitor tm) {
 		if (tm == null)
 			tm = new NullTaskMonitor();
@@ -58,11 +68,10 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 			for (EMDataSet dataSet : dataSets) {
 				GeneExpressionMatrix expressionSets = dataSet.getExpressionSets();
 				int numConditions = expressionSets.getNumConditions() - 2;
-				GeneExpression geneExpression = expressionSets.getExpressionMatrix().get(geneId);
-				if (geneExpression != null) {
+				int row = expressionSets.getRowIndex(geneId);
+				if (row >= 0) {
 					found = true;
-					float[] expression = geneExpression.getExpression();
-					System.arraycopy(expression, 0, vals, valsIndex, expression.length);
+					expressionSets.copyExpression(row, vals, valsIndex);
 				}
 				valsIndex += numConditions;
 			}
@@ -75,12 +84,16 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 
 		tm.setStatusMessage("Calculating Distance");
 
-		DistanceMatrix distanceMatrix = new DistanceMatrix(clusteringExpressionSet.size());
-		distanceMatrix.calcDistances(clusteringExpressionSet, distanceMetric);
+		DistanceCalculator distanceCalculator = new DistanceCalculator(distanceMetric, () -> cancelled);
+		DistanceMatrix distanceMatrix = distanceCalculator.calcDistances(clusteringExpressionSet, tm);
 
+		if (cancelled)
+			throw new CancellationException();
 		tm.setStatusMessage("Clustering");
 
-		AvgLinkHierarchicalClustering clusterResult = new AvgLinkHierarchicalClustering(distanceMatrix);
+		AvgLinkHierarchicalClustering clusterResult = nearestNeighbourChain
+				? new NNChainHierarchicalClustering(distanceMatrix)
+				: new AvgLinkHierarchicalClustering(distanceMatrix);
 		// check to see if there more than 1000 genes, if there are use eisen ordering otherwise use bar-joseph
 		clusterResult.setOptimalLeafOrdering(genes.size() <= 1000);
 		clusterResult.run();
@@ -111,6 +124,8 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 	public void run(TaskMonitor tm) {
 		try {
 			results = Optional.of(cluster(tm));
+		} catch (CancellationException e) {
+			results = Optional.empty();
 		} catch (Exception e) {
 			e.printStackTrace();
 			results = Optional.empty();
@@ -121,6 +136,10 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 		return results;
 	}
 
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 	/** Use getActualResults() instead */
 	@Override
 	public <R> R getResults(Class<? extends R> type) {
@@ -22,10 +22,8 @@ import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
 import org.baderlab.csplugins.enrichmentmap.style.WidthFunction;
 import org.baderlab.csplugins.enrichmentmap.task.CreateEMNetworkTask;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
-import org.baderlab.csplugins.enrichmentmap.util.NetworkUtil;
 import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.model.CyEdge;
-import org.cytoscape.model.CyIdentifiable;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.CyNode;
@@ -59,7 +57,7 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 	private final Map<SimilarityKey,SignatureGenesetSimilarity> geneSetSimilarities;
 	
 	// Some caches for performance reasons
-	private Map<EdgeCacheKey,CyEdge> existingEdgeCache;
+	private PANetworkIndex networkIndex;
 	private final Map<String,CyNode> nodeCache = new LinkedHashMap<>(); // maintain insertion order so layout is deterministic
 	
 	private CreatePANetworkTaskResult.Builder taskResult = new CreatePANetworkTaskResult.Builder();
@@ -102,7 +100,7 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 		tm.setProgress(0.1);
 		
 		tm.setStatusMessage("Caching Nodes");
-		existingEdgeCache = createExistingEdgeCache(prefix, network, edgeTable);
+		networkIndex = PANetworkIndex.create(network, prefix);
 		tm.setProgress(0.2);
 		
 		EMSignatureDataSet sigDataSet = createSignatureDataSet();
@@ -173,23 +171,6 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 	}
 	
 	
-	private static Map<EdgeCacheKey,CyEdge> createExistingEdgeCache(String prefix, CyNetwork network, CyTable edgeTable) {
-		Map<EdgeCacheKey,CyEdge> cache = new HashMap<>();
-		// Get rows for signature edges
-		Collection<CyRow> rows = edgeTable.getMatchingRows(CyEdge.INTERACTION, PASimilarityTaskParallel.INTERACTION);
-		for(CyRow row : rows) {
-			String name = row.get(CyNetwork.NAME, String.class);
-			Long suid = row.get(CyIdentifiable.SUID, Long.class);
-			String signatureDataSetName = Columns.EDGE_SIG_DATASET.get(row, prefix);
-			CyEdge edge = network.getEdge(suid);
-			
-			// we are assuming that the EM data set name is part of the edge name
-			cache.put(new EdgeCacheKey(name, signatureDataSetName), edge);
-		}
-		return cache;
-	}
-	
-	
 	/**
 	 * Creates a signature hub node if it doesn't already exist.
 	 * Otherwise it updates the attributes of the existing node.
@@ -198,7 +179,7 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 								 CyTable edgeTable, CyTable nodeTable, Set<Integer> geneUniverse, GeneSet sigGeneSet, EMSignatureDataSet sigDataSet) {
 		
 		// Test for existing node first
-		CyNode hubNode = NetworkUtil.getNodeWithValue(network, nodeTable, CyNetwork.NAME, hubName);
+		CyNode hubNode = networkIndex.getNode(hubName);
 		
 		if (hubNode == null) {
 			hubNode = network.addNode();
@@ -207,6 +188,7 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 		sigDataSet.addNodeSuid(hubNode.getSUID());
 		
 		network.getRow(hubNode).set(CyNetwork.NAME, hubName);
+		networkIndex.addNode(hubName, hubNode);
 
 		String formattedLabel = CreateEMNetworkTask.formatLabel(hubName);
 		CyRow row = nodeTable.getRow(hubNode.getSUID());
@@ -266,26 +248,24 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 		final String edgeName = similarityKey.toString();
 		SignatureGenesetSimilarity genesetSimilarity = geneSetSimilarities.get(similarityKey);
 		
-		CyEdge edge = existingEdgeCache.get(new EdgeCacheKey(edgeName, sigDataSet.getName()));
+		CyEdge edge = networkIndex.getEdge(edgeName, sigDataSet.getName());
 		boolean passedCutoff = genesetSimilarity.getPassesCutoff();
 		if (edge == null) {
 			if (passedCutoff) {
 				CyNode hubNode = nodeCache.get(genesetSimilarity.getGeneset1Name());
-				CyNode geneSet = NetworkUtil.getNodeWithValue(network, nodeTable, CyNetwork.NAME, genesetSimilarity.getGeneset2Name());
+				CyNode geneSet = networkIndex.getNode(genesetSimilarity.getGeneset2Name());
 
 				if (hubNode == null || geneSet == null)
 					return;
 
 				edge = network.addEdge(hubNode, geneSet, false);
+				networkIndex.addEdge(edgeName, sigDataSet.getName(), edge);
 				sigDataSet.addEdgeSuid(edge.getSUID());
 //				map.getDataSet(similarityKey.getName()).addEdgeSuid(edge.getSUID());
 				taskResult.addNewEdge(edge);
 			} else {
 				return; // edge does not exist and does not pass cutoff, do nothing
 			}
-		} else {
-			if (!passedCutoff && existingEdgeCache.containsKey(edgeName))
-				taskResult.addExistingEdgeFailsCutoff(edge);
 		}
 
 		if (passedCutoff)
@@ -375,50 +355,4 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 		return null;
 	}
 
-	
-	
-	private static class EdgeCacheKey {
-		
-		private final String name;
-		private final String signatureDataSetName;
-		
-		public EdgeCacheKey(String name, String signatureDataSetName) {
-			this.name = name;
-			this.signatureDataSetName = signatureDataSetName;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((name == null) ? 0 : name.hashCode());
-			result = prime * result + ((signatureDataSetName == null) ? 0 : signatureDataSetName.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			EdgeCacheKey other = (EdgeCacheKey) obj;
-			if (name == null) {
-				if (other.name != null)
-					return false;
-			} else if (!name.equals(other.name))
-				return false;
-			if (signatureDataSetName == null) {
-				if (other.signatureDataSetName != null)
-					return false;
-			} else if (!signatureDataSetName.equals(other.signatureDataSetName))
-				return false;
-			return true;
-		}
-		
-
-	}
-
 }
@@ -8,9 +8,8 @@ import javax.annotation.Nullable;
 import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisFilterType;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
 import org.baderlab.csplugins.enrichmentmap.model.SignatureGenesetSimilarity;
-import org.baderlab.csplugins.mannwhit.MannWhitneyMemoized;
+import org.baderlab.csplugins.mannwhit.MannWhitneyPresorted;
 import org.baderlab.csplugins.mannwhit.MannWhitneyTestResult;
-import org.baderlab.csplugins.mannwhit.MannWhitneyUTestSided;
 
 import com.google.common.collect.Sets;
 
@@ -160,10 +159,20 @@ public interface FilterMetric {
 		
 		private Set<Integer> universeGenes = null;
 		
+		// created when first used, the metric is shared by the threads of a post analysis run
+		private volatile HypergeometricTable hypergeometric = null;
+		
 		public Hypergeom(double filter, int u) {
 			super(PostAnalysisFilterType.HYPERGEOM, filter);
 			this.u = u;
 		}
+		
+		private HypergeometricTable getHypergeometric() {
+			HypergeometricTable table = hypergeometric;
+			if(table == null) // It's fine if two threads create a table, they are the same
+				hypergeometric = table = new HypergeometricTable(u);
+			return table;
+		}
 
 		public boolean passes(double value) {
 			return value <= cutoff;
@@ -192,7 +201,7 @@ public interface FilterMetric {
 
 			double hyperPval;
 			if(k > 0)
-				hyperPval = Hypergeometric.hyperGeomPvalueSum(u, n, m, k, 0);
+				hyperPval = getHypergeometric().hyperGeomPvalueSum(n, m, k, 0);
 			else // Correct p-value of empty intersections to 1 (i.e. not significant)
 				hyperPval = 1.0;
 			
@@ -217,8 +226,10 @@ public interface FilterMetric {
 
 		private final String rankingName;
 		private final @Nullable Ranking ranks;
-		private final MannWhitneyMemoized mannWhitneyCache = new MannWhitneyMemoized();
-
+		
+		// created when first used, the metric is shared by the threads of a post analysis run
+		private volatile PresortedScores presorted = null;
+		
 		
 		public MannWhit(PostAnalysisFilterType type, double filter, String rankingName, Ranking ranks) {
 			super(type, filter);
@@ -236,6 +247,35 @@ public interface FilterMetric {
 			return Math.min(x, y);
 		}
 		
+		/**
+		 * The scores of all the genes in the ranking are sorted once, the ranking returns the same 
+		 * scores array until it changes. Only the thread that sorts the scores takes the lock.
+		 */
+		private MannWhitneyPresorted getMannWhitney() {
+			double[] scores = ranks.getScores();
+			PresortedScores p = presorted;
+			if(p == null || p.scores != scores) {
+				synchronized(this) {
+					p = presorted;
+					if(p == null || p.scores != scores) {
+						p = new PresortedScores(scores, new MannWhitneyPresorted(scores));
+						presorted = p;
+					}
+				}
+			}
+			return p.mannWhitney;
+		}
+		
+		private static class PresortedScores {
+			final double[] scores;
+			final MannWhitneyPresorted mannWhitney;
+			
+			PresortedScores(double[] scores, MannWhitneyPresorted mannWhitney) {
+				this.scores = scores;
+				this.mannWhitney = mannWhitney;
+			}
+		}
+		
 		public double computeValue(Set<Integer> geneSet, Set<Integer> sigSet, @Nullable SignatureGenesetSimilarity similarity) {
 			Set<Integer> intersection = Sets.intersection(geneSet, sigSet);
 			int size = intersection.size();
@@ -254,31 +294,26 @@ public interface FilterMetric {
 			
 			int j = 0;
 			for (Integer geneId : overlapGeneIds) {
-				Double score = ranks.getScore(geneId);
-				if (score != null) {
-					overlapGeneScores[j++] = score; // unbox
+				double score = ranks.getScore(geneId, Double.NaN);
+				if (!Double.isNaN(score)) {
+					overlapGeneScores[j++] = score;
 				}
 			}
 	
 			overlapGeneScores = Arrays.copyOf(overlapGeneScores, j);
-			double[] scores = ranks.getScores();
 			
-			if(similarity == null) {
-				MannWhitneyUTestSided mann_whit = new MannWhitneyUTestSided();
-				return mann_whit.mannWhitneyUTest(overlapGeneScores, scores, type.mannWhitneyTestType());
-			} 
-			else {
-				MannWhitneyTestResult result = mannWhitneyCache.mannWhitneyUTestBatch(overlapGeneScores, scores);
+			MannWhitneyTestResult result = getMannWhitney().mannWhitneyUTestBatch(overlapGeneScores);
+			if(similarity != null) {
 				similarity.setMannWhitPValueTwoSided(result.twoSided);
 				similarity.setMannWhitPValueGreater(result.greater);
 				similarity.setMannWhitPValueLess(result.less);
-				
-				switch(type) {
-					default:
-					case MANN_WHIT_TWO_SIDED: return result.twoSided;
-					case MANN_WHIT_GREATER: return result.greater;
-					case MANN_WHIT_LESS: return result.less;
-				}
+			}
+			
+			switch(type) {
+				default:
+				case MANN_WHIT_TWO_SIDED: return result.twoSided;
+				case MANN_WHIT_GREATER: return result.greater;
+				case MANN_WHIT_LESS: return result.less;
 			}
 		}
 		
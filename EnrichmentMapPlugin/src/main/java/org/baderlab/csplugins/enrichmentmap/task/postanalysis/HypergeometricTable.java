@@ -0,0 +1,134 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import cern.jet.stat.Gamma;
+
+/**
+ * Computes the same p-values as {@link Hypergeometric} for a fixed population size N.
+ * <p>
+ * The log factorials up to N are computed once, and the terms of a tail sum are computed from their
+ * neighbour with the ratio between successive terms, starting from the largest term in the tail.
+ * Hypergeometric calls Gamma.logGamma six times for every term.
+ * <p>
+ * Like Hypergeometric an ArithmeticException is thrown if the sum includes a term that isn't defined,
+ * for example when the sample is larger than the population.
+ */
+public class HypergeometricTable {
+
+	/** Stop summing when the rest of the tail can't change the sum */
+	private static final double TAIL_EPSILON = 1e-17;
+
+	private final int N;
+	private final double[] logFactorial;
+
+
+	/**
+	 * @param N size of the population (Universe of genes)
+	 */
+	public HypergeometricTable(int N) {
+		if(N < 0)
+			throw new IllegalArgumentException("N is negative: " + N);
+		this.N = N;
+		this.logFactorial = new double[N + 1];
+		for(int i = 0; i <= N; i++) {
+			logFactorial[i] = Gamma.logGamma(i + 1.0); // same values as Hypergeometric.binomialLog()
+		}
+	}
+
+	public int getPopulationSize() {
+		return N;
+	}
+
+	/**
+	 * The log of the Binomial coefficient "n over k", 0 &le; k &le; n &le; N.
+	 */
+	public double binomialLog(int n, int k) {
+		return logFactorial[n] - logFactorial[k] - logFactorial[n - k];
+	}
+
+	/**
+	 * Equivalent to Hypergeometric.hyperGeomPvalue(N, n, m, k)
+	 */
+	public double hyperGeomPvalue(int n, int m, int k) throws ArithmeticException {
+		checkTerms(n, m, k, k);
+		return term(n, m, k);
+	}
+
+	/**
+	 * Equivalent to Hypergeometric.hyperGeomPvalueSum(N, n, m, k, 0)
+	 */
+	public double hyperGeomPvalueSum(int n, int m, int k) throws ArithmeticException {
+		return hyperGeomPvalueSum(n, m, k, 0);
+	}
+
+	/**
+	 * Equivalent to Hypergeometric.hyperGeomPvalueSum(N, n, m, k, mode)
+	 *
+	 * @param n size of the sample (signature geneset)
+	 * @param m successes in population (enrichment geneset)
+	 * @param k successes in sample (intersection of both genesets)
+	 * @param mode see Hypergeometric.hyperGeomPvalueSum()
+	 */
+	public double hyperGeomPvalueSum(int n, int m, int k, int mode) throws ArithmeticException {
+		int from, to;
+		switch(mode) {
+			case 0:  from = k;     to = Math.min(n, m); break;
+			case 1:  from = k + 1; to = Math.min(n, m); break;
+			case 2:  from = 0;     to = k;              break;
+			case 3:  from = 0;     to = k - 1;          break;
+			default: return 0.0;
+		}
+		if(from > to)
+			return 0.0;
+
+		checkTerms(n, m, from, to);
+
+		// The terms increase up to the mode of the distribution and decrease after it,
+		// start at the largest term so that the small terms can't underflow the sum.
+		long mostLikely = ((long) n + 1) * ((long) m + 1) / ((long) N + 2);
+		int peak = (int) Math.max(from, Math.min(to, mostLikely));
+
+		double peakTerm = term(n, m, peak);
+		double sum = peakTerm;
+
+		// P(X=j+1) = P(X=j) * (m-j)(n-j) / ((j+1)(N-m-n+j+1))
+		double t = peakTerm;
+		for(int j = peak; j < to && t > 0.0; j++) {
+			double ratio = ((double)(m - j) * (double)(n - j)) / ((double)(j + 1) * (double)(N - m - n + j + 1));
+			t *= ratio;
+			sum += t;
+			if(ratio < 1.0 && t * ratio / (1.0 - ratio) < sum * TAIL_EPSILON)
+				break;
+		}
+
+		// P(X=j-1) = P(X=j) * j(N-m-n+j) / ((m-j+1)(n-j+1))
+		t = peakTerm;
+		for(int j = peak; j > from && t > 0.0; j--) {
+			double ratio = ((double) j * (double)(N - m - n + j)) / ((double)(m - j + 1) * (double)(n - j + 1));
+			t *= ratio;
+			sum += t;
+			if(ratio < 1.0 && t * ratio / (1.0 - ratio) < sum * TAIL_EPSILON)
+				break;
+		}
+
+		return sum;
+	}
+
+
+	private double term(int n, int m, int k) {
+		double log_p = binomialLog(m, k) + binomialLog(N - m, n - k) - binomialLog(N, n);
+		return Math.exp(log_p);
+	}
+
+	/**
+	 * Hypergeometric throws an ArithmeticException from Gamma.logGamma() when one of the terms
+	 * has a binomial coefficient that is not defined.
+	 */
+	private void checkTerms(int n, int m, int from, int to) throws ArithmeticException {
+		if(n < 0 || n > N || m < 0 || m > N)
+			throw new ArithmeticException("Hypergeometric parameters out of range, N=" + N + ", n=" + n + ", m=" + m);
+		int kMin = Math.max(0, n + m - N);
+		int kMax = Math.min(n, m);
+		if(from < kMin || to > kMax)
+			throw new ArithmeticException("Hypergeometric parameters out of range, N=" + N + ", n=" + n + ", m=" + m + ", k=" + from + ".." + to);
+	}
+}
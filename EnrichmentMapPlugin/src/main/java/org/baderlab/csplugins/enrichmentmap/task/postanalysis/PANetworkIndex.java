@@ -0,0 +1,117 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+
+/**
+ * Finds the nodes by name and the signature edges by name and signature data set of a network,
+ * so CreatePANetworkTask doesn't have to search the node and edge tables for every hub node and similarity.
+ *
+ * The index is built from the tables once, the task must add the nodes and edges it creates.
+ * Like NetworkUtil.getNodeWithValue() a name that matches more than one node doesn't find a node.
+ */
+class PANetworkIndex {
+
+	private final Map<String,CyNode> nodesByName;
+	private final Map<EdgeKey,CyEdge> edgesByKey;
+
+
+	private PANetworkIndex(Map<String,CyNode> nodesByName, Map<EdgeKey,CyEdge> edgesByKey) {
+		this.nodesByName = nodesByName;
+		this.edgesByKey = edgesByKey;
+	}
+
+	public static PANetworkIndex create(CyNetwork network, String prefix) {
+		Map<String,CyNode> nodesByName = new HashMap<>();
+		for(CyRow row : network.getDefaultNodeTable().getAllRows()) {
+			Long suid = row.get(CyIdentifiable.SUID, Long.class);
+			CyNode node = suid == null ? null : network.getNode(suid);
+			if(node != null)
+				putNode(nodesByName, row.get(CyNetwork.NAME, String.class), node);
+		}
+
+		Map<EdgeKey,CyEdge> edgesByKey = new HashMap<>();
+		// Only signature edges are looked up
+		for(CyRow row : network.getDefaultEdgeTable().getMatchingRows(CyEdge.INTERACTION, PASimilarityTaskParallel.INTERACTION)) {
+			Long suid = row.get(CyIdentifiable.SUID, Long.class);
+			CyEdge edge = suid == null ? null : network.getEdge(suid);
+			if(edge != null) {
+				// we are assuming that the EM data set name is part of the edge name
+				String name = row.get(CyNetwork.NAME, String.class);
+				String signatureDataSetName = Columns.EDGE_SIG_DATASET.get(row, prefix);
+				edgesByKey.put(new EdgeKey(name, signatureDataSetName), edge);
+			}
+		}
+		return new PANetworkIndex(nodesByName, edgesByKey);
+	}
+
+	private static void putNode(Map<String,CyNode> nodesByName, String name, CyNode node) {
+		if(name == null)
+			return;
+		if(nodesByName.containsKey(name)) {
+			CyNode existing = nodesByName.get(name);
+			if(existing != node) // ambiguous
+				nodesByName.put(name, null);
+		} else {
+			nodesByName.put(name, node);
+		}
+	}
+
+
+	/**
+	 * Returns the node with the given name, or null if there are no nodes or multiple nodes with the name.
+	 */
+	public CyNode getNode(String name) {
+		return nodesByName.get(name);
+	}
+
+	/**
+	 * Must be called after the name of the node is set.
+	 */
+	public void addNode(String name, CyNode node) {
+		putNode(nodesByName, name, node);
+	}
+
+	public CyEdge getEdge(String name, String signatureDataSetName) {
+		return edgesByKey.get(new EdgeKey(name, signatureDataSetName));
+	}
+
+	public void addEdge(String name, String signatureDataSetName, CyEdge edge) {
+		edgesByKey.put(new EdgeKey(name, signatureDataSetName), edge);
+	}
+
+
+	private static class EdgeKey {
+
+		private final String name;
+		private final String signatureDataSetName;
+
+		public EdgeKey(String name, String signatureDataSetName) {
+			this.name = name;
+			this.signatureDataSetName = signatureDataSetName;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, signatureDataSetName);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof EdgeKey))
+				return false;
+			EdgeKey other = (EdgeKey) obj;
+			return Objects.equals(name, other.name) && Objects.equals(signatureDataSetName, other.signatureDataSetName);
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.util.stream.Collectors;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSetIndex;
 import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisFilterType;
 import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisParameters;
 import org.baderlab.csplugins.enrichmentmap.model.SignatureGenesetSimilarity;
@@ -18,10 +19,10 @@ import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.task.CancellableParallelTask;
 import org.baderlab.csplugins.enrichmentmap.task.ComputeSimilarityTaskParallel;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
 import org.cytoscape.work.Task;
 import org.cytoscape.work.TaskMonitor;
 
-import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -94,55 +95,54 @@ public class PASimilarityTaskParallel extends CancellableParallelTask<Map<Simila
 		
 		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, signatureGeneSets.size());
 		
-		Set<Integer> geneUniverse = map.getAllEnrichmentGenes(); // Gene universe is all enrichment genes in the map
-		
 		Map<SimilarityKey, SignatureGenesetSimilarity> geneSetSimilarities = new ConcurrentHashMap<>();
 		
+		// use GMT for universe size
+		FilterMetric hypergeom = new FilterMetric.Hypergeom(PostAnalysisFilterType.HYPERGEOM.defaultValue, map.getNumberOfGenes());
+		
 		for(String hubName : signatureGeneSets.keySet()) {
 			GeneSet sigGeneSet = signatureGeneSets.get(hubName);
-			Set<Integer> sigGenesInUniverse = Sets.intersection(sigGeneSet.getGenes(), geneUniverse);
+			int[] sigGenes = sigGeneSet.getSortedGeneIds();
 			
 			// Compute similarities in batches
 			executor.execute(() -> {
-				loop:
-				for(String geneSetName : enrichmentGeneSetNames) {
-					FilterMetricSet rankTests = params.getRankTestParameters();
+				FilterMetricSet rankTests = params.getRankTestParameters();
+				
+				for(EMDataSet dataSet : dataSets) {
+					if(Thread.interrupted())
+						break;
 					
-					for(EMDataSet dataSet : dataSets) {
-						if(Thread.interrupted())
-							break loop;
-						
+					// Only the enrichment gene sets that have genes in common with the signature gene set are visited, 
+					// genes that are not in the gene universe (all enrichment genes in the map) are never in the index.
+					GeneSetIndex index = map.getGeneSetIndex(dataSet);
+					int[] counts  = new int[index.size()];
+					int[] touched = new int[index.size()];
+					int touchedCount = index.countOverlaps(sigGenes, 0, index.size(), counts, touched);
+					
+					for(int k = 0; k < touchedCount; k++) {
+						int j = touched[k];
+						String geneSetName = index.getName(j);
 						GeneSet enrGeneSet = dataSet.getGeneSetsOfInterest().getGeneSetByName(geneSetName);
-						if(enrGeneSet != null) {
-							
-							// restrict to a common gene universe
-							Set<Integer> enrGenes = Sets.intersection(enrGeneSet.getGenes(), geneUniverse); // wait, is this necessary??, isn't enrGeneSet a subset of geneUniverse???
-							Set<Integer> union = Sets.union(sigGeneSet.getGenes(), enrGenes);
-							Set<Integer> intersection = Sets.intersection(sigGenesInUniverse, enrGenes);
-
-							if(!intersection.isEmpty()) {
-								// Jaccard or whatever from the original map
-								double coeffecient = ComputeSimilarityTaskParallel.computeSimilarityCoeffecient(map.getParams(), intersection, union, sigGeneSet.getGenes(), enrGenes);
-								SignatureGenesetSimilarity comparison = new SignatureGenesetSimilarity(hubName, geneSetName, coeffecient, INTERACTION, intersection, dataSet.getName());
-								
-								FilterMetric metric = rankTests.get(dataSet.getName());
-								
-								// always compute hypergeometric
-								if(metric.getFilterType() != PostAnalysisFilterType.HYPERGEOM) {
-									FilterMetric hypergeom = new FilterMetric.Hypergeom(PostAnalysisFilterType.HYPERGEOM.defaultValue, map.getNumberOfGenes()); // use GMT for universe size
-									hypergeom.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
-								}
-								
-								// now compute the similarity using the metric chosen by the user
-								double value = metric.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
-								boolean passesCutoff = metric.passes(value);
-								comparison.setPassesCutoff(passesCutoff);
-
-								SimilarityKey key = new SimilarityKey(hubName, geneSetName, INTERACTION, dataSet.getName());
-								geneSetSimilarities.put(key, comparison);
-							}
-							
+						Set<Integer> intersection = IntSetUtil.asSet(IntSetUtil.intersection(sigGenes, index.getGenes(j)));
+						
+						// Jaccard or whatever from the original map
+						double coeffecient = ComputeSimilarityTaskParallel.computeSimilarityCoeffecient(map.getParams(), counts[j], sigGenes.length, index.getGenes(j).length);
+						SignatureGenesetSimilarity comparison = new SignatureGenesetSimilarity(hubName, geneSetName, coeffecient, INTERACTION, intersection, dataSet.getName());
+						
+						FilterMetric metric = rankTests.get(dataSet.getName());
+						
+						// always compute hypergeometric
+						if(metric.getFilterType() != PostAnalysisFilterType.HYPERGEOM) {
+							hypergeom.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
 						}
+						
+						// now compute the similarity using the metric chosen by the user
+						double value = metric.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
+						boolean passesCutoff = metric.passes(value);
+						comparison.setPassesCutoff(passesCutoff);
+
+						SimilarityKey key = new SimilarityKey(hubName, geneSetName, INTERACTION, dataSet.getName());
+						geneSetSimilarities.put(key, comparison);
 					}
 				}
 				taskMonitor.inc();
@@ -0,0 +1,168 @@
+package org.baderlab.csplugins.enrichmentmap.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Set operations over sorted, duplicate free int arrays.
+ * Gene IDs handed out by EnrichmentMap.addGene() are small dense integers, working with them as
+ * primitive arrays avoids the boxing and hashing cost of Set&lt;Integer&gt; in the inner loops of
+ * the similarity calculations.
+ */
+public final class IntSetUtil {
+
+	/**
+	 * When one array is this many times larger than the other it is faster
+	 * to binary search the larger array than to do a linear merge.
+	 */
+	private static final int GALLOP_RATIO = 32;
+
+	private static final int[] EMPTY = new int[0];
+
+	private IntSetUtil() {
+		// restrict instantiation
+	}
+
+	/**
+	 * Returns a new sorted array containing the elements of the given collection.
+	 */
+	public static int[] toSortedArray(Collection<Integer> values) {
+		if(values.isEmpty())
+			return EMPTY;
+
+		int[] array = new int[values.size()];
+		int i = 0;
+		for(Integer value : values) {
+			array[i++] = value;
+		}
+		Arrays.sort(array);
+		return array;
+	}
+
+	/**
+	 * Returns an unmodifiable Set view of the sorted array, the array must not be modified afterwards.
+	 * The view only needs 4 bytes per element, contains() is a binary search.
+	 */
+	public static Set<Integer> asSet(int[] sorted) {
+		return sorted.length == 0 ? Collections.emptySet() : new SortedArraySet(sorted);
+	}
+
+	/**
+	 * Returns the number of elements the two sorted arrays have in common.
+	 * No intermediate objects are allocated.
+	 */
+	public static int intersectionSize(int[] a, int[] b) {
+		if(a.length > b.length) {
+			int[] t = a; a = b; b = t;
+		}
+		if(a.length == 0)
+			return 0;
+		// quick reject if the ranges of values don't overlap
+		if(a[a.length-1] < b[0] || b[b.length-1] < a[0])
+			return 0;
+
+		if(b.length / a.length >= GALLOP_RATIO) {
+			int count = 0;
+			int from = 0;
+			for(int value : a) {
+				int index = Arrays.binarySearch(b, from, b.length, value);
+				if(index >= 0) {
+					count++;
+					from = index + 1;
+				} else {
+					from = -index - 1;
+				}
+				if(from == b.length)
+					break;
+			}
+			return count;
+		}
+
+		int count = 0;
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length) {
+			int x = a[i], y = b[j];
+			if(x < y) {
+				i++;
+			} else if(x > y) {
+				j++;
+			} else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a new sorted array containing the elements the two sorted arrays have in common.
+	 */
+	public static int[] intersection(int[] a, int[] b) {
+		int size = intersectionSize(a, b);
+		if(size == 0)
+			return EMPTY;
+
+		int[] result = new int[size];
+		int k = 0;
+		int i = 0, j = 0;
+		while(k < size) {
+			int x = a[i], y = b[j];
+			if(x < y) {
+				i++;
+			} else if(x > y) {
+				j++;
+			} else {
+				result[k++] = x;
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+
+	private static class SortedArraySet extends AbstractSet<Integer> {
+
+		private final int[] values;
+
+		SortedArraySet(int[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof Integer && Arrays.binarySearch(values, (Integer)o) >= 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < values.length;
+				}
+
+				@Override
+				public Integer next() {
+					if(i >= values.length)
+						throw new NoSuchElementException();
+					return values[i++];
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+	}
+
+}
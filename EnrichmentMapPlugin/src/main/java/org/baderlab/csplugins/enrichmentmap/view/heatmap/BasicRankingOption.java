@@ -10,7 +10,6 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
-import org.baderlab.csplugins.enrichmentmap.model.Rank;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
 import org.baderlab.csplugins.enrichmentmap.view.util.SwingUtil;
@@ -63,14 +62,14 @@ public class BasicRankingOption implements RankingOption {
 	public CompletableFuture<Optional<Map<Integer, RankValue>>> computeRanking(Collection<Integer> genes) {
 		Map<Integer,RankValue> result = new HashMap<>();
 		
-		for(Map.Entry<Integer,Rank> entry : ranking.getRanking().entrySet()) {
-			Rank rank = entry.getValue();
-			result.put(entry.getKey(), new RankValue(rank.getRank(), rank.getScore(), false));
+		// Only look up the genes that we need
+		for(Integer gene : genes) {
+			if(ranking.contains(gene)) {
+				int rank = ranking.getRank(gene, -1);
+				result.put(gene, new RankValue(rank == -1 ? null : rank, ranking.getScore(gene), false));
+			}
 		}
 		
-		// Remove genes that we don't need
-		result.keySet().retainAll(genes);
-		
 		normalizeRanks(result);
 		
 		return CompletableFuture.completedFuture(Optional.of(result));
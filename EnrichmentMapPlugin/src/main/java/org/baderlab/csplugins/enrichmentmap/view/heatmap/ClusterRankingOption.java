@@ -8,6 +8,7 @@ import java.util.concurrent.CompletableFuture;
 
 import org.baderlab.csplugins.enrichmentmap.CytoscapeServiceModule.Dialog;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.task.cluster.ClusterResultCache;
 import org.baderlab.csplugins.enrichmentmap.task.cluster.HierarchicalClusterTask;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
@@ -23,6 +24,7 @@ import com.google.inject.assistedinject.Assisted;
 public class ClusterRankingOption implements RankingOption {
 
 	private final TaskManager<?,?> taskManager;
+	private final ClusterResultCache clusterResultCache;
 	
 	private final EnrichmentMap map;
 	private Distance distance = Distance.PEARSON;
@@ -32,9 +34,10 @@ public class ClusterRankingOption implements RankingOption {
 	}
 	
 	@Inject
-	public ClusterRankingOption(@Assisted EnrichmentMap map, @Dialog TaskManager<?,?> taskManager) {
+	public ClusterRankingOption(@Assisted EnrichmentMap map, @Dialog TaskManager<?,?> taskManager, ClusterResultCache clusterResultCache) {
 		this.map = map;
 		this.taskManager = taskManager;
+		this.clusterResultCache = clusterResultCache;
 	}
 
 	@Override
@@ -68,8 +71,10 @@ public class ClusterRankingOption implements RankingOption {
 			return CompletableFuture.completedFuture(Optional.of(Collections.emptyMap()));
 		}
 		
-		HierarchicalClusterTask task = new HierarchicalClusterTask(map, genes, distance.getMetric());
-		
+		return clusterResultCache.getRanking(map, genes, distance, this::execute);
+	}
+	
+	private CompletableFuture<Optional<Map<Integer,RankValue>>> execute(HierarchicalClusterTask task) {
 		CompletableFuture<Optional<Map<Integer,RankValue>>> future = new CompletableFuture<>();
 		
 		taskManager.execute(new TaskIterator(task), new TaskObserver() {
@@ -11,8 +11,7 @@ import java.util.concurrent.CompletableFuture;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
-import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
-import org.baderlab.csplugins.enrichmentmap.model.Rank;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
 import org.baderlab.csplugins.enrichmentmap.view.util.SwingUtil;
@@ -74,21 +73,19 @@ public class GSEALeadingEdgeRankingOption implements RankingOption {
 		int topRank = getTopRank();
 		boolean isNegative = isNegativeGS();
 		
-		Map<Integer,GeneExpression> expressions = dataset.getExpressionSets().getExpressionMatrix();
+		GeneExpressionMatrix expressions = dataset.getExpressionSets();
 		Ranking ranking = dataset.getRanksByName(rankingName);
 		
-		Integer[] ranksSubset = new Integer[expressions.size()];
+		int[] ranksSubset = new int[expressions.getNumGenes()];
 		HashMap<Integer, ArrayList<Integer>> rank2keys = new HashMap<Integer, ArrayList<Integer>>();
 		
 		int n = 0;
-		Map<Integer, Rank> currentRanks = ranking.getRanking();
-		for(Integer key : expressions.keySet()) {
-			if (currentRanks.containsKey(key)) {
-				ranksSubset[n] = currentRanks.get(key).getRank();
-			} else {
-				ranksSubset[n] = -1;
+		for(int row = 0; row < expressions.getNumGenes(); row++) {
+			int key = expressions.getGeneId(row);
+			ranksSubset[n] = ranking.getRank(key, -1);
+			if (ranksSubset[n] != -1) {
+				rank2keys.computeIfAbsent(ranksSubset[n], k -> new ArrayList<>()).add(key);
 			}
-			rank2keys.computeIfAbsent(ranksSubset[n], k -> new ArrayList<>()).add(key);
 			n++;
 		}
 		
@@ -115,8 +112,7 @@ public class GSEALeadingEdgeRankingOption implements RankingOption {
 			List<Integer> keys = rank2keys.get(ranksSubset[m]);
 			
 			for(Integer key : keys) {
-				Rank rank = currentRanks.get(key);
-				result.put(key, new RankValue(rank.getRank(), rank.getScore(), significant));
+				result.put(key, new RankValue(ranksSubset[m], ranking.getScore(key), significant));
 			}
 		}
 		
@@ -12,6 +12,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -366,11 +367,23 @@ public class HeatMapContentPanel extends JPanel {
 		interGenes = new ArrayList<>(intersection);
 		interGenes.sort(Comparator.naturalOrder());
 		
+		HeatMapTableModel tableModel = (HeatMapTableModel) getTable().getModel();
+		boolean onlyGenesChanged = isOnlyGenesChanged(tableModel, network, map, params);
+		
 		// Update Combo Boxes
 		getOperatorCombo().removeAllItems();
 		getOperatorCombo().addItem(new ComboItem<>(Operator.UNION, "All (" + union.size() + ")"));
 		getOperatorCombo().addItem(new ComboItem<>(Operator.INTERSECTION, "Common (" + intersection.size() + ")"));
 		getOperatorCombo().setSelectedItem(ComboItem.of(params.getOperator()));
+		
+		List<String> genesToUse = params.getOperator() == Operator.UNION ? unionGenes : interGenes;
+		
+		if (onlyGenesChanged) {
+			// Keep the table, its header and sorting, only the rows of the genes that were added or removed change
+			tableModel.setGenes(genesToUse);
+			setSelectedRankingOption(getRankOptionFromParams(params));
+			return;
+		}
 
 		getCompressCombo().removeAllItems();
 		getCompressCombo().addItem(new ComboItem<>(Compress.NONE, Labels.NONE));
@@ -399,8 +412,6 @@ public class HeatMapContentPanel extends JPanel {
 		// Update the Table
 		clearTableHeader();
 		
-		List<String> genesToUse = params.getOperator() == Operator.UNION ? unionGenes : interGenes;
-		HeatMapTableModel tableModel = (HeatMapTableModel) getTable().getModel();
 		tableModel.update(network, map, null, genesToUse, params.getTransform(), params.getCompress());
 		
 		updateTableHeader(isShowValues());
@@ -421,6 +432,22 @@ public class HeatMapContentPanel extends JPanel {
 		setSelectedRankingOption(rankingOption);
 	}
 	
+	/**
+	 * Returns true if the table already shows the network and map with the given settings,
+	 * so only the genes need to be updated.
+	 */
+	private boolean isOnlyGenesChanged(HeatMapTableModel tableModel, CyNetwork network, EnrichmentMap map, HeatMapParams params) {
+		return map != null
+			&& map == tableModel.getEnrichmentMap()
+			&& network == tableModel.getNetwork()
+			&& params.getOperator() == getOperator()
+			&& params.getTransform() == tableModel.getTransform()
+			&& params.getCompress() == tableModel.getCompress()
+			&& params.isShowValues() == isShowValues()
+			&& selectedRankingOption != null
+			&& Objects.equals(getRankOptionFromParams(params).toString(), selectedRankingOption.toString());
+	}
+	
 	protected OptionsPopup getOptionsPopup() {
 		return optionsPopup;
 	}
@@ -484,6 +511,8 @@ public class HeatMapContentPanel extends JPanel {
 		
 		if (rankingFuture != null) {
 			rankingFuture.whenComplete((ranking, ex) -> {
+				if (ranking == null) // cancelled because another selection is being clustered
+					return;
 				if (ranking.isPresent()) {
 					tableModel.setRanking(newValue.getName(), ranking.get());
 					getTable().getColumnModel().getColumn(HeatMapTableModel.RANK_COL).setHeaderValue(newValue);
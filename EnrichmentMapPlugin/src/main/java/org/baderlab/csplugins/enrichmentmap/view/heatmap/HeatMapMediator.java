@@ -10,7 +10,6 @@ import static org.baderlab.csplugins.enrichmentmap.view.util.SwingUtil.invokeOnE
 import java.awt.event.ActionListener;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -193,6 +192,7 @@ public class HeatMapMediator implements RowsSetListener, SetCurrentNetworkViewLi
 	
 	@Override
 	public void handleEvent(RowsSetEvent e) {
+		invalidateNodeGeneIndexes(e);
 		if(!isHeatMapPanelRegistered())
 			return;
 		if(e.containsColumn(CyNetwork.SELECTED)) {
@@ -207,6 +207,18 @@ public class HeatMapMediator implements RowsSetListener, SetCurrentNetworkViewLi
 		}
 	}
 	
+	private void invalidateNodeGeneIndexes(RowsSetEvent e) {
+		for(EnrichmentMap map : emManager.getAllEnrichmentMaps().values()) {
+			String genesColumn = EMStyleBuilder.Columns.NODE_GENES.with(map.getParams().getAttributePrefix(), null);
+			if(e.containsColumn(genesColumn)) {
+				CyNetwork network = networkManager.getNetwork(map.getNetworkID());
+				if(network != null && e.getSource() == network.getDefaultNodeTable()) {
+					map.getNodeGeneIndex().invalidate();
+				}
+			}
+		}
+	}
+	
 	@Override
 	public void handleEvent(SetCurrentNetworkViewEvent e) {
 		if (!isHeatMapPanelRegistered())
@@ -271,8 +283,8 @@ public class HeatMapMediator implements RowsSetListener, SetCurrentNetworkViewLi
 		AssociatedApp app = NetworkUtil.getAssociatedApp(network);
 		
 		if (emManager.isEnrichmentMap(networkView)) {
-			union = unionGenesets(network, selectedNodes, selectedEdges, prefix);
-			inter = intersectionGenesets(network, selectedNodes, selectedEdges, prefix);
+			union = unionGenesets(map, network, selectedNodes, selectedEdges, prefix);
+			inter = intersectionGenesets(map, network, selectedNodes, selectedEdges, prefix);
 		} else if (app != null) {
 			union = new HashSet<>();
 			
@@ -451,42 +463,12 @@ public class HeatMapMediator implements RowsSetListener, SetCurrentNetworkViewLi
 		return options;
 	}
 
-	public static Set<String> unionGenesets(CyNetwork network, List<CyNode> nodes, List<CyEdge> edges, String prefix) {
-		Set<String> union = new HashSet<>();
-		for(CyNode node : nodes) {
-			union.addAll(getGenes(network, node, prefix));
-		}
-		for(CyEdge edge : edges) {
-			union.addAll(getGenes(network, edge.getSource(), prefix));
-			union.addAll(getGenes(network, edge.getTarget(), prefix));
-		}
-		return union;
-	}
-	
-	public static Set<String> intersectionGenesets(CyNetwork network, List<CyNode> nodes, List<CyEdge> edges, String prefix) {
-		Set<String> inter = null;
-		for(CyNode node : nodes) {
-			Collection<String> genes = getGenes(network, node, prefix);
-			if(inter == null)
-				inter = new HashSet<>(genes);
-			else
-				inter.retainAll(genes);
-		}
-		for(CyEdge edge : edges) {
-			Collection<String> genes = getGenes(network, edge.getSource(), prefix);
-			if(inter == null)
-				inter = new HashSet<>(genes);
-			else
-				inter.retainAll(genes);
-			inter.retainAll(getGenes(network, edge.getTarget(), prefix));
-		}
-		return inter == null ? Collections.emptySet() : inter;
+	public static Set<String> unionGenesets(EnrichmentMap map, CyNetwork network, List<CyNode> nodes, List<CyEdge> edges, String prefix) {
+		return map.getNodeGeneIndex().union(network, nodes, edges, prefix);
 	}
 	
-	public static Collection<String> getGenes(CyNetwork network, CyNode node, String prefix) {
-		CyRow row = network.getRow(node);
-		// This is already the union of all the genes across data sets
-		return EMStyleBuilder.Columns.NODE_GENES.get(row, prefix, null);
+	public static Set<String> intersectionGenesets(EnrichmentMap map, CyNetwork network, List<CyNode> nodes, List<CyEdge> edges, String prefix) {
+		return map.getNodeGeneIndex().intersection(network, nodes, edges, prefix);
 	}
 	
 	private void runGeneMANIA() {
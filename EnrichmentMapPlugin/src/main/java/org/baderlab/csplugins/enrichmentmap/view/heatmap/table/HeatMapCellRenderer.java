@@ -14,6 +14,7 @@ import javax.swing.JTable;
 import javax.swing.SwingConstants;
 import javax.swing.UIManager;
 import javax.swing.border.Border;
+import javax.swing.border.MatteBorder;
 import javax.swing.table.TableCellRenderer;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -28,27 +29,40 @@ public class HeatMapCellRenderer implements TableCellRenderer {
 	private final static DecimalFormat format = new DecimalFormat("###.##");
 	private boolean showValue;
 	
+	// The same label is returned for every cell, like the DefaultTableCellRenderer does
+	private final JLabel label = new JLabel();
+	private final Border border = BorderFactory.createEmptyBorder(1, 1, 1, 1);
+	private MatteBorder selectedBorder;
+	private Font valueFont;
+	
 	
 	@Override
 	public JLabel getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int col) {
-		JLabel label = new JLabel();
 		label.setOpaque(true); //MUST do this for background to show up.
+		label.setText(null);
+		label.setToolTipText(null);
+		label.setBackground(table.getBackground());
+		label.setBorder(null);
+		
+		HeatMapTableModel model = (HeatMapTableModel) table.getModel();
+		int modelCol = table.convertColumnIndexToModel(col);
 		
-		if(value instanceof Number) {
-			double d = ((Number)value).doubleValue();
+		if(modelCol >= HeatMapTableModel.DESC_COL_COUNT) {
+			// read the primitive value from the model, the value may not be there if the row was just removed
+			int modelRow = table.convertRowIndexToModel(row);
+			double d = modelRow < model.getRowCount() ? model.getExpressionValue(modelRow, modelCol) : Double.NaN;
 			
-			HeatMapTableModel model = (HeatMapTableModel) table.getModel();
-			Color color = getColorFor(model, col, d);
+			Color color = getColorFor(model, modelCol, d);
 			label.setBackground(color);
-			Border border = BorderFactory.createMatteBorder(1, 1, 1, 1, isSelected ? table.getSelectionForeground() : color);
-			label.setBorder(border);
+			// the empty border shows the background, so it looks the same as a border of the cell's color
+			label.setBorder(isSelected ? getSelectedBorder(table) : border);
 			
 			String text = getText(d);
 			label.setToolTipText(text);
 			
 			if(showValue && Double.isFinite(d)) {
 				label.setText(text);
-				label.setFont(new Font((UIManager.getFont("TableHeader.font")).getName(), Font.PLAIN, (UIManager.getFont("TableHeader.font")).getSize()-2));
+				label.setFont(getValueFont());
 	      	   	label.setHorizontalAlignment(SwingConstants.RIGHT);
 			}
 		}
@@ -56,6 +70,20 @@ public class HeatMapCellRenderer implements TableCellRenderer {
 		return label;
 	}
 	
+	private Border getSelectedBorder(JTable table) {
+		Color selectionColor = table.getSelectionForeground();
+		if(selectedBorder == null || !selectionColor.equals(selectedBorder.getMatteColor()))
+			selectedBorder = BorderFactory.createMatteBorder(1, 1, 1, 1, selectionColor);
+		return selectedBorder;
+	}
+	
+	private Font getValueFont() {
+		Font headerFont = UIManager.getFont("TableHeader.font");
+		if(valueFont == null || !valueFont.getName().equals(headerFont.getName()) || valueFont.getSize() != headerFont.getSize()-2)
+			valueFont = new Font(headerFont.getName(), Font.PLAIN, headerFont.getSize()-2);
+		return valueFont;
+	}
+	
 	
 	public void setShowValues(boolean showValue) {
 		this.showValue = showValue;
@@ -24,11 +24,52 @@ import javax.swing.table.TableRowSorter;
  * For the rank column it returns RankValue.EMPTY and for expression columns it 
  * returns Double.NaN.
  * </p>
+ * 
+ * <p>
+ * The expression columns are sorted by row, the comparator reads the primitive values from
+ * HeatMapTableModel.getExpressionValue() so sorting doesn't box a Double for every comparison.
+ * </p>
  */
 public class HeatMapRowSorter extends TableRowSorter<HeatMapTableModel> {
 	
 	public HeatMapRowSorter(HeatMapTableModel model) {
 		super(model);
+		// HeatMapTableModel.setGenes() and setRanking() only report the rows that changed, those are moved into place
+		setSortsOnUpdates(true);
+	}
+	
+	@Override
+	public void setModel(HeatMapTableModel model) {
+		super.setModel(model);
+		ModelWrapper<HeatMapTableModel,Integer> wrapper = getModelWrapper();
+		setModelWrapper(new ModelWrapper<HeatMapTableModel,Integer>() {
+			@Override
+			public HeatMapTableModel getModel() {
+				return wrapper.getModel();
+			}
+			@Override
+			public int getColumnCount() {
+				return wrapper.getColumnCount();
+			}
+			@Override
+			public int getRowCount() {
+				return wrapper.getRowCount();
+			}
+			@Override
+			public Object getValueAt(int row, int column) {
+				if(column >= DESC_COL_COUNT)
+					return wrapper.getModel().getRowKey(row);
+				return wrapper.getValueAt(row, column);
+			}
+			@Override
+			public String getStringValueAt(int row, int column) {
+				return wrapper.getStringValueAt(row, column);
+			}
+			@Override
+			public Integer getIdentifier(int row) {
+				return wrapper.getIdentifier(row);
+			}
+		});
 	}
 	
 	
@@ -73,24 +114,27 @@ public class HeatMapRowSorter extends TableRowSorter<HeatMapTableModel> {
 	}
 	
 	/**
-	 * Its important that HeatMapTableModel doesn't return null for missing expression values, 
-	 * it must return NaN instead.
+	 * Compares the rows given by HeatMapTableModel.getRowKey() by their expression values,
+	 * missing values are NaN.
 	 */
-	private Comparator<Double> createExpressionValueComparator(int column) {
-		return new Comparator<Double>() {
+	private Comparator<Integer> createExpressionValueComparator(int column) {
+		return new Comparator<Integer>() {
 			
 			@Override
-			public int compare(Double d1, Double d2) {
+			public int compare(Integer row1, Integer row2) {
 				boolean nanFirst = getSortOrder(column) == SortOrder.DESCENDING;
+				HeatMapTableModel model = getModel();
+				double d1 = model.getExpressionValue(row1, column);
+				double d2 = model.getExpressionValue(row2, column);
 				
-				if(d1.isNaN() && d2.isNaN())
+				if(Double.isNaN(d1) && Double.isNaN(d2))
 					return 0;
-				if(d1.isNaN())
+				if(Double.isNaN(d1))
 					return nanFirst ? -1 : 1;
-				if(d2.isNaN())
+				if(Double.isNaN(d2))
 					return nanFirst ? 1 : -1;
 				
-				return d1.compareTo(d2);
+				return Double.compare(d1, d2);
 			}
 		};
 	}
@@ -1,13 +1,18 @@
 package org.baderlab.csplugins.enrichmentmap.view.heatmap.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 
 import org.baderlab.csplugins.enrichmentmap.model.Compress;
@@ -17,7 +22,6 @@ import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.ExpressionCache;
 import org.baderlab.csplugins.enrichmentmap.model.ExpressionData;
-import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
 import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
 import org.baderlab.csplugins.enrichmentmap.model.Transform;
 import org.baderlab.csplugins.enrichmentmap.model.Uncompressed;
@@ -32,6 +36,8 @@ public class HeatMapTableModel extends AbstractTableModel {
 	public static final int GENE_COL = 0;
 	public static final int DESC_COL = 1;
 	public static final int RANK_COL = 2;
+	
+	private static final int NO_GENE_ID = -1;
 
 	private CyNetwork network;
 	private EnrichmentMap map;
@@ -40,12 +46,15 @@ public class HeatMapTableModel extends AbstractTableModel {
 	private Map<Compress, ExpressionData> data = new EnumMap<>(Compress.class);
 	private ExpressionCache expressionCache;
 
-	private List<String> genes;
+	private List<Row> rows = new ArrayList<>();
 	private Transform transform;
 	private Compress compress;
 	private Map<Integer, RankValue> ranking;
 	private String ranksColName = "Ranks";
 	
+	/** Boxed row indexes, HeatMapRowSorter sorts these. */
+	private Integer[] rowKeys = new Integer[0];
+	
 	
 	public HeatMapTableModel() {
 		update(null, null, null, Collections.emptyList(), Transform.AS_IS, Compress.NONE);
@@ -77,7 +86,7 @@ public class HeatMapTableModel extends AbstractTableModel {
 		this.compress = compress;
 		this.map = map;
 		this.ranking = ranking;
-		this.genes = genes != null ? new ArrayList<>(genes) : Collections.emptyList();
+		this.rows = createRows(genes);
 
 		// if all the expression sets are the same then just show one of them
 		if (map != null) {
@@ -89,7 +98,15 @@ public class HeatMapTableModel extends AbstractTableModel {
 			datasets = Collections.emptyList();
 		}
 		
+		createExpressionData();
+		
+		fireTableStructureChanged();	
+		fireTableDataChanged();
+	}
+	
+	private void createExpressionData() {
 		expressionCache = new ExpressionCache(transform);
+		rows.forEach(row -> row.values = null);
 		
 		ExpressionData uncompressed = new Uncompressed(datasets, expressionCache);
 		ExpressionData compressedDataSet = new CompressedDataSet(datasets, expressionCache,
@@ -103,9 +120,6 @@ public class HeatMapTableModel extends AbstractTableModel {
 		data.put(Compress.CLASS_MEDIAN, compressedClass);
 		data.put(Compress.CLASS_MAX, compressedClass);
 		data.put(Compress.CLASS_MIN, compressedClass);
-		
-		fireTableStructureChanged();	
-		fireTableDataChanged();
 	}
 	
 	
@@ -121,7 +135,7 @@ public class HeatMapTableModel extends AbstractTableModel {
 		boolean structureChanged = !this.compress.sameStructure(compress);
 		this.transform = transform;
 		this.compress = compress;
-		this.expressionCache = new ExpressionCache(transform);
+		createExpressionData();
 		
 		if (structureChanged)
 			fireTableStructureChanged();
@@ -132,14 +146,116 @@ public class HeatMapTableModel extends AbstractTableModel {
 	public void setRanking(String ranksColName, Map<Integer, RankValue> ranking) {
 		this.ranksColName = Objects.requireNonNull(ranksColName);
 		this.ranking = ranking;
-		fireTableDataChanged();
+		
+		// Only tell the sorter about the rows whose rank changed
+		int first = -1, last = -1;
+		for (int i = 0; i < rows.size(); i++) {
+			Row row = rows.get(i);
+			RankValue rank = getRank(row.geneID);
+			if (!sameRank(rank, row.rank)) {
+				if (first < 0)
+					first = i;
+				last = i;
+			}
+			row.rank = rank;
+		}
+		if (first >= 0)
+			fireTableChanged(new TableModelEvent(this, first, last, RANK_COL));
+	}
+	
+	private static boolean sameRank(RankValue rv1, RankValue rv2) {
+		return Objects.equals(rv1.getRank(), rv2.getRank())
+			&& Objects.equals(rv1.getScore(), rv2.getScore())
+			&& rv1.isSignificant() == rv2.isSignificant();
 	}
 	
+	/**
+	 * Changes the genes shown in the table. The rows of the genes that were already shown are kept with
+	 * their expression values and ranks, and the sorter is only told about the rows that were removed
+	 * and inserted, as long as the genes that are kept stay in the same order.
+	 */
 	public void setGenes(List<String> genes) {
-		this.genes = genes != null ? new ArrayList<>(genes) : Collections.emptyList();
+		List<String> newGenes = genes != null ? genes : Collections.emptyList();
+		Set<String> newSet = new HashSet<>(newGenes);
+		if (newSet.size() != newGenes.size()) {
+			resetGenes(newGenes);
+			return;
+		}
+		
+		// Remove the rows of the genes that are gone, from the bottom up so the indexes of the runs above don't change
+		for (int end = rows.size() - 1; end >= 0; end--) {
+			if (newSet.contains(rows.get(end).gene))
+				continue;
+			int start = end;
+			while (start > 0 && !newSet.contains(rows.get(start - 1).gene))
+				start--;
+			rows.subList(start, end + 1).clear();
+			fireTableRowsDeleted(start, end);
+			end = start;
+		}
+		
+		// Insert the rows of the new genes between the rows that are kept
+		Set<String> keptSet = rows.stream().map(row -> row.gene).collect(Collectors.toSet());
+		for (int i = 0; i < newGenes.size(); ) {
+			if (i < rows.size() && Objects.equals(rows.get(i).gene, newGenes.get(i))) {
+				i++;
+				continue;
+			}
+			if (keptSet.contains(newGenes.get(i))) { // the genes that are kept have been reordered
+				resetGenes(newGenes);
+				return;
+			}
+			int start = i;
+			List<Row> inserted = new ArrayList<>();
+			while (i < newGenes.size() && !keptSet.contains(newGenes.get(i)))
+				inserted.add(createRow(newGenes.get(i++)));
+			rows.addAll(start, inserted);
+			fireTableRowsInserted(start, i - 1);
+		}
+	}
+	
+	private void resetGenes(List<String> genes) {
+		this.rows = createRows(genes);
 		fireTableDataChanged();
 	}
 	
+	private List<Row> createRows(List<String> genes) {
+		List<Row> rows = new ArrayList<>(genes != null ? genes.size() : 0);
+		if (genes != null)
+			genes.forEach(gene -> rows.add(createRow(gene)));
+		return rows;
+	}
+	
+	private Row createRow(String gene) {
+		Row row = new Row(gene, resolveGeneId(gene));
+		row.rank = getRank(row.geneID);
+		return row;
+	}
+	
+	private int resolveGeneId(String gene) {
+		Integer geneID = null;
+		
+		if (map != null && gene != null) {
+			geneID = map.getHashFromGene(gene);
+			if (geneID == null) {
+				// It may be another gene symbol (given by another app), other than the original query term,
+				// so we need to get the original query term
+				gene = NetworkUtil.getQueryTerm(network, gene);
+				if (gene != null) {
+					geneID = map.getHashFromGene(gene);
+				}
+			}
+		}
+		
+		return geneID != null ? geneID : NO_GENE_ID;
+	}
+	
+	private RankValue getRank(int geneID) {
+		// Use empty RankValue objects for missing genes instead of nulls so that they sort last (see RankValue.compareTo()).
+		RankValue rank = ranking != null && geneID != NO_GENE_ID ? ranking.get(geneID) : null;
+		return rank != null ? rank : RankValue.EMPTY;
+	}
+	
 	public Transform getTransform() {
 		return transform;
 	}
@@ -152,17 +268,21 @@ public class HeatMapTableModel extends AbstractTableModel {
 		return map;
 	}
 	
+	public CyNetwork getNetwork() {
+		return network;
+	}
+	
 	public List<String> getGenes() {
-		return new ArrayList<>(genes);
+		return rows.stream().map(row -> row.gene).collect(Collectors.toList());
 	}
 	
 	public String getGene(int row) {
-		return genes.size() > row ? genes.get(row) : null;
+		return rows.size() > row ? rows.get(row).gene : null;
 	}
 	
 	@Override
 	public int getRowCount() {
-		return genes.size();
+		return rows.size();
 	}
 
 	@Override
@@ -197,42 +317,65 @@ public class HeatMapTableModel extends AbstractTableModel {
 		if (col == RANK_COL)
 			return getRankValue(row);
 		
-		String gene = getGene(row);
 		if (col == GENE_COL)
-			return gene;
-		
-		Integer geneID = null;
+			return getGene(row);
 		
-		if (map != null && gene != null) {
-			geneID = map.getHashFromGene(gene);
-			if (geneID == null) {
-				// It may be another gene symbol (given by another app), other than the original query term,
-				// so we need to get the original query term
-				gene = NetworkUtil.getQueryTerm(network, gene);
-				if (gene != null) {
-					geneID = map.getHashFromGene(gene);
-				}
-			}
+		if (col == DESC_COL) {
+			int geneID = getGeneId(row);
+			return geneID != NO_GENE_ID ? getDescription(geneID) : null;
 		}
 		
-		if (col == DESC_COL)
-			return geneID != null ? getDescription(geneID) : null;
-		
-		ExpressionData exp = data.get(compress);
-		if(exp == null || geneID == null)
-			return Double.NaN; // because the DefaultRowSorter doesn't sort null the way we want
-		return exp.getValue(geneID, col - DESC_COL_COUNT, compress);
+		// Double.NaN for missing values because the DefaultRowSorter doesn't sort null the way we want
+		return getExpressionValue(row, col);
+	}
+	
+	/**
+	 * Returns the value of an expression column without boxing it, Double.NaN for missing values.
+	 */
+	public double getExpressionValue(int row, int col) {
+		if (row >= rows.size())
+			return Double.NaN;
+		double[] values = getValues(rows.get(row));
+		int index = col - DESC_COL_COUNT;
+		return index >= 0 && index < values.length ? values[index] : Double.NaN;
+	}
+	
+	/**
+	 * The expression values of the row are read through the ExpressionData once, the first time they are needed
+	 * after the row is created or the transform changes, so that painting and sorting the table doesn't go
+	 * through the ExpressionData and the ExpressionCache for every cell.
+	 */
+	private double[] getValues(Row row) {
+		double[] values = row.values;
+		if (values == null) {
+			ExpressionData exp = data.get(compress);
+			values = new double[exp != null ? exp.getSize() : 0];
+			for (int col = 0; col < values.length; col++)
+				values[col] = row.geneID != NO_GENE_ID ? exp.getValue(row.geneID, col, compress) : Double.NaN;
+			row.values = values;
+		}
+		return values;
 	}
 	
 	public RankValue getRankValue(int row) {
-		// Use empty RankValue objects for missing genes instead of nulls so that they sort last (see RankValue.compareTo()).
-		if (ranking == null)
-			return RankValue.EMPTY;
-		
-		String gene = getGene(row);
-		Integer geneID = map != null && gene != null ? map.getHashFromGene(gene) : null;
-		
-		return geneID != null ? ranking.getOrDefault(geneID, RankValue.EMPTY) : RankValue.EMPTY;
+		return row < rows.size() ? rows.get(row).rank : RankValue.EMPTY;
+	}
+	
+	/**
+	 * Returns the same Integer object for the row index every time, HeatMapRowSorter sorts these.
+	 */
+	Integer getRowKey(int row) {
+		if (row >= rowKeys.length) {
+			int oldLength = rowKeys.length;
+			rowKeys = Arrays.copyOf(rowKeys, Math.max(row + 1, rows.size()));
+			for (int i = oldLength; i < rowKeys.length; i++)
+				rowKeys[i] = i;
+		}
+		return rowKeys[row];
+	}
+	
+	private int getGeneId(int row) {
+		return row < rows.size() ? rows.get(row).geneID : NO_GENE_ID;
 	}
 	
 	@Override
@@ -263,22 +406,29 @@ public class HeatMapTableModel extends AbstractTableModel {
 		return exp != null ? exp.getDataSet(col - DESC_COL_COUNT) : null;
 	}
 	
+	private static class Row {
+		final String gene;
+		/** NO_GENE_ID when the map doesn't know the gene */
+		final int geneID;
+		/** null until the values are needed */
+		double[] values;
+		RankValue rank;
+		
+		Row(String gene, int geneID) {
+			this.gene = gene;
+			this.geneID = geneID;
+		}
+	}
+	
 	private String getDescription(int geneID) {
 		for (EMDataSet dataset : datasets) {
-			GeneExpression row = getGeneExpression(dataset, geneID);
+			GeneExpressionMatrix matrix = dataset.getExpressionSets();
+			int row = matrix.getRowIndex(geneID);
 			
-			if (row != null)
-				return row.getDescription();
+			if (row >= 0)
+				return matrix.getDescription(row);
 		}
 		
 		return null;
 	}
-	
-	private static GeneExpression getGeneExpression(EMDataSet dataset, int geneID) {
-		GeneExpressionMatrix matrix = dataset.getExpressionSets();
-		Map<Integer,GeneExpression> expressions = matrix.getExpressionMatrix();
-		GeneExpression row = expressions.get(geneID);
-		
-		return row;
-	}
 }
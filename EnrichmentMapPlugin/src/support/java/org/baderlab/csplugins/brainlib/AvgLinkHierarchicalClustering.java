@@ -217,7 +217,13 @@ public class AvgLinkHierarchicalClustering {
 
         dmInternal = null; //free this potentially large matrix
 
-        //Create an ordering for the leaves
+        orderLeaves();
+    }
+
+    /**
+     * Create an ordering for the leaves once the result tree is complete
+     */
+    protected void orderLeaves() {
         if (optimalLeafOrdering) {
             orderLeavesBarJoseph2003(result, distanceMatrix, leafOrder);
         } else {
@@ -41,9 +41,17 @@ import java.util.List;
  * Implements a ragged array distance matrix for use with AvgLinkHierarchicalClustering
  * Only stores the lower triangle without the diagonal. Assumes the matrix is symmetric around the diagonal
  * and the diagonal is all zeros.
+ * The lower triangle is indexed with longs and stored in chunks, so matrices with more than 2^31 values
+ * (about 65k elements) can be stored.
  */
 public class DistanceMatrix {
-    private double[] distanceMatrix = null;
+    private static final int CHUNK_BITS = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    //only one of these is allocated, depending on the precision
+    private double[][] doubleChunks = null;
+    private float[][] floatChunks = null;
     private int matrixDim = 0;
     private List<String> labels = null;
     private double minimumDistance = Double.MAX_VALUE;
@@ -56,12 +64,50 @@ public class DistanceMatrix {
      * @param matrixDim The dimension of the matrix
      */
     public DistanceMatrix(int matrixDim) {
+        this(matrixDim, false);
+    }
+
+    /**
+     * Initializes a distance matrix of the given dimension
+     *
+     * @param matrixDim      The dimension of the matrix
+     * @param floatPrecision Store the values as floats instead of doubles, which halves the memory used
+     */
+    public DistanceMatrix(int matrixDim, boolean floatPrecision) {
         if (matrixDim < 2) {
             throw new RuntimeException("Distance matrix size must be larger than 1");
         }
         this.matrixDim = matrixDim;
         //allocate enough space for lower triangle of the matrix minus the diagonal
-        distanceMatrix = new double[(matrixDim * matrixDim - 1) / 2];
+        long size = ((long) matrixDim * (matrixDim - 1)) / 2;
+        int chunks = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        if (floatPrecision) {
+            floatChunks = new float[chunks][];
+        } else {
+            doubleChunks = new double[chunks][];
+        }
+        for (int c = 0; c < chunks; c++) {
+            int chunkSize = (int) Math.min(CHUNK_SIZE, size - ((long) c << CHUNK_BITS));
+            if (floatPrecision) {
+                floatChunks[c] = new float[chunkSize];
+            } else {
+                doubleChunks[c] = new double[chunkSize];
+            }
+        }
+    }
+
+    /**
+     * Returns true if the values are stored as floats
+     */
+    public boolean isFloatPrecision() {
+        return floatChunks != null;
+    }
+
+    /**
+     * Calculates the position in the lower triangle given the matrix coordinates, requires j < i
+     */
+    private static long index(int i, int j) {
+        return (((long) i * (i - 1)) >>> 1) + j;
     }
 
     /**
@@ -81,7 +127,12 @@ public class DistanceMatrix {
             return;
         }
         //calculate the position in the array given the lower triangular matrix coordinates
-        distanceMatrix[((i * (i - 1)) / 2) + j] = value;
+        long index = index(i, j);
+        if (floatChunks != null) {
+            floatChunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK] = (float) value;
+        } else {
+            doubleChunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK] = value;
+        }
     }
 
     /**
@@ -99,7 +150,11 @@ public class DistanceMatrix {
             i = oldj;
         }
         //calculate the position in the array given the lower triangular matrix coordinates
-        return (distanceMatrix[((i * (i - 1)) / 2) + j]);
+        long index = index(i, j);
+        if (floatChunks != null) {
+            return floatChunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK];
+        }
+        return doubleChunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK];
     }
 
     /**
@@ -144,6 +199,20 @@ public class DistanceMatrix {
         }
     }
 
+    /**
+     * Updates the minimum distance with the minimum of a part of the matrix, used when the distances
+     * are calculated in parallel. Ties are resolved the same way as calcDistances, the first (i,j)
+     * in row order is kept.
+     */
+    public synchronized void updateMinimum(double distance, int i, int j) {
+        if (distance < minimumDistance
+                || (distance == minimumDistance && (i < mini || (i == mini && j < minj)))) {
+            minimumDistance = distance;
+            mini = i;
+            minj = j;
+        }
+    }
+
     /**
      * Returns the minimum distance in the distance matrix.
      */
@@ -169,8 +238,14 @@ public class DistanceMatrix {
      * Returns an exact copy of this DistanceMatrix object
      */
     public DistanceMatrix copy() {
-        DistanceMatrix dm = new DistanceMatrix(this.matrixDim);
-        System.arraycopy(this.distanceMatrix, 0, dm.distanceMatrix, 0, this.distanceMatrix.length);
+        DistanceMatrix dm = new DistanceMatrix(this.matrixDim, this.isFloatPrecision());
+        for (int c = 0; c < (floatChunks != null ? floatChunks.length : doubleChunks.length); c++) {
+            if (floatChunks != null) {
+                System.arraycopy(this.floatChunks[c], 0, dm.floatChunks[c], 0, this.floatChunks[c].length);
+            } else {
+                System.arraycopy(this.doubleChunks[c], 0, dm.doubleChunks[c], 0, this.doubleChunks[c].length);
+            }
+        }
         dm.setLabels(this.getLabels());
         return dm;
     }
@@ -37,6 +37,7 @@ package org.baderlab.csplugins.brainlib;
 
 /**
  * Class for calculation of a distance metric for hierarchical clustering
+ * Implementations must be thread safe, the distances may be calculated in parallel.
  */
 public interface DistanceMetric {
     /**
@@ -0,0 +1,178 @@
+package org.baderlab.csplugins.brainlib;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Implements average linkage hierarchical clustering with the nearest-neighbour chain algorithm,
+ * which takes O(n^2) time instead of the O(n^3) of AvgLinkHierarchicalClustering.run()
+ * <p/>
+ * Average linkage is reducible, so following chains of nearest neighbours until two clusters are each
+ * other's nearest neighbour finds the same merges as always joining the closest pair, only in a different
+ * order. The merges are sorted by distance afterwards and numbered the same way as
+ * AvgLinkHierarchicalClustering.run(), so the result tree and the leaf order are the same.
+ * Pairs at exactly the same distance may be joined in a different order. Distance matrices that contain
+ * NaN are clustered with AvgLinkHierarchicalClustering.run().
+ */
+public class NNChainHierarchicalClustering extends AvgLinkHierarchicalClustering {
+
+    public NNChainHierarchicalClustering(DistanceMatrix distanceMatrix) {
+        super(distanceMatrix);
+    }
+
+    public void run() {
+        if (singleLinkage || containsNaN(distanceMatrix)) {
+            super.run();
+            return;
+        }
+
+        int nMerges = nelements - 1;
+        int[] mergeA = new int[nMerges];
+        int[] mergeB = new int[nMerges];
+        double[] mergeDistance = new double[nMerges];
+        findMerges(mergeA, mergeB, mergeDistance);
+
+        //sort the merges by distance, a merge can't come before the merges of its clusters
+        double[] sortDistance = new double[nMerges];
+        int[] lastMerge = new int[nelements];
+        Arrays.fill(lastMerge, -1);
+        for (int m = 0; m < nMerges; m++) {
+            sortDistance[m] = mergeDistance[m];
+            if (lastMerge[mergeA[m]] >= 0)
+                sortDistance[m] = Math.max(sortDistance[m], sortDistance[lastMerge[mergeA[m]]]);
+            if (lastMerge[mergeB[m]] >= 0)
+                sortDistance[m] = Math.max(sortDistance[m], sortDistance[lastMerge[mergeB[m]]]);
+            lastMerge[mergeA[m]] = m;
+        }
+        Integer[] order = new Integer[nMerges];
+        for (int m = 0; m < nMerges; m++) {
+            order[m] = m;
+        }
+        //stable, so merges at the same distance stay in the order they were found
+        Arrays.sort(order, Comparator.comparingDouble(m -> sortDistance[m]));
+
+        //number the clusters the same way as AvgLinkHierarchicalClustering.run(), which keeps the clusters
+        //in the rows of the distance matrix and moves the last row into the row of the merged cluster
+        int[] clusterid = new int[nelements];
+        int[] slotOfElement = new int[nelements];
+        int[] elementInSlot = new int[nelements];
+        for (int j = 0; j < nelements; j++) {
+            clusterid[j] = j;
+            slotOfElement[j] = j;
+            elementInSlot[j] = j;
+        }
+        for (int step = 0; step < nMerges; step++) {
+            int m = order[step];
+            int nNodes = nelements - step;
+            int slotA = slotOfElement[mergeA[m]];
+            int slotB = slotOfElement[mergeB[m]];
+            int isaved = Math.max(slotA, slotB);
+            int jsaved = Math.min(slotA, slotB);
+
+            linkDistance[step] = mergeDistance[m];
+            linkedLeaves[step][0] = isaved;
+            linkedLeaves[step][1] = jsaved;
+            result[step][0] = clusterid[isaved];
+            result[step][1] = clusterid[jsaved];
+
+            //mergeA represents the merged cluster
+            clusterid[jsaved] = nNodes - nelements - 1;
+            elementInSlot[jsaved] = mergeA[m];
+            slotOfElement[mergeA[m]] = jsaved;
+            if (isaved != nNodes - 1) {
+                clusterid[isaved] = clusterid[nNodes - 1];
+                elementInSlot[isaved] = elementInSlot[nNodes - 1];
+                slotOfElement[elementInSlot[isaved]] = isaved;
+            }
+        }
+
+        orderLeaves();
+    }
+
+    /**
+     * Finds the merges with the nearest-neighbour chain. Each cluster is represented by one of its elements,
+     * merge m joins the clusters of mergeA[m] and mergeB[m], which is then represented by mergeA[m].
+     */
+    private void findMerges(int[] mergeA, int[] mergeB, double[] mergeDistance) {
+        //copy the distance matrix so that the original matrix is not affected by this method
+        DistanceMatrix dmInternal = distanceMatrix.copy();
+
+        int[] number = new int[nelements];
+        //the clusters that have not been merged into another cluster yet
+        int[] active = new int[nelements];
+        int[] activeIndex = new int[nelements];
+        for (int j = 0; j < nelements; j++) {
+            number[j] = 1;
+            active[j] = j;
+            activeIndex[j] = j;
+        }
+        int nActive = nelements;
+
+        int[] chain = new int[nelements];
+        int chainSize = 0;
+        int nMerges = 0;
+
+        while (nActive > 1) {
+            if (chainSize == 0) {
+                chain[chainSize++] = active[0];
+            }
+            int a = chain[chainSize - 1];
+            int prev = chainSize > 1 ? chain[chainSize - 2] : -1;
+
+            //prefer the previous cluster in the chain on ties, otherwise the chain could go around in a circle
+            int b = prev;
+            double distance = prev >= 0 ? dmInternal.getValue(a, prev) : Double.POSITIVE_INFINITY;
+            for (int k = 0; k < nActive; k++) {
+                int c = active[k];
+                if (c != a) {
+                    double d = dmInternal.getValue(a, c);
+                    if (d < distance || b < 0) {
+                        distance = d;
+                        b = c;
+                    }
+                }
+            }
+
+            if (b != prev) {
+                chain[chainSize++] = b;
+                continue;
+            }
+
+            //a and b are each other's nearest neighbours
+            chainSize -= 2;
+            mergeA[nMerges] = a;
+            mergeB[nMerges] = b;
+            mergeDistance[nMerges] = distance;
+            nMerges++;
+
+            //remove b from the active clusters
+            int last = active[--nActive];
+            active[activeIndex[b]] = last;
+            activeIndex[last] = activeIndex[b];
+
+            /* Update the distances - average linkage */
+            int sum = number[a] + number[b];
+            for (int k = 0; k < nActive; k++) {
+                int c = active[k];
+                if (c != a) {
+                    int i = Math.max(a, c);
+                    int j = Math.min(a, c);
+                    dmInternal.setValue(i, j, dmInternal.getValue(a, c) * number[a]
+                            + dmInternal.getValue(b, c) * number[b]);
+                    dmInternal.setValue(i, j, dmInternal.getValue(i, j) / sum);
+                }
+            }
+            number[a] = sum;
+        }
+    }
+
+    private static boolean containsNaN(DistanceMatrix dm) {
+        for (int i = 0; i < dm.getMatrixDimension(); i++) {
+            for (int j = 0; j < i; j++) {
+                if (Double.isNaN(dm.getValue(i, j)))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
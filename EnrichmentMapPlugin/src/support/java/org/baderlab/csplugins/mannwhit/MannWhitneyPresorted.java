@@ -0,0 +1,109 @@
+package org.baderlab.csplugins.mannwhit;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.NoDataException;
+import org.apache.commons.math3.exception.NullArgumentException;
+
+/**
+ * Computes the same p-values as MannWhitneyUTestSided.mannWhitneyUTestBatch(x, y) when the second sample y
+ * is always the same, for example the scores of all the genes in a ranking.
+ * <p>
+ * The scores of y are sorted once. The rank of a value of x in the concatenated samples is the number of
+ * smaller values plus the average rank of its ties, both are found with a binary search in y and by sorting
+ * x. This takes O(k log N) for a sample x of size k, instead of ranking all the k + N values every time.
+ * <p>
+ * Ties get the average of applicable ranks and NaN's are left in place, like the default MannWhitneyUTestSided.
+ * Instances are immutable and can be shared by threads.
+ */
+public class MannWhitneyPresorted {
+
+	private final double[] sortedY;
+	private final MannWhitneyUTestSided delegate = new MannWhitneyUTestSided();
+
+	public MannWhitneyPresorted(double[] y) {
+		if(y == null)
+			throw new NullArgumentException();
+		this.sortedY = y.clone();
+		Arrays.sort(sortedY); // same order as Double.compare(), NaN's last
+	}
+
+	public int getSize() {
+		return sortedY.length;
+	}
+
+	/**
+	 * Equivalent to MannWhitneyUTestSided.mannWhitneyUTestBatch(x, y).
+	 */
+	public MannWhitneyTestResult mannWhitneyUTestBatch(final double[] x) throws NullArgumentException, NoDataException {
+		if(x == null)
+			throw new NullArgumentException();
+		if(x.length == 0 || sortedY.length == 0)
+			throw new NoDataException();
+
+		final double U1 = sumRanks(x) - ((long) x.length * (x.length + 1)) / 2;
+		return delegate.mannWhitneyUTestBatch(U1, x.length, sortedY.length);
+	}
+
+	/**
+	 * Returns the sum of the ranks of the values of x in the concatenation of x and y.
+	 */
+	private double sumRanks(final double[] x) {
+		final double[] sortedX = x.clone();
+		Arrays.sort(sortedX);
+
+		double sumRankX = 0;
+		int i = 0;
+		while(i < sortedX.length) {
+			final double value = sortedX[i];
+			if(Double.isNaN(value))
+				return Double.NaN; // NaN's are ranked NaN, NaN's are last so all the other values have been added
+
+			int j = i + 1;
+			while(j < sortedX.length && Double.compare(sortedX[j], value) == 0)
+				j++;
+
+			// x values before i are smaller
+			final int lower = lowerBound(value);
+			final int upper = upperBound(value, lower);
+			final long smaller = (long) lower + i;
+			final long ties = (long) (upper - lower) + (j - i);
+
+			// ranks start at 1, ties get the average of the ranks smaller+1 .. smaller+ties
+			final double rank = smaller + (ties + 1) / 2.0;
+			sumRankX += (j - i) * rank;
+			i = j;
+		}
+		return sumRankX;
+	}
+
+	/**
+	 * Returns the index of the first value in sortedY that is not smaller than the given value.
+	 */
+	private int lowerBound(final double value) {
+		int lo = 0, hi = sortedY.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sortedY[mid], value) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the index of the first value in sortedY that is larger than the given value.
+	 */
+	private int upperBound(final double value, final int from) {
+		int lo = from, hi = sortedY.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sortedY[mid], value) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
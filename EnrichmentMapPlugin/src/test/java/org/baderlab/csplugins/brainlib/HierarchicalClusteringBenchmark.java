@@ -0,0 +1,77 @@
+package org.baderlab.csplugins.brainlib;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares AvgLinkHierarchicalClustering with NNChainHierarchicalClustering.
+ * The old algorithm takes minutes at 10000 genes, run with -Dgenes=500,2000 to leave it out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class HierarchicalClusteringBenchmark {
+
+	@Param({ "500", "2000", "10000" })
+	public int genes;
+
+	private DistanceMatrix distanceMatrix;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(genes);
+		distanceMatrix = new DistanceMatrix(genes);
+		for(int i = 0; i < genes; i++) {
+			for(int j = 0; j < i; j++) {
+				distanceMatrix.setValue(i, j, random.nextFloat());
+			}
+		}
+	}
+
+	private int[] cluster(AvgLinkHierarchicalClustering clustering) {
+		// HierarchicalClusterTask only uses the optimal leaf ordering for small heat maps
+		clustering.setOptimalLeafOrdering(false);
+		clustering.run();
+		return clustering.getLeafOrder();
+	}
+
+	@Benchmark
+	public int[] avgLink() {
+		return cluster(new AvgLinkHierarchicalClustering(distanceMatrix));
+	}
+
+	@Benchmark
+	public int[] nnChain() {
+		return cluster(new NNChainHierarchicalClustering(distanceMatrix));
+	}
+
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.include(HierarchicalClusteringBenchmark.class.getSimpleName());
+		String genes = System.getProperty("genes");
+		if(genes != null)
+			builder.param("genes", genes.split(","));
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
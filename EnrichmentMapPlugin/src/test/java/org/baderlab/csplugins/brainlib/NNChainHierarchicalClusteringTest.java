@@ -0,0 +1,66 @@
+package org.baderlab.csplugins.brainlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NNChainHierarchicalClusteringTest {
+
+	private static DistanceMatrix createDistanceMatrix(int size, boolean floatPrecision, long seed) {
+		Random random = new Random(seed);
+		DistanceMatrix distanceMatrix = new DistanceMatrix(size, floatPrecision);
+		for(int i = 0; i < size; i++) {
+			for(int j = 0; j < i; j++) {
+				distanceMatrix.setValue(i, j, random.nextFloat());
+			}
+		}
+		return distanceMatrix;
+	}
+
+	private static void assertSameClustering(DistanceMatrix distanceMatrix, boolean optimalLeafOrdering) {
+		AvgLinkHierarchicalClustering expected = new AvgLinkHierarchicalClustering(distanceMatrix);
+		expected.setOptimalLeafOrdering(optimalLeafOrdering);
+		expected.run();
+
+		AvgLinkHierarchicalClustering actual = new NNChainHierarchicalClustering(distanceMatrix);
+		actual.setOptimalLeafOrdering(optimalLeafOrdering);
+		actual.run();
+
+		for(int i = 0; i < expected.result.length; i++) {
+			assertArrayEquals(expected.result[i], actual.result[i]);
+			assertArrayEquals(expected.linkedLeaves[i], actual.linkedLeaves[i]);
+			assertEquals(expected.linkDistance[i], actual.linkDistance[i], 1e-6);
+		}
+		assertArrayEquals(expected.getLeafOrder(), actual.getLeafOrder());
+	}
+
+
+	@Test
+	public void testSameAsAvgLink() {
+		for(long seed = 0; seed < 5; seed++) {
+			assertSameClustering(createDistanceMatrix(300, false, seed), false);
+			assertSameClustering(createDistanceMatrix(300, true, seed), false);
+			assertSameClustering(createDistanceMatrix(100, false, seed), true);
+		}
+	}
+
+
+	@Test
+	public void testSmallMatrices() {
+		for(int size = 2; size < 6; size++) {
+			assertSameClustering(createDistanceMatrix(size, false, size), false);
+			assertSameClustering(createDistanceMatrix(size, false, size), true);
+		}
+	}
+
+
+	@Test
+	public void testNaN() {
+		DistanceMatrix distanceMatrix = createDistanceMatrix(50, false, 1);
+		distanceMatrix.setValue(20, 10, Double.NaN);
+		assertSameClustering(distanceMatrix, false);
+	}
+}
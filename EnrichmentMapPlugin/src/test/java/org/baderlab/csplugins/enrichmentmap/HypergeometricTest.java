@@ -48,9 +48,11 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.Random;
 import java.util.Scanner;
 
 import org.baderlab.csplugins.enrichmentmap.task.postanalysis.Hypergeometric;
+import org.baderlab.csplugins.enrichmentmap.task.postanalysis.HypergeometricTable;
 import org.junit.Test;
 
 /**
@@ -105,6 +107,7 @@ public class HypergeometricTest {
 	                pValue = Hypergeometric.hyperGeomPvalueSum(N, n, m, k, 1);
 	                
 	                assertEquals(expected_pVal, pValue, 0.00000005);
+	                assertEquals(expected_pVal, new HypergeometricTable(N).hyperGeomPvalueSum(n, m, k, 1), 0.00000005);
 	            }
 	        }
         }
@@ -115,4 +118,41 @@ public class HypergeometricTest {
     	Hypergeometric.hyperGeomPvalueSum(128, 63, 105, 2, 0);
     }
     
+    @Test(expected=ArithmeticException.class)
+    public void testHypergeometricTableBad() {
+    	new HypergeometricTable(128).hyperGeomPvalueSum(63, 105, 2, 0);
+    }
+    
+    @Test
+    public void testHypergeometricTableSameAsHypergeometric() {
+        Random random = new Random(42);
+        for (int N : new int[] { 50, 2173, 20000 }) {
+            HypergeometricTable table = new HypergeometricTable(N);
+            for (int i = 0; i < 500; i++) {
+                n = 1 + random.nextInt(Math.min(N, 1000));
+                m = 1 + random.nextInt(Math.min(N, 1000));
+                int kMin = Math.max(0, n + m - N);
+                int kMax = Math.min(n, m);
+                k = kMin + random.nextInt(kMax - kMin + 1);
+                for (int mode = 0; mode < 4; mode++) {
+                    String message = "N=" + N + " n=" + n + " m=" + m + " k=" + k + " mode=" + mode;
+                    double expected;
+                    try {
+                        expected = Hypergeometric.hyperGeomPvalueSum(N, n, m, k, mode);
+                    } catch (ArithmeticException e) {
+                        // the lower tail includes undefined terms when n + m > N
+                        try {
+                            table.hyperGeomPvalueSum(n, m, k, mode);
+                            fail(message);
+                        } catch (ArithmeticException e2) { }
+                        continue;
+                    }
+                    double actual = table.hyperGeomPvalueSum(n, m, k, mode);
+                    assertEquals(message, expected, actual, Math.max(1e-300, expected * 1e-9));
+                }
+                assertEquals(Hypergeometric.hyperGeomPvalue(N, n, m, k), table.hyperGeomPvalue(n, m, k), 1e-12);
+            }
+        }
+    }
+    
 }
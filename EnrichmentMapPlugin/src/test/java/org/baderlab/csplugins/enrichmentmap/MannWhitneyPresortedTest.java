@@ -0,0 +1,53 @@
+package org.baderlab.csplugins.enrichmentmap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.baderlab.csplugins.mannwhit.MannWhitneyPresorted;
+import org.baderlab.csplugins.mannwhit.MannWhitneyTestResult;
+import org.baderlab.csplugins.mannwhit.MannWhitneyUTestSided;
+import org.junit.Test;
+
+/**
+ * MannWhitneyPresorted must give the same results as MannWhitneyUTestSided.
+ */
+public class MannWhitneyPresortedTest {
+
+	private static void assertSameResult(double[] x, double[] y, MannWhitneyPresorted presorted) {
+		MannWhitneyTestResult expected = new MannWhitneyUTestSided().mannWhitneyUTestBatch(x, y);
+		MannWhitneyTestResult actual = presorted.mannWhitneyUTestBatch(x);
+		assertEquals(expected.twoSided, actual.twoSided, 0.0);
+		assertEquals(expected.greater, actual.greater, 0.0);
+		assertEquals(expected.less, actual.less, 0.0);
+	}
+
+	@Test
+	public void testSameAsMannWhitneyUTestSided() {
+		Random random = new Random(7);
+		for(int n : new int[] { 1, 10, 1000, 20000 }) {
+			// Scores are rounded so that there are ties, the sample is taken from the scores like in post analysis
+			double[] y = new double[n];
+			for(int i = 0; i < n; i++)
+				y[i] = Math.round(random.nextGaussian() * 100) / 10.0;
+			MannWhitneyPresorted presorted = new MannWhitneyPresorted(y);
+
+			for(int t = 0; t < 20; t++) {
+				double[] x = new double[1 + random.nextInt(Math.min(n, 300))];
+				for(int i = 0; i < x.length; i++)
+					x[i] = y[random.nextInt(n)];
+				assertSameResult(x, y, presorted);
+			}
+			// values that are not in y
+			assertSameResult(new double[] { -1000, 0.05, 1000 }, y, presorted);
+		}
+	}
+
+	@Test
+	public void testNaN() {
+		double[] y = { 1, 2, Double.NaN, 3, 3 };
+		MannWhitneyPresorted presorted = new MannWhitneyPresorted(y);
+		assertSameResult(new double[] { 3, 1 }, y, presorted);
+		assertSameResult(new double[] { 2, Double.NaN }, y, presorted);
+	}
+}
@@ -0,0 +1,162 @@
+package org.baderlab.csplugins.enrichmentmap.heatmap;
+
+import static org.baderlab.csplugins.enrichmentmap.view.heatmap.table.HeatMapTableModel.DESC_COL_COUNT;
+import static org.baderlab.csplugins.enrichmentmap.view.heatmap.table.HeatMapTableModel.RANK_COL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import javax.swing.RowSorter.SortKey;
+import javax.swing.SortOrder;
+import javax.swing.event.TableModelEvent;
+
+import org.baderlab.csplugins.enrichmentmap.model.Compress;
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
+import org.baderlab.csplugins.enrichmentmap.model.Transform;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.HeatMapRowSorter;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.HeatMapTableModel;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeatMapTableModelTest {
+
+	private EnrichmentMap map;
+
+	@Before
+	public void setUp() {
+		map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		EMDataSet dataSet = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		GeneExpressionMatrix matrix = dataSet.getExpressionSets();
+		matrix.setColumnNames(new String[] { "Name", "Description", "C1", "C2" });
+		matrix.setNumConditions(4);
+		setRow(matrix, "A", 3, 1);
+		setRow(matrix, "B", 1, 4);
+		setRow(matrix, "C", 2, Float.NaN);
+		setRow(matrix, "E", 0, 5);
+		map.addGene("D"); // no expressions
+	}
+
+	private void setRow(GeneExpressionMatrix matrix, String gene, float... values) {
+		matrix.setRow(map.addGene(gene), gene, "desc " + gene, values, 0, values.length);
+	}
+
+	private HeatMapTableModel createModel(List<String> genes) {
+		RankValue rank = new RankValue(1, null, false);
+		return new HeatMapTableModel(null, map, Collections.singletonMap(map.getHashFromGene("B"), rank), genes, Transform.AS_IS, Compress.NONE);
+	}
+
+	private static HeatMapRowSorter createSorter(HeatMapTableModel model, int column, SortOrder order) {
+		HeatMapRowSorter sorter = new HeatMapRowSorter(model);
+		sorter.setSortKeys(Arrays.asList(new SortKey(column, order)));
+		// the JTable forwards the model events to the sorter
+		model.addTableModelListener(e -> {
+			if(e.getType() == TableModelEvent.INSERT)
+				sorter.rowsInserted(e.getFirstRow(), e.getLastRow());
+			else if(e.getType() == TableModelEvent.DELETE)
+				sorter.rowsDeleted(e.getFirstRow(), e.getLastRow());
+			else if(e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE)
+				sorter.allRowsChanged();
+			else
+				sorter.rowsUpdated(e.getFirstRow(), e.getLastRow(), e.getColumn());
+		});
+		return sorter;
+	}
+
+	private static List<String> sortedGenes(HeatMapTableModel model, int column, SortOrder order) {
+		return sortedGenes(model, createSorter(model, column, order));
+	}
+
+	private static List<String> sortedGenes(HeatMapTableModel model, HeatMapRowSorter sorter) {
+		String[] genes = new String[model.getRowCount()];
+		for(int i = 0; i < genes.length; i++) {
+			genes[i] = model.getGene(sorter.convertRowIndexToModel(i));
+		}
+		return Arrays.asList(genes);
+	}
+
+
+	@Test
+	public void testValues() {
+		HeatMapTableModel model = createModel(Arrays.asList("A", "B", "C", "D", "X"));
+		assertEquals(DESC_COL_COUNT + 2, model.getColumnCount());
+		assertEquals("desc A", model.getValueAt(0, 1));
+		assertEquals(3.0, model.getExpressionValue(0, DESC_COL_COUNT), 0.0);
+		assertEquals(4.0, (Double) model.getValueAt(1, DESC_COL_COUNT + 1), 0.0);
+		assertEquals(Double.NaN, model.getExpressionValue(2, DESC_COL_COUNT + 1), 0.0);
+		assertEquals(Double.NaN, model.getExpressionValue(3, DESC_COL_COUNT), 0.0);
+		assertEquals(Double.NaN, model.getExpressionValue(4, DESC_COL_COUNT), 0.0);
+		assertSame(RankValue.EMPTY, model.getValueAt(0, RANK_COL));
+		assertEquals(1, (int) model.getRankValue(1).getRank());
+
+		model.setGenes(Arrays.asList("C", "B"));
+		assertEquals(2.0, model.getExpressionValue(0, DESC_COL_COUNT), 0.0);
+		assertEquals(1, (int) model.getRankValue(1).getRank());
+
+		model.setTransform(Transform.ROW_NORMALIZE, Compress.NONE);
+		GeneExpressionMatrix matrix = map.getDataSet("DS1").getExpressionSets();
+		float expected = matrix.getValue(matrix.getRowIndex(map.getHashFromGene("B")), 0, Transform.ROW_NORMALIZE);
+		assertEquals(expected, model.getExpressionValue(1, DESC_COL_COUNT), 0.0);
+	}
+
+
+	@Test
+	public void testSortMissingLast() {
+		HeatMapTableModel model = createModel(Arrays.asList("A", "B", "C", "D"));
+		assertEquals(Arrays.asList("A", "B", "C", "D"), sortedGenes(model, DESC_COL_COUNT + 1, SortOrder.ASCENDING));
+		assertEquals(Arrays.asList("B", "A", "C", "D"), sortedGenes(model, DESC_COL_COUNT + 1, SortOrder.DESCENDING));
+		assertEquals(Arrays.asList("B", "C", "A", "D"), sortedGenes(model, DESC_COL_COUNT, SortOrder.ASCENDING));
+		assertEquals(Arrays.asList("A", "C", "B", "D"), sortedGenes(model, DESC_COL_COUNT, SortOrder.DESCENDING));
+	}
+
+
+	@Test
+	public void testSetGenesIncremental() {
+		HeatMapTableModel model = createModel(Arrays.asList("A", "B", "C", "D"));
+		HeatMapRowSorter sorter = createSorter(model, DESC_COL_COUNT + 1, SortOrder.DESCENDING);
+		double valueA = model.getExpressionValue(0, DESC_COL_COUNT);
+
+		List<TableModelEvent> events = new ArrayList<>();
+		model.addTableModelListener(events::add);
+		model.setGenes(Arrays.asList("A", "B", "D", "E"));
+		assertEquals(2, events.size());
+		assertEquals(TableModelEvent.DELETE, events.get(0).getType());
+		assertEquals(2, events.get(0).getFirstRow());
+		assertEquals(TableModelEvent.INSERT, events.get(1).getType());
+		assertEquals(3, events.get(1).getFirstRow());
+
+		assertEquals(Arrays.asList("A", "B", "D", "E"), model.getGenes());
+		assertEquals(valueA, model.getExpressionValue(0, DESC_COL_COUNT), 0.0);
+		assertEquals(Arrays.asList("E", "B", "A", "D"), sortedGenes(model, sorter));
+
+		// the same genes don't change anything
+		events.clear();
+		model.setGenes(Arrays.asList("A", "B", "D", "E"));
+		assertTrue(events.isEmpty());
+
+		// only the rows whose rank changed are updated
+		model.setRanking("Ranks", Collections.singletonMap(map.getHashFromGene("D"), new RankValue(1, null, false)));
+		assertEquals(1, events.size());
+		assertEquals(1, events.get(0).getFirstRow());
+		assertEquals(2, events.get(0).getLastRow());
+		assertEquals(RANK_COL, events.get(0).getColumn());
+
+		// the kept genes in a different order
+		events.clear();
+		model.setGenes(Arrays.asList("E", "A"));
+		assertEquals(Arrays.asList("E", "A"), model.getGenes());
+		assertEquals(5.0, model.getExpressionValue(0, DESC_COL_COUNT + 1), 0.0);
+		assertEquals(Arrays.asList("E", "A"), sortedGenes(model, sorter));
+	}
+}
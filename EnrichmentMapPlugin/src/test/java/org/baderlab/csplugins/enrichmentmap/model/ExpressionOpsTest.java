@@ -4,8 +4,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.DataSetColorRange;
 import org.junit.Test;
@@ -34,6 +36,39 @@ public class ExpressionOpsTest {
 		assertEquals(0.5f,  GeneExpression.median(expressions), 0.0f);
 	}
 	
+	@Test
+	public void testMedianMatchesSort() {
+		Random random = new Random(42);
+		for(int i = 0; i < 2000; i++) {
+			float[] expressions = new float[random.nextInt(30)];
+			for(int j = 0; j < expressions.length; j++) {
+				// lots of duplicates, some NaNs
+				int r = random.nextInt(12);
+				expressions[j] = r == 0 ? Float.NaN : r < 6 ? random.nextInt(4) : random.nextFloat() * 10 - 5;
+			}
+			
+			float expected;
+			float[] finite = new float[expressions.length];
+			int n = 0;
+			for(float e : expressions)
+				if(Float.isFinite(e))
+					finite[n++] = e;
+			Arrays.sort(finite, 0, n);
+			if(expressions.length == 0)
+				expected = 0;
+			else if(n == 0)
+				expected = Float.NaN;
+			else if(n % 2 == 0)
+				expected = (finite[n/2] + finite[n/2 - 1]) / 2;
+			else
+				expected = finite[n/2];
+			
+			float[] copy = expressions.clone();
+			assertEquals(Arrays.toString(expressions), expected, GeneExpression.median(expressions), 0.0f);
+			assertTrue(Arrays.equals(copy, expressions));
+		}
+	}
+	
 	@Test
 	public void testGeneExpressionOpsOnlyNaN() {
 		float[] expressions = {Float.NaN, Float.NaN, Float.NaN, Float.NaN};
@@ -0,0 +1,145 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.baderlab.csplugins.enrichmentmap.model.ExpressionTransformCache.CompressedExpressions;
+import org.baderlab.csplugins.enrichmentmap.model.ExpressionTransformCache.TransformedExpressions;
+import org.junit.Test;
+
+public class ExpressionTransformCacheTest {
+
+	private static GeneExpressionMatrix createMatrix(int rows, int cols) {
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		float[] values = new float[cols];
+		for(int i = 0; i < rows; i++) {
+			for(int j = 0; j < cols; j++) {
+				values[j] = (i * 7 + j * 13) % 11 - 2.5f;
+			}
+			matrix.setRow(i * 3, "G" + i, "", values, 0, cols);
+		}
+		return matrix;
+	}
+
+
+	@Test
+	public void testValuesMatchMatrix() {
+		ExpressionTransformCache cache = new ExpressionTransformCache(1024 * 1024);
+		// large enough to be transformed in parallel
+		GeneExpressionMatrix matrix = createMatrix(10_000, 8);
+
+		for(Transform transform : Transform.values()) {
+			TransformedExpressions values = cache.get(matrix, transform);
+			for(int row = 0; row < matrix.getNumGenes(); row += 97) {
+				assertArrayEquals(matrix.getExpression(row, transform), values.getExpression(row), 0.0f);
+				assertEquals(matrix.getValue(row, 3, transform), values.getValue(row, 3), 0.0f);
+			}
+		}
+	}
+
+
+	@Test
+	public void testHitsAndInvalidation() {
+		ExpressionTransformCache cache = new ExpressionTransformCache(1024 * 1024);
+		GeneExpressionMatrix matrix = createMatrix(10, 4);
+
+		TransformedExpressions values = cache.get(matrix, Transform.ROW_NORMALIZE);
+		assertSame(values, cache.get(matrix, Transform.ROW_NORMALIZE));
+		cache.get(matrix, Transform.LOG_TRANSFORM);
+		assertSame(values, cache.get(matrix, Transform.ROW_NORMALIZE));
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+
+		// changing the matrix invalidates the cached values
+		matrix.setRow(0, "G0", "", new float[] { 1, 2, 3, 4 }, 0, 4);
+		values = cache.get(matrix, Transform.ROW_NORMALIZE);
+		assertEquals(3, cache.getMissCount());
+		assertArrayEquals(matrix.getExpression(0, Transform.ROW_NORMALIZE), values.getExpression(0), 0.0f);
+
+		// AS_IS values are read from the matrix
+		cache.get(matrix, Transform.AS_IS);
+		assertEquals(3, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+	}
+
+
+	@Test
+	public void testMemoryBudget() {
+		GeneExpressionMatrix matrix1 = createMatrix(1000, 10);
+		GeneExpressionMatrix matrix2 = createMatrix(1000, 10);
+		// room for one transformed matrix
+		ExpressionTransformCache cache = new ExpressionTransformCache(60_000);
+
+		cache.get(matrix1, Transform.LOG_TRANSFORM);
+		cache.get(matrix2, Transform.LOG_TRANSFORM);
+		cache.get(matrix2, Transform.LOG_TRANSFORM);
+		cache.get(matrix1, Transform.LOG_TRANSFORM);
+		assertEquals(3, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertTrue(cache.getWeight() <= cache.getMemoryBudget());
+
+		cache.setMemoryBudget(0);
+		cache.get(matrix1, Transform.LOG_TRANSFORM);
+		assertEquals(4, cache.getMissCount());
+		assertEquals(0, cache.getWeight());
+	}
+
+
+	@Test
+	public void testCompressed() {
+		ExpressionTransformCache cache = new ExpressionTransformCache(1024 * 1024);
+		GeneExpressionMatrix matrix = createMatrix(3000, 6);
+		matrix.setRow(1, "SHORT", "", new float[] { 1, 2, 3 }, 0, 3);
+		matrix.setRow(2, "NAN", "", new float[] { Float.NaN, 1, Float.NaN, 3, Float.NaN, Float.NaN }, 0, 6);
+		matrix.setRow(4, "EMPTY", "", new float[0], 0, 0);
+		String[] phenotypes = { "A", "B", "A", "C", "B", "A" };
+
+		for(Transform transform : Transform.values()) {
+			CompressedExpressions dataSet = cache.getCompressed(matrix, transform, null);
+			CompressedExpressions classes = cache.getCompressed(matrix, transform, phenotypes);
+
+			for(int row = 0; row < matrix.getNumGenes(); row++) {
+				float[] expression = matrix.getExpression(row, transform);
+				assertEquals(GeneExpression.median(expression), dataSet.getValue(row, 0, Compress.DATASET_MEDIAN), 0.0f);
+				assertEquals(GeneExpression.min(expression), dataSet.getValue(row, 0, Compress.DATASET_MIN), 0.0f);
+				assertEquals(GeneExpression.max(expression), dataSet.getValue(row, 0, Compress.DATASET_MAX), 0.0f);
+
+				for(String pheno : new String[] { "A", "B", "C", "D" }) {
+					float[] expected = expectedClassValues(expression, phenotypes, pheno);
+					int group = classes.getGroup(pheno);
+					assertEquals(expected[0], classes.getValue(row, group, Compress.CLASS_MEDIAN), 0.0f);
+					assertEquals(expected[1], classes.getValue(row, group, Compress.CLASS_MIN), 0.0f);
+					assertEquals(expected[2], classes.getValue(row, group, Compress.CLASS_MAX), 0.0f);
+				}
+			}
+		}
+
+		// the same class file is a hit, a new one is computed again
+		long misses = cache.getMissCount();
+		cache.getCompressed(matrix, Transform.AS_IS, phenotypes);
+		assertEquals(misses, cache.getMissCount());
+		cache.getCompressed(matrix, Transform.AS_IS, phenotypes.clone());
+		assertEquals(misses + 1, cache.getMissCount());
+	}
+
+	/**
+	 * The values CompressedClass used to compute for each cell.
+	 */
+	private static float[] expectedClassValues(float[] expressions, String[] phenotypes, String pheno) {
+		if(expressions.length == 0 || expressions.length != phenotypes.length)
+			return new float[] { Float.NaN, Float.NaN, Float.NaN };
+
+		float[] vals = new float[expressions.length];
+		int size = 0;
+		for(int i = 0; i < expressions.length; i++) {
+			if(pheno.equals(phenotypes[i]))
+				vals[size++] = expressions[i];
+		}
+		vals = Arrays.copyOf(vals, size);
+		return new float[] { GeneExpression.median(vals), GeneExpression.min(vals), GeneExpression.max(vals) };
+	}
+}
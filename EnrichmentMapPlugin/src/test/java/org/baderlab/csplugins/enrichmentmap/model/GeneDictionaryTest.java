@@ -0,0 +1,165 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class GeneDictionaryTest {
+
+	@Test
+	public void testAddAndLookup() {
+		GeneDictionary genes = new GeneDictionary();
+		assertEquals(1, genes.add("A"));
+		assertEquals(2, genes.add("B"));
+		assertEquals(1, genes.add("A"));
+		assertEquals(3, genes.add("C"));
+
+		assertEquals(3, genes.size());
+		assertEquals(3, genes.getLastId());
+		assertEquals(2, genes.getId("B"));
+		assertEquals(GeneDictionary.NO_ID, genes.getId("D"));
+		assertEquals(GeneDictionary.NO_ID, genes.getId(null));
+		assertTrue(genes.contains("C"));
+		assertFalse(genes.contains("c"));
+		assertEquals("C", genes.getName(3));
+		assertNull(genes.getName(0));
+		assertNull(genes.getName(4));
+		assertNull(genes.getName(-1));
+
+		assertArrayEquals(new int[] { 3, GeneDictionary.NO_ID, 1 }, genes.getIds(new String[] { "C", "X", "A" }));
+		assertArrayEquals(new String[] { null, "A", "B", "C" }, genes.getNames());
+		assertEquals(ImmutableSet.of("A", "B", "C"), genes.getAllNames());
+	}
+
+
+	@Test
+	public void testGrow() {
+		GeneDictionary genes = new GeneDictionary();
+		for(int i = 0; i < 10000; i++) {
+			assertEquals(i + 1, genes.add("GENE" + i));
+		}
+		for(int i = 0; i < 10000; i++) {
+			assertEquals(i + 1, genes.getId("GENE" + i));
+			assertEquals("GENE" + i, genes.getName(i + 1));
+		}
+		assertEquals(10000, genes.size());
+		assertEquals(10001, genes.getNames().length);
+	}
+
+
+	@Test
+	public void testPutAndLastId() {
+		GeneDictionary genes = new GeneDictionary();
+		genes.put("A", 0);
+		genes.put("E", 5);
+		genes.put("E", 5);
+		assertEquals(5, genes.getLastId());
+		assertEquals(0, genes.getId("A"));
+		assertEquals(6, genes.add("F"));
+
+		try {
+			genes.put("E", 7);
+			fail();
+		} catch(IllegalArgumentException e) { }
+		try {
+			genes.put("X", 5);
+			fail();
+		} catch(IllegalArgumentException e) { }
+
+		// legacy sessions leave a gap after the largest ID
+		genes.setLastId(10);
+		assertEquals(11, genes.add("G"));
+		assertEquals(12, genes.getNames().length);
+		try {
+			genes.setLastId(3);
+			fail();
+		} catch(IllegalArgumentException e) { }
+	}
+
+
+	@Test
+	public void testFreeze() {
+		GeneDictionary genes = new GeneDictionary();
+		genes.add("A");
+		genes.add("B");
+
+		GeneDictionary frozen = genes.freeze();
+		assertTrue(frozen.isFrozen());
+		assertFalse(genes.isFrozen());
+		assertSame(frozen, frozen.freeze());
+		assertEquals(2, frozen.add("B"));
+		try {
+			frozen.add("C");
+			fail();
+		} catch(IllegalStateException e) { }
+
+		// the copy doesn't see names that are added later
+		genes.add("C");
+		assertEquals(GeneDictionary.NO_ID, frozen.getId("C"));
+		assertArrayEquals(new String[] { null, "A", "B" }, frozen.getNames());
+	}
+
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		int threads = 4;
+		int namesPerThread = 5000;
+		GeneDictionary genes = new GeneDictionary();
+		CountDownLatch start = new CountDownLatch(1);
+
+		// every thread adds the same names, in a different order
+		List<Callable<int[]>> tasks = new ArrayList<>();
+		for(int t = 0; t < threads; t++) {
+			int offset = t * 997;
+			tasks.add(() -> {
+				start.await();
+				int[] ids = new int[namesPerThread];
+				for(int i = 0; i < namesPerThread; i++) {
+					int n = (i + offset) % namesPerThread;
+					ids[n] = genes.add("GENE" + n);
+				}
+				return ids;
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<int[]>> futures = new ArrayList<>();
+			for(Callable<int[]> task : tasks)
+				futures.add(executor.submit(task));
+			start.countDown();
+
+			int[] expected = futures.get(0).get();
+			for(Future<int[]> future : futures)
+				assertArrayEquals(expected, future.get());
+
+			Set<Integer> unique = new HashSet<>();
+			for(int i = 0; i < namesPerThread; i++) {
+				assertTrue(unique.add(expected[i]));
+				assertEquals("GENE" + i, genes.getName(expected[i]));
+			}
+			assertEquals(namesPerThread, genes.size());
+			assertEquals(namesPerThread, genes.getLastId());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.baderlab.csplugins.enrichmentmap.model.io.ModelSerializer;
+import org.junit.Test;
+
+public class GeneExpressionMatrixTest {
+
+	private static Map<Integer,GeneExpression> createExpressions() {
+		Map<Integer,GeneExpression> map = new HashMap<>();
+		for(int i = 0; i < 100; i++) {
+			float[] values = new float[4];
+			for(int j = 0; j < values.length; j++) {
+				values[j] = (i * 7 + j * 13) % 11 - 5.5f;
+			}
+			map.put(i * 31, new GeneExpression("G" + i, "desc" + i, values));
+		}
+		map.put(-1, new GeneExpression("NAN", null, new float[] { Float.NaN, 1.0f, 2.0f }));
+		map.put(-2, new GeneExpression("EMPTY", "", new float[] { }));
+		return map;
+	}
+
+
+	@Test
+	public void testRows() {
+		Map<Integer,GeneExpression> expected = createExpressions();
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		matrix.setExpressionMatrix(expected);
+
+		assertEquals(expected.size(), matrix.getNumGenes());
+		assertEquals(-1, matrix.getRowIndex(5));
+		for(Map.Entry<Integer,GeneExpression> entry : expected.entrySet()) {
+			int row = matrix.getRowIndex(entry.getKey());
+			GeneExpression expression = entry.getValue();
+			assertEquals(entry.getKey().intValue(), matrix.getGeneId(row));
+			assertEquals(expression.getName(), matrix.getName(row));
+			assertEquals(expression.getDescription(), matrix.getDescription(row));
+			assertArrayEquals(expression.getExpression(), matrix.getExpression(row, Transform.AS_IS), 0.0f);
+			assertArrayEquals(expression.rowNormalize(), matrix.getExpression(row, Transform.ROW_NORMALIZE), 0.0f);
+			assertArrayEquals(expression.rowLogTransform(), matrix.getExpression(row, Transform.LOG_TRANSFORM), 0.0f);
+		}
+
+		// replacing a row with a different length
+		int row = matrix.getRowIndex(31);
+		matrix.setRow(31, "G1", "new", new float[] { 0, 8, 9 }, 1, 2);
+		assertEquals(row, matrix.getRowIndex(31));
+		assertEquals(expected.size(), matrix.getNumGenes());
+		assertArrayEquals(new float[] { 8, 9 }, matrix.getExpression(row, Transform.AS_IS), 0.0f);
+		assertEquals("new", matrix.getGeneExpression(31).getDescription());
+	}
+
+
+	@Test
+	public void testCopiesDontChangeMatrix() {
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		matrix.setExpressionMatrix(createExpressions());
+		int numGenes = matrix.getNumGenes();
+
+		Map<Integer,GeneExpression> copy = matrix.copyExpressionMatrix();
+		assertEquals(matrix.getGeneIds(), copy.keySet());
+		copy.remove(31);
+		copy.put(99, new GeneExpression("X", "", new float[] { 1f }));
+		matrix.getGeneExpression(62).getExpression()[0] = 1000f;
+		matrix.getGeneIds().clear();
+
+		assertEquals(numGenes, matrix.getNumGenes());
+		assertTrue(matrix.getRowIndex(31) >= 0);
+		assertNull(matrix.getGeneExpression(99));
+		assertEquals(createExpressions().get(62).getExpression()[0], matrix.getGeneExpression(62).getExpression()[0], 0.0f);
+	}
+
+
+	@Test
+	public void testMinMaxInvalidatedOnChange() {
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		assertNull(matrix.getMinMax(Transform.AS_IS));
+
+		matrix.setExpressionMatrix(createExpressions());
+		assertArrayEquals(new float[] { -5.5f, 4.5f }, matrix.getMinMax(Transform.AS_IS), 0.0f);
+		float[] normalized = matrix.getMinMax(Transform.ROW_NORMALIZE);
+		assertTrue(normalized[0] < 0 && normalized[1] > 0);
+
+		matrix.putGeneExpression(7, new GeneExpression("X", "", new float[] { 100f, -100f }));
+		assertArrayEquals(new float[] { -100f, 100f }, matrix.getMinMax(Transform.AS_IS), 0.0f);
+		assertEquals(GeneExpression.logTransform(100f), matrix.getMinMax(Transform.LOG_TRANSFORM)[1], 0.0f);
+	}
+
+
+	@Test
+	public void testSerializeRoundTrip() {
+		EnrichmentMap map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		matrix.setColumnNames(new String[] { "Name", "Description", "A", "B" });
+		matrix.setNumConditions(4);
+		matrix.setExpressionUniverse(123);
+		matrix.setRow(5, "G5", "d", new float[] { 1.5f, Float.NaN }, 0, 2);
+		map.putExpressionMatrix("key", matrix);
+
+		String json = ModelSerializer.serialize(map);
+		assertTrue(json, json.contains("\"expressionMatrix\":{\"5\":{\"name\":\"G5\",\"description\":\"d\",\"expression\":[1.5,NaN]}}"));
+
+		GeneExpressionMatrix actual = ModelSerializer.deserialize(json).getExpressionMatrix("key");
+		assertArrayEquals(matrix.getColumnNames(), actual.getColumnNames());
+		assertEquals(4, actual.getNumConditions());
+		assertEquals(123, actual.getExpressionUniverse());
+		assertEquals(1, actual.getNumGenes());
+		int row = actual.getRowIndex(5);
+		assertEquals("G5", actual.getName(row));
+		assertEquals("d", actual.getDescription(row));
+		assertArrayEquals(new float[] { 1.5f, Float.NaN }, actual.getExpression(row, Transform.AS_IS), 0.0f);
+	}
+}
@@ -0,0 +1,94 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.baderlab.csplugins.enrichmentmap.util.IntSetUtil;
+import org.junit.Test;
+
+public class GeneSetIndexTest {
+
+	@Test
+	public void testIndex() {
+		Map<String,int[]> geneSets = new HashMap<>();
+		geneSets.put("C", new int[] {2, 3});
+		geneSets.put("A", new int[] {1, 2, 3});
+		geneSets.put("B", new int[] {});
+		geneSets.put("D", new int[] {9});
+		GeneSetIndex index = GeneSetIndex.create(geneSets);
+
+		// sorted by size
+		assertEquals(4, index.size());
+		assertEquals("B", index.getName(0));
+		assertEquals("D", index.getName(1));
+		assertEquals("C", index.getName(2));
+		assertEquals("A", index.getName(3));
+		assertArrayEquals(new int[] {2, 3}, index.getGenes(2));
+
+		assertEquals(1, index.indexAfterSize(0));
+		assertEquals(3, index.indexAfterSize(2));
+		assertEquals(4, index.indexAfterSize(3));
+
+		int[] counts = new int[4];
+		int[] touched = new int[4];
+		int n = index.countOverlaps(new int[] {2, 3, 4}, 0, 4, counts, touched);
+		assertEquals(2, n);
+		assertArrayEquals(new int[] {0, 0, 2, 2}, counts);
+
+		// only gene sets in the range are counted
+		Arrays.fill(counts, 0);
+		n = index.countOverlaps(new int[] {2, 3, 9}, 1, 3, counts, touched);
+		assertEquals(2, n);
+		assertArrayEquals(new int[] {1, 2, 0, 0}, counts);
+
+		// only the first genes are counted
+		Arrays.fill(counts, 0);
+		n = index.countOverlaps(new int[] {1, 2, 9}, 2, 0, 4, counts, touched);
+		assertEquals(2, n);
+		assertArrayEquals(new int[] {0, 0, 1, 2}, counts);
+	}
+
+	@Test
+	public void testCountOverlapsAgainstIntersection() {
+		Random random = new Random(11);
+		Map<String,int[]> geneSets = new HashMap<>();
+		for(int i = 0; i < 300; i++) {
+			geneSets.put("GS" + i, randomGenes(random, random.nextInt(40), 500));
+		}
+		GeneSetIndex index = GeneSetIndex.create(geneSets);
+
+		int[] counts = new int[index.size()];
+		int[] touched = new int[index.size()];
+		for(int trial = 0; trial < 100; trial++) {
+			int[] genes = randomGenes(random, 1 + random.nextInt(60), 600);
+			int from = random.nextInt(index.size());
+			int n = index.countOverlaps(genes, from, index.size(), counts, touched);
+
+			Set<Integer> visited = new HashSet<>();
+			for(int k = 0; k < n; k++) {
+				visited.add(touched[k]);
+			}
+			for(int j = from; j < index.size(); j++) {
+				int expected = IntSetUtil.intersectionSize(genes, index.getGenes(j));
+				assertEquals(expected, counts[j - from]);
+				assertEquals(expected > 0, visited.contains(j));
+				counts[j - from] = 0;
+			}
+		}
+	}
+
+	private static int[] randomGenes(Random random, int size, int max) {
+		Set<Integer> genes = new HashSet<>();
+		while(genes.size() < size) {
+			genes.add(1 + random.nextInt(max));
+		}
+		return IntSetUtil.toSortedArray(genes);
+	}
+}
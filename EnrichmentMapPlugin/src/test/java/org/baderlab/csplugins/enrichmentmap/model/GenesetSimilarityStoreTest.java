@@ -0,0 +1,82 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GenesetSimilarityStoreTest {
+
+	private static final String INTERACTION = "Geneset_Overlap";
+
+	private static GenesetSimilarityStore createStore() {
+		String[] names = { "A", "B", "C" };
+		return new GenesetSimilarityStore(INTERACTION, names, new String[] { "DS1", "DS2" }, new String[] { "DS1", "DS2" });
+	}
+
+	@Test
+	public void testAddAndGet() {
+		GenesetSimilarityStore store = createStore();
+		store.add(0, 1, 0.5, 0, new int[] { 1, 2 });
+		store.add(0, 1, 0.25, 1, new int[] { 3 });
+		store.add(1, 2, 0.75, 1, new int[] { });
+
+		assertEquals(3, store.size());
+		assertEquals("A", store.getGeneset1Name(1));
+		assertEquals("B", store.getGeneset2Name(1));
+		assertEquals("DS2", store.getDataSetName(1));
+		assertArrayEquals(new int[] { 3 }, store.getOverlappingGenes(1));
+		assertEquals(0, store.getSizeOfOverlap(2));
+
+		// keys are order insensitive
+		GenesetSimilarity similarity = store.get(new SimilarityKey("B", "A", INTERACTION, "DS1"));
+		assertEquals(0.5, similarity.getSimilarityCoeffecient(), 0.0);
+		assertEquals(new HashSet<>(Arrays.asList(1, 2)), similarity.getOverlappingGenes());
+		assertEquals("DS1", similarity.getDataSetName());
+
+		assertTrue(store.containsKey(new SimilarityKey("B", "C", INTERACTION, "DS2")));
+		assertFalse(store.containsKey(new SimilarityKey("B", "C", INTERACTION, "DS1")));
+		assertNull(store.get(new SimilarityKey("A", "C", INTERACTION, "DS1")));
+		assertNull(store.get(new SimilarityKey("A", "X", INTERACTION, "DS1")));
+		assertNull(store.get(new SimilarityKey("A", "B", "other", "DS1")));
+	}
+
+	@Test
+	public void testAddAll() {
+		GenesetSimilarityStore store = createStore();
+		store.add(0, 1, 0.5, 0, new int[] { 1, 2 });
+
+		GenesetSimilarityStore other = store.emptyCopy();
+		for(int i = 0; i < 100; i++) {
+			other.add(1, 2, i, 1, new int[] { i, i + 1 });
+		}
+		store.addAll(other);
+
+		assertEquals(101, store.size());
+		assertArrayEquals(new int[] { 1, 2 }, store.getOverlappingGenes(0));
+		assertArrayEquals(new int[] { 99, 100 }, store.getOverlappingGenes(100));
+		assertEquals(99.0, store.getSimilarityCoeffecient(100), 0.0);
+	}
+
+	@Test
+	public void testMapView() {
+		GenesetSimilarityStore store = createStore();
+		store.add(0, 1, 0.5, 0, new int[] { 1, 2 });
+		store.add(1, 2, 0.75, 1, new int[] { 5 });
+
+		Map<SimilarityKey,GenesetSimilarity> copy = new HashMap<>(store);
+		assertEquals(2, copy.size());
+		assertEquals(copy.keySet(), store.keySet());
+		for(SimilarityKey key : store.keySet()) {
+			assertEquals(copy.get(key).getOverlappingGenes(), store.get(key).getOverlappingGenes());
+		}
+	}
+}
@@ -67,10 +67,37 @@ public class ModelSerializerTest extends BaseNetworkTest {
 	    
 	    assertEnrichmentMapEquals(expectedEM, roundTripEM);
 	}
+
+	@Test
+	public void testLegacyNumberOfGenes() {
+		EnrichmentMap map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		map.addGene("A");
+		map.addGene("B");
+		String json = ModelSerializer.serialize(map);
+		assertTrue(json, json.contains("\"genes\":[null,\"A\",\"B\"]"));
+
+		// older sessions stored the genes by ID and the number of genes separately
+		String legacyJson = json.replace("\"genes\":[null,\"A\",\"B\"]", "\"genes\":{\"1\":\"A\",\"2\":\"B\"},\"NumberOfGenes\":5");
+		EnrichmentMap legacyEM = ModelSerializer.deserialize(legacyJson);
+		assertEquals(5, legacyEM.getNumberOfGenes());
+		assertEquals(Integer.valueOf(2), legacyEM.getHashFromGene("B"));
+		assertEquals(Integer.valueOf(6), legacyEM.addGene("C"));
+		assertFalse(ModelSerializer.serialize(legacyEM).contains("NumberOfGenes"));
+
+		// a stored number smaller than the largest ID is ignored
+		legacyJson = json.replace("\"genes\":[null,\"A\",\"B\"]", "\"genes\":{\"1\":\"A\",\"2\":\"B\"},\"NumberOfGenes\":1");
+		assertEquals(2, ModelSerializer.deserialize(legacyJson).getNumberOfGenes());
+
+		assertEquals(2, ModelSerializer.deserialize(json).getNumberOfGenes());
+	}
 	
 	private static void assertEnrichmentMapEquals(EnrichmentMap expected, EnrichmentMap actual) {
 		assertEquals(expected.getNetworkID(), actual.getNetworkID());
 		assertEquals(expected.getNumberOfGenes(), actual.getNumberOfGenes());
+		assertEquals(expected.getAllGenes(), actual.getAllGenes());
+		for(String gene : expected.getAllGenes()) {
+			assertEquals(expected.getHashFromGene(gene), actual.getHashFromGene(gene));
+		}
 		assertEMCreationParametersEquals(expected.getParams(), actual.getParams());
 		assertMapsEqual(ModelSerializerTest::assertSignatureDataSetsEquals, expected.getSignatureDataSets(), actual.getSignatureDataSets());
 //		assertMapsEqual(ModelSerializerTest::assertGenesetSimilarityEquals, expected.getGenesetSimilarity(), actual.getGenesetSimilarity());
@@ -166,7 +193,7 @@ public class ModelSerializerTest extends BaseNetworkTest {
 		assertArrayEquals(expected.getColumnNames(), actual.getColumnNames());
 		assertEquals(expected.getNumConditions(), actual.getNumConditions());
 		assertEquals(expected.getExpressionUniverse(), actual.getExpressionUniverse());
-		assertMapsEqual(ModelSerializerTest::assertGeneExpressionEquals, expected.getExpressionMatrix(), actual.getExpressionMatrix());
+		assertMapsEqual(ModelSerializerTest::assertGeneExpressionEquals, expected.copyExpressionMatrix(), actual.copyExpressionMatrix());
 		assertEquals(expected.getClosestToZero(), actual.getClosestToZero(), 0.0);
 	}
 	
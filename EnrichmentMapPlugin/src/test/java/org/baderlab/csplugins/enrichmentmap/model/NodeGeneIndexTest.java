@@ -0,0 +1,87 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.NetworkTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class NodeGeneIndexTest {
+
+	private static final String PREFIX = "EM1_";
+
+	private NetworkTestSupport networkTestSupport = new NetworkTestSupport();
+
+	private EnrichmentMap map;
+	private CyNetwork network;
+	private CyNode n1, n2, n3;
+	private CyEdge e23;
+
+	@Before
+	public void setUp() {
+		map = new EnrichmentMap(new EMCreationParameters(PREFIX, 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		for(String gene : Arrays.asList("A", "B", "C", "D"))
+			map.addGene(gene);
+
+		network = networkTestSupport.getNetwork();
+		Columns.NODE_GENES.createColumn(network.getDefaultNodeTable(), PREFIX, null);
+		n1 = addNode("A", "B", "C");
+		n2 = addNode("B", "C", "D", "X"); // X is not a gene of the map
+		n3 = addNode("C", "X");
+		e23 = network.addEdge(n2, n3, false);
+	}
+
+	private CyNode addNode(String... genes) {
+		CyNode node = network.addNode();
+		Columns.NODE_GENES.set(network.getRow(node), PREFIX, null, Arrays.asList(genes));
+		return node;
+	}
+
+	private static List<CyEdge> noEdges() {
+		return Collections.emptyList();
+	}
+
+
+	@Test
+	public void testUnion() {
+		NodeGeneIndex index = map.getNodeGeneIndex();
+		assertEquals(ImmutableSet.of("A", "B", "C", "D", "X"), index.union(network, Arrays.asList(n1, n2), noEdges(), PREFIX));
+		assertEquals(ImmutableSet.of("B", "C", "D", "X"), index.union(network, Collections.emptyList(), Arrays.asList(e23), PREFIX));
+		assertEquals(ImmutableSet.of("A", "B", "C", "D", "X"), index.union(network, Arrays.asList(n1), Arrays.asList(e23), PREFIX));
+		assertTrue(index.union(network, Collections.emptyList(), noEdges(), PREFIX).isEmpty());
+	}
+
+
+	@Test
+	public void testIntersection() {
+		NodeGeneIndex index = map.getNodeGeneIndex();
+		assertEquals(ImmutableSet.of("B", "C"), index.intersection(network, Arrays.asList(n1, n2), noEdges(), PREFIX));
+		assertEquals(ImmutableSet.of("C", "X"), index.intersection(network, Collections.emptyList(), Arrays.asList(e23), PREFIX));
+		assertEquals(ImmutableSet.of("C"), index.intersection(network, Arrays.asList(n1), Arrays.asList(e23), PREFIX));
+		assertTrue(index.intersection(network, Collections.emptyList(), noEdges(), PREFIX).isEmpty());
+	}
+
+
+	@Test
+	public void testInvalidate() {
+		NodeGeneIndex index = map.getNodeGeneIndex();
+		assertEquals(ImmutableSet.of("C", "X"), index.union(network, Arrays.asList(n3), noEdges(), PREFIX));
+
+		Columns.NODE_GENES.set(network.getRow(n3), PREFIX, null, Arrays.asList("D"));
+		assertEquals(ImmutableSet.of("C", "X"), index.union(network, Arrays.asList(n3), noEdges(), PREFIX));
+		index.invalidate();
+		assertEquals(ImmutableSet.of("D"), index.union(network, Arrays.asList(n3), noEdges(), PREFIX));
+	}
+}
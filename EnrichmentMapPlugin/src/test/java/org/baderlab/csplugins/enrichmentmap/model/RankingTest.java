@@ -0,0 +1,114 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class RankingTest {
+
+	@Test
+	public void testLookups() {
+		Ranking ranking = new Ranking();
+		ranking.addRank(3, new Rank("C", 0.5, 2));
+		ranking.addRank(1, new Rank("A", 2.0, 0));
+		ranking.addRank(7, new Rank("G", -1.0, 5));
+
+		assertTrue(ranking.contains(7));
+		assertFalse(ranking.contains(2));
+		assertFalse(ranking.contains(100));
+		assertEquals(2.0, ranking.getScore(1), 0.0);
+		assertNull(ranking.getScore(2));
+		assertEquals(-1.0, ranking.getScore(7, Double.NaN), 0.0);
+		assertEquals(Double.NaN, ranking.getScore(100, Double.NaN), 0.0);
+
+		assertEquals(5, ranking.getMaxRank());
+		assertEquals(ImmutableSet.of(0, 2, 5), ranking.getAllRanks());
+		assertTrue(ranking.containsRank(2));
+		assertFalse(ranking.containsRank(3));
+		assertFalse(ranking.containsRank(6));
+		assertEquals(3, ranking.getGene(2));
+		assertArrayEquals(new double[] { 0.5, 2.0, -1.0 }, ranking.getScores(), 0.0);
+		assertEquals(5, ranking.getRank(7, -1));
+		assertEquals(-1, ranking.getRank(100, -1));
+
+		// the scores array is shared until the ranking changes
+		double[] scores = ranking.getScores();
+		assertSame(scores, ranking.getScores());
+
+		// adding a rank updates the lookups
+		ranking.addRank(9, new Rank("I", 4.0, 8));
+		assertNotSame(scores, ranking.getScores());
+		assertEquals(3, scores.length);
+		assertEquals(8, ranking.getMaxRank());
+		assertEquals(9, ranking.getGene(8));
+		assertEquals(4.0, ranking.getScore(9), 0.0);
+		assertEquals(4, ranking.getScores().length);
+	}
+
+	@Test
+	public void testReplaceAndCopy() {
+		Ranking ranking = new Ranking();
+		ranking.addRank(2, new Rank("B", 1.0, 3));
+		ranking.addRank(5, new Rank("E", null));
+		ranking.addRank(2, new Rank("B", 6.0, 1));
+
+		assertEquals(2, ranking.size());
+		assertEquals(1, ranking.getMaxRank());
+		assertFalse(ranking.containsRank(3));
+		assertEquals(6.0, ranking.getScore(2), 0.0);
+		assertNull(ranking.getScore(5));
+		assertNull(ranking.getRank(5).getRank());
+		assertNull(ranking.getRank(4));
+
+		Map<Integer,Rank> copy = ranking.getRanking();
+		assertEquals(Arrays.asList(2, 5), new ArrayList<>(copy.keySet()));
+		assertEquals("B", copy.get(2).getName());
+		assertEquals(1, (int) copy.get(2).getRank());
+		copy.get(2).setScore(0.0);
+		assertEquals(6.0, ranking.getScore(2), 0.0);
+	}
+
+	@Test
+	public void testConcurrentReadsSeeNewRanks() throws Exception {
+		Ranking ranking = new Ranking();
+		int n = 20000;
+		Thread reader = new Thread(() -> {
+			while(!ranking.contains(n - 1)) {
+				ranking.getScore(0, Double.NaN);
+				ranking.containsRank(0);
+			}
+		});
+		reader.start();
+		for(int gene = 0; gene < n; gene++) {
+			ranking.addRank(gene, new Rank("G" + gene, (double) gene, gene));
+		}
+		reader.join(10000);
+		assertFalse(reader.isAlive());
+
+		// the lookups built while ranks were added don't hide the later ranks
+		assertEquals(n - 1, ranking.getMaxRank());
+		for(int gene = 0; gene < n; gene++) {
+			assertEquals(gene, ranking.getScore(gene, Double.NaN), 0.0);
+			assertEquals(gene, ranking.getGene(gene));
+		}
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testMissingRank() {
+		Ranking ranking = new Ranking();
+		ranking.addRank(1, new Rank("A", 2.0, 0));
+		ranking.getGene(1);
+	}
+}
@@ -0,0 +1,80 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
+import org.baderlab.csplugins.enrichmentmap.model.Transform;
+import org.junit.Test;
+
+public class ExpressionChunkParserTest {
+
+	private static EnrichmentMap createMap(String... genes) {
+		EnrichmentMap map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		for(String gene : genes) {
+			map.addGene(gene);
+		}
+		return map;
+	}
+
+
+	@Test
+	public void testParseFloat() {
+		ExpressionChunkParser parser = new ExpressionChunkParser(createMap(), StandardCharsets.UTF_8, false);
+		String[] values = {
+			"0", "-0", "1", "-1", "0.1", ".5", "5.", "-.25", "16777216", "16777217", "123456789",
+			"3.14159", "2.7182818", "0.0000001", "0.00000001", "1234.5678", "-99999.99",
+			"1e3", "1.5E-7", "NaN", "-Infinity", "+2", " 7 ", "0x1p3", "1.000000000000000000001"
+		};
+		for(String value : values) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			assertEquals(value, Float.floatToRawIntBits(Float.parseFloat(value)), Float.floatToRawIntBits(parser.parseFloat(bytes, 0, bytes.length)));
+		}
+	}
+
+
+	@Test
+	public void testParseRows() {
+		EnrichmentMap map = createMap("A", "B", "C");
+		String text = "a\tdesc\t1.5\t-2\r\nunknown\tx\t1\t2\r\n\r\nB\tdesc b\t0.12345\t3\t\t\nC\tdesc c\rA\tdesc2\t4\t5";
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+		ExpressionChunkParser parser = new ExpressionChunkParser(map, StandardCharsets.UTF_8, false).parse(bytes, 0, bytes.length);
+
+		assertEquals(6, parser.getRowCount());
+		assertEquals(4, parser.getGeneCount());
+
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		parser.addRowsTo(matrix);
+		assertEquals(3, matrix.getNumGenes());
+
+		// the same gene again, the later row replaces the first one
+		int a = matrix.getRowIndex(map.getHashFromGene("A"));
+		assertEquals("A", matrix.getName(a));
+		assertEquals("desc2", matrix.getDescription(a));
+		assertArrayEquals(new float[] { 4f, 5f }, matrix.getExpression(a, Transform.AS_IS), 0.0f);
+
+		// trailing empty tokens are ignored, values are rounded to 4 decimal places
+		int b = matrix.getRowIndex(map.getHashFromGene("B"));
+		assertArrayEquals(new float[] { 0.1235f, 3f }, matrix.getExpression(b, Transform.AS_IS), 0.0f);
+		// only a description, no expression values
+		int c = matrix.getRowIndex(map.getHashFromGene("C"));
+		assertEquals("desc c", matrix.getDescription(c));
+		assertArrayEquals(new float[] { 0f }, matrix.getExpression(c, Transform.AS_IS), 0.0f);
+	}
+
+
+	@Test(expected = IllegalThreadStateException.class)
+	public void testRowWithOnlyName() {
+		EnrichmentMap map = createMap("A", "B");
+		// unknown genes are skipped before the row is checked
+		byte[] bytes = "unknown\nA\t\t1\nB\n".getBytes(StandardCharsets.UTF_8);
+		new ExpressionChunkParser(map, StandardCharsets.UTF_8, false).parse(bytes, 0, bytes.length);
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
+import org.junit.Test;
+
+public class GMTFileReaderTaskTest {
+
+	private static final String GMT_FILE = "src/test/resources/org/baderlab/csplugins/enrichmentmap/Genesetstestfile.gmt";
+	private static final String GMT_FILE_2 = "src/test/resources/org/baderlab/csplugins/enrichmentmap/task/genesets_subset.gmt";
+
+	private static EnrichmentMap createMap() {
+		return new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+	}
+
+
+	@Test
+	public void testReadGeneSetMatchesSplit() {
+		String[] lines = {
+			"",
+			"NAME",
+			"NAME\t",
+			"NAME\t\t\t",
+			"name\tdesc",
+			" name \t desc \tA\tb\t\tC\t",
+			"\tdesc\tA",
+			"NAME\t\tA\tA\tB\t\t",
+			"NAME\tdesc\tA \t a",
+		};
+
+		EnrichmentMap map = createMap();
+		for(String line : lines) {
+			GeneSet actual = GMTFileReaderTask.readGeneSet(map.getGeneDictionary(), line);
+
+			String[] tokens = line.split("\t");
+			if(tokens.length < 2) {
+				assertNull(line, actual);
+				continue;
+			}
+			assertNotNull(line, actual);
+			assertEquals(line, tokens[0].toUpperCase().trim(), actual.getName());
+			assertEquals(line, tokens[1].trim(), actual.getDescription());
+
+			Set<Integer> expectedGenes = new HashSet<>();
+			for(int i = 2; i < tokens.length; i++) {
+				Integer id = map.addGene(tokens[i]);
+				if(id != null)
+					expectedGenes.add(id);
+			}
+			assertEquals(line, expectedGenes, actual.getGenes());
+		}
+	}
+
+
+	@Test
+	public void testCacheParsesFileOnce() throws Exception {
+		EnrichmentMap map = createMap();
+		EMDataSet dataset1 = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		EMDataSet dataset2 = map.createDataSet("DS2", Method.Generic, new DataSetFiles());
+		dataset1.getDataSetFiles().setGMTFileName(GMT_FILE);
+		dataset2.getDataSetFiles().setGMTFileName(GMT_FILE);
+
+		GMTFileCache cache = new GMTFileCache();
+		new GMTFileReaderTask(dataset1, cache).run(null);
+		new GMTFileReaderTask(dataset2, cache).run(null);
+
+		AtomicInteger parseCount = new AtomicInteger();
+		cache.getGeneSets(GMT_FILE, cache.addReader(), map, (fileName, genes) -> { parseCount.incrementAndGet(); return null; });
+		assertEquals(0, parseCount.get());
+
+		Map<String,GeneSet> geneSets1 = dataset1.getSetOfGeneSets().getGeneSets();
+		Map<String,GeneSet> geneSets2 = dataset2.getSetOfGeneSets().getGeneSets();
+		assertEquals(10, geneSets1.size());
+		assertEquals(geneSets1, geneSets2);
+		for(String name : geneSets1.keySet()) {
+			assertSame(geneSets1.get(name), geneSets2.get(name));
+		}
+		assertEquals(75, map.getNumberOfGenes());
+	}
+
+
+	@Test
+	public void testGeneIdsDontDependOnParseOrder() throws Exception {
+		// reading the files one after the other
+		EnrichmentMap expected = createMap();
+		SetOfGeneSets expectedGeneSets1 = new SetOfGeneSets();
+		SetOfGeneSets expectedGeneSets2 = new SetOfGeneSets();
+		new GMTFileReaderTask(expected, GMT_FILE_2, expectedGeneSets1).run(null);
+		new GMTFileReaderTask(expected, GMT_FILE, expectedGeneSets2).run(null);
+
+		EnrichmentMap map = createMap();
+		EMDataSet dataset1 = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		EMDataSet dataset2 = map.createDataSet("DS2", Method.Generic, new DataSetFiles());
+		dataset1.getDataSetFiles().setGMTFileName(GMT_FILE_2);
+		dataset2.getDataSetFiles().setGMTFileName(GMT_FILE);
+
+		GMTFileCache cache = new GMTFileCache();
+		GMTFileReaderTask task1 = new GMTFileReaderTask(dataset1, cache);
+		GMTFileReaderTask task2 = new GMTFileReaderTask(dataset2, cache);
+
+		// the second task parses its file first, then waits for the first one to add its genes
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> future2 = executor.submit(() -> { task2.run(null); return null; });
+			Thread.sleep(100);
+			assertEquals(0, map.getNumberOfGenes());
+			task1.run(null);
+			future2.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(expected.getNumberOfGenes(), map.getNumberOfGenes());
+		for(String gene : expected.getAllGenes()) {
+			assertEquals(gene, expected.getHashFromGene(gene), map.getHashFromGene(gene));
+		}
+		assertEquals(expectedGeneSets1.getGeneSets(), dataset1.getSetOfGeneSets().getGeneSets());
+		assertEquals(expectedGeneSets2.getGeneSets(), dataset2.getSetOfGeneSets().getGeneSets());
+	}
+}
@@ -0,0 +1,179 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.Ranking;
+import org.cytoscape.work.TaskMonitor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RanksFileReaderTaskTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static EMDataSet createDataSet(Method method, String... genes) {
+		EnrichmentMap map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		for(String gene : genes) {
+			map.addGene(gene);
+		}
+		return map.createDataSet("DS1", method, new DataSetFiles());
+	}
+
+	private String writeFile(String... lines) throws Exception {
+		File file = tempFolder.newFile();
+		Files.write(file.toPath(), Arrays.asList(lines));
+		return file.getAbsolutePath();
+	}
+
+
+	@Test
+	public void testTokenizeMatchesSplit() {
+		String[] lines = {
+			"", "\t", "\t\t", "A", "A\t", "A\t1", "\t1", "A\t1\t", "A\t1\t\t\t",
+			"A\tdesc\t\t\t1", "A\tdesc\t\t\t1\t", "A\tdesc\t\t\t1\tB", "A\t\tB",
+		};
+		for(String line : lines) {
+			int[] tabs = new int[4];
+			assertEquals(line, line.split("\t").length, RanksFileReaderTask.tokenize(line, tabs));
+		}
+	}
+
+
+	@Test
+	public void testComputeRanksMatchesBoxedSort() {
+		Random random = new Random(42);
+		for(int trial = 0; trial < 200; trial++) {
+			boolean pvalues = trial % 2 == 0;
+			int n = 1 + random.nextInt(50);
+			double[] scores = new double[n];
+			for(int i = 0; i < n; i++) {
+				// few distinct values so that there are ties
+				double value = random.nextInt(10) / 10.0;
+				scores[i] = pvalues ? value : (value - 0.5) * 10;
+			}
+			int[] geneScores = new int[n];
+			for(int i = 0; i < n; i++) {
+				geneScores[i] = random.nextInt(n);
+			}
+
+			int[] expected = boxedRanks(scores, geneScores);
+			int[] actual = RanksFileReaderTask.computeRanks(scores.clone(), geneScores, n);
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * The ranks the way they were computed before the scores were kept in a primitive array.
+	 */
+	private static int[] boxedRanks(double[] scores, int[] geneScores) {
+		Double[] sortScores = Arrays.stream(scores).boxed().toArray(Double[]::new);
+		Arrays.sort(sortScores, Collections.reverseOrder());
+		if(sortScores[0] <= 1 && sortScores[sortScores.length - 1] >= -1)
+			Arrays.sort(sortScores);
+
+		Map<Double,Integer> score2ranks = new HashMap<>();
+		for(int j = 0; j < sortScores.length; j++) {
+			score2ranks.putIfAbsent(sortScores[j], j);
+		}
+		return Arrays.stream(geneScores).map(i -> score2ranks.get(scores[i])).toArray();
+	}
+
+
+	@Test
+	public void testParseTwoColumns() throws Exception {
+		EMDataSet dataset = createDataSet(Method.Generic, "A", "B", "C", "D");
+		String fileName = writeFile(
+			"# Ranks Name :  My Ranks",
+			"Name\tScore",
+			"a\t5.0",
+			"B\t-1.5",
+			"bad line",
+			"C\t5.0",
+			"X\t7.0",
+			"D\t0.5\t"
+		);
+
+		TaskMonitor taskMonitor = mock(TaskMonitor.class);
+		new RanksFileReaderTask(fileName, dataset, "Ranks", true).parse(taskMonitor);
+		verify(taskMonitor).showMessage(eq(TaskMonitor.Level.WARN), eq("Skipped 1 lines of " + fileName + " with an invalid number of tokens (should be 5 or 2)"));
+
+		assertNull(dataset.getRanksByName("Ranks"));
+		Ranking ranking = dataset.getRanksByName("My Ranks");
+		assertEquals(4, ranking.getRanking().size());
+
+		EnrichmentMap map = dataset.getMap();
+		// descending order: 7.0, 5.0, 5.0, 0.5, -1.5
+		assertEquals(1, (int) ranking.getRank(map.getHashFromGene("A")).getRank());
+		assertEquals(4, (int) ranking.getRank(map.getHashFromGene("B")).getRank());
+		assertEquals(1, (int) ranking.getRank(map.getHashFromGene("C")).getRank());
+		assertEquals(3, (int) ranking.getRank(map.getHashFromGene("D")).getRank());
+		assertEquals("A", ranking.getRank(map.getHashFromGene("A")).getName());
+		assertEquals(-1.5, ranking.getScore(map.getHashFromGene("B")), 0.0);
+	}
+
+
+	@Test
+	public void testParseFiveColumnsUsesFileOrder() throws Exception {
+		EMDataSet dataset = createDataSet(Method.Generic, "A", "B", "C");
+		String fileName = writeFile(
+			"NAME\tDESCRIPTION\t\t\tSCORE",
+			"C\tdesc\t\t\t0.2",
+			"B\tdesc\t\t\t0.9",
+			"A\tdesc\t\t\t0.5"
+		);
+
+		new RanksFileReaderTask(fileName, dataset, "Ranks", false).parse(null);
+
+		Ranking ranking = dataset.getRanksByName("Ranks");
+		EnrichmentMap map = dataset.getMap();
+		assertEquals(3, (int) ranking.getRank(map.getHashFromGene("A")).getRank());
+		assertEquals(2, (int) ranking.getRank(map.getHashFromGene("B")).getRank());
+		assertEquals(1, (int) ranking.getRank(map.getHashFromGene("C")).getRank());
+		assertEquals(0.9, ranking.getScore(map.getHashFromGene("B")), 0.0);
+	}
+
+
+	@Test(expected = IllegalThreadStateException.class)
+	public void testParseInvalidScore() throws Exception {
+		EMDataSet dataset = createDataSet(Method.Generic, "A", "B");
+		String fileName = writeFile("Name\tScore", "A\t1.0", "B\tnot a number");
+		new RanksFileReaderTask(fileName, dataset, "Ranks", true).parse(null);
+	}
+
+
+	@Test
+	public void testCancelDoesNotAddRanking() throws Exception {
+		EMDataSet dataset = createDataSet(Method.Generic, "A", "B");
+		String fileName = writeFile("Name\tScore", "A\t1.0", "B\t2.0");
+		RanksFileReaderTask task = new RanksFileReaderTask(fileName, dataset, "Ranks", true);
+		task.cancel();
+		try {
+			task.parse(null);
+			fail();
+		} catch(InterruptedIOException e) { }
+		assertNull(dataset.getRanksByName("Ranks"));
+	}
+}
@@ -0,0 +1,31 @@
+package org.baderlab.csplugins.enrichmentmap.style;
+
+import static org.junit.Assert.assertEquals;
+
+import org.baderlab.csplugins.enrichmentmap.style.WidthFunction.EdgeWidthParams;
+import org.baderlab.csplugins.enrichmentmap.style.WidthFunction.SimilarityWidthMapping;
+import org.junit.Test;
+
+public class WidthFunctionTest {
+
+	@Test
+	public void testSimilarityWidthMapping() {
+		EdgeWidthParams params = new EdgeWidthParams(1.0, 5.0, 8.0, 4.5, 1.0);
+		SimilarityWidthMapping mapping = new SimilarityWidthMapping(0.5, params);
+
+		assertEquals(0.5, mapping.getWidth(0.4), 0.0);
+		assertEquals(1.0, mapping.getWidth(0.5), 0.0);
+		assertEquals(3.0, mapping.getWidth(0.75), 0.000001);
+		assertEquals(5.0, mapping.getWidth(1.0), 0.0);
+		assertEquals(6.0, mapping.getWidth(1.1), 0.0);
+		assertEquals(Double.NaN, mapping.getWidth(Double.NaN), 0.0);
+
+		double[] similarities = { 0.6, 0.9, 0.3 };
+		boolean[] skip = { false, true, false };
+		double[] widths = { 0.0, 8.0, 0.0 };
+		mapping.getWidths(similarities, skip, widths);
+		assertEquals(1.8, widths[0], 0.000001);
+		assertEquals(8.0, widths[1], 0.0);
+		assertEquals(0.5, widths[2], 0.0);
+	}
+}
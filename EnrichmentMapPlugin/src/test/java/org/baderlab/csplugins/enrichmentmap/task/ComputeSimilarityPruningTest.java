@@ -0,0 +1,207 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.EdgeStrategy;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
+import org.baderlab.csplugins.enrichmentmap.util.Baton;
+import org.cytoscape.work.TaskMonitor;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Verifies that the size and prefix based pruning in ComputeSimilarityTaskParallel
+ * creates exactly the same edges as comparing every pair of gene sets, and the same
+ * edges as the algorithm that was used before the gene set index.
+ */
+public class ComputeSimilarityPruningTest {
+
+	private TaskMonitor taskMonitor = mock(TaskMonitor.class);
+
+
+	@Test
+	public void testPruningCreatesSameEdges() throws Exception {
+		double[] cutoffs = { 0.0, 0.05, 0.25, 1.0/3.0, 0.375, 0.5, 0.7, 1.0 };
+		double[] combinedConstants = { 0.0, 0.5, 1.0 };
+
+		for(SimilarityMetric metric : SimilarityMetric.values()) {
+			for(double cutoff : cutoffs) {
+				for(double k : combinedConstants) {
+					for(EdgeStrategy edgeStrategy : new EdgeStrategy[] { EdgeStrategy.DISTINCT, EdgeStrategy.COMPOUND }) {
+						EMCreationParameters params = new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, metric, cutoff, k, edgeStrategy);
+						EnrichmentMap map = createRandomMap(params, new Random(metric.ordinal() * 1000 + Double.hashCode(cutoff + k)));
+
+						Map<SimilarityKey,GenesetSimilarity> expected = computeSimilarities(map, false);
+						Map<SimilarityKey,GenesetSimilarity> actual = computeSimilarities(map, true);
+
+						String message = metric + " cutoff=" + cutoff + " k=" + k + " " + edgeStrategy;
+						assertEquals(message, expected.keySet(), actual.keySet());
+						for(SimilarityKey key : expected.keySet()) {
+							GenesetSimilarity e = expected.get(key);
+							GenesetSimilarity a = actual.get(key);
+							assertEquals(message, e.getGeneset1Name(), a.getGeneset1Name());
+							assertEquals(message, e.getGeneset2Name(), a.getGeneset2Name());
+							assertEquals(message, e.getSimilarityCoeffecient(), a.getSimilarityCoeffecient(), 0.0);
+							assertEquals(message, e.getOverlappingGenes(), a.getOverlappingGenes());
+							assertEquals(message, e.getDataSetName(), a.getDataSetName());
+						}
+					}
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void testSameEdgesAsReferenceAlgorithm() throws Exception {
+		double[] cutoffs = { 0.0, 0.1, 0.375, 0.7, 1.0 };
+
+		for(SimilarityMetric metric : SimilarityMetric.values()) {
+			for(double cutoff : cutoffs) {
+				for(EdgeStrategy edgeStrategy : new EdgeStrategy[] { EdgeStrategy.DISTINCT, EdgeStrategy.COMPOUND }) {
+					EMCreationParameters params = new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, metric, cutoff, 0.5, edgeStrategy);
+					EnrichmentMap map = createRandomMap(params, new Random(metric.ordinal() * 100 + Double.hashCode(cutoff)));
+
+					Map<SimilarityKey,GenesetSimilarity> expected = referenceSimilarities(map, edgeStrategy == EdgeStrategy.DISTINCT);
+					Map<SimilarityKey,GenesetSimilarity> actual = computeSimilarities(map, true);
+
+					String message = metric + " cutoff=" + cutoff + " " + edgeStrategy;
+					assertEquals(message, expected.keySet(), actual.keySet());
+					for(SimilarityKey key : expected.keySet()) {
+						GenesetSimilarity e = expected.get(key);
+						GenesetSimilarity a = actual.get(key);
+						// the old algorithm kept the name order of whichever thread got there first
+						assertEquals(message, ImmutableSet.of(e.getGeneset1Name(), e.getGeneset2Name()), ImmutableSet.of(a.getGeneset1Name(), a.getGeneset2Name()));
+						assertEquals(message, e.getSimilarityCoeffecient(), a.getSimilarityCoeffecient(), 0.0);
+						assertEquals(message, e.getOverlappingGenes(), a.getOverlappingGenes());
+						assertEquals(message, e.getDataSetName(), a.getDataSetName());
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * The similarities the way they were computed before the gene set index, every ordered pair
+	 * of gene set names is compared with HashSets. Doesn't use any code of ComputeSimilarityTaskParallel.
+	 */
+	private static Map<SimilarityKey,GenesetSimilarity> referenceSimilarities(EnrichmentMap map, boolean distinct) {
+		EMCreationParameters params = map.getParams();
+		String edgeType = params.getEnrichmentEdgeType();
+
+		Set<String> names = new TreeSet<>();
+		Map<String,Set<Integer>> unioned = new HashMap<>();
+		for(EMDataSet dataset : map.getDataSetList()) {
+			for(GeneSet geneSet : dataset.getGeneSetsOfInterest().getGeneSets().values()) {
+				names.add(geneSet.getName());
+				unioned.computeIfAbsent(geneSet.getName(), k -> new HashSet<>()).addAll(geneSet.getGenes());
+			}
+		}
+
+		Map<SimilarityKey,GenesetSimilarity> similarities = new HashMap<>();
+		for(String name1 : names) {
+			for(String name2 : names) {
+				if(name1.equalsIgnoreCase(name2))
+					continue;
+				if(distinct) {
+					for(EMDataSet dataset : map.getDataSetList()) {
+						SimilarityKey key = new SimilarityKey(name1, name2, edgeType, dataset.getName());
+						GeneSet geneSet1 = dataset.getGeneSetsOfInterest().getGeneSets().get(name1);
+						GeneSet geneSet2 = dataset.getGeneSetsOfInterest().getGeneSets().get(name2);
+						if(!similarities.containsKey(key) && geneSet1 != null && geneSet2 != null) {
+							GenesetSimilarity similarity = referenceSimilarity(params, name1, name2, geneSet1.getGenes(), geneSet2.getGenes(), dataset.getName());
+							if(similarity != null)
+								similarities.put(key, similarity);
+						}
+					}
+				} else {
+					SimilarityKey key = new SimilarityKey(name1, name2, edgeType, null);
+					if(!similarities.containsKey(key)) {
+						GenesetSimilarity similarity = referenceSimilarity(params, name1, name2, unioned.get(name1), unioned.get(name2), "compound");
+						if(similarity != null)
+							similarities.put(key, similarity);
+					}
+				}
+			}
+		}
+		return similarities;
+	}
+
+	private static GenesetSimilarity referenceSimilarity(EMCreationParameters params, String name1, String name2, Set<Integer> genes1, Set<Integer> genes2, String dataset) {
+		Set<Integer> intersection = new HashSet<>(genes1);
+		intersection.retainAll(genes2);
+		Set<Integer> union = new HashSet<>(genes1);
+		union.addAll(genes2);
+
+		double jaccard = (double) intersection.size() / (double) union.size();
+		double overlap = (double) intersection.size() / Math.min((double) genes1.size(), (double) genes2.size());
+		double coeffecient;
+		switch(params.getSimilarityMetric()) {
+			case JACCARD: coeffecient = jaccard; break;
+			case OVERLAP: coeffecient = overlap; break;
+			default:
+				double k = params.getCombinedConstant();
+				coeffecient = (k * overlap) + ((1 - k) * jaccard);
+		}
+
+		// NaN (empty gene sets) is not smaller than the cutoff
+		if(coeffecient < params.getSimilarityCutoff())
+			return null;
+		return new GenesetSimilarity(name1, name2, coeffecient, params.getEnrichmentEdgeType(), intersection, dataset);
+	}
+
+
+	private Map<SimilarityKey,GenesetSimilarity> computeSimilarities(EnrichmentMap map, boolean pruning) throws InterruptedException {
+		Baton<Map<SimilarityKey,GenesetSimilarity>> baton = new Baton<>();
+		ComputeSimilarityTaskParallel task = new ComputeSimilarityTaskParallel(map, baton.consumer());
+		task.setPruning(pruning);
+		task.run(taskMonitor);
+		return baton.supplier().get();
+	}
+
+
+	private static EnrichmentMap createRandomMap(EMCreationParameters params, Random random) {
+		EnrichmentMap map = new EnrichmentMap(params, null);
+		int universe = 400;
+		for(int i = 0; i < universe; i++) {
+			map.addGene("GENE" + i);
+		}
+
+		for(int d = 0; d < 2; d++) {
+			EMDataSet dataset = map.createDataSet("DataSet" + d, Method.Generic, new DataSetFiles());
+			for(int g = 0; g < 150; g++) {
+				if(random.nextInt(5) == 0)
+					continue; // not every gene set is in every data set
+
+				// mostly small gene sets with a few large ones and the occasional empty one
+				int size = random.nextInt(30) == 0 ? 0 : random.nextInt(5) == 0 ? 1 + random.nextInt(200) : 1 + random.nextInt(20);
+				Set<Integer> genes = new HashSet<>();
+				while(genes.size() < size) {
+					genes.add(1 + random.nextInt(universe));
+				}
+				String name = "GENESET" + g;
+				dataset.getGeneSetsOfInterest().addGeneSet(name, new GeneSet(name, name, genes));
+			}
+		}
+		return map;
+	}
+}
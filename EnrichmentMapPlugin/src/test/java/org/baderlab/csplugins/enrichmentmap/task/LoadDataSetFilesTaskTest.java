@@ -0,0 +1,164 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.baderlab.csplugins.enrichmentmap.task.LoadDataSetFilesTask.Stage;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.TaskMonitor;
+import org.junit.Test;
+
+public class LoadDataSetFilesTaskTest {
+
+	@FunctionalInterface
+	private interface Body {
+		void run(AbstractTask task) throws Exception;
+	}
+
+	/**
+	 * Like the file readers the test tasks poll the cancelled flag.
+	 */
+	private static class TestTask extends AbstractTask {
+		private final Body body;
+
+		TestTask(Body body) {
+			this.body = body;
+		}
+
+		boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public void run(TaskMonitor taskMonitor) throws Exception {
+			body.run(this);
+		}
+	}
+
+	private static void waitUntilCancelled(AbstractTask task) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while(!((TestTask) task).isCancelled()) {
+			if(System.currentTimeMillis() > end)
+				fail("task was not cancelled");
+			Thread.sleep(1);
+		}
+	}
+
+
+	@Test
+	public void testStagesAndKeys() throws Exception {
+		List<String> events = Collections.synchronizedList(new ArrayList<>());
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask(4);
+
+		// added out of order, the stages still run in order
+		loadTask.addTask(Stage.EXPRESSIONS, "DS1", new TestTask(t -> events.add("expressions")));
+		for(int i = 0; i < 3; i++) {
+			String name = "gmt" + i;
+			loadTask.addTask(Stage.GENE_SETS, "DS" + i, new TestTask(t -> { Thread.sleep(20); events.add(name); }));
+		}
+		// same key, one after the other
+		loadTask.addTask(Stage.ENRICHMENTS, "DS1", new TestTask(t -> { Thread.sleep(20); events.add("enrichment1"); }));
+		loadTask.addTask(Stage.ENRICHMENTS, "DS1", new TestTask(t -> events.add("enrichment2")));
+
+		loadTask.run(null);
+
+		assertEquals(6, events.size());
+		assertTrue(events.subList(0, 3).containsAll(Arrays.asList("gmt0", "gmt1", "gmt2")));
+		assertEquals(Arrays.asList("enrichment1", "enrichment2", "expressions"), events.subList(3, 6));
+	}
+
+
+	@Test
+	public void testTasksOfAStageRunConcurrently() throws Exception {
+		CountDownLatch latch = new CountDownLatch(2);
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask(2);
+		for(int i = 0; i < 2; i++) {
+			loadTask.addTask(Stage.GENE_SETS, "DS" + i, new TestTask(t -> {
+				latch.countDown();
+				// only returns true if both tasks are running
+				assertTrue(latch.await(10, TimeUnit.SECONDS));
+			}));
+		}
+		loadTask.run(null);
+		assertEquals(0, latch.getCount());
+	}
+
+
+	@Test
+	public void testTasksShareTheParserExecutor() throws Exception {
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask(2);
+		ExecutorService parser = loadTask.getParserExecutor();
+		List<String> events = Collections.synchronizedList(new ArrayList<>());
+		for(int i = 0; i < 3; i++) {
+			String name = "block" + i;
+			loadTask.addTask(Stage.EXPRESSIONS, "file" + i, new TestTask(t -> events.add(parser.submit(() -> name).get())));
+		}
+		loadTask.run(null);
+
+		assertEquals(3, events.size());
+		assertTrue(parser.isShutdown());
+	}
+
+
+	@Test
+	public void testFailureCancelsOtherTasks() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		TestTask slowTask = new TestTask(t -> { started.countDown(); waitUntilCancelled(t); });
+		TestTask laterTask = new TestTask(t -> fail("the next stage should not run"));
+
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask(2);
+		loadTask.addTask(Stage.GENE_SETS, "DS1", slowTask);
+		loadTask.addTask(Stage.GENE_SETS, "DS2", new TestTask(t -> {
+			started.await(10, TimeUnit.SECONDS);
+			throw new IOException("broken file");
+		}));
+		loadTask.addTask(Stage.RANKS, "DS1", laterTask);
+
+		try {
+			loadTask.run(null);
+			fail();
+		} catch(IOException e) {
+			assertEquals("broken file", e.getMessage());
+		}
+		assertTrue(slowTask.isCancelled());
+	}
+
+
+	@Test
+	public void testCancel() throws Exception {
+		CountDownLatch started = new CountDownLatch(2);
+		List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+		LoadDataSetFilesTask loadTask = new LoadDataSetFilesTask(2);
+		for(int i = 0; i < 2; i++) {
+			loadTask.addTask(Stage.EXPRESSIONS, "DS" + i, new TestTask(t -> {
+				started.countDown();
+				waitUntilCancelled(t);
+			}));
+		}
+		loadTask.addTask(Stage.CLASSES, "DS1", new TestTask(t -> events.add("classes")));
+
+		Thread canceller = new Thread(() -> {
+			try {
+				started.await(10, TimeUnit.SECONDS);
+			} catch(InterruptedException e) { }
+			loadTask.cancel();
+		});
+		canceller.start();
+
+		loadTask.run(null);
+		canceller.join();
+		assertFalse(events.contains("classes"));
+	}
+}
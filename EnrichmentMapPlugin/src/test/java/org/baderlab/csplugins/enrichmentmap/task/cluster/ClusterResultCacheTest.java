@@ -0,0 +1,140 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.table.RankValue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterResultCacheTest {
+
+	private EnrichmentMap map;
+	private EMDataSet dataSet;
+	/** The tasks that were started and their futures, the tests complete them */
+	private List<HierarchicalClusterTask> tasks;
+	private List<CompletableFuture<Optional<Map<Integer,RankValue>>>> futures;
+
+	@Before
+	public void setUp() {
+		map = new EnrichmentMap(new EMCreationParameters("EM1_", 0.5, 0.5, null, Optional.empty(), false, null, 0.5, 0.5, null), null);
+		dataSet = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		tasks = new ArrayList<>();
+		futures = new ArrayList<>();
+	}
+
+	private CompletableFuture<Optional<Map<Integer,RankValue>>> getRanking(ClusterResultCache cache, Distance distance, Integer... genes) {
+		return cache.getRanking(map, Arrays.asList(genes), distance, task -> {
+			CompletableFuture<Optional<Map<Integer,RankValue>>> future = new CompletableFuture<>();
+			tasks.add(task);
+			futures.add(future);
+			return future;
+		});
+	}
+
+	private void complete(int i) {
+		futures.get(i).complete(Optional.of(Collections.singletonMap(i, new RankValue(1, null, false))));
+	}
+
+
+	@Test
+	public void testSharedAndCached() {
+		ClusterResultCache cache = new ClusterResultCache();
+
+		CompletableFuture<Optional<Map<Integer,RankValue>>> future = getRanking(cache, Distance.PEARSON, 1, 2, 3);
+		// the same genes in a different order share the running task
+		assertSame(future, getRanking(cache, Distance.PEARSON, 3, 2, 1, 2));
+		assertEquals(1, tasks.size());
+
+		complete(0);
+		assertSame(future, getRanking(cache, Distance.PEARSON, 1, 2, 3));
+		assertEquals(1, tasks.size());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// a different distance is computed, then the first result is still cached
+		getRanking(cache, Distance.COSINE, 1, 2, 3);
+		complete(1);
+		assertSame(future, getRanking(cache, Distance.PEARSON, 1, 2, 3));
+		assertEquals(2, tasks.size());
+	}
+
+
+	@Test
+	public void testStaleCancelled() {
+		ClusterResultCache cache = new ClusterResultCache();
+
+		CompletableFuture<Optional<Map<Integer,RankValue>>> stale = getRanking(cache, Distance.PEARSON, 1, 2, 3);
+		getRanking(cache, Distance.PEARSON, 1, 2);
+		assertTrue(tasks.get(0).isCancelled());
+		assertTrue(stale.isCancelled());
+
+		// the cancelled result isn't kept
+		assertNotSame(stale, getRanking(cache, Distance.PEARSON, 1, 2, 3));
+		assertEquals(3, tasks.size());
+		assertTrue(tasks.get(1).isCancelled());
+	}
+
+
+	@Test
+	public void testFailedNotCached() {
+		ClusterResultCache cache = new ClusterResultCache();
+		getRanking(cache, Distance.PEARSON, 1, 2, 3).completeExceptionally(new RuntimeException());
+		getRanking(cache, Distance.PEARSON, 1, 2, 3);
+		assertEquals(2, tasks.size());
+	}
+
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		ClusterResultCache cache = new ClusterResultCache(2);
+		getRanking(cache, Distance.PEARSON, 1, 2);
+		complete(0);
+		getRanking(cache, Distance.PEARSON, 1, 3);
+		complete(1);
+		getRanking(cache, Distance.PEARSON, 1, 2);
+		getRanking(cache, Distance.PEARSON, 1, 4);
+		complete(2);
+		assertEquals(3, tasks.size());
+
+		getRanking(cache, Distance.PEARSON, 1, 2);
+		assertEquals(3, tasks.size());
+		getRanking(cache, Distance.PEARSON, 1, 3);
+		assertEquals(4, tasks.size());
+	}
+
+
+	@Test
+	public void testExpressionChange() {
+		ClusterResultCache cache = new ClusterResultCache();
+		getRanking(cache, Distance.EUCLIDEAN, 1, 2);
+		complete(0);
+		dataSet.getExpressionSets().setRow(1, "G1", "", new float[] { 1, 2 }, 0, 2);
+		getRanking(cache, Distance.EUCLIDEAN, 1, 2);
+		assertEquals(2, tasks.size());
+	}
+
+
+	@Test
+	public void testTooFewGenes() {
+		ClusterResultCache cache = new ClusterResultCache();
+		assertTrue(getRanking(cache, Distance.PEARSON, 1, null, 1).join().get().isEmpty());
+		assertEquals(0, tasks.size());
+	}
+}
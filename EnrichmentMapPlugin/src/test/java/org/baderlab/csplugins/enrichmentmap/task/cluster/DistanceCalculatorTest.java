@@ -0,0 +1,108 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.baderlab.csplugins.brainlib.DistanceMatrix;
+import org.baderlab.csplugins.brainlib.DistanceMetric;
+import org.junit.Test;
+
+public class DistanceCalculatorTest {
+
+	private static List<float[]> createVectors(int count, int length) {
+		Random random = new Random(count);
+		List<float[]> vectors = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			float[] vector = new float[length];
+			for(int j = 0; j < length; j++) {
+				vector[j] = random.nextInt(20) / 4.0f;
+			}
+			vectors.add(vector);
+		}
+		// duplicates so there are several minimum distances
+		vectors.set(150, vectors.get(30).clone());
+		vectors.set(200, vectors.get(10).clone());
+		return vectors;
+	}
+
+
+	@Test
+	public void testSameAsSequential() {
+		// not a multiple of the tile size
+		List<float[]> vectors = createVectors(3 * DistanceCalculator.TILE_SIZE + 17, 12);
+
+		for(DistanceMetric metric : Arrays.asList(new PearsonCorrelation(), new CosineDistance(), new EuclideanDistance())) {
+			DistanceMatrix expected = new DistanceMatrix(vectors.size());
+			expected.calcDistances(vectors, metric);
+
+			for(boolean floatPrecision : new boolean[] { false, true }) {
+				DistanceCalculator calculator = new DistanceCalculator(metric, () -> false);
+				DistanceMatrix actual = calculator.calcDistances(vectors, floatPrecision, null);
+
+				assertEquals(floatPrecision, actual.isFloatPrecision());
+				assertEquals(vectors.size(), actual.getMatrixDimension());
+				for(int i = 0; i < vectors.size(); i++) {
+					for(int j = 0; j < vectors.size(); j++) {
+						assertEquals(expected.getValue(i, j), actual.getValue(i, j), 0.0);
+					}
+				}
+				assertEquals(expected.getMinimumDistance(), actual.getMinimumDistance(), 0.0);
+				assertEquals(expected.getMinimumI(), actual.getMinimumI());
+				assertEquals(expected.getMinimumJ(), actual.getMinimumJ());
+
+				DistanceMatrix copy = actual.copy();
+				assertEquals(floatPrecision, copy.isFloatPrecision());
+				assertEquals(actual.getValue(200, 3), copy.getValue(3, 200), 0.0);
+			}
+		}
+	}
+
+
+	@Test
+	public void testMetricException() {
+		List<float[]> vectors = createVectors(300, 5);
+		// pearson can't be calculated when the standard deviation is zero
+		vectors.set(250, new float[] { 1, 1, 1, 1, 1 });
+		try {
+			new DistanceCalculator(new PearsonCorrelation(), () -> false).calcDistances(vectors, null);
+			fail();
+		} catch(RuntimeException e) {
+			// the ForkJoinPool may wrap the exception in a copy of itself
+			assertTrue(e.getMessage().contains("standard deviation is zero"));
+		}
+	}
+
+
+	@Test
+	public void testCancel() {
+		List<float[]> vectors = createVectors(300, 5);
+		boolean[] called = { false };
+		DistanceMetric metric = (x, y) -> {
+			called[0] = true;
+			return 0.0f;
+		};
+		try {
+			new DistanceCalculator(metric, () -> true).calcDistances(vectors, null);
+			fail();
+		} catch(CancellationException e) {
+			assertFalse(called[0]);
+		}
+	}
+
+
+	@Test
+	public void testFloatPrecisionThreshold() {
+		List<float[]> vectors = createVectors(300, 2);
+		DistanceCalculator calculator = new DistanceCalculator(new EuclideanDistance(), () -> false);
+		assertFalse(calculator.calcDistances(vectors, null).isFloatPrecision());
+		assertTrue(vectors.size() < DistanceCalculator.FLOAT_PRECISION_THRESHOLD);
+	}
+}
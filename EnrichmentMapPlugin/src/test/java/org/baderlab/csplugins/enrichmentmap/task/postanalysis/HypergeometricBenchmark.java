@@ -0,0 +1,119 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the p-value sums of Hypergeometric with HypergeometricTable, and measures the throughput of
+ * FilterMetric.Hypergeom for pairs of signature and enrichment gene sets like the ones post analysis compares.
+ * Run with -Duniverse=20000 to pick the number of genes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+public class HypergeometricBenchmark {
+
+	private static final int PAIRS = 1000;
+
+	@Param({ "2000", "20000" })
+	public int universe;
+
+	private int[] n, m, k;
+	private Set<Integer>[] sigSets, geneSets;
+	private HypergeometricTable table;
+	private FilterMetric.Hypergeom metric;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		Random random = new Random(universe);
+		n = new int[PAIRS];
+		m = new int[PAIRS];
+		k = new int[PAIRS];
+		sigSets = new Set[PAIRS];
+		geneSets = new Set[PAIRS];
+
+		for(int i = 0; i < PAIRS; i++) {
+			sigSets[i] = randomGeneSet(random, 10 + random.nextInt(300));
+			geneSets[i] = randomGeneSet(random, 10 + random.nextInt(500));
+			// overlap some of the genes so that the tails are not trivial
+			int overlap = random.nextInt(Math.min(sigSets[i].size(), geneSets[i].size()));
+			sigSets[i].stream().limit(overlap).forEach(geneSets[i]::add);
+
+			n[i] = sigSets[i].size();
+			m[i] = geneSets[i].size();
+			Set<Integer> intersection = new HashSet<>(sigSets[i]);
+			intersection.retainAll(geneSets[i]);
+			k[i] = Math.max(1, intersection.size());
+		}
+
+		table = new HypergeometricTable(universe);
+		metric = new FilterMetric.Hypergeom(0.05, universe);
+	}
+
+	private Set<Integer> randomGeneSet(Random random, int size) {
+		Set<Integer> genes = new HashSet<>();
+		while(genes.size() < size) {
+			genes.add(random.nextInt(universe));
+		}
+		return genes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void hypergeometric(Blackhole blackhole) {
+		for(int i = 0; i < PAIRS; i++) {
+			blackhole.consume(Hypergeometric.hyperGeomPvalueSum(universe, n[i], m[i], k[i], 0));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void hypergeometricTable(Blackhole blackhole) {
+		for(int i = 0; i < PAIRS; i++) {
+			blackhole.consume(table.hyperGeomPvalueSum(n[i], m[i], k[i], 0));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void filterMetric(Blackhole blackhole) {
+		for(int i = 0; i < PAIRS; i++) {
+			blackhole.consume(metric.computeValue(geneSets[i], sigSets[i], null));
+		}
+	}
+
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.include(HypergeometricBenchmark.class.getSimpleName());
+		String universe = System.getProperty("universe");
+		if(universe != null)
+			builder.param("universe", universe.split(","));
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,107 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.baderlab.csplugins.enrichmentmap.util.NetworkUtil;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.NetworkTestSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Looks up the gene set node of every signature similarity the way CreatePANetworkTask did before
+ * (a table search per similarity) and with a PANetworkIndex.
+ * To pick the size of the synthetic map pass -p nodes=3000 -p similarities=1000 to the JMH runner,
+ * or run main() with -Dnodes=3000 -Dsimilarities=1000, which main() passes to OptionsBuilder.param().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class PANetworkIndexBenchmark {
+
+	private static final String PREFIX = "EM1_";
+
+	@Param({ "500", "3000" })
+	public int nodes;
+
+	@Param({ "1000", "10000" })
+	public int similarities;
+
+	private CyNetwork network;
+	private String[] geneSetNames;
+
+	@Setup
+	public void setup() {
+		network = new NetworkTestSupport().getNetwork();
+		Columns.EDGE_SIG_DATASET.createColumn(network.getDefaultEdgeTable(), PREFIX, null);
+
+		CyNode[] networkNodes = new CyNode[nodes];
+		for(int i = 0; i < nodes; i++) {
+			networkNodes[i] = network.addNode();
+			network.getRow(networkNodes[i]).set(CyNetwork.NAME, "GENESET_" + i);
+		}
+		Random random = new Random(nodes);
+		for(int i = 0; i < nodes; i++) {
+			CyEdge edge = network.addEdge(networkNodes[i], networkNodes[random.nextInt(nodes)], false);
+			network.getRow(edge).set(CyNetwork.NAME, "GENESET_" + i + " (sig_DS1) SIGNATURE");
+			network.getRow(edge).set(CyEdge.INTERACTION, PASimilarityTaskParallel.INTERACTION);
+			Columns.EDGE_SIG_DATASET.set(network.getRow(edge), PREFIX, null, "SIGNATURE");
+		}
+
+		geneSetNames = new String[similarities];
+		for(int i = 0; i < similarities; i++) {
+			geneSetNames[i] = "GENESET_" + random.nextInt(nodes);
+		}
+	}
+
+	@Benchmark
+	public void tableSearch(Blackhole blackhole) {
+		for(String name : geneSetNames) {
+			blackhole.consume(NetworkUtil.getNodeWithValue(network, network.getDefaultNodeTable(), CyNetwork.NAME, name));
+		}
+	}
+
+	@Benchmark
+	public void index(Blackhole blackhole) {
+		// includes building the index, the task builds it once per run
+		PANetworkIndex index = PANetworkIndex.create(network, PREFIX);
+		for(String name : geneSetNames) {
+			blackhole.consume(index.getNode(name));
+		}
+	}
+
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.include(PANetworkIndexBenchmark.class.getSimpleName());
+		String nodes = System.getProperty("nodes");
+		if(nodes != null)
+			builder.param("nodes", nodes.split(","));
+		String similarities = System.getProperty("similarities");
+		if(similarities != null)
+			builder.param("similarities", similarities.split(","));
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
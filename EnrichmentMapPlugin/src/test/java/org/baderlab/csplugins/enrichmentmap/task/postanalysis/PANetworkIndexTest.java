@@ -0,0 +1,87 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.NetworkTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PANetworkIndexTest {
+
+	private static final String PREFIX = "EM1_";
+
+	private NetworkTestSupport networkTestSupport = new NetworkTestSupport();
+
+	private CyNetwork network;
+	private CyNode a, b, c;
+
+	@Before
+	public void setUp() {
+		network = networkTestSupport.getNetwork();
+		Columns.EDGE_SIG_DATASET.createColumn(network.getDefaultEdgeTable(), PREFIX, null);
+		a = addNode("A");
+		b = addNode("B");
+		c = addNode("C");
+	}
+
+	private CyNode addNode(String name) {
+		CyNode node = network.addNode();
+		network.getRow(node).set(CyNetwork.NAME, name);
+		return node;
+	}
+
+	private CyEdge addEdge(CyNode source, CyNode target, String name, String interaction, String signatureDataSet) {
+		CyEdge edge = network.addEdge(source, target, false);
+		network.getRow(edge).set(CyNetwork.NAME, name);
+		network.getRow(edge).set(CyEdge.INTERACTION, interaction);
+		Columns.EDGE_SIG_DATASET.set(network.getRow(edge), PREFIX, null, signatureDataSet);
+		return edge;
+	}
+
+
+	@Test
+	public void testNodes() {
+		CyNode b2 = addNode("B");
+		PANetworkIndex index = PANetworkIndex.create(network, PREFIX);
+
+		assertEquals(a, index.getNode("A"));
+		assertEquals(c, index.getNode("C"));
+		assertNull(index.getNode("D"));
+		// like NetworkUtil.getNodeWithValue() an ambiguous name doesn't find a node
+		assertNull(index.getNode("B"));
+
+		index.addNode("D", b2);
+		assertEquals(b2, index.getNode("D"));
+		index.addNode("D", b2);
+		assertEquals(b2, index.getNode("D"));
+		// a second node with the same name makes it ambiguous
+		index.addNode("C", b2);
+		assertNull(index.getNode("C"));
+	}
+
+
+	@Test
+	public void testEdges() {
+		CyEdge ab1 = addEdge(a, b, "A (sig_DS1) B", PASimilarityTaskParallel.INTERACTION, "SIG1");
+		CyEdge ab2 = addEdge(a, b, "A (sig_DS1) B", PASimilarityTaskParallel.INTERACTION, "SIG2");
+		// only signature edges are indexed
+		addEdge(b, c, "B (pp) C", "pp", "SIG1");
+		PANetworkIndex index = PANetworkIndex.create(network, PREFIX);
+
+		// the signature data set is part of the key
+		assertEquals(ab1, index.getEdge("A (sig_DS1) B", "SIG1"));
+		assertEquals(ab2, index.getEdge("A (sig_DS1) B", "SIG2"));
+		assertNull(index.getEdge("A (sig_DS1) B", "SIG3"));
+		assertNull(index.getEdge("B (pp) C", "SIG1"));
+
+		CyEdge ac = network.addEdge(a, c, false);
+		index.addEdge("A (sig_DS1) C", "SIG1", ac);
+		assertEquals(ac, index.getEdge("A (sig_DS1) C", "SIG1"));
+		assertNull(index.getEdge("A (sig_DS1) C", "SIG2"));
+	}
+}
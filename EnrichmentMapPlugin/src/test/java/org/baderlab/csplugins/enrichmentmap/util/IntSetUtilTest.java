@@ -0,0 +1,75 @@
+package org.baderlab.csplugins.enrichmentmap.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class IntSetUtilTest {
+
+	@Test
+	public void testToSortedArray() {
+		int[] array = IntSetUtil.toSortedArray(new HashSet<>(Arrays.asList(12, 3, 7, 1)));
+		assertArrayEquals(new int[] {1, 3, 7, 12}, array);
+		assertEquals(0, IntSetUtil.toSortedArray(new HashSet<>()).length);
+	}
+
+	@Test
+	public void testAsSet() {
+		Set<Integer> set = IntSetUtil.asSet(new int[] {1, 3, 7, 12});
+		assertEquals(new HashSet<>(Arrays.asList(12, 3, 7, 1)), set);
+		assertEquals(4, set.size());
+		assertTrue(set.contains(7));
+		assertFalse(set.contains(8));
+		assertFalse(set.contains("7"));
+	}
+
+	@Test
+	public void testIntersection() {
+		int[] a = {1, 2, 3, 5, 8, 13};
+		int[] b = {2, 4, 8, 16};
+
+		assertEquals(2, IntSetUtil.intersectionSize(a, b));
+		assertEquals(2, IntSetUtil.intersectionSize(b, a));
+		assertArrayEquals(new int[] {2, 8}, IntSetUtil.intersection(a, b));
+
+		assertEquals(0, IntSetUtil.intersectionSize(a, new int[0]));
+		assertEquals(0, IntSetUtil.intersectionSize(a, new int[] {20, 30}));
+		assertEquals(0, IntSetUtil.intersection(a, new int[] {20, 30}).length);
+		assertEquals(a.length, IntSetUtil.intersectionSize(a, a));
+	}
+
+	@Test
+	public void testIntersectionAgainstSets() {
+		Random random = new Random(42);
+		for(int trial = 0; trial < 200; trial++) {
+			// use very different sizes some of the time to exercise the binary search path
+			Set<Integer> s1 = randomSet(random, 1 + random.nextInt(trial % 2 == 0 ? 10 : 500), 1000);
+			Set<Integer> s2 = randomSet(random, 1 + random.nextInt(500), 1000);
+
+			int[] a1 = IntSetUtil.toSortedArray(s1);
+			int[] a2 = IntSetUtil.toSortedArray(s2);
+			Set<Integer> expected = Sets.intersection(s1, s2);
+
+			assertEquals(expected.size(), IntSetUtil.intersectionSize(a1, a2));
+			assertEquals(expected, IntSetUtil.asSet(IntSetUtil.intersection(a1, a2)));
+		}
+	}
+
+	private static Set<Integer> randomSet(Random random, int size, int max) {
+		Set<Integer> set = new HashSet<>();
+		while(set.size() < size) {
+			set.add(random.nextInt(max));
+		}
+		return set;
+	}
+}